@@ -49,6 +49,9 @@ public class ContentMetadata {
 	/** The comment. */
 	private final Optional<String> comment;
 
+	/** The gain that normalizes the loudness (in dB). */
+	private final Optional<Double> gain;
+
 	/** Creates empty content metadata. */
 	public ContentMetadata() {
 		this("");
@@ -63,7 +66,7 @@ public class ContentMetadata {
 	 * 		if {@code title} is {@code null}
 	 */
 	public ContentMetadata(String title) throws NullPointerException {
-		this(null, null, title, null);
+		this(null, null, title, null, null);
 	}
 
 	/**
@@ -75,7 +78,7 @@ public class ContentMetadata {
 	 * 		The name of the track
 	 */
 	public ContentMetadata(String artist, String name) {
-		this(artist, name, joinStrings(artist, name), null);
+		this(artist, name, joinStrings(artist, name), null, null);
 	}
 
 	/**
@@ -89,14 +92,18 @@ public class ContentMetadata {
 	 * 		The title of the track
 	 * @param comment
 	 * 		The comment of the track
+	 * @param gain
+	 * 		The gain that normalizes the loudness of the track (in dB, may be
+	 * 		null)
 	 * @throws NullPointerException
 	 * 		if {@code title} is {@code null}
 	 */
-	private ContentMetadata(String artist, String name, String title, String comment) throws NullPointerException {
+	private ContentMetadata(String artist, String name, String title, String comment, Double gain) throws NullPointerException {
 		this.artist = Optional.fromNullable(artist);
 		this.name = Optional.fromNullable(name);
 		this.title = Preconditions.checkNotNull(title, "title must not be null");
 		this.comment = Optional.fromNullable(comment);
+		this.gain = Optional.fromNullable(gain);
 	}
 
 	//
@@ -139,6 +146,16 @@ public class ContentMetadata {
 		return comment;
 	}
 
+	/**
+	 * Returns the gain that normalizes the loudness of the track, if it is
+	 * known.
+	 *
+	 * @return The gain of the track (in dB)
+	 */
+	public Optional<Double> gain() {
+		return gain;
+	}
+
 	//
 	// ACTIONS
 	//
@@ -153,7 +170,7 @@ public class ContentMetadata {
 	 * @return The new content metadata
 	 */
 	public ContentMetadata artist(String artist) {
-		return new ContentMetadata(artist, name().orNull(), joinStrings(artist, name().orNull()), comment.orNull());
+		return new ContentMetadata(artist, name().orNull(), joinStrings(artist, name().orNull()), comment.orNull(), gain.orNull());
 	}
 
 	/**
@@ -166,7 +183,7 @@ public class ContentMetadata {
 	 * @return The new content metadata
 	 */
 	public ContentMetadata name(String name) {
-		return new ContentMetadata(artist().orNull(), name, joinStrings(artist().orNull(), name), comment.orNull());
+		return new ContentMetadata(artist().orNull(), name, joinStrings(artist().orNull(), name), comment.orNull(), gain.orNull());
 	}
 
 	/**
@@ -178,7 +195,7 @@ public class ContentMetadata {
 	 * @return The new content metadata
 	 */
 	public ContentMetadata title(String title) {
-		return new ContentMetadata(artist().orNull(), name().orNull(), title, comment.orNull());
+		return new ContentMetadata(artist().orNull(), name().orNull(), title, comment.orNull(), gain.orNull());
 	}
 
 	/**
@@ -190,7 +207,29 @@ public class ContentMetadata {
 	 * @return The new content metadata
 	 */
 	public ContentMetadata comment(String comment) {
-		return new ContentMetadata(artist().orNull(), name().orNull(), title(), comment);
+		return new ContentMetadata(artist().orNull(), name().orNull(), title(), comment, gain.orNull());
+	}
+
+	/**
+	 * Creates new content metadata that is a copy of this content metadata but
+	 * with the gain changed.
+	 *
+	 * @param gain
+	 * 		The gain that normalizes the loudness of the track (in dB)
+	 * @return The new content metadata
+	 */
+	public ContentMetadata gain(double gain) {
+		return new ContentMetadata(artist().orNull(), name().orNull(), title(), comment.orNull(), gain);
+	}
+
+	/**
+	 * Creates new content metadata that is a copy of this content metadata but
+	 * without a gain, e.g. after the gain has been applied to the samples.
+	 *
+	 * @return The new content metadata
+	 */
+	public ContentMetadata withoutGain() {
+		return new ContentMetadata(artist().orNull(), name().orNull(), title(), comment.orNull(), null);
 	}
 
 	/**
@@ -207,7 +246,7 @@ public class ContentMetadata {
 			return false;
 		}
 		ContentMetadata contentMetadata = (ContentMetadata) object;
-		return artist().equals(contentMetadata.artist()) && name().equals(contentMetadata.name()) && title().equals(contentMetadata.title());
+		return artist().equals(contentMetadata.artist()) && name().equals(contentMetadata.name()) && title().equals(contentMetadata.title()) && gain().equals(contentMetadata.gain());
 	}
 
 	//
@@ -216,7 +255,7 @@ public class ContentMetadata {
 
 	@Override
 	public int hashCode() {
-		return artist().hashCode() ^ name().hashCode() ^ title().hashCode() ^ comment().hashCode();
+		return artist().hashCode() ^ name().hashCode() ^ title().hashCode() ^ comment().hashCode() ^ gain().hashCode();
 	}
 
 	@Override
@@ -225,7 +264,7 @@ public class ContentMetadata {
 			return false;
 		}
 		ContentMetadata contentMetadata = (ContentMetadata) object;
-		return artist().equals(contentMetadata.artist()) && name().equals(contentMetadata.name()) && title().equals(contentMetadata.title()) && comment().equals(contentMetadata.comment());
+		return artist().equals(contentMetadata.artist()) && name().equals(contentMetadata.name()) && title().equals(contentMetadata.title()) && comment().equals(contentMetadata.comment()) && gain().equals(contentMetadata.gain());
 	}
 
 	@Override
@@ -0,0 +1,41 @@
+/*
+ * Sonitus - FormatAwareFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data;
+
+/**
+ * A {@link Filter} that can only process streams of certain formats, e.g. only
+ * 16-bit little-endian PCM. When the stream delivered to such a filter has a
+ * format the filter does not accept, the {@link Pipeline} inserts a conversion
+ * filter in front of it; streams that are already acceptable are delivered
+ * without any conversion.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public interface FormatAwareFilter extends Filter {
+
+	/**
+	 * Returns whether this filter can process a stream with the given format.
+	 *
+	 * @param formatMetadata
+	 * 		The format of the stream
+	 * @return {@code true} if this filter can process the stream, {@code false}
+	 *         otherwise
+	 */
+	boolean accepts(FormatMetadata formatMetadata);
+
+}
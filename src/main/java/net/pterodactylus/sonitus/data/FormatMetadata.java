@@ -17,10 +17,14 @@
 
 package net.pterodactylus.sonitus.data;
 
+import java.nio.ByteOrder;
+
 /**
  * The part of the {@link Metadata} that contains information about the format
  * of a track. It specifies the number of channels, the samplerate, and the
- * encoding of a track.
+ * encoding of a track. For PCM tracks it also specifies the width of a single
+ * sample and the order of its bytes; these default to 16 bits and
+ * little-endian, which is what all in-process filters expect.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
@@ -35,6 +39,19 @@ public class FormatMetadata {
 	/** Constant for an unknown metadata. */
 	public static final String UNKNOWN_ENCODING = "UNKNOWN";
 
+	/**
+	 * Constant for the encoding of interleaved 32-bit little-endian IEEE
+	 * floating-point samples with a nominal range from {@code -1.0} to {@code
+	 * 1.0}.
+	 */
+	public static final String PCM_FLOAT = "PCM_FLOAT";
+
+	/** The default sample width (in bits). */
+	public static final int DEFAULT_SAMPLE_WIDTH = 16;
+
+	/** The default byte order. */
+	public static final ByteOrder DEFAULT_BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
 	/** The number of channels of this metadata. */
 	private final int channels;
 
@@ -44,6 +61,12 @@ public class FormatMetadata {
 	/** The encoding of this metadata. */
 	private final String encoding;
 
+	/** The width of a single sample (in bits). */
+	private final int sampleWidth;
+
+	/** The byte order of a single sample. */
+	private final ByteOrder byteOrder;
+
 	/** Creates new format metadata whose parameters are all unknown. */
 	public FormatMetadata() {
 		this(UNKNOWN_CHANNELS, UNKNOWN_FREQUENCY, UNKNOWN_ENCODING);
@@ -60,9 +83,29 @@ public class FormatMetadata {
 	 * 		The encoding (e.g. “PCM” or “MP3”)
 	 */
 	public FormatMetadata(int channels, int frequency, String encoding) {
+		this(channels, frequency, encoding, DEFAULT_SAMPLE_WIDTH, DEFAULT_BYTE_ORDER);
+	}
+
+	/**
+	 * Creates new format metadata with the given parameters.
+	 *
+	 * @param channels
+	 * 		The number of channels
+	 * @param frequency
+	 * 		The sampling frequency (in Hertz)
+	 * @param encoding
+	 * 		The encoding (e.g. “PCM” or “MP3”)
+	 * @param sampleWidth
+	 * 		The width of a single sample (in bits)
+	 * @param byteOrder
+	 * 		The byte order of a single sample
+	 */
+	public FormatMetadata(int channels, int frequency, String encoding, int sampleWidth, ByteOrder byteOrder) {
 		this.channels = channels;
 		this.frequency = frequency;
 		this.encoding = encoding;
+		this.sampleWidth = sampleWidth;
+		this.byteOrder = byteOrder;
 	}
 
 	//
@@ -96,6 +139,35 @@ public class FormatMetadata {
 		return encoding;
 	}
 
+	/**
+	 * Returns the width of a single sample of this metadata.
+	 *
+	 * @return The width of a single sample (in bits)
+	 */
+	public int sampleWidth() {
+		return sampleWidth;
+	}
+
+	/**
+	 * Returns the byte order of a single sample of this metadata.
+	 *
+	 * @return The byte order of a single sample
+	 */
+	public ByteOrder byteOrder() {
+		return byteOrder;
+	}
+
+	/**
+	 * Returns whether this metadata describes the sample format that all
+	 * in-process filters expect, i.e. 16-bit little-endian PCM.
+	 *
+	 * @return {@code true} if this metadata describes 16-bit little-endian PCM,
+	 *         {@code false} otherwise
+	 */
+	public boolean isDefaultPcm() {
+		return encoding().equalsIgnoreCase("PCM") && (sampleWidth() == DEFAULT_SAMPLE_WIDTH) && (byteOrder() == DEFAULT_BYTE_ORDER);
+	}
+
 	//
 	// ACTIONS
 	//
@@ -109,7 +181,7 @@ public class FormatMetadata {
 	 * @return The new format metadata
 	 */
 	public FormatMetadata channels(int channels) {
-		return new FormatMetadata(channels, frequency(), encoding());
+		return new FormatMetadata(channels, frequency(), encoding(), sampleWidth(), byteOrder());
 	}
 
 	/**
@@ -121,7 +193,7 @@ public class FormatMetadata {
 	 * @return The new format metadata
 	 */
 	public FormatMetadata frequency(int frequency) {
-		return new FormatMetadata(channels(), frequency, encoding());
+		return new FormatMetadata(channels(), frequency, encoding(), sampleWidth(), byteOrder());
 	}
 
 	/**
@@ -133,7 +205,31 @@ public class FormatMetadata {
 	 * @return The new format metadata
 	 */
 	public FormatMetadata encoding(String encoding) {
-		return new FormatMetadata(channels(), frequency(), encoding);
+		return new FormatMetadata(channels(), frequency(), encoding, sampleWidth(), byteOrder());
+	}
+
+	/**
+	 * Creates new format metadata that is a copy of this format metadata but with
+	 * the sample width changed to the given sample width.
+	 *
+	 * @param sampleWidth
+	 * 		The new sample width (in bits)
+	 * @return The new format metadata
+	 */
+	public FormatMetadata sampleWidth(int sampleWidth) {
+		return new FormatMetadata(channels(), frequency(), encoding(), sampleWidth, byteOrder());
+	}
+
+	/**
+	 * Creates new format metadata that is a copy of this format metadata but with
+	 * the byte order changed to the given byte order.
+	 *
+	 * @param byteOrder
+	 * 		The new byte order
+	 * @return The new format metadata
+	 */
+	public FormatMetadata byteOrder(ByteOrder byteOrder) {
+		return new FormatMetadata(channels(), frequency(), encoding(), sampleWidth(), byteOrder);
 	}
 
 	//
@@ -142,7 +238,7 @@ public class FormatMetadata {
 
 	@Override
 	public int hashCode() {
-		return (channels() << 16) ^ frequency() ^ encoding().toUpperCase().hashCode();
+		return (channels() << 16) ^ frequency() ^ encoding().toUpperCase().hashCode() ^ (sampleWidth() << 24) ^ byteOrder().hashCode();
 	}
 
 	@Override
@@ -151,12 +247,16 @@ public class FormatMetadata {
 			return false;
 		}
 		FormatMetadata formatMetadata = (FormatMetadata) object;
-		return (channels() == formatMetadata.channels()) && (frequency() == formatMetadata.frequency()) && (encoding().equalsIgnoreCase(formatMetadata.encoding()));
+		return (channels() == formatMetadata.channels()) && (frequency() == formatMetadata.frequency()) && (encoding().equalsIgnoreCase(formatMetadata.encoding())) && (sampleWidth() == formatMetadata.sampleWidth()) && byteOrder().equals(formatMetadata.byteOrder());
 	}
 
 	@Override
 	public String toString() {
-		return String.format("%s kHz, %d Channel%s, %s", frequency() / 1000.0, channels(), channels() != 1 ? "s" : "", encoding());
+		String format = String.format("%s kHz, %d Channel%s, %s", frequency() / 1000.0, channels(), channels() != 1 ? "s" : "", encoding());
+		if ((sampleWidth() != DEFAULT_SAMPLE_WIDTH) || (byteOrder() != DEFAULT_BYTE_ORDER)) {
+			format += String.format(" (%d Bit, %s)", sampleWidth(), (byteOrder() == ByteOrder.BIG_ENDIAN) ? "Big Endian" : "Little Endian");
+		}
+		return format;
 	}
 
 }
@@ -0,0 +1,980 @@
+/*
+ * Sonitus - FormatPlanner.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+import net.pterodactylus.sonitus.data.filter.ChannelMatrixFilter;
+import net.pterodactylus.sonitus.data.filter.FlacDecoder;
+import net.pterodactylus.sonitus.data.filter.FloatToPcmFilter;
+import net.pterodactylus.sonitus.data.filter.InternalMp3Decoder;
+import net.pterodactylus.sonitus.data.filter.LameMp3Decoder;
+import net.pterodactylus.sonitus.data.filter.OggVorbisDecoder;
+import net.pterodactylus.sonitus.data.filter.PcmFormatFilter;
+import net.pterodactylus.sonitus.data.filter.PcmToFloatFilter;
+import net.pterodactylus.sonitus.data.filter.ResampleFilter;
+import net.pterodactylus.sonitus.data.filter.SoxResampleFilter;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Plans the chain of {@link Filter}s that converts a stream from the format a
+ * filter produces to a format the following filter accepts. Every kind of
+ * conversion (decoding, resampling, changing the number of channels, changing
+ * the sample width or byte order) is described by a {@link Conversion}; the
+ * planner searches for the cheapest sequence of conversions, so a stream that
+ * is already acceptable is not converted at all.
+ * <p/>
+ * The cost of a conversion is the processing time (in nanoseconds) it needs
+ * for a single sample of a single channel. The default costs of the in-process
+ * conversions were measured with {@link #calibrate(String, FormatMetadata,
+ * byte[], double)} on a desktop machine and include piping the stream through
+ * the filter; the costs of external conversions are estimates. The costs can
+ * be replaced with the results of other benchmarks using {@link #cost(String,
+ * double)}, or measured on the current machine. Every conversion that runs an
+ * external process is charged an additional {@link #externalPenalty(double)
+ * penalty} so that in-process conversions are preferred, and conversions that
+ * lose information are only used if nothing else is accepted.
+ * <p/>
+ * The {@link Metadata#gain() gain} of a decoded stream is not applied by the
+ * planned conversions; the {@link Pipeline} applies it behind every decoding
+ * conversion.
+ * <p/>
+ * A new planner knows all in-process conversions; conversions using external
+ * binaries have to be added explicitly.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FormatPlanner {
+
+	/** The logger. */
+	private static final Logger logger = Logger.getLogger(FormatPlanner.class.getName());
+
+	/** The maximum number of conversions between two filters. */
+	private static final int MAXIMUM_CONVERSIONS = 4;
+
+	/** The default penalty for conversions using an external process. */
+	private static final double DEFAULT_EXTERNAL_PENALTY = 10000000;
+
+	/**
+	 * The penalty for conversions that lose information, i.e. that reduce the
+	 * number of channels, the sampling frequency, or the sample width. It is
+	 * higher than the cost of any other conversion so that information is only
+	 * lost if the following filter requires it.
+	 */
+	private static final double LOSS_PENALTY = 1e15;
+
+	/** The sampling frequencies a resampler can convert to. */
+	private static final List<Integer> FREQUENCIES = ImmutableList.of(8000, 11025, 16000, 22050, 32000, 44100, 48000, 88200, 96000);
+
+	/** The known conversions, by name. */
+	private final Map<String, Conversion> conversions = Maps.newLinkedHashMap();
+
+	/** The penalty for conversions using an external process. */
+	private double externalPenalty = DEFAULT_EXTERNAL_PENALTY;
+
+	/** Creates a new planner that knows all in-process conversions. */
+	public FormatPlanner() {
+		conversion(new PcmFormatConversion());
+		conversion(new InternalMp3DecoderConversion());
+		conversion(new ResampleConversion());
+		conversion(new ChannelConversion());
+		conversion(new PcmToFloatConversion());
+		conversion(new FloatToPcmConversion());
+	}
+
+	/**
+	 * Adds the given conversion to this planner. A conversion with the same
+	 * name is replaced.
+	 *
+	 * @param conversion
+	 * 		The conversion to add
+	 * @return This planner
+	 */
+	public FormatPlanner conversion(Conversion conversion) {
+		conversions.put(checkNotNull(conversion, "conversion must not be null").name(), conversion);
+		return this;
+	}
+
+	/**
+	 * Adds a conversion that decodes MP3 using LAME.
+	 *
+	 * @param binary
+	 * 		The location of the LAME binary
+	 * @return This planner
+	 */
+	public FormatPlanner lameDecoder(String binary) {
+		return conversion(new LameDecoderConversion(binary));
+	}
+
+	/**
+	 * Adds a conversion that decodes FLAC using {@code flac}.
+	 *
+	 * @param binary
+	 * 		The location of the flac binary
+	 * @return This planner
+	 */
+	public FormatPlanner flacDecoder(String binary) {
+		return conversion(new FlacDecoderConversion(binary));
+	}
+
+	/**
+	 * Adds a conversion that decodes Ogg Vorbis using {@code oggdec}.
+	 *
+	 * @param binary
+	 * 		The location of the oggdec binary
+	 * @return This planner
+	 */
+	public FormatPlanner oggVorbisDecoder(String binary) {
+		return conversion(new OggVorbisDecoderConversion(binary));
+	}
+
+	/**
+	 * Adds a conversion that resamples using SoX.
+	 *
+	 * @param binary
+	 * 		The location of the sox binary
+	 * @return This planner
+	 */
+	public FormatPlanner soxResampler(String binary) {
+		return conversion(new SoxResampleConversion(binary));
+	}
+
+	/**
+	 * Sets the cost of the conversion with the given name.
+	 *
+	 * @param name
+	 * 		The name of the conversion
+	 * @param cost
+	 * 		The processing time of a single sample of a single channel (in
+	 * 		nanoseconds)
+	 * @return This planner
+	 * @throws IllegalArgumentException
+	 * 		if there is no conversion with the given name
+	 */
+	public FormatPlanner cost(String name, double cost) throws IllegalArgumentException {
+		checkArgument(conversions.containsKey(name), "unknown conversion: %s", name);
+		checkArgument(cost >= 0, "cost must not be negative");
+		conversions.get(name).cost = cost;
+		return this;
+	}
+
+	/**
+	 * Sets the penalty that is added to the cost of every conversion that uses
+	 * an external process.
+	 *
+	 * @param externalPenalty
+	 * 		The penalty (in nanoseconds per second of audio)
+	 * @return This planner
+	 */
+	public FormatPlanner externalPenalty(double externalPenalty) {
+		checkArgument(externalPenalty >= 0, "externalPenalty must not be negative");
+		this.externalPenalty = externalPenalty;
+		return this;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Returns the conversions known to this planner.
+	 *
+	 * @return The known conversions
+	 */
+	public List<Conversion> conversions() {
+		return ImmutableList.copyOf(conversions.values());
+	}
+
+	/**
+	 * Plans the cheapest chain of conversions from the given format to a format
+	 * that is accepted by the given predicate. If the given format is accepted
+	 * already, the returned chain is empty.
+	 *
+	 * @param formatMetadata
+	 * 		The format to convert
+	 * @param acceptedFormats
+	 * 		The predicate for the accepted formats
+	 * @return New filters performing the conversions, in the order in which
+	 *         they have to be connected, or {@link Optional#absent()} if no
+	 *         accepted format can be reached
+	 */
+	public Optional<List<Filter>> plan(FormatMetadata formatMetadata, Predicate<FormatMetadata> acceptedFormats) {
+		Map<FormatMetadata, Double> lowestCosts = Maps.newHashMap();
+		PriorityQueue<Plan> plans = new PriorityQueue<Plan>();
+		plans.add(new Plan(formatMetadata));
+		while (!plans.isEmpty()) {
+			Plan plan = plans.remove();
+			if (acceptedFormats.apply(plan.format)) {
+				logger.fine(String.format("Converting %s to %s costs %.0f ns/s.", formatMetadata, plan.format, plan.cost));
+				return Optional.of(plan.createFilters());
+			}
+			if (plan.steps.size() == MAXIMUM_CONVERSIONS) {
+				continue;
+			}
+			for (Conversion conversion : conversions.values()) {
+				for (FormatMetadata output : conversion.outputs(plan.format)) {
+					double cost = plan.cost + cost(conversion, plan.format, output);
+					Double lowestCost = lowestCosts.get(output);
+					if ((lowestCost == null) || (cost < lowestCost)) {
+						lowestCosts.put(output, cost);
+						plans.add(plan.append(conversion, output, cost));
+					}
+				}
+			}
+		}
+		return Optional.absent();
+	}
+
+	/**
+	 * Measures the cost of the conversion with the given name on this machine
+	 * by converting the given data, and uses it for further planning.
+	 *
+	 * @param name
+	 * 		The name of the conversion
+	 * @param formatMetadata
+	 * 		The format of the data
+	 * @param data
+	 * 		The data to convert
+	 * @param duration
+	 * 		The duration of the data (in seconds)
+	 * @return The measured cost (in nanoseconds per sample of a single channel)
+	 * @throws IOException
+	 * 		if the data can not be converted
+	 * @throws IllegalArgumentException
+	 * 		if there is no conversion with the given name, or it can not convert
+	 * 		the given format
+	 */
+	public double calibrate(String name, FormatMetadata formatMetadata, byte[] data, double duration) throws IOException, IllegalArgumentException {
+		checkArgument(conversions.containsKey(name), "unknown conversion: %s", name);
+		checkArgument(duration > 0, "duration must be positive");
+		Conversion conversion = conversions.get(name);
+		List<FormatMetadata> outputs = conversion.outputs(formatMetadata);
+		checkArgument(!outputs.isEmpty(), "%s can not convert %s", name, formatMetadata);
+		final Filter filter = conversion.createFilter(formatMetadata, outputs.get(0));
+		Metadata metadata = new Metadata(formatMetadata, new ContentMetadata());
+		filter.open(metadata);
+		Thread drainer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						filter.get(4096);
+					}
+				} catch (IOException ioe1) {
+					/* filter was closed. */
+				}
+			}
+		}, String.format("Calibration of %s", name));
+		drainer.setDaemon(true);
+		drainer.start();
+		long startTime = System.nanoTime();
+		try {
+			for (int offset = 0; offset < data.length; offset += 4096) {
+				filter.process(new DataPacket(metadata, Arrays.copyOfRange(data, offset, Math.min(offset + 4096, data.length))));
+			}
+		} finally {
+			filter.close();
+		}
+		double cost = (System.nanoTime() - startTime) / (duration * samplesPerSecond(formatMetadata));
+		logger.info(String.format("Calibrated %s: %.2f ns/sample.", name, cost));
+		conversion.cost = cost;
+		return cost;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the cost of converting a stream with the given format to the given
+	 * format using the given conversion.
+	 *
+	 * @param conversion
+	 * 		The conversion
+	 * @param input
+	 * 		The format of the stream
+	 * @param output
+	 * 		The format of the converted stream
+	 * @return The cost of the conversion (in nanoseconds per second of audio)
+	 */
+	private double cost(Conversion conversion, FormatMetadata input, FormatMetadata output) {
+		return conversion.cost * samplesPerSecond(input) + (conversion.external ? externalPenalty : 0) + (losesInformation(input, output) ? LOSS_PENALTY : 0);
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns the number of samples (of all channels) per second of a stream
+	 * with the given format. Unknown parameters are counted as 1.
+	 *
+	 * @param formatMetadata
+	 * 		The format of the stream
+	 * @return The number of samples per second
+	 */
+	private static double samplesPerSecond(FormatMetadata formatMetadata) {
+		return Math.max(formatMetadata.channels(), 1) * (double) Math.max(formatMetadata.frequency(), 1);
+	}
+
+	/**
+	 * Returns whether converting the given input format to the given output
+	 * format loses information.
+	 *
+	 * @param input
+	 * 		The input format
+	 * @param output
+	 * 		The output format
+	 * @return {@code true} if the conversion reduces the number of channels, the
+	 *         sampling frequency, or the precision of uncompressed samples,
+	 *         {@code false} otherwise
+	 */
+	private static boolean losesInformation(FormatMetadata input, FormatMetadata output) {
+		if ((output.channels() < input.channels()) || (output.frequency() < input.frequency())) {
+			return true;
+		}
+		return (precision(input) > 0) && (precision(output) > 0) && (precision(output) < precision(input));
+	}
+
+	/**
+	 * Returns whether converting the given input format to the given output
+	 * format decodes a compressed stream to integer PCM. The {@link
+	 * Metadata#gain() gain} of a stream has to be applied after decoding.
+	 *
+	 * @param input
+	 * 		The input format
+	 * @param output
+	 * 		The output format
+	 * @return {@code true} if the conversion decodes the stream to integer PCM,
+	 *         {@code false} otherwise
+	 */
+	static boolean decodes(FormatMetadata input, FormatMetadata output) {
+		return (precision(input) == 0) && !input.encoding().equalsIgnoreCase(FormatMetadata.UNKNOWN_ENCODING) && output.encoding().equalsIgnoreCase("PCM");
+	}
+
+	/**
+	 * Returns the precision of the samples of the given format.
+	 *
+	 * @param formatMetadata
+	 * 		The format
+	 * @return The precision of the samples (in bits), or {@code 0} if the format
+	 *         is not uncompressed PCM
+	 */
+	private static int precision(FormatMetadata formatMetadata) {
+		if (formatMetadata.encoding().equalsIgnoreCase("PCM")) {
+			return formatMetadata.sampleWidth();
+		}
+		if (formatMetadata.encoding().equalsIgnoreCase(FormatMetadata.PCM_FLOAT)) {
+			return 24;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns whether the given format is PCM with the given sample width and
+	 * byte order.
+	 *
+	 * @param formatMetadata
+	 * 		The format to check
+	 * @param sampleWidth
+	 * 		The sample width (in bits)
+	 * @param byteOrder
+	 * 		The byte order
+	 * @return {@code true} if the format matches, {@code false} otherwise
+	 */
+	private static boolean isPcm(FormatMetadata formatMetadata, int sampleWidth, ByteOrder byteOrder) {
+		return formatMetadata.encoding().equalsIgnoreCase("PCM") && (formatMetadata.sampleWidth() == sampleWidth) && (formatMetadata.byteOrder() == byteOrder);
+	}
+
+	/**
+	 * Returns the format of 16-bit PCM with the given byte order that has the
+	 * number of channels and the sampling frequency of the given format.
+	 *
+	 * @param formatMetadata
+	 * 		The format to convert
+	 * @param byteOrder
+	 * 		The byte order of the samples
+	 * @return The decoded format
+	 */
+	private static FormatMetadata pcm(FormatMetadata formatMetadata, ByteOrder byteOrder) {
+		return formatMetadata.encoding("PCM").sampleWidth(16).byteOrder(byteOrder);
+	}
+
+	/**
+	 * A conversion describes a {@link Filter} that converts streams of certain
+	 * formats into other formats.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	public static abstract class Conversion {
+
+		/** The name of the conversion. */
+		private final String name;
+
+		/** Whether the conversion uses an external process. */
+		private final boolean external;
+
+		/** The cost of the conversion (in nanoseconds per sample). */
+		private double cost;
+
+		/**
+		 * Creates a new conversion.
+		 *
+		 * @param name
+		 * 		The name of the conversion
+		 * @param external
+		 * 		{@code true} if the conversion uses an external process, {@code
+		 * 		false} otherwise
+		 * @param cost
+		 * 		The default cost of the conversion (in nanoseconds per sample of a
+		 * 		single channel)
+		 */
+		protected Conversion(String name, boolean external, double cost) {
+			this.name = checkNotNull(name, "name must not be null");
+			this.external = external;
+			this.cost = cost;
+		}
+
+		//
+		// ACCESSORS
+		//
+
+		/**
+		 * Returns the name of this conversion.
+		 *
+		 * @return The name of this conversion
+		 */
+		public String name() {
+			return name;
+		}
+
+		/**
+		 * Returns whether this conversion uses an external process.
+		 *
+		 * @return {@code true} if this conversion uses an external process,
+		 *         {@code false} otherwise
+		 */
+		public boolean external() {
+			return external;
+		}
+
+		/**
+		 * Returns the cost of this conversion.
+		 *
+		 * @return The cost of this conversion (in nanoseconds per sample of a
+		 *         single channel)
+		 */
+		public double cost() {
+			return cost;
+		}
+
+		//
+		// SUBCLASS METHODS
+		//
+
+		/**
+		 * Returns all formats this conversion can convert the given format to.
+		 *
+		 * @param formatMetadata
+		 * 		The format to convert
+		 * @return The formats this conversion can create, or an empty list if
+		 *         this conversion can not convert the given format
+		 */
+		public abstract List<FormatMetadata> outputs(FormatMetadata formatMetadata);
+
+		/**
+		 * Creates a new filter that converts the given input format to the given
+		 * output format.
+		 *
+		 * @param input
+		 * 		The format to convert
+		 * @param output
+		 * 		The format to convert to (one of {@link #outputs(FormatMetadata)})
+		 * @return A new filter performing the conversion
+		 */
+		public abstract Filter createFilter(FormatMetadata input, FormatMetadata output);
+
+	}
+
+	/**
+	 * A planned chain of conversions.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class Plan implements Comparable<Plan> {
+
+		/** The format at the end of the chain. */
+		private final FormatMetadata format;
+
+		/** The cost of all conversions (in nanoseconds per second of audio). */
+		private final double cost;
+
+		/** The conversions of the chain. */
+		private final List<Conversion> steps;
+
+		/** The formats after every conversion of the chain. */
+		private final List<FormatMetadata> formats;
+
+		/**
+		 * Creates a new empty chain.
+		 *
+		 * @param format
+		 * 		The format at the start of the chain
+		 */
+		private Plan(FormatMetadata format) {
+			this(format, 0, Collections.<Conversion>emptyList(), Collections.singletonList(format));
+		}
+
+		/**
+		 * Creates a new chain.
+		 *
+		 * @param format
+		 * 		The format at the end of the chain
+		 * @param cost
+		 * 		The cost of all conversions
+		 * @param steps
+		 * 		The conversions of the chain
+		 * @param formats
+		 * 		The formats at the start of the chain and after every conversion
+		 */
+		private Plan(FormatMetadata format, double cost, List<Conversion> steps, List<FormatMetadata> formats) {
+			this.format = format;
+			this.cost = cost;
+			this.steps = steps;
+			this.formats = formats;
+		}
+
+		/**
+		 * Returns a new chain that has the given conversion appended.
+		 *
+		 * @param conversion
+		 * 		The conversion to append
+		 * @param output
+		 * 		The format created by the conversion
+		 * @param cost
+		 * 		The cost of the new chain
+		 * @return The new chain
+		 */
+		private Plan append(Conversion conversion, FormatMetadata output, double cost) {
+			List<Conversion> steps = Lists.newArrayList(this.steps);
+			steps.add(conversion);
+			List<FormatMetadata> formats = Lists.newArrayList(this.formats);
+			formats.add(output);
+			return new Plan(output, cost, steps, formats);
+		}
+
+		/**
+		 * Creates the filters for all conversions of this chain.
+		 *
+		 * @return New filters performing the conversions of this chain
+		 */
+		private List<Filter> createFilters() {
+			List<Filter> filters = Lists.newArrayList();
+			for (int step = 0; step < steps.size(); ++step) {
+				filters.add(steps.get(step).createFilter(formats.get(step), formats.get(step + 1)));
+			}
+			return filters;
+		}
+
+		@Override
+		public int compareTo(Plan plan) {
+			return Double.compare(cost, plan.cost);
+		}
+
+	}
+
+	/**
+	 * Converts PCM between sample widths and byte orders using a {@link
+	 * PcmFormatFilter}.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class PcmFormatConversion extends Conversion {
+
+		/** Creates a new PCM format conversion. */
+		private PcmFormatConversion() {
+			super("PCM Format", false, 35);
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!formatMetadata.encoding().equalsIgnoreCase("PCM") || (formatMetadata.sampleWidth() < 8) || (formatMetadata.sampleWidth() > 32)) {
+				return Collections.emptyList();
+			}
+			List<FormatMetadata> outputs = Lists.newArrayList();
+			ByteOrder swappedByteOrder = (formatMetadata.byteOrder() == ByteOrder.BIG_ENDIAN) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+			outputs.add(formatMetadata.byteOrder(swappedByteOrder));
+			for (ByteOrder byteOrder : Arrays.asList(ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN)) {
+				if ((formatMetadata.sampleWidth() != 16) && !outputs.contains(pcm(formatMetadata, byteOrder))) {
+					outputs.add(pcm(formatMetadata, byteOrder));
+				}
+			}
+			return outputs;
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			return new PcmFormatFilter("Format Converter", output.sampleWidth(), output.byteOrder());
+		}
+
+	}
+
+	/**
+	 * Decodes MP3 in-process using an {@link InternalMp3Decoder}.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class InternalMp3DecoderConversion extends Conversion {
+
+		/** Creates a new MP3 decoder conversion. */
+		private InternalMp3DecoderConversion() {
+			super("MP3 Decoder", false, 300);
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!formatMetadata.encoding().equalsIgnoreCase("MP3")) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(pcm(formatMetadata, ByteOrder.LITTLE_ENDIAN));
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			return new InternalMp3Decoder();
+		}
+
+	}
+
+	/**
+	 * Resamples in-process using a {@link ResampleFilter}.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class ResampleConversion extends Conversion {
+
+		/** Creates a new resample conversion. */
+		private ResampleConversion() {
+			this("Resampler", false, 195);
+		}
+
+		/**
+		 * Creates a new resample conversion.
+		 *
+		 * @param name
+		 * 		The name of the conversion
+		 * @param external
+		 * 		{@code true} if the conversion uses an external process, {@code
+		 * 		false} otherwise
+		 * @param cost
+		 * 		The default cost of the conversion (in nanoseconds per sample of a
+		 * 		single channel)
+		 */
+		protected ResampleConversion(String name, boolean external, double cost) {
+			super(name, external, cost);
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!formatMetadata.isDefaultPcm()) {
+				return Collections.emptyList();
+			}
+			List<FormatMetadata> outputs = Lists.newArrayList();
+			for (int frequency : FREQUENCIES) {
+				if (frequency != formatMetadata.frequency()) {
+					outputs.add(formatMetadata.frequency(frequency));
+				}
+			}
+			return outputs;
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			return new ResampleFilter(output.frequency());
+		}
+
+	}
+
+	/**
+	 * Changes the number of channels using a {@link ChannelMatrixFilter}. Mono
+	 * is converted to stereo and back, and 5.1 surround is downmixed to stereo.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class ChannelConversion extends Conversion {
+
+		/** Creates a new channel conversion. */
+		private ChannelConversion() {
+			super("Channel Matrix", false, 35);
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!formatMetadata.isDefaultPcm() && !formatMetadata.encoding().equalsIgnoreCase(FormatMetadata.PCM_FLOAT)) {
+				return Collections.emptyList();
+			}
+			if (formatMetadata.channels() == 1) {
+				return Collections.singletonList(formatMetadata.channels(2));
+			}
+			if (formatMetadata.channels() == 2) {
+				return Collections.singletonList(formatMetadata.channels(1));
+			}
+			if (formatMetadata.channels() == 6) {
+				return Collections.singletonList(formatMetadata.channels(2));
+			}
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			if (input.channels() == 1) {
+				return ChannelMatrixFilter.monoToStereo();
+			}
+			if (input.channels() == 2) {
+				return ChannelMatrixFilter.stereoToMono();
+			}
+			return ChannelMatrixFilter.surroundToStereo();
+		}
+
+	}
+
+	/**
+	 * Converts 16-bit or 24-bit little-endian PCM to floating-point samples
+	 * using a {@link PcmToFloatFilter}.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class PcmToFloatConversion extends Conversion {
+
+		/** Creates a new PCM-to-float conversion. */
+		private PcmToFloatConversion() {
+			super("PCM to Float", false, 90);
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!isPcm(formatMetadata, 16, ByteOrder.LITTLE_ENDIAN) && !isPcm(formatMetadata, 24, ByteOrder.LITTLE_ENDIAN)) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(formatMetadata.encoding(FormatMetadata.PCM_FLOAT).sampleWidth(FormatMetadata.DEFAULT_SAMPLE_WIDTH));
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			return new PcmToFloatFilter("PCM to Float");
+		}
+
+	}
+
+	/**
+	 * Converts floating-point samples to 16-bit PCM using a {@link
+	 * FloatToPcmFilter}.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class FloatToPcmConversion extends Conversion {
+
+		/** Creates a new float-to-PCM conversion. */
+		private FloatToPcmConversion() {
+			super("Float to PCM", false, 65);
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!formatMetadata.encoding().equalsIgnoreCase(FormatMetadata.PCM_FLOAT)) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(pcm(formatMetadata, ByteOrder.LITTLE_ENDIAN));
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			return new FloatToPcmFilter("Float to PCM");
+		}
+
+	}
+
+	/**
+	 * Decodes MP3 using a {@link LameMp3Decoder}.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class LameDecoderConversion extends Conversion {
+
+		/** The location of the binary. */
+		private final String binary;
+
+		/**
+		 * Creates a new LAME decoder conversion.
+		 *
+		 * @param binary
+		 * 		The location of the binary
+		 */
+		private LameDecoderConversion(String binary) {
+			super("LAME Decoder", true, 300);
+			this.binary = checkNotNull(binary, "binary must not be null");
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!formatMetadata.encoding().equalsIgnoreCase("MP3")) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(pcm(formatMetadata, ByteOrder.nativeOrder()));
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			return new LameMp3Decoder(binary);
+		}
+
+	}
+
+	/**
+	 * Decodes FLAC using a {@link FlacDecoder}.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class FlacDecoderConversion extends Conversion {
+
+		/** The location of the binary. */
+		private final String binary;
+
+		/**
+		 * Creates a new FLAC decoder conversion.
+		 *
+		 * @param binary
+		 * 		The location of the binary
+		 */
+		private FlacDecoderConversion(String binary) {
+			super("FLAC Decoder", true, 100);
+			this.binary = checkNotNull(binary, "binary must not be null");
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!formatMetadata.encoding().equalsIgnoreCase("FLAC")) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(formatMetadata.encoding("PCM").byteOrder(ByteOrder.LITTLE_ENDIAN));
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			return new FlacDecoder(binary).swapBytes(true);
+		}
+
+	}
+
+	/**
+	 * Decodes Ogg Vorbis using an {@link OggVorbisDecoder}.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class OggVorbisDecoderConversion extends Conversion {
+
+		/** The location of the binary. */
+		private final String binary;
+
+		/**
+		 * Creates a new Ogg Vorbis decoder conversion.
+		 *
+		 * @param binary
+		 * 		The location of the binary
+		 */
+		private OggVorbisDecoderConversion(String binary) {
+			super("Ogg Vorbis Decoder", true, 300);
+			this.binary = checkNotNull(binary, "binary must not be null");
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!formatMetadata.encoding().equalsIgnoreCase("Vorbis")) {
+				return Collections.emptyList();
+			}
+			return Collections.singletonList(pcm(formatMetadata, ByteOrder.LITTLE_ENDIAN));
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			return new OggVorbisDecoder(binary);
+		}
+
+	}
+
+	/**
+	 * Resamples using a {@link SoxResampleFilter}. Unlike the internal
+	 * resampler, SoX also resamples 24- and 32-bit PCM of either byte order
+	 * without narrowing it first.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class SoxResampleConversion extends ResampleConversion {
+
+		/** The location of the binary. */
+		private final String binary;
+
+		/**
+		 * Creates a new SoX resample conversion.
+		 *
+		 * @param binary
+		 * 		The location of the binary
+		 */
+		private SoxResampleConversion(String binary) {
+			super("SoX Resampler", true, 195);
+			this.binary = checkNotNull(binary, "binary must not be null");
+		}
+
+		@Override
+		public List<FormatMetadata> outputs(FormatMetadata formatMetadata) {
+			if (!formatMetadata.encoding().equalsIgnoreCase("PCM") || ((formatMetadata.sampleWidth() != 16) && (formatMetadata.sampleWidth() != 24) && (formatMetadata.sampleWidth() != 32))) {
+				return Collections.emptyList();
+			}
+			List<FormatMetadata> outputs = Lists.newArrayList();
+			for (int frequency : FREQUENCIES) {
+				if (frequency != formatMetadata.frequency()) {
+					outputs.add(formatMetadata.frequency(frequency));
+				}
+			}
+			return outputs;
+		}
+
+		@Override
+		public Filter createFilter(FormatMetadata input, FormatMetadata output) {
+			return new SoxResampleFilter(binary, output.frequency());
+		}
+
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Sonitus - FramedDataPacket.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data;
+
+import com.google.common.base.Optional;
+
+/**
+ * A data packet that contains a number of complete frames of an encoded audio
+ * stream, allowing a sink to start, stop, or switch streams on frame
+ * boundaries.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FramedDataPacket extends DataPacket {
+
+	/** The number of frames. */
+	private final int frames;
+
+	/** The duration of the frames (in microseconds). */
+	private final long duration;
+
+	/**
+	 * Creates a new framed data packet.
+	 *
+	 * @param metadata
+	 * 		The metadata (may be {@code null})
+	 * @param buffer
+	 * 		The complete frames
+	 * @param frames
+	 * 		The number of frames
+	 * @param duration
+	 * 		The duration of the frames (in microseconds)
+	 */
+	public FramedDataPacket(Metadata metadata, byte[] buffer, int frames, long duration) {
+		super(Optional.fromNullable(metadata), buffer);
+		this.frames = frames;
+		this.duration = duration;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of frames in this data packet.
+	 *
+	 * @return The number of frames
+	 */
+	public int frames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the duration of the frames in this data packet.
+	 *
+	 * @return The duration of the frames (in microseconds)
+	 */
+	public long duration() {
+		return duration;
+	}
+
+	//
+	// OBJECT METHODS
+	//
+
+	@Override
+	public String toString() {
+		return String.format("%s (%d, %d frames, %d us)", metadata(), buffer().length, frames, duration);
+	}
+
+}
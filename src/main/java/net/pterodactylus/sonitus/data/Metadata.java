@@ -17,6 +17,8 @@
 
 package net.pterodactylus.sonitus.data;
 
+import java.nio.ByteOrder;
+
 import com.google.common.base.Optional;
 
 /**
@@ -142,6 +144,48 @@ public class Metadata {
 		return new Metadata(formatMetadata.encoding(encoding), contentMetadata);
 	}
 
+	/**
+	 * Returns the width of a single sample of this metadata.
+	 *
+	 * @return The width of a single sample (in bits)
+	 */
+	public int sampleWidth() {
+		return formatMetadata.sampleWidth();
+	}
+
+	/**
+	 * Returns a new metadata with the same parameters as this metadata and the
+	 * given sample width.
+	 *
+	 * @param sampleWidth
+	 * 		The new sample width (in bits)
+	 * @return A new metadata with the given sample width
+	 */
+	public Metadata sampleWidth(int sampleWidth) {
+		return new Metadata(formatMetadata.sampleWidth(sampleWidth), contentMetadata);
+	}
+
+	/**
+	 * Returns the byte order of a single sample of this metadata.
+	 *
+	 * @return The byte order of a single sample
+	 */
+	public ByteOrder byteOrder() {
+		return formatMetadata.byteOrder();
+	}
+
+	/**
+	 * Returns a new metadata with the same parameters as this metadata and the
+	 * given byte order.
+	 *
+	 * @param byteOrder
+	 * 		The new byte order
+	 * @return A new metadata with the given byte order
+	 */
+	public Metadata byteOrder(ByteOrder byteOrder) {
+		return new Metadata(formatMetadata.byteOrder(byteOrder), contentMetadata);
+	}
+
 	/**
 	 * Returns the artist, if any.
 	 *
@@ -226,6 +270,38 @@ public class Metadata {
 		return new Metadata(formatMetadata, contentMetadata.comment(comment));
 	}
 
+	/**
+	 * Returns the gain that normalizes the loudness of the content, if it is
+	 * known.
+	 *
+	 * @return The gain of the content (in dB)
+	 */
+	public Optional<Double> gain() {
+		return contentMetadata.gain();
+	}
+
+	/**
+	 * Returns new metadata with the same attributes as this metadata but with the
+	 * gain changed to the given gain.
+	 *
+	 * @param gain
+	 * 		The gain that normalizes the loudness of the content (in dB)
+	 * @return The new metadata
+	 */
+	public Metadata gain(double gain) {
+		return new Metadata(formatMetadata, contentMetadata.gain(gain));
+	}
+
+	/**
+	 * Returns new metadata with the same attributes as this metadata but without
+	 * a gain.
+	 *
+	 * @return The new metadata
+	 */
+	public Metadata withoutGain() {
+		return new Metadata(formatMetadata, contentMetadata.withoutGain());
+	}
+
 	/**
 	 * Returns the title with the comment appended in parantheses, if a comment has
 	 * been set.
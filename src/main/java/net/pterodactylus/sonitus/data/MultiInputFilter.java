@@ -0,0 +1,42 @@
+/*
+ * Sonitus - MultiInputFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data;
+
+/**
+ * A {@link Filter} that can receive streams from more than one source. Every
+ * source is streamed into its own input; the filter itself combines the inputs
+ * and delivers the result from its {@link #get(int)} method.
+ * <p/>
+ * A {@link Pipeline} only allows filters implementing this interface to be
+ * connected to more than one source.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public interface MultiInputFilter extends Filter {
+
+	/**
+	 * Returns the input that receives the stream of the given source. Repeated
+	 * invocations with the same source return the same input.
+	 *
+	 * @param source
+	 * 		The source to get the input for
+	 * @return The filter that processes the stream of the given source
+	 */
+	Filter input(Filter source);
+
+}
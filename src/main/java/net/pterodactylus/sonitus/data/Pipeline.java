@@ -18,9 +18,11 @@
 package net.pterodactylus.sonitus.data;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -29,21 +31,40 @@ import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
+import net.pterodactylus.sonitus.io.Amplifier;
+import net.pterodactylus.sonitus.io.PcmSamples;
+
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * A pipeline is responsible for streaming audio data from a {@link Filter} to
  * an arbitrary number of connected {@link Filter}s.
+ * <p/>
+ * A pipeline can have more than one source; the streams of several sources can
+ * be joined by connecting them to the same {@link MultiInputFilter}.
+ * <p/>
+ * When the pipeline is started, the conversions planned by its {@link
+ * FormatPlanner} (e.g. decoders, resamplers, or sample format converters) are
+ * inserted in front of every {@link FormatAwareFilter} whose input delivers a
+ * format the filter does not accept. Filters whose formats agree are connected
+ * directly. The {@link Metadata#gain() gain} of a decoded stream is applied to
+ * the decoded samples by the {@link Connection} that reads from the decoder,
+ * only while the gain is not 0 dB, so decoding does not cost another filter.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
@@ -52,26 +73,42 @@ public class Pipeline implements Iterable<Filter> {
 	/** The logger. */
 	private static final Logger logger = Logger.getLogger(Pipeline.class.getName());
 
-	/** The source of the audio stream. */
-	private final Filter source;
+	/** The sources of the audio streams. */
+	private final List<Filter> sources;
 
 	/** The filters for each source. */
 	private final ListMultimap<Filter, Filter> filters;
 
+	/** The sources for each filter. */
+	private final ListMultimap<Filter, Filter> inputs;
+
+	/** The planner for conversions between filters. */
+	private final FormatPlanner planner;
+
 	/** All started connections. */
 	private final List<Connection> connections = Lists.newArrayList();
 
 	/**
 	 * Creates a new pipeline.
 	 *
-	 * @param source
-	 * 		The source of the audio stream
+	 * @param sources
+	 * 		The sources of the audio streams
 	 * @param filters
 	 * 		The filters for each source
+	 * @param planner
+	 * 		The planner for conversions between filters
 	 */
-	private Pipeline(Filter source, Multimap<Filter, Filter> filters) {
-		this.source = Preconditions.checkNotNull(source, "source must not be null");
+	private Pipeline(List<Filter> sources, Multimap<Filter, Filter> filters, FormatPlanner planner) {
+		Preconditions.checkArgument(!Preconditions.checkNotNull(sources, "sources must not be null").isEmpty(), "sources must not be empty");
+		this.sources = ImmutableList.copyOf(sources);
 		this.filters = ArrayListMultimap.create(Preconditions.checkNotNull(filters, "filters must not be null"));
+		this.inputs = ArrayListMultimap.create();
+		this.planner = Preconditions.checkNotNull(planner, "planner must not be null");
+		for (Filter filter : openingOrder(this.sources, this.filters)) {
+			for (Filter sink : this.filters.get(filter)) {
+				inputs.put(sink, filter);
+			}
+		}
 	}
 
 	//
@@ -79,12 +116,21 @@ public class Pipeline implements Iterable<Filter> {
 	//
 
 	/**
-	 * Expose this pipeline’s source.
+	 * Expose this pipeline’s first source.
 	 *
-	 * @return This pipeline’s source
+	 * @return This pipeline’s first source
 	 */
 	public Filter source() {
-		return source;
+		return sources.get(0);
+	}
+
+	/**
+	 * Returns all sources of this pipeline.
+	 *
+	 * @return All sources of this pipeline
+	 */
+	public List<Filter> sources() {
+		return sources;
 	}
 
 	/**
@@ -100,6 +146,19 @@ public class Pipeline implements Iterable<Filter> {
 		return filters.get(filter);
 	}
 
+	/**
+	 * Returns all {@link Filter}s that stream to the given filter. Only {@link
+	 * MultiInputFilter}s can have more than one input.
+	 *
+	 * @param filter
+	 * 		The filter to get the inputs for
+	 * @return The filters streaming to the given filter, or an empty list if the
+	 *         filter does not exist in this pipeline, or is a source
+	 */
+	public List<Filter> inputs(Filter filter) {
+		return inputs.get(filter);
+	}
+
 	/**
 	 * Returns the traffic counters of the given filter.
 	 *
@@ -115,7 +174,8 @@ public class Pipeline implements Iterable<Filter> {
 			if (connection.source.equals(filter)) {
 				output = connection.counter();
 			} else if (connection.sinks.contains(filter)) {
-				input = connection.counter();
+				/* a filter with several inputs receives the sum of all of them. */
+				input = Math.max(input, 0) + connection.counter();
 			}
 		}
 		return new TrafficCounter(input, output);
@@ -137,20 +197,22 @@ public class Pipeline implements Iterable<Filter> {
 		if (!connections.isEmpty()) {
 			throw new IllegalStateException("Pipeline is already running!");
 		}
-		List<Filter> filters = Lists.newArrayList();
-		filters.add(source);
-		Metadata currentMetadata = Metadata.UNKNOWN;
-		/* collect all source->sink pairs. */
-		while (!filters.isEmpty()) {
-			Filter filter = filters.remove(0);
+		/* open every filter after all of its inputs. */
+		for (Filter filter : filters()) {
+			if (filter instanceof FormatAwareFilter) {
+				insertConversions((FormatAwareFilter) filter);
+			}
+			List<Filter> inputs = inputs(filter);
+			Metadata currentMetadata = inputs.isEmpty() ? Metadata.UNKNOWN : inputs.get(0).metadata();
 			logger.info(String.format("Opening %s with %s...", filter.name(), currentMetadata));
 			filter.open(currentMetadata);
-			currentMetadata = filter.metadata();
-			Collection<Filter> sinks = this.filters.get(filter);
-			connections.add(new Connection(filter, sinks));
-			for (Filter sink : sinks) {
-				filters.add(sink);
+			if (filter instanceof MultiInputFilter) {
+				for (Filter input : inputs) {
+					logger.info(String.format("Opening input of %s for %s with %s...", filter.name(), input.name(), input.metadata()));
+					((MultiInputFilter) filter).input(input).open(input.metadata());
+				}
 			}
+			connections.add(new Connection(filter, this.filters.get(filter), FormatPlanner.decodes(currentMetadata.format(), filter.metadata().format())));
 		}
 		for (Connection connection : connections) {
 			String threadName = String.format("%s → %s.", connection.source.name(), FluentIterable.from(connection.sinks).transform(new Function<Filter, String>() {
@@ -188,31 +250,146 @@ public class Pipeline implements Iterable<Filter> {
 	// PRIVATE METHODS
 	//
 
+	/**
+	 * Inserts the conversions planned by the {@link FormatPlanner} between the
+	 * given filter and every one of its inputs that delivers a format the filter
+	 * does not accept. The inputs have to be opened already; the inserted
+	 * filters are opened and connected immediately. All inputs of a {@link
+	 * MultiInputFilter} are converted to the sampling frequency and the number of
+	 * channels of its first input.
+	 *
+	 * @param filter
+	 * 		The filter to insert conversions for
+	 * @throws IOException
+	 * 		if a conversion can not be opened
+	 */
+	private void insertConversions(FormatAwareFilter filter) throws IOException {
+		Optional<FormatMetadata> firstFormat = Optional.absent();
+		for (Filter input : ImmutableList.copyOf(inputs(filter))) {
+			Predicate<FormatMetadata> acceptedFormats = acceptedFormats(filter, firstFormat);
+			FormatMetadata formatMetadata = input.metadata().format();
+			Filter convertedInput = input;
+			if (!acceptedFormats.apply(formatMetadata)) {
+				Optional<List<Filter>> conversions = planner.plan(formatMetadata, acceptedFormats);
+				if (conversions.isPresent()) {
+					convertedInput = insertConversions(input, conversions.get(), filter);
+				} else {
+					logger.warning(String.format("Can not convert %s for %s.", formatMetadata, filter.name()));
+				}
+			}
+			if (!firstFormat.isPresent()) {
+				firstFormat = Optional.of(convertedInput.metadata().format());
+			}
+		}
+	}
+
+	/**
+	 * Inserts the given conversions between the given input and the given
+	 * filter, and opens and connects them.
+	 *
+	 * @param input
+	 * 		The input of the filter
+	 * @param conversions
+	 * 		The filters performing the conversions, in the order in which they have
+	 * 		to be connected
+	 * @param filter
+	 * 		The filter receiving the converted stream
+	 * @return The new input of the filter
+	 * @throws IOException
+	 * 		if a conversion can not be opened
+	 */
+	private Filter insertConversions(Filter input, List<Filter> conversions, Filter filter) throws IOException {
+		Filter lastFilter = input;
+		for (Filter conversion : conversions) {
+			logger.info(String.format("Inserting %s between %s and %s...", conversion.name(), lastFilter.name(), filter.name()));
+			List<Filter> sinks = filters.get(lastFilter);
+			if (lastFilter == input) {
+				sinks.set(sinks.indexOf(filter), conversion);
+			} else {
+				sinks.add(conversion);
+			}
+			inputs.put(conversion, lastFilter);
+			conversion.open(lastFilter.metadata());
+			lastFilter = conversion;
+		}
+		filters.put(lastFilter, filter);
+		List<Filter> filterInputs = inputs.get(filter);
+		filterInputs.set(filterInputs.indexOf(input), lastFilter);
+		Filter conversionInput = input;
+		for (Filter conversion : conversions) {
+			connections.add(new Connection(conversion, filters.get(conversion), FormatPlanner.decodes(conversionInput.metadata().format(), conversion.metadata().format())));
+			conversionInput = conversion;
+		}
+		return lastFilter;
+	}
+
 	/**
 	 * Returns all filters of this pipeline, listed breadth-first, starting with
-	 * the source.
+	 * the sources. A filter with several inputs is listed after all of its
+	 * inputs.
 	 *
 	 * @return All filters of this pipeline
 	 */
 	public List<Filter> filters() {
-		ImmutableList.Builder<Filter> filters = ImmutableList.builder();
-		List<Filter> remainingFilters = Lists.newArrayList();
-		filters.add(source);
-		remainingFilters.add(source);
-		while (!remainingFilters.isEmpty()) {
-			Collection<Filter> sinks = this.filters(remainingFilters.remove(0));
-			for (Filter sink : sinks) {
-				filters.add(sink);
-				remainingFilters.add(sink);
-			}
-		}
-		return filters.build();
+		return ImmutableList.copyOf(openingOrder(sources, filters));
 	}
 
 	//
 	// STATIC METHODS
 	//
 
+	/**
+	 * Returns a predicate for the formats the given filter accepts. If a format
+	 * is given, only formats with its sampling frequency and number of channels
+	 * are accepted.
+	 *
+	 * @param filter
+	 * 		The filter
+	 * @param requiredFormat
+	 * 		The format whose sampling frequency and number of channels are required
+	 * @return The predicate for the accepted formats
+	 */
+	private static Predicate<FormatMetadata> acceptedFormats(final FormatAwareFilter filter, final Optional<FormatMetadata> requiredFormat) {
+		return new Predicate<FormatMetadata>() {
+
+			@Override
+			public boolean apply(FormatMetadata formatMetadata) {
+				if (requiredFormat.isPresent() && ((formatMetadata.frequency() != requiredFormat.get().frequency()) || (formatMetadata.channels() != requiredFormat.get().channels()))) {
+					return false;
+				}
+				return filter.accepts(formatMetadata);
+			}
+		};
+	}
+
+	/**
+	 * Sorts all filters reachable from the given sources so that every filter is
+	 * listed after all of its inputs. Filters that are part of a cycle are not
+	 * listed at all.
+	 *
+	 * @param sources
+	 * 		The sources of the pipeline
+	 * @param filters
+	 * 		The filters for each source
+	 * @return The filters in the order in which they have to be opened
+	 */
+	private static List<Filter> openingOrder(Collection<Filter> sources, Multimap<Filter, Filter> filters) {
+		Multiset<Filter> pendingInputs = HashMultiset.create(filters.values());
+		List<Filter> remainingFilters = Lists.newArrayList(sources);
+		List<Filter> openingOrder = Lists.newArrayList();
+		while (!remainingFilters.isEmpty()) {
+			Filter filter = remainingFilters.remove(0);
+			openingOrder.add(filter);
+			for (Filter sink : filters.get(filter)) {
+				pendingInputs.remove(sink);
+				if (!pendingInputs.contains(sink)) {
+					remainingFilters.add(sink);
+				}
+			}
+		}
+		return openingOrder;
+	}
+
 	/**
 	 * Returns a new pipeline builder.
 	 *
@@ -231,8 +408,8 @@ public class Pipeline implements Iterable<Filter> {
 	 */
 	public static class Builder {
 
-		/** The source of the pipeline. */
-		private final Filter source;
+		/** The sources of the pipeline. */
+		private final List<Filter> sources = Lists.newArrayList();
 
 		/** The filters to which each source streams. */
 		private Multimap<Filter, Filter> nextSinks = ArrayListMultimap.create();
@@ -240,6 +417,9 @@ public class Pipeline implements Iterable<Filter> {
 		/** The last added source. */
 		private Filter lastSource;
 
+		/** The planner for conversions between filters. */
+		private FormatPlanner planner = new FormatPlanner();
+
 		/**
 		 * Creates a new builder.
 		 *
@@ -247,18 +427,44 @@ public class Pipeline implements Iterable<Filter> {
 		 * 		The source that starts the pipeline
 		 */
 		private Builder(Filter source) {
-			this.source = source;
+			sources.add(source);
+			lastSource = source;
+		}
+
+		/**
+		 * Adds another source to the pipeline and sets it as the last added node
+		 * so that the next invocation of {@link #to(Filter)} connects a filter to
+		 * it. Connecting several sources to the same {@link MultiInputFilter}
+		 * joins their streams.
+		 *
+		 * @param source
+		 * 		The source to add
+		 * @return This builder
+		 * @throws IllegalArgumentException
+		 * 		if the given source was previously added as a sink
+		 */
+		public Builder from(Filter source) {
+			Preconditions.checkArgument(!nextSinks.containsValue(source), "source must not be a sink");
+			if (!sources.contains(source)) {
+				sources.add(source);
+			}
 			lastSource = source;
+			return this;
 		}
 
 		/**
-		 * Adds a {@link Filter} as a recipient for the last added source.
+		 * Adds a {@link Filter} as a recipient for the last added source. If the
+		 * filter was already added as a sink of another source, the filter has to
+		 * be a {@link MultiInputFilter}.
 		 *
 		 * @param sink
 		 * 		The sink to add
 		 * @return This builder
+		 * @throws IllegalArgumentException
+		 * 		if the given sink is a source of this pipeline
 		 */
 		public Builder to(Filter sink) {
+			Preconditions.checkArgument(!sources.contains(sink), "sink must not be a source");
 			nextSinks.put(lastSource, sink);
 			lastSource = sink;
 			return this;
@@ -280,13 +486,37 @@ public class Pipeline implements Iterable<Filter> {
 			return this;
 		}
 
+		/**
+		 * Sets the planner that plans the conversions between filters whose
+		 * formats do not agree. By default a planner that only knows in-process
+		 * conversions is used.
+		 *
+		 * @param planner
+		 * 		The planner to use
+		 * @return This builder
+		 */
+		public Builder planner(FormatPlanner planner) {
+			this.planner = Preconditions.checkNotNull(planner, "planner must not be null");
+			return this;
+		}
+
 		/**
 		 * Builds the pipeline.
 		 *
 		 * @return The created pipeline
+		 * @throws IllegalStateException
+		 * 		if a filter that is not a {@link MultiInputFilter} has more than one
+		 * 		input, or if the filters form a cycle
 		 */
 		public Pipeline build() {
-			return new Pipeline(source, ImmutableMultimap.copyOf(nextSinks));
+			Multimap<Filter, Filter> inputs = Multimaps.invertFrom(nextSinks, ArrayListMultimap.<Filter, Filter>create());
+			for (Filter sink : inputs.keySet()) {
+				Preconditions.checkState((inputs.get(sink).size() < 2) || (sink instanceof MultiInputFilter), "%s has more than one input", sink.name());
+			}
+			Set<Filter> allFilters = Sets.newHashSet(sources);
+			allFilters.addAll(nextSinks.values());
+			Preconditions.checkState(openingOrder(sources, nextSinks).size() == allFilters.size(), "filters must not form a cycle");
+			return new Pipeline(sources, ImmutableMultimap.copyOf(nextSinks), planner);
 		}
 
 	}
@@ -324,6 +554,15 @@ public class Pipeline implements Iterable<Filter> {
 		/** The exception that was encountered, if any. */
 		private Optional<IOException> ioException = Optional.absent();
 
+		/** Whether to apply the gain of the source’s packets. */
+		private final boolean applyGain;
+
+		/** The amplifier that applies the gain. */
+		private final Amplifier amplifier = new Amplifier();
+
+		/** The bytes of an incomplete sample at the end of the last packet. */
+		private byte[] partialSample = new byte[0];
+
 		/**
 		 * Creates a new connection.
 		 *
@@ -333,8 +572,25 @@ public class Pipeline implements Iterable<Filter> {
 		 * 		The filters to which to stream
 		 */
 		public Connection(Filter source, Collection<Filter> sinks) {
+			this(source, sinks, false);
+		}
+
+		/**
+		 * Creates a new connection.
+		 *
+		 * @param source
+		 * 		The source of the stream
+		 * @param sinks
+		 * 		The filters to which to stream
+		 * @param applyGain
+		 * 		{@code true} to apply the {@link Metadata#gain() gain} of the
+		 * 		source’s packets before sending them, e.g. if the source is a
+		 * 		decoder, {@code false} to send them unchanged
+		 */
+		public Connection(Filter source, Collection<Filter> sinks, boolean applyGain) {
 			this.source = source;
 			this.sinks = sinks;
+			this.applyGain = applyGain;
 			if (sinks.size() < 2) {
 				executorService = MoreExecutors.sameThreadExecutor();
 			} else {
@@ -415,7 +671,7 @@ public class Pipeline implements Iterable<Filter> {
 				try {
 					final DataPacket dataPacket;
 					logger.finest(String.format("Getting %d bytes from %s...", 4096, source.name()));
-					dataPacket = source.get(4096);
+					dataPacket = applyGain ? amplified(source.get(4096)) : source.get(4096);
 					logger.finest(String.format("Got %d bytes from %s.", dataPacket.buffer().length, source.name()));
 					List<Future<Void>> futures = executorService.invokeAll(FluentIterable.from(sinks).transform(new Function<Filter, Callable<Void>>() {
 
@@ -426,7 +682,9 @@ public class Pipeline implements Iterable<Filter> {
 								@Override
 								public Void call() throws Exception {
 									logger.finest(String.format("Sending %d bytes to %s.", dataPacket.buffer().length, sink.name()));
-									sink.process(dataPacket);
+									/* filters with several inputs get a separate input for every source. */
+									Filter input = (sink instanceof MultiInputFilter) ? ((MultiInputFilter) sink).input(source) : sink;
+									input.process(dataPacket);
 									logger.finest(String.format("Sent %d bytes to %s.", dataPacket.buffer().length, sink.name()));
 									return null;
 								}
@@ -453,6 +711,45 @@ public class Pipeline implements Iterable<Filter> {
 			}
 		}
 
+		//
+		// PRIVATE METHODS
+		//
+
+		/**
+		 * Applies the {@link Metadata#gain() gain} of the given packet to its
+		 * samples. Packets without a gain are returned unchanged; otherwise the
+		 * samples are amplified in place, and the gain is removed from the
+		 * metadata so that it is not applied twice. An incomplete sample at the
+		 * end of a packet is held back and prepended to the next packet.
+		 *
+		 * @param dataPacket
+		 * 		The packet to amplify
+		 * @return The amplified packet
+		 */
+		private DataPacket amplified(DataPacket dataPacket) {
+			Metadata metadata = dataPacket.metadata().or(source.metadata());
+			if (!metadata.gain().isPresent() && (partialSample.length == 0)) {
+				return dataPacket;
+			}
+			byte[] buffer = dataPacket.buffer();
+			if (partialSample.length > 0) {
+				byte[] joinedBuffer = Arrays.copyOf(partialSample, partialSample.length + buffer.length);
+				System.arraycopy(buffer, 0, joinedBuffer, partialSample.length, buffer.length);
+				buffer = joinedBuffer;
+			}
+			int sampleSize = PcmSamples.sampleSize(metadata.sampleWidth());
+			int length = buffer.length - (buffer.length % sampleSize);
+			partialSample = Arrays.copyOfRange(buffer, length, buffer.length);
+			if (length < buffer.length) {
+				buffer = Arrays.copyOf(buffer, length);
+			}
+			double gain = metadata.gain().or(0.0);
+			if (gain != 0) {
+				amplifier.amplify(buffer, 0, buffer, 0, length / sampleSize, metadata.sampleWidth(), metadata.byteOrder(), gain);
+			}
+			return new DataPacket(metadata.withoutGain(), buffer);
+		}
+
 	}
 
 	/**
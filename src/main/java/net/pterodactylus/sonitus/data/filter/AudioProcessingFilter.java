@@ -22,6 +22,8 @@ import java.io.OutputStream;
 
 import net.pterodactylus.sonitus.data.AbstractFilter;
 import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
 import net.pterodactylus.sonitus.io.ProcessingOutputStream;
 
 /**
@@ -29,7 +31,7 @@ import net.pterodactylus.sonitus.io.ProcessingOutputStream;
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
-public abstract class AudioProcessingFilter extends AbstractFilter implements Filter {
+public abstract class AudioProcessingFilter extends AbstractFilter implements FormatAwareFilter {
 
 	/**
 	 * Creates a new audio processing filter with the given name.
@@ -41,6 +43,15 @@ public abstract class AudioProcessingFilter extends AbstractFilter implements Fi
 		super(name);
 	}
 
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.isDefaultPcm();
+	}
+
 	//
 	// FILTER METHODS
 	//
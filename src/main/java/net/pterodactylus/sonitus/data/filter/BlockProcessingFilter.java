@@ -0,0 +1,284 @@
+/*
+ * Sonitus - BlockProcessingFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static net.pterodactylus.sonitus.data.FormatMetadata.PCM_FLOAT;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.FloatSamples;
+
+/**
+ * {@link Filter} implementation that processes PCM samples internally in
+ * blocks. Every received packet is decoded into a block of interleaved 16-bit
+ * little-endian samples that is handed to {@link #processBlock(int[], int)}, and the
+ * processed samples are encoded and sent on; bytes of incomplete sample frames
+ * are kept until the next packet arrives. The block buffers are reused for all
+ * packets of the same size.
+ * <p/>
+ * Subclasses that change the format of the stream (e.g. the number of
+ * channels) override {@link #processedMetadata(Metadata)}. Subclasses that
+ * can also process {@link net.pterodactylus.sonitus.data.FormatMetadata#PCM_FLOAT
+ * floating-point samples} return {@code true} from {@link #supportsFloat()};
+ * by default, floating-point samples are processed by {@link
+ * #processBlock(int[], int)} at 16-bit precision, without clipping. Subclasses
+ * that override {@link #processBlock(float[], int)} pass floating-point
+ * streams through without quantizing them.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public abstract class BlockProcessingFilter extends AbstractFilter implements FormatAwareFilter {
+
+	/** The metadata of the received stream. */
+	private Metadata inputMetadata;
+
+	/** Whether the received stream contains floating-point samples. */
+	private boolean floatSamples;
+
+	/** The size of a received sample (in bytes). */
+	private int sampleSize;
+
+	/** The size of a received sample frame (in bytes). */
+	private int frameSize;
+
+	/** The received bytes that have not been processed yet. */
+	private byte[] pendingBytes = new byte[0];
+
+	/** The number of bytes in {@link #pendingBytes}. */
+	private int pendingLength;
+
+	/** The decoded samples of the current block. */
+	private int[] samples = new int[0];
+
+	/** The decoded floating-point samples of the current block. */
+	private float[] floatBlock = new float[0];
+
+	/** The processed floating-point samples of the default float processing. */
+	private float[] processedFloatBlock = new float[0];
+
+	/** The encoded samples of the current block. */
+	private byte[] processedBytes = new byte[0];
+
+	/**
+	 * Creates a new block processing filter with the given name.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 */
+	protected BlockProcessingFilter(String name) {
+		super(name);
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.isDefaultPcm() || (supportsFloat() && formatMetadata.encoding().equalsIgnoreCase(PCM_FLOAT));
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		verifyEncoding(metadata);
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		if ((inputMetadata == null) || (inputMetadata.frequency() != metadata.frequency()) || (inputMetadata.channels() != metadata.channels()) || !inputMetadata.encoding().equalsIgnoreCase(metadata.encoding())) {
+			floatSamples = metadata.encoding().equalsIgnoreCase(PCM_FLOAT);
+			sampleSize = floatSamples ? 4 : 2;
+			frameSize = metadata.channels() * sampleSize;
+			pendingLength = 0;
+			formatChanged(metadata.frequency(), metadata.channels());
+		}
+		inputMetadata = metadata;
+		super.metadataUpdated(processedMetadata(metadata));
+	}
+
+	@Override
+	public void process(DataPacket dataPacket) throws IOException {
+		if (dataPacket.metadata().isPresent() && !dataPacket.metadata().get().equalsIgnoreComment(inputMetadata)) {
+			verifyEncoding(dataPacket.metadata().get());
+			metadataUpdated(dataPacket.metadata().get());
+		}
+
+		/* append the new bytes to the unprocessed bytes. */
+		byte[] buffer = dataPacket.buffer();
+		if (pendingBytes.length < (pendingLength + buffer.length)) {
+			pendingBytes = Arrays.copyOf(pendingBytes, pendingLength + buffer.length);
+		}
+		System.arraycopy(buffer, 0, pendingBytes, pendingLength, buffer.length);
+		pendingLength += buffer.length;
+		int frames = pendingLength / frameSize;
+		if (frames == 0) {
+			return;
+		}
+
+		/* decode, process, and encode all complete frames. */
+		int sampleCount = frames * frameSize / sampleSize;
+		int processedSampleCount = frames * metadata().channels();
+		if (processedBytes.length != (processedSampleCount * sampleSize)) {
+			processedBytes = new byte[processedSampleCount * sampleSize];
+		}
+		if (floatSamples) {
+			if (floatBlock.length < sampleCount) {
+				floatBlock = new float[sampleCount];
+			}
+			FloatSamples.decode(pendingBytes, 0, floatBlock, sampleCount);
+			FloatSamples.encode(processBlock(floatBlock, frames), processedSampleCount, processedBytes, 0);
+		} else {
+			if (samples.length < sampleCount) {
+				samples = new int[sampleCount];
+			}
+			for (int sample = 0; sample < sampleCount; ++sample) {
+				samples[sample] = (pendingBytes[sample * 2 + 1] << 8) | (pendingBytes[sample * 2] & 0xff);
+			}
+			int[] processedSamples = processBlock(samples, frames);
+			for (int sample = 0; sample < processedSampleCount; ++sample) {
+				int processedSample = Math.max(-32768, Math.min(32767, processedSamples[sample]));
+				processedBytes[sample * 2] = (byte) processedSample;
+				processedBytes[sample * 2 + 1] = (byte) (processedSample >> 8);
+			}
+		}
+
+		/* keep the bytes of an incomplete frame. */
+		pendingLength -= frames * frameSize;
+		System.arraycopy(pendingBytes, frames * frameSize, pendingBytes, 0, pendingLength);
+		super.process(new DataPacket(metadata(), processedBytes));
+	}
+
+	//
+	// SUBCLASS METHODS
+	//
+
+	/**
+	 * Returns whether this filter can process floating-point samples. This
+	 * implementation returns {@code false}.
+	 *
+	 * @return {@code true} if this filter implements {@link
+	 *         #processBlock(float[], int)}, {@code false} otherwise
+	 */
+	protected boolean supportsFloat() {
+		return false;
+	}
+
+	/**
+	 * Returns the metadata of the processed stream. This implementation returns
+	 * the given metadata unchanged.
+	 *
+	 * @param metadata
+	 * 		The metadata of the received stream
+	 * @return The metadata of the processed stream
+	 */
+	protected Metadata processedMetadata(Metadata metadata) {
+		return metadata;
+	}
+
+	/**
+	 * Called when the filter is opened and whenever the sampling frequency or
+	 * the number of channels of the stream changes.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param channels
+	 * 		The number of channels
+	 */
+	protected abstract void formatChanged(int frequency, int channels);
+
+	/**
+	 * Called to process a block of samples. The samples may be processed in
+	 * place; if the number of channels is changed by {@link
+	 * #processedMetadata(Metadata)}, the processed samples have to be stored
+	 * in a different array. Processed samples outside of the range of 16-bit
+	 * samples are clipped.
+	 *
+	 * @param samples
+	 * 		The interleaved samples (the array may be larger than the block)
+	 * @param frames
+	 * 		The number of sample frames in the block
+	 * @return The array containing the interleaved processed samples (the array
+	 *         may be larger than the block)
+	 */
+	protected abstract int[] processBlock(int[] samples, int frames);
+
+	/**
+	 * Called to process a block of floating-point samples. The same rules as
+	 * for {@link #processBlock(int[], int)} apply, except that the processed
+	 * samples are not clipped; it is only called if {@link #supportsFloat()}
+	 * returns {@code true}. This implementation scales the samples to the range
+	 * of 16-bit samples, rounds them, processes them with {@link
+	 * #processBlock(int[], int)}, and scales the processed samples back.
+	 *
+	 * @param samples
+	 * 		The interleaved samples (the array may be larger than the block)
+	 * @param frames
+	 * 		The number of sample frames in the block
+	 * @return The array containing the interleaved processed samples (the array
+	 *         may be larger than the block)
+	 */
+	protected float[] processBlock(float[] samples, int frames) {
+		int sampleCount = frames * inputMetadata.channels();
+		if (this.samples.length < sampleCount) {
+			this.samples = new int[sampleCount];
+		}
+		for (int sample = 0; sample < sampleCount; ++sample) {
+			this.samples[sample] = Math.round(samples[sample] * 32768);
+		}
+		int[] processedSamples = processBlock(this.samples, frames);
+		int processedSampleCount = frames * metadata().channels();
+		if (processedFloatBlock.length < processedSampleCount) {
+			processedFloatBlock = new float[processedSampleCount];
+		}
+		for (int sample = 0; sample < processedSampleCount; ++sample) {
+			processedFloatBlock[sample] = processedSamples[sample] / 32768f;
+		}
+		return processedFloatBlock;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Verifies that this filter can process the given format.
+	 *
+	 * @param metadata
+	 * 		The metadata of the received stream
+	 * @throws IOException
+	 * 		if this filter can not process the format
+	 */
+	private void verifyEncoding(Metadata metadata) throws IOException {
+		if (!accepts(metadata.format())) {
+			throw new IOException(String.format("%s can not process %s.", name(), metadata.format()));
+		}
+	}
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Sonitus - ChannelMatrixFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.Metadata;
+
+/**
+ * Internal {@link Filter} implementation that maps M input channels to N
+ * output channels using a coefficient matrix: every output channel is the
+ * weighted sum of all input channels. Matrices for common conversions are
+ * created by the static methods.
+ * <p/>
+ * The filter can only be opened with a stream that has as many channels as the
+ * matrix has columns; if the number of channels changes later, missing input
+ * channels are treated as silence and surplus input channels are ignored.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ChannelMatrixFilter extends BlockProcessingFilter {
+
+	/** The weight of the center and surround channels when downmixing 5.1. */
+	private static final double MINUS_3_DB = Math.sqrt(0.5);
+
+	/** The number of input channels of the matrix. */
+	private final int inputChannels;
+
+	/** The number of output channels. */
+	private final int outputChannels;
+
+	/** The coefficients of the matrix, one row of input weights per output channel. */
+	private final double[] coefficients;
+
+	/** The number of channels of the received stream. */
+	private int channels;
+
+	/** The processed samples. */
+	private int[] processedSamples = new int[0];
+
+	/** The processed floating-point samples. */
+	private float[] processedFloatSamples = new float[0];
+
+	/**
+	 * Creates a new channel matrix filter.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 * @param matrix
+	 * 		The matrix, one row of input channel weights per output channel
+	 */
+	public ChannelMatrixFilter(String name, double[][] matrix) {
+		super(name);
+		checkNotNull(matrix, "matrix must not be null");
+		checkArgument(matrix.length > 0, "matrix must have at least one row");
+		checkArgument(matrix[0].length > 0, "matrix must have at least one column");
+		outputChannels = matrix.length;
+		inputChannels = matrix[0].length;
+		coefficients = new double[outputChannels * inputChannels];
+		for (int outputChannel = 0; outputChannel < outputChannels; ++outputChannel) {
+			checkArgument(matrix[outputChannel].length == inputChannels, "all rows of matrix must have the same length");
+			System.arraycopy(matrix[outputChannel], 0, coefficients, outputChannel * inputChannels, inputChannels);
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Creates a filter that copies a mono stream into both channels of a
+	 * stereo stream.
+	 *
+	 * @return A mono-to-stereo filter
+	 */
+	public static ChannelMatrixFilter monoToStereo() {
+		return new ChannelMatrixFilter("Mono to Stereo", new double[][] { { 1 }, { 1 } });
+	}
+
+	/**
+	 * Creates a filter that mixes both channels of a stereo stream into a mono
+	 * stream.
+	 *
+	 * @return A stereo-to-mono filter
+	 */
+	public static ChannelMatrixFilter stereoToMono() {
+		return new ChannelMatrixFilter("Stereo to Mono", new double[][] { { 0.5, 0.5 } });
+	}
+
+	/**
+	 * Creates a filter that downmixes a 5.1 stream (in the order left, right,
+	 * center, LFE, left surround, right surround) to stereo according to ITU-R
+	 * BS.775. The center and surround channels are attenuated by 3 dB, the LFE
+	 * channel is dropped, and the result is scaled so that it can not clip.
+	 *
+	 * @return A 5.1-to-stereo filter
+	 */
+	public static ChannelMatrixFilter surroundToStereo() {
+		double scale = 1 / (1 + 2 * MINUS_3_DB);
+		double front = scale;
+		double other = MINUS_3_DB * scale;
+		return new ChannelMatrixFilter("5.1 to Stereo", new double[][] {
+				{ front, 0, other, 0, other, 0 },
+				{ 0, front, other, 0, 0, other }
+		});
+	}
+
+	/**
+	 * Creates a filter that converts a left/right stereo stream into a
+	 * mid/side stream.
+	 *
+	 * @return A left/right-to-mid/side filter
+	 */
+	public static ChannelMatrixFilter toMidSide() {
+		return new ChannelMatrixFilter("To Mid/Side", new double[][] { { 0.5, 0.5 }, { 0.5, -0.5 } });
+	}
+
+	/**
+	 * Creates a filter that converts a mid/side stream created by {@link
+	 * #toMidSide()} back into a left/right stereo stream.
+	 *
+	 * @return A mid/side-to-left/right filter
+	 */
+	public static ChannelMatrixFilter fromMidSide() {
+		return new ChannelMatrixFilter("From Mid/Side", new double[][] { { 1, 1 }, { 1, -1 } });
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		if (metadata.channels() != inputChannels) {
+			throw new IOException(String.format("Can not map %d channels with a matrix for %d channels.", metadata.channels(), inputChannels));
+		}
+		super.open(metadata);
+	}
+
+	@Override
+	protected Metadata processedMetadata(Metadata metadata) {
+		return metadata.channels(outputChannels);
+	}
+
+	@Override
+	protected void formatChanged(int frequency, int channels) {
+		this.channels = channels;
+	}
+
+	@Override
+	protected boolean supportsFloat() {
+		return true;
+	}
+
+	@Override
+	protected int[] processBlock(int[] samples, int frames) {
+		if (processedSamples.length < (frames * outputChannels)) {
+			processedSamples = new int[frames * outputChannels];
+		}
+		int usedChannels = Math.min(channels, inputChannels);
+		for (int frame = 0, inputIndex = 0, outputIndex = 0; frame < frames; ++frame, inputIndex += channels) {
+			for (int outputChannel = 0, coefficientIndex = 0; outputChannel < outputChannels; ++outputChannel, coefficientIndex += inputChannels) {
+				double sample = 0;
+				for (int inputChannel = 0; inputChannel < usedChannels; ++inputChannel) {
+					sample += coefficients[coefficientIndex + inputChannel] * samples[inputIndex + inputChannel];
+				}
+				processedSamples[outputIndex++] = (int) Math.round(sample);
+			}
+		}
+		return processedSamples;
+	}
+
+	@Override
+	protected float[] processBlock(float[] samples, int frames) {
+		if (processedFloatSamples.length < (frames * outputChannels)) {
+			processedFloatSamples = new float[frames * outputChannels];
+		}
+		int usedChannels = Math.min(channels, inputChannels);
+		for (int frame = 0, inputIndex = 0, outputIndex = 0; frame < frames; ++frame, inputIndex += channels) {
+			for (int outputChannel = 0, coefficientIndex = 0; outputChannel < outputChannels; ++outputChannel, coefficientIndex += inputChannels) {
+				double sample = 0;
+				for (int inputChannel = 0; inputChannel < usedChannels; ++inputChannel) {
+					sample += coefficients[coefficientIndex + inputChannel] * samples[inputIndex + inputChannel];
+				}
+				processedFloatSamples[outputIndex++] = (float) sample;
+			}
+		}
+		return processedFloatSamples;
+	}
+
+}
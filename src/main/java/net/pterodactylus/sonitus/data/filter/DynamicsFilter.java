@@ -0,0 +1,131 @@
+/*
+ * Sonitus - DynamicsFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.pterodactylus.sonitus.data.Controller;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.controller.Fader;
+import net.pterodactylus.sonitus.data.controller.Knob;
+import net.pterodactylus.sonitus.data.controller.Switch;
+import net.pterodactylus.sonitus.io.Compressor;
+import net.pterodactylus.sonitus.io.Limiter;
+
+/**
+ * Internal {@link Filter} implementation that controls the dynamics of a PCM
+ * stream with a {@link Compressor} followed by a look-ahead true-peak {@link
+ * Limiter}, so that the following filters (usually encoders) never receive
+ * clipped samples.
+ * <p/>
+ * The compressor’s threshold (-60 to 0 dBFS), ratio (1:1 to 20:1), attack
+ * time (0 to 100 ms), and release time (0 to 1000 ms) are controlled by
+ * {@link Fader}s, its makeup gain (-12 to +12 dB) by a {@link Knob}, and the
+ * compressor can be switched off. The limiter’s ceiling (-12 to 0 dBTP) and
+ * release time (0 to 1000 ms) are controlled by faders; the limiter is always
+ * active and delays the stream by its look-ahead of {@value #LOOK_AHEAD} ms.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class DynamicsFilter extends BlockProcessingFilter {
+
+	/** The look-ahead of the limiter (in milliseconds). */
+	private static final int LOOK_AHEAD = 5;
+
+	/** The compressor switch. */
+	private final Switch compressorSwitch = new Switch("Compressor", true);
+
+	/** The threshold fader. */
+	private final Fader thresholdFader = new Fader("Threshold", 0.7);
+
+	/** The ratio fader. */
+	private final Fader ratioFader = new Fader("Ratio", 3 / 19.0);
+
+	/** The attack fader. */
+	private final Fader attackFader = new Fader("Attack", 0.1);
+
+	/** The release fader. */
+	private final Fader releaseFader = new Fader("Release", 0.2);
+
+	/** The makeup gain knob. */
+	private final Knob makeupGainKnob = new Knob("Makeup Gain", 0.0);
+
+	/** The ceiling fader. */
+	private final Fader ceilingFader = new Fader("Ceiling", 11 / 12.0);
+
+	/** The limiter release fader. */
+	private final Fader limiterReleaseFader = new Fader("Limiter Release", 0.1);
+
+	/** The compressor for the current format. */
+	private Compressor compressor;
+
+	/** The limiter for the current format. */
+	private Limiter limiter;
+
+	/**
+	 * Creates a new dynamics filter.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 */
+	public DynamicsFilter(String name) {
+		super(name);
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public List<Controller<?>> controllers() {
+		return Arrays.<Controller<?>>asList(compressorSwitch, thresholdFader, ratioFader, attackFader, releaseFader, makeupGainKnob, ceilingFader, limiterReleaseFader);
+	}
+
+	@Override
+	protected void formatChanged(int frequency, int channels) {
+		compressor = new Compressor(frequency, channels);
+		limiter = new Limiter(frequency, channels, LOOK_AHEAD);
+	}
+
+	@Override
+	protected int[] processBlock(int[] samples, int frames) {
+		updateParameters();
+		if (compressorSwitch.value()) {
+			compressor.process(samples, frames);
+		}
+		limiter.process(samples, frames);
+		return samples;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/** Applies the values of the controllers to the compressor and the limiter. */
+	private void updateParameters() {
+		compressor.threshold(thresholdFader.value() * 60 - 60);
+		compressor.ratio(1 + ratioFader.value() * 19);
+		compressor.attack(attackFader.value() * 100);
+		compressor.release(releaseFader.value() * 1000);
+		compressor.makeupGain(makeupGainKnob.value() * 12);
+		limiter.ceiling(ceilingFader.value() * 12 - 12);
+		limiter.release(limiterReleaseFader.value() * 1000);
+	}
+
+}
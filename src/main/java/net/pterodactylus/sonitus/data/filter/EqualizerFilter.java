@@ -0,0 +1,181 @@
+/*
+ * Sonitus - EqualizerFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.pterodactylus.sonitus.data.Controller;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.controller.Knob;
+import net.pterodactylus.sonitus.io.Equalizer;
+import net.pterodactylus.sonitus.io.Equalizer.Type;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Internal {@link Filter} implementation that equalizes a PCM stream with a
+ * parametric {@link Equalizer}.
+ * <p/>
+ * The center frequencies of the bands are spread logarithmically between
+ * 60 Hz and 12 kHz; the lowest band is a low shelf, the highest band a high
+ * shelf, and all bands in between are peaking filters. The types of the bands
+ * can be changed before the filter is opened. Every band has three {@link
+ * Knob}s: the gain (-12 to +12 dB), the frequency (two octaves below to two
+ * octaves above the center frequency), and the quality (a quarter to four
+ * times the default quality). The coefficients of a band are only calculated
+ * when one of its knobs has changed.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class EqualizerFilter extends BlockProcessingFilter {
+
+	/** The default quality of a band. */
+	private static final double DEFAULT_Q = 1.0;
+
+	/** The types of the bands. */
+	private final Type[] types;
+
+	/** The center frequencies of the bands. */
+	private final double[] centerFrequencies;
+
+	/** The gain knobs of the bands. */
+	private final Knob[] gainKnobs;
+
+	/** The frequency knobs of the bands. */
+	private final Knob[] frequencyKnobs;
+
+	/** The quality knobs of the bands. */
+	private final Knob[] qualityKnobs;
+
+	/** The knob values the coefficients were last calculated for (three per band). */
+	private final double[] knobValues;
+
+	/** The equalizer for the current format. */
+	private Equalizer equalizer;
+
+	/**
+	 * Creates a new equalizer filter.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 * @param bands
+	 * 		The number of bands
+	 */
+	public EqualizerFilter(String name, int bands) {
+		super(name);
+		checkArgument(bands > 0, "bands must be positive");
+		types = new Type[bands];
+		centerFrequencies = new double[bands];
+		gainKnobs = new Knob[bands];
+		frequencyKnobs = new Knob[bands];
+		qualityKnobs = new Knob[bands];
+		knobValues = new double[bands * 3];
+		for (int band = 0; band < bands; ++band) {
+			types[band] = (bands == 1) ? Type.PEAKING : (band == 0) ? Type.LOW_SHELF : (band == (bands - 1)) ? Type.HIGH_SHELF : Type.PEAKING;
+			centerFrequencies[band] = (bands == 1) ? 1000 : 60 * Math.pow(200, band / (bands - 1.0));
+			gainKnobs[band] = new Knob(String.format("Band %d Gain", band + 1));
+			frequencyKnobs[band] = new Knob(String.format("Band %d Frequency", band + 1));
+			qualityKnobs[band] = new Knob(String.format("Band %d Q", band + 1));
+		}
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Sets the type of the given band.
+	 *
+	 * @param band
+	 * 		The index of the band
+	 * @param type
+	 * 		The type of the band
+	 * @return This equalizer filter
+	 */
+	public EqualizerFilter type(int band, Type type) {
+		checkElementIndex(band, types.length, "band");
+		types[band] = checkNotNull(type, "type must not be null");
+		Arrays.fill(knobValues, Double.NaN);
+		return this;
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public List<Controller<?>> controllers() {
+		List<Controller<?>> controllers = Lists.newArrayList();
+		for (int band = 0; band < types.length; ++band) {
+			controllers.add(gainKnobs[band]);
+			controllers.add(frequencyKnobs[band]);
+			controllers.add(qualityKnobs[band]);
+		}
+		return controllers;
+	}
+
+	@Override
+	protected void formatChanged(int frequency, int channels) {
+		equalizer = new Equalizer(frequency, channels, types.length);
+		Arrays.fill(knobValues, Double.NaN);
+	}
+
+	@Override
+	protected boolean supportsFloat() {
+		return true;
+	}
+
+	@Override
+	protected int[] processBlock(int[] samples, int frames) {
+		updateBands();
+		equalizer.process(samples, frames);
+		return samples;
+	}
+
+	@Override
+	protected float[] processBlock(float[] samples, int frames) {
+		updateBands();
+		equalizer.process(samples, frames);
+		return samples;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/** Calculates the coefficients of all bands whose knobs have changed. */
+	private void updateBands() {
+		for (int band = 0; band < types.length; ++band) {
+			double gain = gainKnobs[band].value();
+			double frequency = frequencyKnobs[band].value();
+			double quality = qualityKnobs[band].value();
+			if ((gain != knobValues[band * 3]) || (frequency != knobValues[band * 3 + 1]) || (quality != knobValues[band * 3 + 2])) {
+				equalizer.band(band, types[band], centerFrequencies[band] * Math.pow(4, frequency), gain * 12, DEFAULT_Q * Math.pow(4, quality));
+				knobValues[band * 3] = gain;
+				knobValues[band * 3 + 1] = frequency;
+				knobValues[band * 3 + 2] = quality;
+			}
+		}
+	}
+
+}
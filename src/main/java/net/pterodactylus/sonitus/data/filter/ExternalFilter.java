@@ -20,12 +20,16 @@ package net.pterodactylus.sonitus.data.filter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.logging.Logger;
 
 import net.pterodactylus.sonitus.data.AbstractFilter;
 import net.pterodactylus.sonitus.data.Filter;
 import net.pterodactylus.sonitus.data.Metadata;
 import net.pterodactylus.sonitus.io.InputStreamDrainer;
+import net.pterodactylus.sonitus.io.ProcessPool;
+import net.pterodactylus.sonitus.io.ProcessSupervisor;
+import net.pterodactylus.sonitus.io.ProcessSupervisor.SupervisedProcess;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -41,9 +45,18 @@ public abstract class ExternalFilter extends AbstractFilter implements Filter {
 	/** The logger. */
 	private final Logger logger = Logger.getLogger(getClass().getName());
 
+	/** The process pool to take processes from. */
+	private ProcessPool processPool;
+
+	/** The process supervisor to run the process under. */
+	private ProcessSupervisor processSupervisor;
+
 	/** The external process. */
 	private Process process;
 
+	/** The supervised external process. */
+	private SupervisedProcess supervisedProcess;
+
 	/**
 	 * Creates a new external filter with the given name.
 	 *
@@ -54,31 +67,72 @@ public abstract class ExternalFilter extends AbstractFilter implements Filter {
 		super(name);
 	}
 
+	/**
+	 * Sets the process pool to take the external process from. Without a
+	 * process pool a new process is started whenever this filter is opened.
+	 *
+	 * @param processPool
+	 * 		The process pool to use, or {@code null} to not use a process pool
+	 * @return This external filter
+	 */
+	public ExternalFilter processPool(ProcessPool processPool) {
+		this.processPool = processPool;
+		return this;
+	}
+
+	/**
+	 * Sets the process supervisor to run the external process under. A
+	 * supervised process is restarted when it crashes or stalls, and its stderr
+	 * is drained by the supervisor; supervised processes are not taken from the
+	 * {@link #processPool(ProcessPool) process pool}.
+	 *
+	 * @param processSupervisor
+	 * 		The process supervisor to use, or {@code null} to not supervise the
+	 * 		process
+	 * @return This external filter
+	 */
+	public ExternalFilter processSupervisor(ProcessSupervisor processSupervisor) {
+		this.processSupervisor = processSupervisor;
+		return this;
+	}
+
 	//
 	// FILTER METHODS
 	//
 
 	@Override
 	public void open(Metadata metadata) throws IOException {
-		process = Runtime.getRuntime().exec(Iterables.toArray(ImmutableList.<String>builder().add(binary(metadata)).addAll(parameters(metadata)).build(), String.class));
-		InputStream processError = process.getErrorStream();
-		new Thread(new InputStreamDrainer(processError)).start();
+		List<String> command = ImmutableList.<String>builder().add(binary(metadata)).addAll(parameters(metadata)).build();
+		supervisedProcess = null;
+		if (processSupervisor != null) {
+			supervisedProcess = processSupervisor.supervise(command);
+		} else if (processPool != null) {
+			process = processPool.get(command);
+		} else {
+			process = Runtime.getRuntime().exec(Iterables.toArray(command, String.class));
+			InputStream processError = process.getErrorStream();
+			new Thread(new InputStreamDrainer(processError)).start();
+		}
 		super.open(metadata);
 	}
 
 	@Override
 	public void close() {
-		process.destroy();
+		if (supervisedProcess != null) {
+			supervisedProcess.close();
+		} else {
+			process.destroy();
+		}
 	}
 
 	@Override
 	protected InputStream createInputStream() throws IOException {
-		return process.getInputStream();
+		return (supervisedProcess != null) ? supervisedProcess.inputStream() : process.getInputStream();
 	}
 
 	@Override
 	protected OutputStream createOutputStream() throws IOException {
-		return process.getOutputStream();
+		return (supervisedProcess != null) ? supervisedProcess.outputStream() : process.getOutputStream();
 	}
 
 	//
@@ -48,7 +48,12 @@ public abstract class ExternalMp3Decoder extends ExternalFilter {
 		checkNotNull(metadata, "metadata must not be null");
 		checkState(metadata.encoding().equalsIgnoreCase("MP3"), "source must be MP3-encoded");
 
-		super.open(metadata.encoding("PCM"));
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		super.metadataUpdated(metadata.encoding("PCM"));
 	}
 
 }
@@ -22,16 +22,20 @@ import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
 
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
 import net.pterodactylus.sonitus.data.Metadata;
 
 /**
  * Basic {@link net.pterodactylus.sonitus.data.filter.ExternalFilter}
  * implementation that verifies that the connected source is PCM-encoded and
- * that returns an MP3-encoded metadata.
+ * that returns an MP3-encoded metadata. By default only 16-bit little-endian
+ * PCM is accepted; encoders that can read other formats override {@link
+ * #accepts(FormatMetadata)}.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
-public abstract class ExternalMp3Encoder extends ExternalFilter {
+public abstract class ExternalMp3Encoder extends ExternalFilter implements FormatAwareFilter {
 
 	/**
 	 * Creates a new external MP3 encoder.
@@ -43,12 +47,30 @@ public abstract class ExternalMp3Encoder extends ExternalFilter {
 		super(name);
 	}
 
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.isDefaultPcm();
+	}
+
+	//
+	// FILTER METHODS
+	//
+
 	@Override
 	public void open(Metadata metadata) throws IOException {
 		checkNotNull(metadata, "metadata must not be null");
-		checkState(metadata.encoding().equalsIgnoreCase("PCM"), "source must be PCM-encoded");
+		checkState(accepts(metadata.format()), "source must be PCM-encoded in a supported sample format");
+
+		super.open(metadata);
+	}
 
-		super.open(metadata.encoding("MP3"));
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		super.metadataUpdated(metadata.encoding("MP3"));
 	}
 
 }
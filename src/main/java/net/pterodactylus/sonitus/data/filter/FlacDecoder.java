@@ -17,12 +17,21 @@
 
 package net.pterodactylus.sonitus.data.filter;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
 import net.pterodactylus.sonitus.data.Metadata;
 
 import com.google.common.collect.ImmutableList;
 
 /**
- * Decoder {@link net.pterodactylus.sonitus.data.Filter} for FLAC files.
+ * Decoder {@link net.pterodactylus.sonitus.data.Filter} for FLAC files. The
+ * samples are decoded with the sample width of the FLAC stream so that 24-bit
+ * masters are not truncated; the pipeline converts them if a following filter
+ * needs a different format.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
@@ -45,6 +54,36 @@ public class FlacDecoder extends ExternalFilter {
 		this.binary = binary;
 	}
 
+	/**
+	 * Sets whether to swap bytes on the decoded output.
+	 *
+	 * @param swapBytes
+	 * 		{@code true} to write little-endian samples, {@code false} to write
+	 * 		big-endian samples
+	 * @return This FLAC decoder
+	 */
+	public FlacDecoder swapBytes(boolean swapBytes) {
+		this.swapBytes = swapBytes;
+		return this;
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		checkNotNull(metadata, "metadata must not be null");
+		checkState(metadata.encoding().equalsIgnoreCase("FLAC"), "source must be FLAC-encoded");
+
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		super.metadataUpdated(metadata.encoding("PCM").byteOrder(swapBytes ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN));
+	}
+
 	//
 	// EXTERNALFILTER METHODS
 	//
@@ -69,7 +108,6 @@ public class FlacDecoder extends ExternalFilter {
 			parameters.add("--endian=big");
 		}
 		parameters.add(String.format("--channels=%d", metadata.channels()));
-		parameters.add("--bps=16");
 		parameters.add(String.format("--sample-rate=%d", metadata.frequency()));
 		parameters.add("--sign=signed");
 
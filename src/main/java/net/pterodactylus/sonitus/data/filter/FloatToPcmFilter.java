@@ -0,0 +1,85 @@
+/*
+ * Sonitus - FloatToPcmFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static net.pterodactylus.sonitus.data.FormatMetadata.PCM_FLOAT;
+
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.io.Ditherer;
+import net.pterodactylus.sonitus.io.FloatSamples;
+
+/**
+ * {@link Filter} implementation that converts {@link
+ * net.pterodactylus.sonitus.data.FormatMetadata#PCM_FLOAT floating-point PCM}
+ * to 16-bit PCM, using TPDF {@link Ditherer dither}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ * @see PcmToFloatFilter
+ */
+public class FloatToPcmFilter extends SampleConversionFilter {
+
+	/** The ditherer. */
+	private final Ditherer ditherer = new Ditherer();
+
+	/** The floating-point samples. */
+	private float[] samples = new float[0];
+
+	/**
+	 * Creates a new float-to-PCM filter.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 */
+	public FloatToPcmFilter(String name) {
+		super(name);
+	}
+
+	//
+	// SAMPLE CONVERSION FILTER METHODS
+	//
+
+	@Override
+	protected String inputEncoding() {
+		return PCM_FLOAT;
+	}
+
+	@Override
+	protected String outputEncoding() {
+		return "PCM";
+	}
+
+	@Override
+	protected int inputSampleSize() {
+		return 4;
+	}
+
+	@Override
+	protected int outputSampleSize() {
+		return 2;
+	}
+
+	@Override
+	protected void convert(byte[] input, int samples, byte[] output) {
+		if (this.samples.length < samples) {
+			this.samples = new float[samples];
+		}
+		FloatSamples.decode(input, 0, this.samples, samples);
+		ditherer.toInt16(this.samples, samples, output, 0);
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Sonitus - GainFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.Amplifier;
+import net.pterodactylus.sonitus.io.PcmSamples;
+
+/**
+ * {@link Filter} implementation that applies the {@link Metadata#gain() gain}
+ * of the received metadata to integer PCM samples of any width and byte order.
+ * The gain is removed from the metadata of the amplified stream so that it is
+ * not applied twice.
+ * <p/>
+ * Gains are determined for the encoded files (e.g. by a {@link
+ * net.pterodactylus.sonitus.io.loudness.LoudnessIndex}) so they can only be
+ * applied once the samples are decoded. The {@link
+ * net.pterodactylus.sonitus.data.Pipeline} applies them behind its decoders
+ * itself; this filter is for streams whose gain has to be applied at another
+ * point.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class GainFilter extends SampleConversionFilter {
+
+	/** The amplifier. */
+	private final Amplifier amplifier = new Amplifier();
+
+	/**
+	 * Creates a new gain filter.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 */
+	public GainFilter(String name) {
+		super(name);
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return super.accepts(formatMetadata) && (formatMetadata.sampleWidth() >= 8) && (formatMetadata.sampleWidth() <= 32);
+	}
+
+	//
+	// SAMPLE CONVERSION FILTER METHODS
+	//
+
+	@Override
+	protected String inputEncoding() {
+		return "PCM";
+	}
+
+	@Override
+	protected String outputEncoding() {
+		return "PCM";
+	}
+
+	@Override
+	protected Metadata convertedMetadata(Metadata metadata) {
+		return metadata.withoutGain();
+	}
+
+	@Override
+	protected int inputSampleSize() {
+		return PcmSamples.sampleSize(inputMetadata().sampleWidth());
+	}
+
+	@Override
+	protected int outputSampleSize() {
+		return inputSampleSize();
+	}
+
+	@Override
+	protected void convert(byte[] input, int samples, byte[] output) {
+		amplifier.amplify(input, 0, output, 0, samples, inputMetadata().sampleWidth(), inputMetadata().byteOrder(), inputMetadata().gain().or(0.0));
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Sonitus - InternalMp3Decoder.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.mp3.DecodingOutputStream;
+
+/**
+ * {@link Filter} implementation that decodes an MP3 stream in-process, without
+ * running an external decoder. Only MPEG audio layer III is decoded; the
+ * decoded stream consists of 16-bit signed PCM samples.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class InternalMp3Decoder extends AbstractFilter implements Filter {
+
+	/** Whether to write big-endian samples. */
+	private boolean swapBytes;
+
+	/** Creates a new internal MP3 decoder. */
+	public InternalMp3Decoder() {
+		super("MP3 Decoder");
+	}
+
+	/**
+	 * Sets whether to swap bytes on the decoded output. The decoder writes the
+	 * samples in the requested byte order directly, so there is no additional
+	 * cost for swapping.
+	 *
+	 * @param swapBytes
+	 * 		{@code true} to write big-endian samples, {@code false} to write
+	 * 		little-endian samples
+	 * @return This MP3 decoder
+	 */
+	public InternalMp3Decoder swapBytes(boolean swapBytes) {
+		this.swapBytes = swapBytes;
+		return this;
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		checkNotNull(metadata, "metadata must not be null");
+		checkState(metadata.encoding().equalsIgnoreCase("MP3"), "source must be MP3-encoded");
+
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		super.metadataUpdated(metadata.encoding("PCM").sampleWidth(16).byteOrder(swapBytes ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN));
+	}
+
+	@Override
+	protected OutputStream createOutputStream() throws IOException {
+		return new DecodingOutputStream(super.createOutputStream(), swapBytes);
+	}
+
+}
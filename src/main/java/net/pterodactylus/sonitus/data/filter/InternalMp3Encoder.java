@@ -0,0 +1,206 @@
+/*
+ * Sonitus - InternalMp3Encoder.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutorService;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.data.filter.LameMp3Encoder.Preset;
+import net.pterodactylus.sonitus.io.mp3.EncodingOutputStream;
+
+/**
+ * {@link Filter} implementation that encodes PCM samples to MP3 in-process,
+ * without running an external encoder. It accepts the same presets and
+ * bitrates as {@link LameMp3Encoder}; as the encoder only creates constant
+ * bitrate streams, the presets are mapped to fixed bitrates. Frames can be
+ * encoded in parallel by setting an {@link ExecutorService}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class InternalMp3Encoder extends AbstractFilter implements FormatAwareFilter {
+
+	/** The bitrate to encode to (in kbps). */
+	private final int bitrate;
+
+	/** Whether the bitrate was derived from a preset. */
+	private final boolean preset;
+
+	/** Whether to swap bytes in the input. */
+	private boolean swapBytes;
+
+	/** Whether to use highest quality encoding. */
+	private boolean hq;
+
+	/** The executor service to encode on. */
+	private ExecutorService executorService;
+
+	/** The number of threads of the executor service. */
+	private int parallelism = 1;
+
+	/**
+	 * Creates a new internal MP3 encoder.
+	 *
+	 * @param preset
+	 * 		The preset to use
+	 */
+	public InternalMp3Encoder(Preset preset) {
+		this(bitrate(checkNotNull(preset, "preset must not be null")), true);
+	}
+
+	/**
+	 * Creates a new internal MP3 encoder.
+	 *
+	 * @param bitrate
+	 * 		The bitrate to encode to (in kbps)
+	 */
+	public InternalMp3Encoder(int bitrate) {
+		this(bitrate, false);
+	}
+
+	/**
+	 * Creates a new internal MP3 encoder.
+	 *
+	 * @param bitrate
+	 * 		The bitrate to encode to (in kbps)
+	 * @param preset
+	 * 		{@code true} if the bitrate was derived from a preset
+	 */
+	private InternalMp3Encoder(int bitrate, boolean preset) {
+		super("MP3 Encoder");
+		checkArgument(bitrate > 0, "bitrate must be positive");
+		this.bitrate = bitrate;
+		this.preset = preset;
+	}
+
+	/**
+	 * Sets whether to swap bytes on the input to encode
+	 *
+	 * @param swapBytes
+	 * 		{@code true} to read big-endian samples, {@code false} to read
+	 * 		little-endian samples
+	 * @return This MP3 encoder
+	 */
+	public InternalMp3Encoder swapBytes(boolean swapBytes) {
+		this.swapBytes = swapBytes;
+		return this;
+	}
+
+	/**
+	 * Sets whether to use highest quality encoding.
+	 *
+	 * @param hq
+	 * 		{@code true} to use highest quality encoding, {@code false} otherwise
+	 * @return This MP3 encoder
+	 */
+	public InternalMp3Encoder hq(boolean hq) {
+		this.hq = hq;
+		return this;
+	}
+
+	/**
+	 * Sets the executor service to encode on. Without an executor service the
+	 * frames are encoded in the thread that writes the samples.
+	 *
+	 * @param executorService
+	 * 		The executor service to encode on, or {@code null} to not encode in
+	 * 		parallel
+	 * @param parallelism
+	 * 		The number of threads of the executor service
+	 * @return This MP3 encoder
+	 */
+	public InternalMp3Encoder executorService(ExecutorService executorService, int parallelism) {
+		checkArgument(parallelism > 0, "parallelism must be positive");
+		this.executorService = executorService;
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.encoding().equalsIgnoreCase("PCM") && (formatMetadata.sampleWidth() == 16) && (formatMetadata.byteOrder() == (swapBytes ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN));
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		checkNotNull(metadata, "metadata must not be null");
+		checkState(accepts(metadata.format()), "source must be 16-bit PCM in the configured byte order");
+
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		super.metadataUpdated(metadata.encoding("MP3"));
+	}
+
+	@Override
+	protected OutputStream createOutputStream() throws IOException {
+		Metadata metadata = metadata();
+		boolean lowSamplingRate = metadata.frequency() < 32000;
+		int bitrate = (preset && lowSamplingRate) ? Math.min(this.bitrate, 160) : this.bitrate;
+		try {
+			return new EncodingOutputStream(super.createOutputStream(), metadata.frequency(), metadata.channels(), bitrate, swapBytes).executorService(executorService, parallelism).hq(hq);
+		} catch (IllegalArgumentException iae1) {
+			throw new IOException(String.format("Can not encode %d channels at %d Hz with %d kbps.", metadata.channels(), metadata.frequency(), bitrate), iae1);
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns the constant bitrate that corresponds to the given preset.
+	 *
+	 * @param preset
+	 * 		The preset
+	 * @return The bitrate of the preset (in kbps)
+	 */
+	private static int bitrate(Preset preset) {
+		switch (preset) {
+			case MEDIUM:
+				return 160;
+			case STANDARD:
+				return 192;
+			case EXTREME:
+				return 256;
+			default:
+				return 320;
+		}
+	}
+
+}
@@ -17,6 +17,8 @@
 
 package net.pterodactylus.sonitus.data.filter;
 
+import java.nio.ByteOrder;
+
 import net.pterodactylus.sonitus.data.Metadata;
 
 import com.google.common.collect.ImmutableList;
@@ -58,6 +60,19 @@ public class LameMp3Decoder extends ExternalMp3Decoder {
 		return this;
 	}
 
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		ByteOrder byteOrder = ByteOrder.nativeOrder();
+		if (swapBytes) {
+			byteOrder = (byteOrder == ByteOrder.BIG_ENDIAN) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		}
+		super.metadataUpdated(metadata.sampleWidth(16).byteOrder(byteOrder));
+	}
+
 	//
 	// EXTERNALFILTER METHODS
 	//
@@ -17,8 +17,10 @@
 
 package net.pterodactylus.sonitus.data.filter;
 
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
+import net.pterodactylus.sonitus.data.FormatMetadata;
 import net.pterodactylus.sonitus.data.Metadata;
 
 import com.google.common.base.Optional;
@@ -126,6 +128,15 @@ public class LameMp3Encoder extends ExternalMp3Encoder {
 		return this;
 	}
 
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.encoding().equalsIgnoreCase("PCM") && (formatMetadata.sampleWidth() == 16) && (formatMetadata.byteOrder() == (swapBytes ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN));
+	}
+
 	//
 	// EXTERNALFILTER METHODS
 	//
@@ -0,0 +1,110 @@
+/*
+ * Sonitus - MeterFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import java.io.IOException;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.loudness.LevelMeter;
+import net.pterodactylus.sonitus.io.loudness.Levels;
+
+import com.google.common.base.Optional;
+
+/**
+ * {@link Filter} implementation that passes PCM data through unchanged while
+ * {@link LevelMeter metering} its loudness, RMS levels, and peaks. The current
+ * {@link #levels() levels} can be read from any thread without blocking the
+ * pipeline.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class MeterFilter extends AbstractFilter implements FormatAwareFilter {
+
+	/** The level meter for the current format. */
+	private volatile LevelMeter levelMeter;
+
+	/**
+	 * Creates a new meter filter.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 */
+	public MeterFilter(String name) {
+		super(name);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the current levels.
+	 *
+	 * @return The current levels, or {@link Optional#absent()} if the filter has
+	 *         not been opened yet
+	 */
+	public Optional<Levels> levels() {
+		LevelMeter levelMeter = this.levelMeter;
+		return (levelMeter == null) ? Optional.<Levels>absent() : Optional.of(levelMeter.levels());
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.isDefaultPcm();
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		if (!accepts(metadata.format())) {
+			throw new IOException(String.format("Can only meter 16-bit little-endian PCM, not %s.", metadata.format()));
+		}
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		Metadata previousMetadata = metadata();
+		if ((levelMeter == null) || (previousMetadata.frequency() != metadata.frequency()) || (previousMetadata.channels() != metadata.channels())) {
+			levelMeter = new LevelMeter(metadata.frequency(), metadata.channels());
+		}
+		super.metadataUpdated(metadata);
+	}
+
+	@Override
+	public void process(DataPacket dataPacket) throws IOException {
+		if (dataPacket.metadata().isPresent() && !dataPacket.metadata().get().equalsIgnoreComment(metadata())) {
+			metadataUpdated(dataPacket.metadata().get());
+		}
+		levelMeter.process(dataPacket.buffer(), 0, dataPacket.buffer().length);
+		super.process(dataPacket);
+	}
+
+}
@@ -0,0 +1,553 @@
+/*
+ * Sonitus - MixerFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.Controller;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.data.MultiInputFilter;
+import net.pterodactylus.sonitus.data.controller.Fader;
+import net.pterodactylus.sonitus.data.controller.Switch;
+import net.pterodactylus.sonitus.io.Ducker;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Internal {@link MultiInputFilter} implementation that mixes the PCM streams
+ * of an arbitrary number of sources into a single stream. Every input has a
+ * gain {@link Fader} and a mute {@link Switch}; the mixed samples are clipped
+ * to the range of 16-bit samples.
+ * <p/>
+ * The inputs are buffered separately so that a slow input does not block the
+ * others: when a block is requested, the mixer waits at most for the duration
+ * of the block for all inputs to deliver a complete block, and every input that
+ * is starved at that point only contributes the samples it has, followed by
+ * silence. While an input is starved, blocks are thus delivered at the rate
+ * they are played.
+ * <p/>
+ * An input can be {@link #duck(Filter, Filter) ducked} under another input,
+ * e.g. music under a microphone: while the envelope of the other input exceeds
+ * a threshold, the input is attenuated. Ducking is controlled by a switch and
+ * faders for the threshold, the ducking level, and the attack and release
+ * times. All inputs have to deliver the format the mixer was opened with;
+ * use a {@link ResampleFilter} in front of inputs with a different sampling
+ * rate.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class MixerFilter extends AbstractFilter implements MultiInputFilter, FormatAwareFilter {
+
+	/** The lock guarding the buffers of all inputs. */
+	private final Object lock = new Object();
+
+	/** The inputs, by source. */
+	private final Map<Filter, Input> inputs = Maps.newLinkedHashMap();
+
+	/** The size of the buffer of every input (in bytes). */
+	private int bufferSize = 65536;
+
+	/** Whether this mixer has been closed. */
+	private volatile boolean closed;
+
+	/** The sum of all inputs for the current block. */
+	private int[] mix = new int[0];
+
+	/** The time the last block was due at (in nanoseconds). */
+	private long deadline = System.nanoTime();
+
+	/** Creates a new mixer. */
+	public MixerFilter() {
+		super("Mixer");
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Sets the size of the buffer of every input. Larger buffers cover longer
+	 * stalls of an input but increase the latency of inputs that deliver faster
+	 * than the mixer is being read. The size is only used for inputs that are
+	 * created afterwards.
+	 *
+	 * @param bufferSize
+	 * 		The size of the input buffers (in bytes)
+	 * @return This mixer
+	 */
+	public MixerFilter bufferSize(int bufferSize) {
+		checkArgument(bufferSize > 0, "bufferSize must be positive");
+		this.bufferSize = bufferSize;
+		return this;
+	}
+
+	/**
+	 * Ducks the input of the given source under the input of the given side
+	 * chain.
+	 *
+	 * @param source
+	 * 		The source whose input to duck
+	 * @param sideChain
+	 * 		The source whose input controls the ducking
+	 * @return This mixer
+	 */
+	public MixerFilter duck(Filter source, Filter sideChain) {
+		checkArgument(!source.equals(sideChain), "source must not be ducked under itself");
+		synchronized (lock) {
+			Input input = (Input) input(source);
+			input.ducking = new Ducking(input.name(), (Input) input(sideChain));
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the number of blocks for which the input of the given source did
+	 * not have enough samples.
+	 *
+	 * @param source
+	 * 		The source of the input
+	 * @return The number of underruns of the input
+	 */
+	public long underruns(Filter source) {
+		synchronized (lock) {
+			return ((Input) input(source)).underruns;
+		}
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.isDefaultPcm();
+	}
+
+	//
+	// MULTIINPUTFILTER METHODS
+	//
+
+	@Override
+	public Filter input(Filter source) {
+		synchronized (lock) {
+			Input input = inputs.get(source);
+			if (input == null) {
+				input = new Input(source.name());
+				inputs.put(source, input);
+			}
+			return input;
+		}
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public List<Controller<?>> controllers() {
+		ImmutableList.Builder<Controller<?>> controllers = ImmutableList.builder();
+		synchronized (lock) {
+			for (Input input : inputs.values()) {
+				controllers.addAll(input.controllers());
+			}
+		}
+		return controllers.build();
+	}
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		if (!accepts(metadata.format())) {
+			throw new IOException(String.format("Can only mix 16-bit little-endian PCM, not %s.", metadata.format()));
+		}
+		metadataUpdated(metadata);
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	@Override
+	public DataPacket get(int bufferSize) throws IOException {
+		Metadata metadata = metadata();
+		int frameSize = metadata.channels() * 2;
+		int length = Math.max(frameSize, bufferSize - (bufferSize % frameSize));
+		long blockTime = TimeUnit.SECONDS.toNanos(length / frameSize) / metadata.frequency();
+		if (mix.length < (length / 2)) {
+			mix = new int[length / 2];
+		}
+		Arrays.fill(mix, 0, length / 2, 0);
+		/* keep the pace of starved blocks but never wait longer than one block. */
+		long now = System.nanoTime();
+		deadline = Math.min(Math.max(deadline + blockTime, now), now + blockTime);
+		synchronized (lock) {
+			try {
+				while (!closed && !allInputsHaveBlock(length)) {
+					long remainingTime = deadline - System.nanoTime();
+					if (remainingTime <= 0) {
+						break;
+					}
+					TimeUnit.NANOSECONDS.timedWait(lock, remainingTime);
+				}
+			} catch (InterruptedException ie1) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for input.");
+			}
+			if (closed) {
+				throw new EOFException();
+			}
+			for (Input input : inputs.values()) {
+				input.read(length, frameSize);
+			}
+			for (Input input : inputs.values()) {
+				input.mixInto(mix, length / frameSize, metadata.channels());
+			}
+			lock.notifyAll();
+		}
+		byte[] buffer = new byte[length];
+		for (int sample = 0; sample < (length / 2); ++sample) {
+			int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[sample]));
+			buffer[sample * 2] = (byte) value;
+			buffer[sample * 2 + 1] = (byte) (value >> 8);
+		}
+		return new DataPacket(metadata, buffer);
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns whether all inputs have buffered at least the given number of
+	 * bytes. Must be called with the lock held.
+	 *
+	 * @param length
+	 * 		The number of bytes
+	 * @return {@code true} if there are inputs and all of them have a complete
+	 *         block, {@code false} otherwise
+	 */
+	private boolean allInputsHaveBlock(int length) {
+		for (Input input : inputs.values()) {
+			if (input.available < length) {
+				return false;
+			}
+		}
+		return !inputs.isEmpty();
+	}
+
+	/**
+	 * Verifies that the given metadata matches the format of this mixer.
+	 *
+	 * @param metadata
+	 * 		The metadata of an input
+	 * @throws IOException
+	 * 		if the format of the input does not match the format of this mixer
+	 */
+	private void verifyFormat(Metadata metadata) throws IOException {
+		Metadata mixerMetadata = metadata();
+		if (!accepts(metadata.format()) || (metadata.frequency() != mixerMetadata.frequency()) || (metadata.channels() != mixerMetadata.channels())) {
+			throw new IOException(String.format("Can not mix %s into %s.", metadata, mixerMetadata));
+		}
+	}
+
+	/**
+	 * A single input of the mixer. Received samples are stored in a ring buffer
+	 * until the mixer consumes them; if the buffer is full, the thread
+	 * delivering the samples is blocked.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private class Input extends AbstractFilter {
+
+		/** The gain fader. */
+		private final Fader gainFader;
+
+		/** The mute switch. */
+		private final Switch muteSwitch;
+
+		/** The ring buffer. */
+		private final byte[] buffer = new byte[bufferSize];
+
+		/** The position of the first buffered byte. */
+		private int readPosition;
+
+		/** The number of buffered bytes. */
+		private int available;
+
+		/** The gain that was applied at the end of the last block. */
+		private double gain;
+
+		/** The number of blocks this input could not fill. */
+		private long underruns;
+
+		/** The samples read for the current block. */
+		private int[] samples = new int[0];
+
+		/** The number of samples read for the current block. */
+		private int sampleCount;
+
+		/** The ducking of this input, if any. */
+		private Ducking ducking;
+
+		/**
+		 * Creates a new input.
+		 *
+		 * @param name
+		 * 		The name of the input
+		 */
+		private Input(String name) {
+			super(name);
+			gainFader = new Fader(name, 1.0);
+			muteSwitch = new Switch(name + " Mute", false);
+			gain = gainFader.value();
+		}
+
+		//
+		// FILTER METHODS
+		//
+
+		@Override
+		public List<Controller<?>> controllers() {
+			ImmutableList.Builder<Controller<?>> controllers = ImmutableList.builder();
+			controllers.add(gainFader, muteSwitch);
+			if (ducking != null) {
+				controllers.addAll(ducking.controllers());
+			}
+			return controllers.build();
+		}
+
+		@Override
+		public void open(Metadata metadata) throws IOException {
+			verifyFormat(metadata);
+			metadataUpdated(metadata);
+		}
+
+		@Override
+		public void process(DataPacket dataPacket) throws IOException {
+			if (dataPacket.metadata().isPresent() && !dataPacket.metadata().get().equalsIgnoreComment(metadata())) {
+				verifyFormat(dataPacket.metadata().get());
+				metadataUpdated(dataPacket.metadata().get());
+			}
+			byte[] data = dataPacket.buffer();
+			int offset = 0;
+			synchronized (lock) {
+				try {
+					while (offset < data.length) {
+						while (!closed && (available == buffer.length)) {
+							lock.wait();
+						}
+						if (closed) {
+							throw new EOFException();
+						}
+						int writePosition = (readPosition + available) % buffer.length;
+						int length = Math.min(data.length - offset, Math.min(buffer.length - available, buffer.length - writePosition));
+						System.arraycopy(data, offset, buffer, writePosition, length);
+						available += length;
+						offset += length;
+						lock.notifyAll();
+					}
+				} catch (InterruptedException ie1) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the mixer.");
+				}
+			}
+		}
+
+		//
+		// PRIVATE METHODS
+		//
+
+		/**
+		 * Reads and consumes the buffered samples of the current block. If fewer
+		 * samples than required are buffered, all complete frames are read. Must
+		 * be called with the lock held.
+		 *
+		 * @param length
+		 * 		The length of the block (in bytes)
+		 * @param frameSize
+		 * 		The size of a frame (in bytes)
+		 */
+		private void read(int length, int frameSize) {
+			int consumed = Math.min(available, length);
+			consumed -= consumed % frameSize;
+			if (consumed < length) {
+				underruns++;
+			}
+			if (samples.length < (length / 2)) {
+				samples = new int[length / 2];
+			}
+			sampleCount = consumed / 2;
+			int position = readPosition;
+			for (int sample = 0; sample < sampleCount; ++sample) {
+				int low = buffer[position] & 0xff;
+				position = (position + 1 == buffer.length) ? 0 : position + 1;
+				int high = buffer[position];
+				position = (position + 1 == buffer.length) ? 0 : position + 1;
+				samples[sample] = (high << 8) | low;
+			}
+			readPosition = position;
+			available -= consumed;
+		}
+
+		/**
+		 * Adds the samples of the current block to the given mix. The gain is
+		 * ramped linearly over the block if it was changed since the last block
+		 * so that moving the fader does not click. Must be called after all
+		 * inputs have {@link #read(int, int) read} the current block.
+		 *
+		 * @param mix
+		 * 		The mix to add the samples to
+		 * @param frames
+		 * 		The number of frames of the block
+		 * @param channels
+		 * 		The number of channels
+		 */
+		private void mixInto(int[] mix, int frames, int channels) {
+			float[] duckingGains = (ducking != null) ? ducking.gains(frames, channels) : null;
+			double targetGain = muteSwitch.value() ? 0.0 : gainFader.value();
+			int samplesFrames = sampleCount / channels;
+			if ((gain != 0.0) || (targetGain != 0.0)) {
+				double gainStep = (samplesFrames > 0) ? (targetGain - gain) / samplesFrames : 0.0;
+				double currentGain = gain;
+				int sample = 0;
+				for (int frame = 0; frame < samplesFrames; ++frame) {
+					double frameGain = (duckingGains != null) ? currentGain * duckingGains[frame] : currentGain;
+					for (int channel = 0; channel < channels; ++channel, ++sample) {
+						mix[sample] += (int) (samples[sample] * frameGain);
+					}
+					currentGain += gainStep;
+				}
+			}
+			if (samplesFrames > 0) {
+				gain = targetGain;
+			}
+		}
+
+	}
+
+	/**
+	 * The ducking of an input under a side chain.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private class Ducking {
+
+		/** The input controlling the ducking. */
+		private final Input sideChain;
+
+		/** The ducking switch. */
+		private final Switch duckingSwitch;
+
+		/** The threshold fader, from -60 dBFS to 0 dBFS. */
+		private final Fader thresholdFader;
+
+		/** The fader for the gain of the ducked input. */
+		private final Fader levelFader;
+
+		/** The attack fader, from 0 to 1000 milliseconds. */
+		private final Fader attackFader;
+
+		/** The release fader, from 0 to 5000 milliseconds. */
+		private final Fader releaseFader;
+
+		/** The ducker, created when the first block is mixed. */
+		private Ducker ducker;
+
+		/** The gains of the current block. */
+		private float[] gains = new float[0];
+
+		/**
+		 * Creates a new ducking.
+		 *
+		 * @param name
+		 * 		The name of the ducked input
+		 * @param sideChain
+		 * 		The input controlling the ducking
+		 */
+		private Ducking(String name, Input sideChain) {
+			this.sideChain = sideChain;
+			duckingSwitch = new Switch(name + " Ducking", true);
+			thresholdFader = new Fader(name + " Ducking Threshold", 0.5);
+			levelFader = new Fader(name + " Ducking Level", 0.25);
+			attackFader = new Fader(name + " Ducking Attack", 0.05);
+			releaseFader = new Fader(name + " Ducking Release", 0.1);
+		}
+
+		//
+		// ACCESSORS
+		//
+
+		/**
+		 * Returns the controllers of this ducking.
+		 *
+		 * @return The controllers of this ducking
+		 */
+		private List<Controller<?>> controllers() {
+			return Arrays.<Controller<?>>asList(duckingSwitch, thresholdFader, levelFader, attackFader, releaseFader);
+		}
+
+		//
+		// PRIVATE METHODS
+		//
+
+		/**
+		 * Calculates the gains of the ducked input for the current block of the
+		 * side chain. If ducking is switched off, the gains return to unity
+		 * gain with the release time.
+		 *
+		 * @param frames
+		 * 		The number of frames of the block
+		 * @param channels
+		 * 		The number of channels
+		 * @return The gain of every frame of the block
+		 */
+		private float[] gains(int frames, int channels) {
+			if (ducker == null) {
+				ducker = new Ducker(metadata().frequency(), channels);
+			}
+			if (gains.length < frames) {
+				gains = new float[frames];
+			}
+			ducker.threshold(Math.pow(10, (thresholdFader.value() - 1) * 3));
+			ducker.level(duckingSwitch.value() ? levelFader.value() : 1.0);
+			ducker.attack(attackFader.value() * 1000);
+			ducker.release(releaseFader.value() * 5000);
+			ducker.process(sideChain.samples, sideChain.sampleCount, gains, frames);
+			return gains;
+		}
+
+	}
+
+}
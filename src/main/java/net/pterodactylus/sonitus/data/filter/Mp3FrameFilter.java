@@ -0,0 +1,174 @@
+/*
+ * Sonitus - Mp3FrameFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.FramedDataPacket;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.mp3.FrameAligner;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Pass-through {@link FormatAwareFilter} for MP3 streams that splits the
+ * stream into complete frames without decoding it. Every {@link DataPacket}
+ * returned by {@link #get(int)} is a {@link FramedDataPacket} containing all
+ * frames that were completed by one {@link #process(DataPacket) processed}
+ * packet, regardless of the requested buffer size, so that a sink only ever
+ * sees complete frames.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Mp3FrameFilter extends AbstractFilter implements FormatAwareFilter {
+
+	/** The maximum number of packets to buffer. */
+	private static final int MAXIMUM_PACKETS = 16;
+
+	/** The lock guarding the packets. */
+	private final Object lock = new Object();
+
+	/** The framed packets. */
+	private final Queue<FramedDataPacket> packets = Lists.newLinkedList();
+
+	/** Whether to resynchronize on corrupt data. */
+	private boolean resync = true;
+
+	/** The frame aligner. */
+	private FrameAligner frameAligner;
+
+	/** Whether this filter has been closed. */
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new MP3 frame filter.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 */
+	public Mp3FrameFilter(String name) {
+		super(name);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Sets whether to resynchronize on corrupt data. If resynchronization is
+	 * disabled, corrupt data after the first frame causes {@link
+	 * #process(DataPacket)} to throw an exception. The default is to
+	 * resynchronize.
+	 *
+	 * @param resync
+	 * 		{@code true} to skip corrupt data, {@code false} to fail on corrupt
+	 * 		data
+	 * @return This filter
+	 */
+	public Mp3FrameFilter resync(boolean resync) {
+		this.resync = resync;
+		return this;
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.encoding().equalsIgnoreCase("MP3");
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		if (!accepts(metadata.format())) {
+			throw new IOException(String.format("Can only align MP3 frames, not %s.", metadata.format()));
+		}
+		frameAligner = new FrameAligner(resync);
+		metadataUpdated(metadata);
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	@Override
+	public void process(DataPacket dataPacket) throws IOException {
+		if (dataPacket.metadata().isPresent() && !dataPacket.metadata().get().equalsIgnoreComment(metadata())) {
+			metadataUpdated(dataPacket.metadata().get());
+		}
+		frameAligner.write(dataPacket.buffer(), 0, dataPacket.buffer().length);
+		if (frameAligner.frames() == 0) {
+			return;
+		}
+		int frames = frameAligner.frames();
+		long duration = frameAligner.duration();
+		FramedDataPacket framedDataPacket = new FramedDataPacket(metadata(), frameAligner.takeFrames(), frames, duration);
+		synchronized (lock) {
+			try {
+				while (!closed && (packets.size() >= MAXIMUM_PACKETS)) {
+					lock.wait();
+				}
+			} catch (InterruptedException ie1) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the consumer.");
+			}
+			if (closed) {
+				throw new EOFException();
+			}
+			packets.add(framedDataPacket);
+			lock.notifyAll();
+		}
+	}
+
+	@Override
+	public DataPacket get(int bufferSize) throws IOException {
+		synchronized (lock) {
+			try {
+				while (!closed && packets.isEmpty()) {
+					lock.wait();
+				}
+			} catch (InterruptedException ie1) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for frames.");
+			}
+			if (closed) {
+				throw new EOFException();
+			}
+			DataPacket dataPacket = packets.remove();
+			lock.notifyAll();
+			return dataPacket;
+		}
+	}
+
+}
@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
+import java.nio.ByteOrder;
 
 import net.pterodactylus.sonitus.data.Metadata;
 
@@ -72,7 +73,12 @@ public class OggVorbisDecoder extends ExternalFilter {
 		checkNotNull(metadata, "metadata must not be null");
 		checkArgument(metadata.encoding().equalsIgnoreCase("Vorbis"), "source must be Vorbis-encoded");
 
-		super.open(metadata.encoding("PCM"));
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		super.metadataUpdated(metadata.encoding("PCM").sampleWidth(16).byteOrder(swapBytes ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN));
 	}
 
 	//
@@ -0,0 +1,150 @@
+/*
+ * Sonitus - PcmFormatFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteOrder;
+
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.Ditherer;
+import net.pterodactylus.sonitus.io.PcmSamples;
+
+/**
+ * {@link Filter} implementation that converts integer PCM between sample
+ * widths and byte orders. If only the byte order differs, the bytes of every
+ * packet are swapped in bulk; otherwise the samples are decoded, widened by
+ * shifting or narrowed using TPDF {@link Ditherer dither}, and encoded again.
+ * <p/>
+ * The {@link net.pterodactylus.sonitus.data.Pipeline} inserts this filter
+ * automatically in front of a {@link
+ * net.pterodactylus.sonitus.data.FormatAwareFilter} that does not accept the
+ * format of its input.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class PcmFormatFilter extends SampleConversionFilter {
+
+	/** The ditherer. */
+	private final Ditherer ditherer = new Ditherer();
+
+	/** The width of the converted samples (in bits). */
+	private final int sampleWidth;
+
+	/** The byte order of the converted samples. */
+	private final ByteOrder byteOrder;
+
+	/** The decoded samples. */
+	private int[] samples = new int[0];
+
+	/**
+	 * Creates a new PCM format filter that converts to 16-bit little-endian
+	 * samples.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 */
+	public PcmFormatFilter(String name) {
+		this(name, FormatMetadata.DEFAULT_SAMPLE_WIDTH, FormatMetadata.DEFAULT_BYTE_ORDER);
+	}
+
+	/**
+	 * Creates a new PCM format filter.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 * @param sampleWidth
+	 * 		The width of the converted samples (in bits, 8 to 32)
+	 * @param byteOrder
+	 * 		The byte order of the converted samples
+	 */
+	public PcmFormatFilter(String name, int sampleWidth, ByteOrder byteOrder) {
+		super(name);
+		checkArgument((sampleWidth >= 8) && (sampleWidth <= 32), "sampleWidth must be between 8 and 32");
+		this.sampleWidth = sampleWidth;
+		this.byteOrder = checkNotNull(byteOrder, "byteOrder must not be null");
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return super.accepts(formatMetadata) && (formatMetadata.sampleWidth() >= 8) && (formatMetadata.sampleWidth() <= 32);
+	}
+
+	//
+	// SAMPLE CONVERSION FILTER METHODS
+	//
+
+	@Override
+	protected String inputEncoding() {
+		return "PCM";
+	}
+
+	@Override
+	protected String outputEncoding() {
+		return "PCM";
+	}
+
+	@Override
+	protected Metadata convertedMetadata(Metadata metadata) {
+		return metadata.encoding(outputEncoding()).sampleWidth(sampleWidth).byteOrder(byteOrder);
+	}
+
+	@Override
+	protected int inputSampleSize() {
+		return PcmSamples.sampleSize(inputMetadata().sampleWidth());
+	}
+
+	@Override
+	protected int outputSampleSize() {
+		return PcmSamples.sampleSize(sampleWidth);
+	}
+
+	@Override
+	protected void convert(byte[] input, int samples, byte[] output) {
+		int inputSampleWidth = inputMetadata().sampleWidth();
+		if (inputSampleWidth == sampleWidth) {
+			if (inputMetadata().byteOrder() == byteOrder) {
+				System.arraycopy(input, 0, output, 0, samples * outputSampleSize());
+			} else {
+				PcmSamples.swapBytes(input, 0, output, 0, samples, outputSampleSize());
+			}
+			return;
+		}
+		if (this.samples.length < samples) {
+			this.samples = new int[samples];
+		}
+		PcmSamples.decode(input, 0, inputSampleSize(), inputMetadata().byteOrder(), this.samples, samples);
+		if (inputSampleWidth < sampleWidth) {
+			int shift = sampleWidth - inputSampleWidth;
+			for (int sample = 0; sample < samples; ++sample) {
+				this.samples[sample] <<= shift;
+			}
+		} else {
+			ditherer.quantize(this.samples, samples, inputSampleWidth - sampleWidth, sampleWidth);
+		}
+		PcmSamples.encode(this.samples, samples, outputSampleSize(), byteOrder, output, 0);
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Sonitus - PcmToFloatFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static net.pterodactylus.sonitus.data.FormatMetadata.DEFAULT_BYTE_ORDER;
+import static net.pterodactylus.sonitus.data.FormatMetadata.PCM_FLOAT;
+
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.io.FloatSamples;
+
+/**
+ * {@link Filter} implementation that converts 16-bit or 24-bit little-endian
+ * PCM to {@link FormatMetadata#PCM_FLOAT floating-point PCM}. It belongs at
+ * the head of a chain of filters that can {@link
+ * BlockProcessingFilter#supportsFloat() process floating-point samples} so
+ * that the samples are only quantized once, by a {@link FloatToPcmFilter} at
+ * the end of the chain.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class PcmToFloatFilter extends SampleConversionFilter {
+
+	/** The floating-point samples. */
+	private float[] samples = new float[0];
+
+	/**
+	 * Creates a new PCM-to-float filter.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 */
+	public PcmToFloatFilter(String name) {
+		super(name);
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return super.accepts(formatMetadata) && (formatMetadata.byteOrder() == DEFAULT_BYTE_ORDER) && ((formatMetadata.sampleWidth() == 16) || (formatMetadata.sampleWidth() == 24));
+	}
+
+	//
+	// SAMPLE CONVERSION FILTER METHODS
+	//
+
+	@Override
+	protected String inputEncoding() {
+		return "PCM";
+	}
+
+	@Override
+	protected String outputEncoding() {
+		return PCM_FLOAT;
+	}
+
+	@Override
+	protected int inputSampleSize() {
+		return inputMetadata().sampleWidth() / 8;
+	}
+
+	@Override
+	protected int outputSampleSize() {
+		return 4;
+	}
+
+	@Override
+	protected void convert(byte[] input, int samples, byte[] output) {
+		if (this.samples.length < samples) {
+			this.samples = new float[samples];
+		}
+		if (inputSampleSize() == 3) {
+			FloatSamples.fromInt24(input, 0, this.samples, samples);
+		} else {
+			FloatSamples.fromInt16(input, 0, this.samples, samples);
+		}
+		FloatSamples.encode(this.samples, samples, output, 0);
+	}
+
+}
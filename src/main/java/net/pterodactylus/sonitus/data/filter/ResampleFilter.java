@@ -0,0 +1,130 @@
+/*
+ * Sonitus - ResampleFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.resample.Resampler;
+import net.pterodactylus.sonitus.io.resample.Resampler.Quality;
+import net.pterodactylus.sonitus.io.resample.ResamplingOutputStream;
+
+/**
+ * {@link Filter} implementation that resamples a PCM-encoded source in-process
+ * using a polyphase windowed-sinc {@link Resampler}. Unlike {@link
+ * SoxResampleFilter} it does not need an external binary; the channels can be
+ * resampled in parallel by setting an {@link ExecutorService}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ResampleFilter extends AbstractFilter implements FormatAwareFilter {
+
+	/** The final sampling rate. */
+	private final int rate;
+
+	/** The quality of the resampler. */
+	private Quality quality = Quality.HIGH;
+
+	/** The executor service to resample the channels on. */
+	private ExecutorService executorService;
+
+	/** The sampling rate of the source. */
+	private int inputRate;
+
+	/**
+	 * Creates a new resample filter.
+	 *
+	 * @param rate
+	 * 		The final sampling rate
+	 */
+	public ResampleFilter(int rate) {
+		super(String.format("Resample to %s kHz", rate / 1000.0));
+		checkArgument(rate > 0, "rate must be positive");
+		this.rate = rate;
+	}
+
+	/**
+	 * Sets the quality of the resampler.
+	 *
+	 * @param quality
+	 * 		The quality of the resampler
+	 * @return This resample filter
+	 */
+	public ResampleFilter quality(Quality quality) {
+		this.quality = checkNotNull(quality, "quality must not be null");
+		return this;
+	}
+
+	/**
+	 * Sets the executor service to resample the channels on. Without an
+	 * executor service all channels are resampled in the thread that writes the
+	 * samples.
+	 *
+	 * @param executorService
+	 * 		The executor service to resample on, or {@code null} to not resample
+	 * 		in parallel
+	 * @return This resample filter
+	 */
+	public ResampleFilter executorService(ExecutorService executorService) {
+		this.executorService = executorService;
+		return this;
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.isDefaultPcm();
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		checkNotNull(metadata, "metadata must not be null");
+		checkArgument(accepts(metadata.format()), "source must be 16-bit little-endian PCM");
+
+		inputRate = metadata.frequency();
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		super.metadataUpdated(metadata.frequency(rate));
+	}
+
+	@Override
+	protected OutputStream createOutputStream() throws IOException {
+		Resampler resampler = new Resampler(inputRate, rate, metadata().channels(), quality).executorService(executorService);
+		return new ResamplingOutputStream(super.createOutputStream(), resampler);
+	}
+
+}
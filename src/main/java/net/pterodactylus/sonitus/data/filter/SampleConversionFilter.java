@@ -0,0 +1,191 @@
+/*
+ * Sonitus - SampleConversionFilter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+
+/**
+ * {@link Filter} implementation that converts every sample of a stream from
+ * one sample format to another, e.g. from 16-bit integers to floating-point
+ * values. The samples of every received packet are converted at once; bytes of
+ * an incomplete sample are kept until the next packet arrives. The conversion
+ * buffers are reused for all packets of the same size.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public abstract class SampleConversionFilter extends AbstractFilter implements FormatAwareFilter {
+
+	/** The metadata of the received stream. */
+	private Metadata inputMetadata;
+
+	/** The received bytes that have not been converted yet. */
+	private byte[] pendingBytes = new byte[0];
+
+	/** The number of bytes in {@link #pendingBytes}. */
+	private int pendingLength;
+
+	/** The converted samples. */
+	private byte[] convertedBytes = new byte[0];
+
+	/**
+	 * Creates a new sample conversion filter with the given name.
+	 *
+	 * @param name
+	 * 		The name of the filter
+	 */
+	protected SampleConversionFilter(String name) {
+		super(name);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the metadata of the received stream.
+	 *
+	 * @return The metadata of the received stream
+	 */
+	protected Metadata inputMetadata() {
+		return inputMetadata;
+	}
+
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.encoding().equalsIgnoreCase(inputEncoding());
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public void open(Metadata metadata) throws IOException {
+		if (!accepts(metadata.format())) {
+			throw new IOException(String.format("Can only convert %s, not %s.", inputEncoding(), metadata.format()));
+		}
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		inputMetadata = metadata;
+		super.metadataUpdated(convertedMetadata(metadata));
+	}
+
+	@Override
+	public void process(DataPacket dataPacket) throws IOException {
+		if (dataPacket.metadata().isPresent() && !dataPacket.metadata().get().equalsIgnoreComment(inputMetadata)) {
+			metadataUpdated(dataPacket.metadata().get());
+		}
+
+		/* append the new bytes to the unconverted bytes. */
+		byte[] buffer = dataPacket.buffer();
+		if (pendingBytes.length < (pendingLength + buffer.length)) {
+			pendingBytes = Arrays.copyOf(pendingBytes, pendingLength + buffer.length);
+		}
+		System.arraycopy(buffer, 0, pendingBytes, pendingLength, buffer.length);
+		pendingLength += buffer.length;
+		int samples = pendingLength / inputSampleSize();
+		if (samples == 0) {
+			return;
+		}
+
+		/* convert all complete samples. */
+		if (convertedBytes.length != (samples * outputSampleSize())) {
+			convertedBytes = new byte[samples * outputSampleSize()];
+		}
+		convert(pendingBytes, samples, convertedBytes);
+
+		/* keep the bytes of an incomplete sample. */
+		pendingLength -= samples * inputSampleSize();
+		System.arraycopy(pendingBytes, samples * inputSampleSize(), pendingBytes, 0, pendingLength);
+		super.process(new DataPacket(metadata(), convertedBytes));
+	}
+
+	//
+	// SUBCLASS METHODS
+	//
+
+	/**
+	 * Returns the encoding of the received stream.
+	 *
+	 * @return The encoding of the received stream
+	 */
+	protected abstract String inputEncoding();
+
+	/**
+	 * Returns the encoding of the converted stream.
+	 *
+	 * @return The encoding of the converted stream
+	 */
+	protected abstract String outputEncoding();
+
+	/**
+	 * Returns the metadata of the converted stream. The default implementation
+	 * changes the encoding to the {@link #outputEncoding() output encoding} and
+	 * the sample width and byte order to the defaults.
+	 *
+	 * @param metadata
+	 * 		The metadata of the received stream
+	 * @return The metadata of the converted stream
+	 */
+	protected Metadata convertedMetadata(Metadata metadata) {
+		return metadata.encoding(outputEncoding()).sampleWidth(FormatMetadata.DEFAULT_SAMPLE_WIDTH).byteOrder(FormatMetadata.DEFAULT_BYTE_ORDER);
+	}
+
+	/**
+	 * Returns the size of a received sample. It may depend on the {@link
+	 * #inputMetadata() metadata of the received stream}.
+	 *
+	 * @return The size of a received sample (in bytes)
+	 */
+	protected abstract int inputSampleSize();
+
+	/**
+	 * Returns the size of a converted sample.
+	 *
+	 * @return The size of a converted sample (in bytes)
+	 */
+	protected abstract int outputSampleSize();
+
+	/**
+	 * Converts the given samples.
+	 *
+	 * @param input
+	 * 		The buffer containing the received samples
+	 * @param samples
+	 * 		The number of samples to convert
+	 * @param output
+	 * 		The buffer to store the converted samples in
+	 */
+	protected abstract void convert(byte[] input, int samples, byte[] output);
+
+}
@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
+import java.nio.ByteOrder;
 
 import net.pterodactylus.sonitus.data.Metadata;
 
@@ -28,7 +29,8 @@ import com.google.common.collect.ImmutableList;
 
 /**
  * {@link net.pterodactylus.sonitus.data.Filter} implementation that uses {@code
- * sox} to resample a PCM-encoded source.
+ * sox} to resample a PCM-encoded source. The resampled stream keeps the sample
+ * width and the byte order of the source.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
@@ -46,6 +48,7 @@ public class SoxResampleFilter extends ExternalFilter {
 	 * @param binary
 	 * 		The location of the binary
 	 * @param rate
+	 * 		The sampling rate to resample to
 	 */
 	public SoxResampleFilter(String binary, int rate) {
 		super(String.format("Resample to %s kHz", rate / 1000.0));
@@ -61,8 +64,14 @@ public class SoxResampleFilter extends ExternalFilter {
 	public void open(Metadata metadata) throws IOException {
 		checkNotNull(metadata, "metadata must not be null");
 		checkArgument(metadata.encoding().equalsIgnoreCase("PCM"), "source must be PCM-encoded");
+		checkArgument((metadata.sampleWidth() == 16) || (metadata.sampleWidth() == 24) || (metadata.sampleWidth() == 32), "source must have 16, 24, or 32 bits per sample");
 
-		super.open(metadata.frequency(rate));
+		super.open(metadata);
+	}
+
+	@Override
+	public void metadataUpdated(Metadata metadata) {
+		super.metadataUpdated(metadata.frequency(rate));
 	}
 
 	//
@@ -77,20 +86,22 @@ public class SoxResampleFilter extends ExternalFilter {
 	@Override
 	protected Iterable<String> parameters(Metadata metadata) {
 		ImmutableList.Builder<String> parameters = ImmutableList.builder();
+		String bits = String.valueOf(metadata.sampleWidth());
+		String endian = (metadata.byteOrder() == ByteOrder.BIG_ENDIAN) ? "big" : "little";
 		/* the input file. */
-		parameters.add("--bits").add("16");
+		parameters.add("--bits").add(bits);
 		parameters.add("--channels").add(String.valueOf(metadata.channels()));
 		parameters.add("--encoding").add("signed-integer");
 		parameters.add("--rate").add(String.valueOf(metadata.frequency()));
 		parameters.add("--type").add("raw");
-		parameters.add("--endian").add("little");
+		parameters.add("--endian").add(endian);
 		parameters.add("-");
 		/* the output file. */
-		parameters.add("--bits").add("16");
+		parameters.add("--bits").add(bits);
 		parameters.add("--channels").add(String.valueOf(metadata.channels()));
 		parameters.add("--encoding").add("signed-integer");
 		parameters.add("--type").add("raw");
-		parameters.add("--endian").add("little");
+		parameters.add("--endian").add(endian);
 		parameters.add("-");
 		/* rate effect. */
 		parameters.add("rate").add("-h").add(String.valueOf(rate));
@@ -88,7 +88,7 @@ public class TimeCounterFilter extends AbstractFilter implements Filter {
 		if (metadata == null) {
 			return 0;
 		}
-		return 1000 * counter.get() / (metadata.channels() * metadata.frequency() * 2);
+		return 1000 * counter.get() / (metadata.channels() * metadata.frequency() * (metadata.sampleWidth() / 8));
 	}
 
 	/** Resets the counter to 0. */
@@ -38,6 +38,8 @@ import net.pterodactylus.sonitus.data.AbstractFilter;
 import net.pterodactylus.sonitus.data.Controller;
 import net.pterodactylus.sonitus.data.DataPacket;
 import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatAwareFilter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
 import net.pterodactylus.sonitus.data.Metadata;
 import net.pterodactylus.sonitus.data.controller.Fader;
 import net.pterodactylus.sonitus.data.controller.Switch;
@@ -51,7 +53,7 @@ import com.google.common.base.Preconditions;
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
-public class AudioSink extends AbstractFilter {
+public class AudioSink extends AbstractFilter implements FormatAwareFilter {
 
 	/** The logger. */
 	private static final Logger logger = Logger.getLogger(AudioSink.class.getName());
@@ -134,6 +136,15 @@ public class AudioSink extends AbstractFilter {
 		};
 	}
 
+	//
+	// FORMATAWAREFILTER METHODS
+	//
+
+	@Override
+	public boolean accepts(FormatMetadata formatMetadata) {
+		return formatMetadata.isDefaultPcm();
+	}
+
 	//
 	// FILTER METHODS
 	//
@@ -145,7 +156,7 @@ public class AudioSink extends AbstractFilter {
 
 	@Override
 	public void open(Metadata metadata) throws IOException {
-		Preconditions.checkArgument(metadata.encoding().equalsIgnoreCase("PCM"), "source must be PCM-encoded");
+		Preconditions.checkArgument(accepts(metadata.format()), "source must be 16-bit little-endian PCM");
 		super.open(metadata);
 		AudioFormat audioFormat = new AudioFormat(metadata.frequency(), 16, metadata.channels(), true, false);
 		try {
@@ -0,0 +1,224 @@
+/*
+ * Sonitus - DecodingSource.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.source;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.Controller;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.Amplifier;
+
+import com.google.common.base.Optional;
+
+/**
+ * A {@link Filter} that decodes the MP3 or FLAC stream of another source
+ * in-process and delivers interleaved 16-bit signed little-endian PCM. The
+ * {@link Metadata#gain() gain} of the source is applied to the decoded
+ * samples and removed from the metadata.
+ * <p/>
+ * A {@link MultiSource} uses decoding sources to {@link
+ * MultiSource#decode(boolean) decode} its sources so that they can be
+ * crossfaded.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class DecodingSource extends AbstractFilter {
+
+	/** The source of the encoded stream. */
+	private final Filter source;
+
+	/** The stream that decodes the encoded data. */
+	private final OutputStream decodingOutputStream;
+
+	/** The amplifier for the gain. */
+	private final Amplifier amplifier = new Amplifier();
+
+	/** The decoded samples that have not been returned yet. */
+	private byte[] decoded = new byte[0];
+
+	/** The offset of the first sample in {@link #decoded}. */
+	private int decodedOffset;
+
+	/** The number of bytes in {@link #decoded}. */
+	private int decodedLength;
+
+	/** The number of bytes read from the source. */
+	private long encodedBytes;
+
+	/** The number of decoded bytes. */
+	private long decodedBytes;
+
+	/** Whether the source has reached its end. */
+	private boolean sourceEnded;
+
+	/**
+	 * Creates a new decoding source.
+	 *
+	 * @param source
+	 * 		The source of the encoded stream
+	 * @throws IllegalArgumentException
+	 * 		if the source does not deliver a stream that can be decoded
+	 */
+	public DecodingSource(Filter source) throws IllegalArgumentException {
+		super(checkNotNull(source, "source must not be null").name());
+		checkArgument(canDecode(source.metadata()), "source must be MP3- or FLAC-encoded");
+		this.source = source;
+		OutputStream decodedOutputStream = new OutputStream() {
+
+			@Override
+			public void write(int data) {
+				write(new byte[] { (byte) data }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] buffer, int offset, int length) {
+				appendDecoded(buffer, offset, length);
+			}
+		};
+		if (source.metadata().encoding().equalsIgnoreCase("MP3")) {
+			decodingOutputStream = new net.pterodactylus.sonitus.io.mp3.DecodingOutputStream(decodedOutputStream, false);
+		} else {
+			decodingOutputStream = new net.pterodactylus.sonitus.io.flac.DecodingOutputStream(decodedOutputStream);
+		}
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the source of the encoded stream.
+	 *
+	 * @return The source of the encoded stream
+	 */
+	public Filter source() {
+		return source;
+	}
+
+	/**
+	 * Estimates the number of decoded bytes the given number of encoded bytes
+	 * will be decoded to, using the ratio of the data decoded so far.
+	 *
+	 * @param encodedLength
+	 * 		The number of encoded bytes
+	 * @return The estimated number of decoded bytes
+	 */
+	public synchronized long decodedLength(long encodedLength) {
+		return (long) (encodedLength * ((double) decodedBytes / Math.max(1, encodedBytes)));
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public List<Controller<?>> controllers() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Metadata metadata() {
+		return source.metadata().encoding("PCM").sampleWidth(16).byteOrder(ByteOrder.LITTLE_ENDIAN).withoutGain();
+	}
+
+	@Override
+	public synchronized DataPacket get(int bufferSize) throws IOException {
+		while (decodedLength == 0) {
+			if (sourceEnded) {
+				throw new EOFException();
+			}
+			try {
+				byte[] buffer = source.get(bufferSize).buffer();
+				encodedBytes += buffer.length;
+				decodingOutputStream.write(buffer);
+			} catch (EOFException eofe1) {
+				sourceEnded = true;
+				decodingOutputStream.close();
+			}
+		}
+		Metadata sourceMetadata = source.metadata();
+		int frameSize = Math.max(1, sourceMetadata.channels()) * 2;
+		int length = Math.min(decodedLength, Math.max(frameSize, bufferSize - (bufferSize % frameSize)));
+		byte[] buffer = Arrays.copyOfRange(decoded, decodedOffset, decodedOffset + length);
+		decodedOffset += length;
+		decodedLength -= length;
+		decodedBytes += length;
+		Optional<Double> gain = sourceMetadata.gain();
+		if (gain.isPresent()) {
+			amplifier.amplify(buffer, 0, buffer, 0, length / 2, 16, ByteOrder.LITTLE_ENDIAN, gain.get());
+		}
+		return new DataPacket(metadata(), buffer);
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Appends the given decoded samples to the samples that have not been
+	 * returned yet.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the decoded samples
+	 * @param offset
+	 * 		The offset of the first sample
+	 * @param length
+	 * 		The number of bytes to append
+	 */
+	private void appendDecoded(byte[] buffer, int offset, int length) {
+		if ((decodedOffset + decodedLength + length) > decoded.length) {
+			if ((decodedLength + length) > decoded.length) {
+				decoded = Arrays.copyOfRange(decoded, decodedOffset, decodedOffset + Math.max(decodedLength + length, decoded.length * 2));
+			} else {
+				System.arraycopy(decoded, decodedOffset, decoded, 0, decodedLength);
+			}
+			decodedOffset = 0;
+		}
+		System.arraycopy(buffer, offset, decoded, decodedOffset + decodedLength, length);
+		decodedLength += length;
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns whether a source with the given metadata can be decoded.
+	 *
+	 * @param metadata
+	 * 		The metadata of the source
+	 * @return {@code true} if the source delivers MP3 or FLAC, {@code false}
+	 *         otherwise
+	 */
+	public static boolean canDecode(Metadata metadata) {
+		return metadata.encoding().equalsIgnoreCase("MP3") || metadata.encoding().equalsIgnoreCase("FLAC");
+	}
+
+}
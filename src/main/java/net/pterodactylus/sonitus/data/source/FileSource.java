@@ -19,12 +19,17 @@ package net.pterodactylus.sonitus.data.source;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.BufferedInputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 
 import net.pterodactylus.sonitus.data.AbstractFilter;
@@ -33,12 +38,38 @@ import net.pterodactylus.sonitus.data.DataPacket;
 import net.pterodactylus.sonitus.data.Filter;
 import net.pterodactylus.sonitus.data.Metadata;
 import net.pterodactylus.sonitus.io.IdentifyingInputStream;
+import net.pterodactylus.sonitus.io.flac.BlockType;
+import net.pterodactylus.sonitus.io.flac.FrameScanner;
+import net.pterodactylus.sonitus.io.flac.MetadataBlock;
+import net.pterodactylus.sonitus.io.flac.SeekTable;
+import net.pterodactylus.sonitus.io.flac.Stream;
+import net.pterodactylus.sonitus.io.flac.StreamInfo;
+import net.pterodactylus.sonitus.io.loudness.LoudnessIndex;
+import net.pterodactylus.sonitus.io.mp3.FrameIndex;
+import net.pterodactylus.sonitus.io.mp3.FrameView;
+import net.pterodactylus.sonitus.io.mp3.Mp3Info;
 
 import com.google.common.base.Optional;
+import com.google.common.io.Closeables;
+import com.google.common.io.CountingInputStream;
 
 /**
  * A {@link Filter} that reads a file from the local file system and does not
  * expect any input.
+ * <p/>
+ * If a {@link LoudnessIndex} is given, the gain that normalizes the file is
+ * looked up in it and stored in the {@link Metadata#gain() metadata} of the
+ * file, from where the {@link net.pterodactylus.sonitus.data.Pipeline} applies
+ * it to the samples decoded from the file.
+ * <p/>
+ * MP3 and FLAC files can be {@link #seek(long) seeked} in. For MP3 files, the
+ * offset of the frame to continue at is looked up in a {@link FrameIndex} if
+ * one is set, and is estimated from the table of contents of a Xing or Info
+ * header, or from the bitrate, otherwise. FLAC files are scanned for the frame
+ * containing the {@link #seekSample(long) requested sample}, starting at the
+ * nearest point of the {@link SeekTable} if the file has one. As FLAC decoders
+ * need the stream header, the marker and the stream info block of the file are
+ * returned again before the frame that is read after a seek.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
@@ -47,8 +78,38 @@ public class FileSource extends AbstractFilter {
 	/** The path of the file. */
 	private final String path;
 
+	/** The length of the file. */
+	private final long length;
+
 	/** The input stream. */
-	private InputStream fileInputStream;
+	private FileInputStream fileInputStream;
+
+	/** The position in the file. */
+	private long position;
+
+	/** The frame index of the file. */
+	private Optional<FrameIndex> frameIndex = Optional.absent();
+
+	/** The MP3 information of the file, read on the first seek. */
+	private Mp3Info mp3Info;
+
+	/** The FLAC stream info of the file, read on the first seek. */
+	private StreamInfo flacStreamInfo;
+
+	/** The FLAC seek table of the file, read on the first seek. */
+	private Optional<SeekTable> flacSeekTable;
+
+	/** The offset of the first FLAC frame, read on the first seek. */
+	private long flacAudioOffset;
+
+	/**
+	 * The FLAC marker and stream info block that are returned before the first
+	 * frame after a seek, read on the first seek.
+	 */
+	private byte[] flacHeader;
+
+	/** The remaining bytes of the FLAC header to return before the next frame. */
+	private ByteBuffer pendingFlacHeader = ByteBuffer.allocate(0);
 
 	/**
 	 * Creates a new file source.
@@ -59,18 +120,180 @@ public class FileSource extends AbstractFilter {
 	 * 		if the file can not be found, or an I/O error occurs
 	 */
 	public FileSource(String path) throws IOException {
+		this(path, Optional.<LoudnessIndex>absent());
+	}
+
+	/**
+	 * Creates a new file source that takes the gain of the file from the given
+	 * loudness index.
+	 *
+	 * @param path
+	 * 		The path of the file
+	 * @param loudnessIndex
+	 * 		The loudness index to get the gain of the file from
+	 * @throws java.io.IOException
+	 * 		if the file can not be found, or an I/O error occurs
+	 */
+	public FileSource(String path, LoudnessIndex loudnessIndex) throws IOException {
+		this(path, Optional.of(loudnessIndex));
+	}
+
+	/**
+	 * Creates a new file source.
+	 *
+	 * @param path
+	 * 		The path of the file
+	 * @param loudnessIndex
+	 * 		The loudness index to get the gain of the file from
+	 * @throws java.io.IOException
+	 * 		if the file can not be found, or an I/O error occurs
+	 */
+	private FileSource(String path, Optional<LoudnessIndex> loudnessIndex) throws IOException {
 		super(path);
 		this.path = checkNotNull(path, "path must not be null");
+		length = new File(path).length();
 		fileInputStream = new FileInputStream(path);
 
 		/* identify file type. */
-		Optional<IdentifyingInputStream> identifyingInputStream = IdentifyingInputStream.create(new FileInputStream(path));
-		if (identifyingInputStream.isPresent()) {
-			metadataUpdated(identifyingInputStream.get().metadata());
+		Metadata metadata;
+		InputStream identifiedInputStream = new FileInputStream(path);
+		try {
+			Optional<IdentifyingInputStream> identifyingInputStream = IdentifyingInputStream.create(identifiedInputStream);
+			if (identifyingInputStream.isPresent()) {
+				metadata = identifyingInputStream.get().metadata();
+			} else {
+				/* fallback. */
+				metadata = new Metadata().name(path);
+			}
+		} finally {
+			Closeables.close(identifiedInputStream, true);
+		}
+		Optional<Double> gain = loudnessIndex.isPresent() ? loudnessIndex.get().gain(new File(path)) : Optional.<Double>absent();
+		metadataUpdated(gain.isPresent() ? metadata.gain(gain.get()) : metadata);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the length of the file.
+	 *
+	 * @return The length of the file (in bytes)
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns the position in the file, i.e. the offset of the next byte that
+	 * will be read.
+	 *
+	 * @return The position in the file (in bytes)
+	 */
+	public synchronized long position() {
+		return position;
+	}
+
+	/**
+	 * Sets the frame index used to {@link #seek(long) seek} in the file. An
+	 * index that was not created from the current version of the file is
+	 * ignored.
+	 *
+	 * @param frameIndex
+	 * 		The frame index of the file
+	 * @return This file source
+	 */
+	public FileSource frameIndex(FrameIndex frameIndex) {
+		this.frameIndex = Optional.fromNullable(frameIndex);
+		return this;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Continues reading the file at the frame at the given position. This is
+	 * only supported for MP3 and FLAC files.
+	 *
+	 * @param millis
+	 * 		The position to seek to (in milliseconds)
+	 * @return The position of the frame that is read next (in milliseconds),
+	 *         which may be slightly off the requested position; it is exact if
+	 *         a frame index is used, and estimated from the table of contents
+	 *         or the bitrate of the file otherwise
+	 * @throws IOException
+	 * 		if the file is neither an MP3 nor a FLAC file, or an I/O error occurs
+	 */
+	public synchronized long seek(long millis) throws IOException {
+		if (metadata().encoding().equalsIgnoreCase("FLAC")) {
+			return seekSample(millis * metadata().frequency() / 1000) * 1000 / metadata().frequency();
+		}
+		if (!metadata().encoding().equalsIgnoreCase("MP3")) {
+			throw new IOException(String.format("Can not seek in %s.", metadata().format()));
+		}
+		long offset;
+		long actualMillis;
+		if (frameIndex.isPresent() && frameIndex.get().isCurrent(new File(path))) {
+			long samplePosition = millis * frameIndex.get().samplingRate() / 1000;
+			offset = frameIndex.get().offset(samplePosition);
+			actualMillis = frameIndex.get().samplePosition(samplePosition) * 1000 / frameIndex.get().samplingRate();
 		} else {
-			/* fallback. */
-			metadataUpdated(new Metadata().name(path));
+			if (mp3Info == null) {
+				InputStream inputStream = new FileInputStream(path);
+				try {
+					mp3Info = Mp3Info.read(inputStream, length);
+				} finally {
+					Closeables.close(inputStream, true);
+				}
+			}
+			offset = alignToFrame(mp3Info.offset(millis * 1000));
+			actualMillis = mp3Info.position(offset) / 1000;
 		}
+		fileInputStream.getChannel().position(offset);
+		position = offset;
+		return actualMillis;
+	}
+
+	/**
+	 * Continues reading the file at the frame containing the given sample. This
+	 * is only supported for FLAC files.
+	 *
+	 * @param samplePosition
+	 * 		The number of the sample to seek to
+	 * @return The number of the first sample of the frame that is read next,
+	 *         or the total number of samples if the file ends before the given
+	 *         sample
+	 * @throws IOException
+	 * 		if the file is not a FLAC file, or an I/O error occurs
+	 */
+	public synchronized long seekSample(long samplePosition) throws IOException {
+		if (!metadata().encoding().equalsIgnoreCase("FLAC")) {
+			throw new IOException(String.format("Can not seek to a sample in %s.", metadata().format()));
+		}
+		if (flacStreamInfo == null) {
+			readFlacStream();
+		}
+		long offset = flacAudioOffset;
+		if (flacSeekTable.isPresent()) {
+			int seekPoint = flacSeekTable.get().find(samplePosition);
+			if (seekPoint != -1) {
+				offset += flacSeekTable.get().offset(seekPoint);
+			}
+		}
+		FileChannel fileChannel = fileInputStream.getChannel();
+		FrameScanner frameScanner = new FrameScanner(flacStreamInfo);
+		long frameOffset = frameScanner.findFrame(fileChannel, offset, samplePosition);
+		pendingFlacHeader = ByteBuffer.wrap(flacHeader);
+		if (frameOffset == -1) {
+			fileChannel.position(length);
+			position = length;
+			return flacStreamInfo.totalSamples();
+		}
+		fileChannel.position(frameOffset);
+		position = frameOffset;
+		return frameScanner.lastFrameHeader().sampleNumber(flacStreamInfo.maximumBlockSize());
 	}
 
 	//
@@ -83,15 +306,99 @@ public class FileSource extends AbstractFilter {
 	}
 
 	@Override
-	public DataPacket get(int bufferSize) throws IOException {
+	public synchronized DataPacket get(int bufferSize) throws IOException {
+		if (pendingFlacHeader.hasRemaining()) {
+			byte[] header = new byte[Math.min(bufferSize, pendingFlacHeader.remaining())];
+			pendingFlacHeader.get(header);
+			return new DataPacket(metadata(), header);
+		}
 		byte[] buffer = new byte[bufferSize];
 		int read = fileInputStream.read(buffer);
 		if (read == -1) {
 			throw new EOFException();
 		}
+		position += read;
 		return new DataPacket(metadata(), Arrays.copyOf(buffer, read));
 	}
 
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Reads the stream info, the seek table, the offset of the first frame, and
+	 * the header of the FLAC file.
+	 *
+	 * @throws IOException
+	 * 		if the file can not be parsed as FLAC file
+	 */
+	private void readFlacStream() throws IOException {
+		CountingInputStream inputStream = new CountingInputStream(new BufferedInputStream(new FileInputStream(path)));
+		try {
+			Optional<Stream> stream = Stream.parse(inputStream, EnumSet.of(BlockType.STREAMINFO, BlockType.SEEKTABLE));
+			if (!stream.isPresent() || stream.get().metadataBlocks(BlockType.STREAMINFO).isEmpty()) {
+				throw new IOException(String.format("%s is not a FLAC file.", path));
+			}
+			List<MetadataBlock> seekTables = stream.get().metadataBlocks(BlockType.SEEKTABLE);
+			flacSeekTable = seekTables.isEmpty() ? Optional.<SeekTable>absent() : Optional.of((SeekTable) seekTables.get(0).data());
+			flacAudioOffset = inputStream.getCount();
+			flacStreamInfo = (StreamInfo) stream.get().metadataBlocks(BlockType.STREAMINFO).get(0).data();
+		} finally {
+			Closeables.close(inputStream, true);
+		}
+		flacHeader = readFlacHeader();
+	}
+
+	/**
+	 * Reads the marker and the stream info block at the start of the FLAC file
+	 * and turns them into the header of a stream starting at an arbitrary
+	 * frame: the stream info block is marked as the last metadata block, and
+	 * the total number of samples and the MD5 signature are cleared, i.e. set
+	 * to unknown, so that decoders do not expect the complete stream.
+	 *
+	 * @return The header of a stream starting at an arbitrary frame
+	 * @throws IOException
+	 * 		if the file does not start with a stream info block
+	 */
+	private byte[] readFlacHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(42);
+		while (header.hasRemaining() && (fileInputStream.getChannel().read(header, header.position()) != -1)) {
+			/* read until the buffer is full. */
+		}
+		byte[] flacHeader = header.array();
+		if (header.hasRemaining() || ((flacHeader[4] & 0x7f) != 0) || (flacHeader[5] != 0) || (flacHeader[6] != 0) || (flacHeader[7] != 34)) {
+			throw new IOException(String.format("%s does not start with a stream info block.", path));
+		}
+		flacHeader[4] |= 0x80;
+		/* the 36 bits of the total samples start in the lower half of byte 13 of the block. */
+		flacHeader[8 + 13] &= 0xf0;
+		Arrays.fill(flacHeader, 8 + 14, 42, (byte) 0);
+		return flacHeader;
+	}
+
+	/**
+	 * Returns the offset of the first frame at or after the given offset.
+	 *
+	 * @param offset
+	 * 		The offset to start searching at
+	 * @return The offset of the next frame, or the given offset if no frame
+	 *         can be found near it
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private long alignToFrame(long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		while (buffer.hasRemaining() && (fileInputStream.getChannel().read(buffer, offset + buffer.position()) != -1)) {
+			/* read until the buffer is full. */
+		}
+		int frame = FrameView.findConsecutive(buffer.array(), 0, buffer.position());
+		if (frame == -1) {
+			/* the last frame is not followed by another frame. */
+			frame = FrameView.find(buffer.array(), 0, buffer.position());
+		}
+		return (frame == -1) ? offset : (offset + frame);
+	}
+
 	//
 	// OBJECT METHODS
 	//
@@ -17,13 +17,31 @@
 
 package net.pterodactylus.sonitus.data.source;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.event.EventListenerList;
 
@@ -32,12 +50,63 @@ import net.pterodactylus.sonitus.data.Controller;
 import net.pterodactylus.sonitus.data.DataPacket;
 import net.pterodactylus.sonitus.data.Filter;
 import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.Crossfader;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Callables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.Inject;
 
 /**
  * {@link Filter} implementation that simply forwards data from another filter
  * and supports changing the source without letting downstream filters know.
+ * <p/>
+ * To switch sources without a gap, the next source can be {@link
+ * #queueSource(Callable) queued} ahead of time: a queued source is created,
+ * identified, and {@link #prefetchSize(int) pre-read} on a background thread,
+ * and it replaces the current source as soon as that reaches its end. For
+ * {@link FileSource}s the multi source estimates the remaining time from the
+ * rate at which the source is consumed, and asks its {@link
+ * SourceEndingListener}s for the next source the {@link #prefetchTime(long)
+ * prefetch time} before the end. If no source is queued when the current
+ * source ends, the {@link SourceFinishedListener}s are asked to {@link
+ * #setSource(Filter) set} the next source.
+ * <p/>
+ * If a {@link #crossfade(long) crossfade} is set, consecutive sources that
+ * deliver 16-bit little-endian PCM with the same sampling rate and number of
+ * channels are crossfaded: the multi source reads the crossfade duration ahead
+ * of the current source, and when that ends, the remaining samples are mixed
+ * with the pre-read start of the next queued source, block by block as they
+ * are requested, using a {@link Crossfader}. The prefetch thread reads twice
+ * the crossfade duration of a queued source, so that the lookahead for its own
+ * end is available without reading when it takes over; for sources that are
+ * {@link #setSource(Filter) set} the lookahead is built up gradually, reading
+ * at most {@link #MAXIMUM_LOOKAHEAD_READS} packets per request. While
+ * crossfading, the buffers of returned packets are reused by the next call to
+ * {@link #get(int)}. Sources that can not be
+ * crossfaded are switched without a fade. As {@link FileSource}s deliver the
+ * encoded data of their files, they can only be crossfaded if the multi
+ * source {@link #decode(boolean) decodes} them: MP3 and FLAC sources are then
+ * wrapped in {@link DecodingSource}s, and the multi source delivers PCM.
+ * Sources in other encodings (e.g. Ogg Vorbis) are never decoded.
+ * <p/>
+ * Switching sources never blocks the caller of {@link #setSource(Filter)} or
+ * {@link #metadata()}: a new source is published atomically and picked up by
+ * the thread reading from the multi source on its next read. Until a first
+ * source has been set, {@link #metadata()} returns the metadata of the
+ * {@link #fallback(Filter) fallback} or, without a fallback, {@link
+ * Metadata#UNKNOWN}, and {@link #pending()} returns {@code true}. While no
+ * source is available, data is read from the fallback (e.g. a {@link
+ * SilenceSource}); without a fallback, reading waits for the next source, for
+ * at most the {@link #handoffTimeout(long) handoff timeout}.
+ * <p/>
+ * The {@link Metadata#gain() gain} of a source, e.g. of a {@link FileSource}
+ * that was created with a loudness index, is applied by the decoding source if
+ * the source is decoded; otherwise it is passed on in the metadata of its
+ * packets, and the {@link net.pterodactylus.sonitus.data.Pipeline} applies it
+ * to the samples of the decoder behind the multi source.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
@@ -46,19 +115,200 @@ public class MultiSource extends AbstractFilter {
 	/** The logger. */
 	private static final Logger logger = Logger.getLogger(MultiSource.class.getName());
 
+	/**
+	 * The maximum number of packets read from the current source per request
+	 * while its lookahead is built up.
+	 */
+	private static final int MAXIMUM_LOOKAHEAD_READS = 2;
+
 	/** The source finished listeners. */
 	private final EventListenerList sourceFinishedListeners = new EventListenerList();
 
 	/** The current source. */
 	private final AtomicReference<Filter> source = new AtomicReference<Filter>();
 
-	/** Whether the source was changed. */
-	private boolean sourceChanged;
+	/** The source that has been set but not yet picked up by the reading thread. */
+	private final AtomicReference<Filter> nextSource = new AtomicReference<Filter>();
+
+	/** Whether the first source has been requested from the listeners. */
+	private final AtomicBoolean firstSourceRequested = new AtomicBoolean();
+
+	/** The thread that is waiting for a new source. */
+	private volatile Thread waitingThread;
+
+	/** Whether no source is available. */
+	private volatile boolean pending = true;
+
+	/** The source that covers gaps between sources. */
+	private volatile Filter fallback;
+
+	/** The maximum time to wait for a new source (in milliseconds). */
+	private volatile long handoffTimeout;
+
+	/** Whether the current source has reached its end. */
+	private boolean sourceFinished = true;
+
+	/** Whether data is being read from the fallback. */
+	private boolean playingFallback;
+
+	/** Whether the listeners have been asked for a source since the last one ended. */
+	private boolean sourceRequested;
+
+	/** The queued sources, in the order they will be played. */
+	private final BlockingQueue<Future<PrefetchedSource>> queuedSources = new LinkedBlockingQueue<Future<PrefetchedSource>>();
+
+	/** The packets that were pre-read from the current source. */
+	private final Queue<DataPacket> prefetchedPackets = new ConcurrentLinkedQueue<DataPacket>();
+
+	/** The executor that prepares queued sources. */
+	private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("MultiSource Prefetch-%d").setDaemon(true).build());
+
+	/** The time before the end of a source at which the next source is requested. */
+	private volatile long prefetchTime = 5000;
+
+	/** The number of bytes to pre-read from a queued source. */
+	private volatile int prefetchSize = 65536;
+
+	/** The time the current source was started. */
+	private long sourceStartTime;
+
+	/** The number of bytes delivered from the current source. */
+	private long sourceBytes;
+
+	/** Whether the next source has been requested for the current source. */
+	private boolean nextSourceRequested;
+
+	/** The duration of crossfades (in milliseconds). */
+	private volatile long crossfadeTime;
+
+	/** Whether MP3 and FLAC sources are decoded. */
+	private volatile boolean decode;
+
+	/** The samples read ahead from the current source. */
+	private byte[] lookahead = new byte[0];
+
+	/** The offset of the first sample in {@link #lookahead}. */
+	private int lookaheadOffset;
+
+	/** The number of bytes in {@link #lookahead}. */
+	private int lookaheadLength;
+
+	/** Whether the current source has been read completely. */
+	private boolean sourceEnded;
+
+	/** The crossfader for the current fade. */
+	private Crossfader crossfader;
+
+	/** The source that is being faded in. */
+	private Filter incomingSource;
+
+	/** The pre-read samples of the source that is being faded in. */
+	private byte[] incoming = new byte[0];
+
+	/** The offset of the next sample in {@link #incoming}. */
+	private int incomingOffset;
+
+	/** The packets of the incoming source that follow the crossfade. */
+	private final List<DataPacket> incomingPackets = Lists.newArrayList();
+
+	/** The buffer of the packets returned while crossfading. */
+	private byte[] output = new byte[0];
 
 	/** Creates a new multi source. */
 	@Inject
 	public MultiSource() {
 		super("Multisource");
+		metadataUpdated(Metadata.UNKNOWN);
+	}
+
+	/**
+	 * Sets the time before the end of the current source at which the {@link
+	 * SourceEndingListener}s are asked to queue the next source.
+	 *
+	 * @param prefetchTime
+	 * 		The prefetch time (in milliseconds), or {@code 0} to not ask for the
+	 * 		next source early
+	 * @return This multi source
+	 */
+	public MultiSource prefetchTime(long prefetchTime) {
+		checkArgument(prefetchTime >= 0, "prefetchTime must not be negative");
+		this.prefetchTime = prefetchTime;
+		return this;
+	}
+
+	/**
+	 * Sets the source that covers gaps when no source is available, e.g. a
+	 * {@link SilenceSource} or a standby stream. The fallback has to deliver
+	 * data in the same format as the regular sources; as a {@link
+	 * SilenceSource} only creates PCM, it can not cover gaps between encoded
+	 * sources.
+	 *
+	 * @param fallback
+	 * 		The fallback source, or {@code null} to wait for the next source
+	 * @return This multi source
+	 */
+	public MultiSource fallback(Filter fallback) {
+		this.fallback = fallback;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum time to wait for the next source when no fallback is
+	 * set. When the timeout expires, the multi source signals the end of its
+	 * stream.
+	 *
+	 * @param handoffTimeout
+	 * 		The handoff timeout (in milliseconds), or {@code 0} to wait forever
+	 * @return This multi source
+	 */
+	public MultiSource handoffTimeout(long handoffTimeout) {
+		checkArgument(handoffTimeout >= 0, "handoffTimeout must not be negative");
+		this.handoffTimeout = handoffTimeout;
+		return this;
+	}
+
+	/**
+	 * Sets the duration of crossfades between consecutive sources.
+	 *
+	 * @param crossfadeTime
+	 * 		The duration of crossfades (in milliseconds), or {@code 0} to switch
+	 * 		sources without crossfading
+	 * @return This multi source
+	 */
+	public MultiSource crossfade(long crossfadeTime) {
+		checkArgument(crossfadeTime >= 0, "crossfadeTime must not be negative");
+		this.crossfadeTime = crossfadeTime;
+		return this;
+	}
+
+	/**
+	 * Sets whether MP3 and FLAC sources are decoded in-process, so that they
+	 * can be crossfaded. A multi source that decodes its sources delivers
+	 * 16-bit little-endian PCM for them, so it must not be followed by a
+	 * decoder, and a {@link SilenceSource} can be its fallback. The setting
+	 * applies to sources that are set or queued afterwards.
+	 *
+	 * @param decode
+	 * 		{@code true} to decode MP3 and FLAC sources, {@code false} to deliver
+	 * 		the data of all sources unchanged
+	 * @return This multi source
+	 */
+	public MultiSource decode(boolean decode) {
+		this.decode = decode;
+		return this;
+	}
+
+	/**
+	 * Sets the number of bytes that are pre-read from a queued source.
+	 *
+	 * @param prefetchSize
+	 * 		The number of bytes to pre-read
+	 * @return This multi source
+	 */
+	public MultiSource prefetchSize(int prefetchSize) {
+		checkArgument(prefetchSize >= 0, "prefetchSize must not be negative");
+		this.prefetchSize = prefetchSize;
+		return this;
 	}
 
 	//
@@ -85,12 +335,49 @@ public class MultiSource extends AbstractFilter {
 		sourceFinishedListeners.remove(SourceFinishedListener.class, sourceFinishedListener);
 	}
 
+	/**
+	 * Adds a source ending listener to the list of registered listeners.
+	 *
+	 * @param sourceEndingListener
+	 * 		The source ending listener to add
+	 */
+	public void addSourceEndingListener(SourceEndingListener sourceEndingListener) {
+		sourceFinishedListeners.add(SourceEndingListener.class, sourceEndingListener);
+	}
+
+	/**
+	 * Removes a source ending listener from the list of registered listeners.
+	 *
+	 * @param sourceEndingListener
+	 * 		The source ending listener to remove
+	 */
+	public void removeSourceEndingListener(SourceEndingListener sourceEndingListener) {
+		sourceFinishedListeners.remove(SourceEndingListener.class, sourceEndingListener);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns whether the multi source is waiting for a source, i.e. no source
+	 * has been set yet, or the last source has finished and no new source is
+	 * available.
+	 *
+	 * @return {@code true} if no source is available, {@code false} otherwise
+	 */
+	public boolean pending() {
+		return pending;
+	}
+
 	//
 	// ACTIONS
 	//
 
 	/**
-	 * Sets the new source to use.
+	 * Sets the new source to use. The source replaces the current source the
+	 * next time data is read from this multi source; this method does not
+	 * block.
 	 *
 	 * @param source
 	 * 		The new source to use
@@ -98,15 +385,49 @@ public class MultiSource extends AbstractFilter {
 	public void setSource(Filter source) {
 		checkNotNull(source, "source must not be null");
 
-		Filter oldSource = this.source.getAndSet(source);
-		if (!source.equals(oldSource)) {
-			synchronized (this.source) {
-				sourceChanged = true;
-				this.source.notifyAll();
-			}
-			metadataUpdated(source.metadata());
-			logger.info(String.format("Next Source set: %s", source.name()));
+		if (source.equals(undecoded(this.source.get()))) {
+			return;
+		}
+		Filter decodedSource = decoded(source, decode);
+		nextSource.set(decodedSource);
+		if (super.metadata() == Metadata.UNKNOWN) {
+			metadataUpdated(decodedSource.metadata());
 		}
+		pending = false;
+		wakeUpWaitingThread();
+		logger.info(String.format("Next Source set: %s", source.name()));
+	}
+
+	/**
+	 * Queues a source that will be played after the current source and all
+	 * sources queued before it. The source is created, and its first {@link
+	 * #prefetchSize(int) bytes} are read, on a background thread.
+	 *
+	 * @param sourceFactory
+	 * 		The factory that creates the source
+	 */
+	public void queueSource(Callable<? extends Filter> sourceFactory) {
+		queuedSources.add(prefetchExecutor.submit(new PrefetchTask(checkNotNull(sourceFactory, "sourceFactory must not be null"), prefetchSize, crossfadeTime, decode)));
+		prefetchExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				/* runs after the prefetch task, so the source is ready now. */
+				wakeUpWaitingThread();
+			}
+		});
+	}
+
+	/**
+	 * Queues a source that will be played after the current source and all
+	 * sources queued before it. The first {@link #prefetchSize(int) bytes} of
+	 * the source are read on a background thread.
+	 *
+	 * @param source
+	 * 		The source to queue
+	 */
+	public void queueSource(Filter source) {
+		queueSource(Callables.returning(checkNotNull(source, "source must not be null")));
 	}
 
 	//
@@ -125,6 +446,21 @@ public class MultiSource extends AbstractFilter {
 		}
 	}
 
+	/**
+	 * Notifies all registered listeners that the current source will finish
+	 * playing soon and that the next source should be {@link
+	 * #queueSource(Callable) queued}.
+	 *
+	 * @param remainingTime
+	 * 		The estimated remaining time of the current source (in milliseconds)
+	 * @see SourceEndingListener
+	 */
+	private void fireSourceEnding(long remainingTime) {
+		for (SourceEndingListener sourceEndingListener : sourceFinishedListeners.getListeners(SourceEndingListener.class)) {
+			sourceEndingListener.sourceEnding(this, remainingTime);
+		}
+	}
+
 	//
 	// FILTER METHODS
 	//
@@ -136,26 +472,53 @@ public class MultiSource extends AbstractFilter {
 
 	@Override
 	public Metadata metadata() {
-		if (super.metadata() == Metadata.UNKNOWN) {
-			/* no metadata yet, wait for it. */
-			waitForNewSource();
-			sourceChanged = false;
+		if ((super.metadata() == Metadata.UNKNOWN) && firstSourceRequested.compareAndSet(false, true)) {
+			/* no metadata yet, ask for a source but do not wait for it. */
+			fireSourceFinished();
 		}
-		return super.metadata();
+		Metadata metadata = super.metadata();
+		Filter fallback = this.fallback;
+		if ((metadata == Metadata.UNKNOWN) && (fallback != null)) {
+			return fallback.metadata();
+		}
+		return metadata;
 	}
 
 	@Override
 	public DataPacket get(int bufferSize) throws EOFException, IOException {
+		long waitStartTime = 0;
 		while (true) {
+			pickUpNextSource();
+			if (sourceFinished) {
+				if (switchToQueuedSource()) {
+					continue;
+				}
+				if (!sourceRequested && queuedSources.isEmpty()) {
+					sourceRequested = true;
+					firstSourceRequested.set(true);
+					fireSourceFinished();
+					continue;
+				}
+				pending = true;
+				DataPacket fallbackPacket = fallbackPacket(bufferSize);
+				if (fallbackPacket != null) {
+					return fallbackPacket;
+				}
+				if (waitStartTime == 0) {
+					waitStartTime = System.currentTimeMillis();
+					logger.info("Waiting for next Source...");
+				}
+				waitForNewSource(waitStartTime);
+				continue;
+			}
 			try {
-				return source.get().get(bufferSize);
+				DataPacket dataPacket = ((crossfadeTime > 0) || (lookaheadLength > 0)) ? crossfadePacket(bufferSize) : nextPacket(bufferSize);
+				sourceBytes += dataPacket.buffer().length;
+				requestNextSource();
+				return dataPacket;
 			} catch (EOFException eofe1) {
 				logger.info(String.format("Got EOF from %s.", source.get().name()));
-				waitForNewSource();
-			} finally {
-				synchronized (source) {
-					sourceChanged = false;
-				}
+				sourceFinished = true;
 			}
 		}
 	}
@@ -164,20 +527,565 @@ public class MultiSource extends AbstractFilter {
 	// PRIVATE METHODS
 	//
 
-	/** Waits for a new source to be {@link #setSource(Filter) set}. */
-	private void waitForNewSource() {
-		fireSourceFinished();
-		synchronized (source) {
-			while (!sourceChanged) {
-				try {
-					logger.info("Waiting for next Source...");
-					source.wait();
-					logger.info("Was notified.");
-				} catch (InterruptedException ioe1) {
-					/* ignore: we’ll end up here again if we were interrupted. */
+	/**
+	 * Returns the next packet of the current source, taking pre-read packets
+	 * first.
+	 *
+	 * @param bufferSize
+	 * 		The maximum number of bytes to read from the source
+	 * @return The next packet
+	 * @throws IOException
+	 * 		if an I/O error occurs, or the source has reached its end
+	 */
+	private DataPacket nextPacket(int bufferSize) throws IOException {
+		DataPacket dataPacket = prefetchedPackets.poll();
+		if (dataPacket == null) {
+			dataPacket = source.get().get(bufferSize);
+		}
+		return dataPacket;
+	}
+
+	/**
+	 * Returns the next packet when crossfading. The current source is read
+	 * ahead by the crossfade duration; when it ends and the next queued source
+	 * is ready and compatible, a crossfade is started.
+	 *
+	 * @param bufferSize
+	 * 		The maximum number of bytes to return
+	 * @return The next packet
+	 * @throws IOException
+	 * 		if an I/O error occurs, or the source has reached its end without a
+	 * 		crossfade
+	 */
+	private DataPacket crossfadePacket(int bufferSize) throws IOException {
+		if ((crossfader != null) && crossfader.active()) {
+			return fadePacket(bufferSize);
+		}
+		Metadata metadata = metadata();
+		if (!canFade(metadata) && (lookaheadLength == 0)) {
+			return nextPacket(bufferSize);
+		}
+		int fadeBytes = crossfadeBytes(metadata, crossfadeTime);
+		int sourceReads = 0;
+		while (!sourceEnded && (lookaheadLength < (fadeBytes + bufferSize))) {
+			if (prefetchedPackets.isEmpty()) {
+				if ((sourceReads == MAXIMUM_LOOKAHEAD_READS) && (lookaheadLength >= bufferSize)) {
+					/* build up the rest of the lookahead with the next requests. */
+					break;
+				}
+				++sourceReads;
+			}
+			try {
+				appendLookahead(nextPacket(bufferSize).buffer());
+			} catch (EOFException eofe1) {
+				sourceEnded = true;
+				if (!nextSourceRequested && queuedSources.isEmpty()) {
+					nextSourceRequested = true;
+					fireSourceEnding(lookaheadLength * 1000L / Math.max(1, metadata.frequency() * metadata.channels() * 2));
+				}
+			}
+		}
+		int frameSize = metadata.channels() * 2;
+		int length = Math.min(lookaheadLength, Math.max(frameSize, bufferSize - (bufferSize % frameSize)));
+		if (sourceEnded && (lookaheadLength <= fadeBytes) && startFade(metadata)) {
+			return fadePacket(bufferSize);
+		}
+		if (lookaheadLength == 0) {
+			sourceEnded = false;
+			throw new EOFException();
+		}
+		if (sourceEnded && (lookaheadLength > fadeBytes)) {
+			/* only the last samples are crossfaded. */
+			length = Math.min(length, Math.max(frameSize, (lookaheadLength - fadeBytes) / frameSize * frameSize));
+		}
+		byte[] buffer = outputBuffer(length);
+		System.arraycopy(lookahead, lookaheadOffset, buffer, 0, length);
+		DataPacket dataPacket = new DataPacket(metadata, buffer);
+		lookaheadOffset += length;
+		lookaheadLength -= length;
+		return dataPacket;
+	}
+
+	/**
+	 * Appends the given samples to the samples read ahead from the current
+	 * source.
+	 *
+	 * @param buffer
+	 * 		The samples to append
+	 */
+	private void appendLookahead(byte[] buffer) {
+		if ((lookaheadOffset + lookaheadLength + buffer.length) > lookahead.length) {
+			if ((lookaheadLength + buffer.length) > lookahead.length) {
+				lookahead = Arrays.copyOfRange(lookahead, lookaheadOffset, lookaheadOffset + Math.max(lookaheadLength + buffer.length, lookahead.length * 2));
+			} else {
+				System.arraycopy(lookahead, lookaheadOffset, lookahead, 0, lookaheadLength);
+			}
+			lookaheadOffset = 0;
+		}
+		System.arraycopy(buffer, 0, lookahead, lookaheadOffset + lookaheadLength, buffer.length);
+		lookaheadLength += buffer.length;
+	}
+
+	/**
+	 * Starts a crossfade from the remaining samples of the current source to
+	 * the next queued source, if that is ready and has the same format.
+	 *
+	 * @param metadata
+	 * 		The metadata of the current source
+	 * @return {@code true} if a crossfade was started, {@code false} otherwise
+	 * @throws IOException
+	 * 		if the next source can not be read
+	 */
+	private boolean startFade(Metadata metadata) throws IOException {
+		int frameSize = metadata.channels() * 2;
+		int frames = lookaheadLength / frameSize;
+		Future<PrefetchedSource> queuedSource = queuedSources.peek();
+		if ((frames == 0) || (queuedSource == null) || !queuedSource.isDone()) {
+			return false;
+		}
+		PrefetchedSource prefetchedSource;
+		try {
+			prefetchedSource = Uninterruptibles.getUninterruptibly(queuedSource);
+		} catch (ExecutionException ee1) {
+			/* will be removed by switchToQueuedSource(). */
+			return false;
+		}
+		Metadata nextMetadata = prefetchedSource.source.metadata();
+		if (!canFade(metadata) || !canFade(nextMetadata) || (nextMetadata.frequency() != metadata.frequency()) || (nextMetadata.channels() != metadata.channels())) {
+			return false;
+		}
+		queuedSources.remove();
+
+		/* the start of the next source has been collected by the prefetch thread. */
+		int fadeBytes = frames * frameSize;
+		incoming = prefetchedSource.fadeIn;
+		incomingPackets.clear();
+		if (prefetchedSource.fadeInLength > fadeBytes) {
+			/* the current source was shorter than the crossfade. */
+			incomingPackets.add(new DataPacket(nextMetadata, Arrays.copyOfRange(incoming, fadeBytes, prefetchedSource.fadeInLength)));
+		}
+		Iterator<DataPacket> dataPackets = prefetchedSource.dataPackets.iterator();
+		if (incoming.length < fadeBytes) {
+			/* the crossfade has been lengthened since the source was queued. */
+			int incomingLength = prefetchedSource.fadeInLength;
+			incoming = Arrays.copyOf(incoming, fadeBytes);
+			while (incomingLength < fadeBytes) {
+				byte[] buffer;
+				if (dataPackets.hasNext()) {
+					buffer = dataPackets.next().buffer();
+				} else {
+					try {
+						buffer = prefetchedSource.source.get(fadeBytes - incomingLength).buffer();
+					} catch (EOFException eofe1) {
+						break;
+					}
+				}
+				int length = Math.min(buffer.length, fadeBytes - incomingLength);
+				System.arraycopy(buffer, 0, incoming, incomingLength, length);
+				incomingLength += length;
+				if (length < buffer.length) {
+					incomingPackets.add(new DataPacket(nextMetadata, Arrays.copyOfRange(buffer, length, buffer.length)));
+				}
+			}
+		}
+		Iterators.addAll(incomingPackets, dataPackets);
+		incomingOffset = 0;
+		incomingSource = prefetchedSource.source;
+
+		if ((crossfader == null) || (crossfader.channels() != metadata.channels())) {
+			crossfader = new Crossfader(metadata.channels());
+		}
+		crossfader.start(frames);
+		metadataUpdated(nextMetadata);
+		logger.info(String.format("Crossfading to %s over %d ms.", incomingSource.name(), frames * 1000L / metadata.frequency()));
+		return true;
+	}
+
+	/**
+	 * Mixes the next packet of the current crossfade. When the crossfade is
+	 * finished, the faded-in source becomes the current source.
+	 *
+	 * @param bufferSize
+	 * 		The maximum number of bytes to return
+	 * @return The mixed packet
+	 */
+	private DataPacket fadePacket(int bufferSize) {
+		Metadata metadata = metadata();
+		int frameSize = metadata.channels() * 2;
+		int frames = Math.min(Math.max(1, bufferSize / frameSize), crossfader.remaining());
+		byte[] buffer = outputBuffer(frames * frameSize);
+		crossfader.mix(lookahead, lookaheadOffset, incoming, incomingOffset, buffer, 0, frames);
+		lookaheadOffset += buffer.length;
+		lookaheadLength -= buffer.length;
+		incomingOffset += buffer.length;
+		if (!crossfader.active()) {
+			List<DataPacket> remainingPackets = Lists.newArrayList(incomingPackets);
+			startSource(incomingSource);
+			prefetchedPackets.addAll(remainingPackets);
+		}
+		return new DataPacket(metadata, buffer);
+	}
+
+	/**
+	 * Returns the buffer for a packet of the given length. The buffer is
+	 * reused for all packets of the same length.
+	 *
+	 * @param length
+	 * 		The length of the packet
+	 * @return The buffer for the packet
+	 */
+	private byte[] outputBuffer(int length) {
+		if (output.length != length) {
+			output = new byte[length];
+		}
+		return output;
+	}
+
+	/**
+	 * Asks the {@link SourceEndingListener}s for the next source if no source
+	 * is queued and the current source will end within the prefetch time.
+	 */
+	private void requestNextSource() {
+		if (nextSourceRequested || (prefetchTime == 0) || !queuedSources.isEmpty()) {
+			return;
+		}
+		Filter currentSource = source.get();
+		if (!(undecoded(currentSource) instanceof FileSource)) {
+			return;
+		}
+		if (sourceStartTime == 0) {
+			sourceStartTime = System.currentTimeMillis();
+			return;
+		}
+		long elapsedTime = System.currentTimeMillis() - sourceStartTime;
+		if (elapsedTime < 1000) {
+			return;
+		}
+		FileSource fileSource = (FileSource) undecoded(currentSource);
+		long remainingBytes = Math.max(0, fileSource.length() - fileSource.position());
+		if (currentSource instanceof DecodingSource) {
+			remainingBytes = ((DecodingSource) currentSource).decodedLength(remainingBytes);
+		}
+		long remainingTime = (long) (remainingBytes * ((double) elapsedTime / sourceBytes));
+		if (remainingTime <= prefetchTime) {
+			logger.info(String.format("%s ends in about %d ms, requesting next Source.", currentSource.name(), remainingTime));
+			nextSourceRequested = true;
+			fireSourceEnding(remainingTime);
+		}
+	}
+
+	/**
+	 * Replaces the current source with the next queued source.
+	 *
+	 * @return {@code true} if the source was replaced, {@code false} if there is
+	 *         no usable queued source
+	 */
+	private boolean switchToQueuedSource() {
+		Future<PrefetchedSource> queuedSource;
+		while (((queuedSource = queuedSources.peek()) != null) && queuedSource.isDone()) {
+			queuedSources.remove();
+			PrefetchedSource prefetchedSource;
+			try {
+				prefetchedSource = Uninterruptibles.getUninterruptibly(queuedSource);
+			} catch (ExecutionException ee1) {
+				logger.log(Level.WARNING, "Could not prepare queued Source.", ee1.getCause());
+				continue;
+			}
+			startSource(prefetchedSource.source);
+			if (prefetchedSource.fadeInLength > 0) {
+				prefetchedPackets.add(new DataPacket(prefetchedSource.source.metadata(), (prefetchedSource.fadeInLength == prefetchedSource.fadeIn.length) ? prefetchedSource.fadeIn : Arrays.copyOf(prefetchedSource.fadeIn, prefetchedSource.fadeInLength)));
+			}
+			prefetchedPackets.addAll(prefetchedSource.dataPackets);
+			logger.info(String.format("Switched to queued Source: %s", prefetchedSource.source.name()));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces the current source with a source that has been {@link
+	 * #setSource(Filter) set}, if there is one.
+	 */
+	private void pickUpNextSource() {
+		Filter nextSource = this.nextSource.getAndSet(null);
+		if (nextSource != null) {
+			startSource(nextSource);
+			logger.info(String.format("Switched to Source: %s", nextSource.name()));
+		}
+	}
+
+	/**
+	 * Makes the given source the current source, discarding everything that
+	 * was read ahead from the previous source.
+	 *
+	 * @param source
+	 * 		The new current source
+	 */
+	private void startSource(Filter source) {
+		this.source.set(source);
+		prefetchedPackets.clear();
+		lookaheadOffset = 0;
+		lookaheadLength = 0;
+		sourceEnded = false;
+		if ((crossfader != null) && crossfader.active()) {
+			crossfader = null;
+		}
+		incomingSource = null;
+		incomingPackets.clear();
+		sourceFinished = false;
+		sourceRequested = false;
+		playingFallback = false;
+		pending = false;
+		sourceStartTime = System.currentTimeMillis();
+		sourceBytes = 0;
+		nextSourceRequested = false;
+		metadataUpdated(source.metadata());
+	}
+
+	/**
+	 * Returns the next packet of the fallback.
+	 *
+	 * @param bufferSize
+	 * 		The maximum number of bytes to read
+	 * @return The next packet of the fallback, or {@code null} if there is no
+	 *         fallback or it has reached its end
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private DataPacket fallbackPacket(int bufferSize) throws IOException {
+		Filter fallback = this.fallback;
+		if (fallback == null) {
+			return null;
+		}
+		if (!playingFallback) {
+			logger.info(String.format("No Source available, playing %s.", fallback.name()));
+			Metadata metadata = super.metadata();
+			if ((metadata != Metadata.UNKNOWN) && !metadata.encoding().equalsIgnoreCase(fallback.metadata().encoding())) {
+				logger.warning(String.format("%s delivers %s instead of %s.", fallback.name(), fallback.metadata().encoding(), metadata.encoding()));
+			}
+			playingFallback = true;
+			metadataUpdated(fallback.metadata());
+		}
+		try {
+			return fallback.get(bufferSize);
+		} catch (EOFException eofe1) {
+			logger.warning(String.format("Fallback %s has ended.", fallback.name()));
+			this.fallback = null;
+			return null;
+		}
+	}
+
+	/**
+	 * Waits until a new source is {@link #setSource(Filter) set} or {@link
+	 * #queueSource(Callable) queued}, or a while has passed.
+	 *
+	 * @param waitStartTime
+	 * 		The time the multi source started waiting
+	 * @throws IOException
+	 * 		if the handoff timeout has expired, or the thread was interrupted
+	 */
+	private void waitForNewSource(long waitStartTime) throws IOException {
+		long handoffTimeout = this.handoffTimeout;
+		long waitTime = 100;
+		if (handoffTimeout > 0) {
+			long remainingTime = handoffTimeout - (System.currentTimeMillis() - waitStartTime);
+			if (remainingTime <= 0) {
+				logger.warning(String.format("No Source after %d ms, giving up.", handoffTimeout));
+				throw new EOFException();
+			}
+			waitTime = Math.min(waitTime, remainingTime);
+		}
+		waitingThread = Thread.currentThread();
+		if ((nextSource.get() == null) && (queuedSources.isEmpty() || !queuedSources.peek().isDone())) {
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitTime));
+		}
+		waitingThread = null;
+		if (Thread.interrupted()) {
+			throw new InterruptedIOException("Interrupted while waiting for next Source.");
+		}
+	}
+
+	/** Wakes up the thread that is waiting for a new source. */
+	private void wakeUpWaitingThread() {
+		Thread waitingThread = this.waitingThread;
+		if (waitingThread != null) {
+			LockSupport.unpark(waitingThread);
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns the number of bytes of PCM samples that make up a crossfade.
+	 *
+	 * @param metadata
+	 * 		The metadata of the samples
+	 * @param crossfadeTime
+	 * 		The duration of the crossfade (in milliseconds)
+	 * @return The number of bytes of a crossfade
+	 */
+	private static int crossfadeBytes(Metadata metadata, long crossfadeTime) {
+		return (int) (crossfadeTime * metadata.frequency() / 1000) * metadata.channels() * 2;
+	}
+
+	/**
+	 * Returns whether a source with the given metadata can be crossfaded, i.e.
+	 * whether it delivers 16-bit little-endian PCM.
+	 *
+	 * @param metadata
+	 * 		The metadata of the source
+	 * @return {@code true} if the source can be crossfaded, {@code false}
+	 *         otherwise
+	 */
+	private static boolean canFade(Metadata metadata) {
+		return metadata.encoding().equalsIgnoreCase("PCM") && (metadata.sampleWidth() == 16) && (metadata.byteOrder() == ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Wraps the given source in a {@link DecodingSource} if it should be and
+	 * can be decoded.
+	 *
+	 * @param source
+	 * 		The source
+	 * @param decode
+	 * 		{@code true} to decode the source, {@code false} to use it unchanged
+	 * @return The decoding source, or the given source
+	 */
+	private static Filter decoded(Filter source, boolean decode) {
+		return (decode && DecodingSource.canDecode(source.metadata())) ? new DecodingSource(source) : source;
+	}
+
+	/**
+	 * Returns the source that is decoded by the given source.
+	 *
+	 * @param source
+	 * 		The source, may be {@code null}
+	 * @return The source decoded by the given {@link DecodingSource}, or the
+	 *         given source
+	 */
+	private static Filter undecoded(Filter source) {
+		return (source instanceof DecodingSource) ? ((DecodingSource) source).source() : source;
+	}
+
+	/**
+	 * A queued source with the samples and packets that have been pre-read from
+	 * it.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class PrefetchedSource {
+
+		/** The source. */
+		private final Filter source;
+
+		/** The first samples of the source, for a crossfade. */
+		private final byte[] fadeIn;
+
+		/** The number of bytes read into {@link #fadeIn}. */
+		private final int fadeInLength;
+
+		/** The pre-read packets that follow the first samples. */
+		private final List<DataPacket> dataPackets;
+
+		/**
+		 * Creates a new prefetched source.
+		 *
+		 * @param source
+		 * 		The source
+		 * @param fadeIn
+		 * 		The first samples of the source, padded with silence if the source
+		 * 		is shorter
+		 * @param fadeInLength
+		 * 		The number of bytes read into the first samples
+		 * @param dataPackets
+		 * 		The pre-read packets that follow the first samples
+		 */
+		private PrefetchedSource(Filter source, byte[] fadeIn, int fadeInLength, List<DataPacket> dataPackets) {
+			this.source = source;
+			this.fadeIn = fadeIn;
+			this.fadeInLength = fadeInLength;
+			this.dataPackets = dataPackets;
+		}
+
+	}
+
+	/**
+	 * Task that creates a queued source and pre-reads its first packets. For a
+	 * source that can be crossfaded, the first crossfade duration is collected
+	 * into one buffer, and another crossfade duration is pre-read as lookahead
+	 * for the end of the source.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class PrefetchTask implements Callable<PrefetchedSource> {
+
+		/** The size of the pre-read packets. */
+		private static final int PACKET_SIZE = 4096;
+
+		/** The factory that creates the source. */
+		private final Callable<? extends Filter> sourceFactory;
+
+		/** The number of bytes to pre-read. */
+		private final int prefetchSize;
+
+		/** The duration of crossfades (in milliseconds). */
+		private final long crossfadeTime;
+
+		/** Whether to decode the source. */
+		private final boolean decode;
+
+		/**
+		 * Creates a new prefetch task.
+		 *
+		 * @param sourceFactory
+		 * 		The factory that creates the source
+		 * @param prefetchSize
+		 * 		The number of bytes to pre-read
+		 * @param crossfadeTime
+		 * 		The duration of crossfades (in milliseconds)
+		 * @param decode
+		 * 		{@code true} to decode the source, {@code false} otherwise
+		 */
+		private PrefetchTask(Callable<? extends Filter> sourceFactory, int prefetchSize, long crossfadeTime, boolean decode) {
+			this.sourceFactory = sourceFactory;
+			this.prefetchSize = prefetchSize;
+			this.crossfadeTime = crossfadeTime;
+			this.decode = decode;
+		}
+
+		@Override
+		public PrefetchedSource call() throws Exception {
+			long startTime = System.currentTimeMillis();
+			Filter source = decoded(sourceFactory.call(), decode);
+			List<DataPacket> dataPackets = Lists.newArrayList();
+			int fadeBytes = ((crossfadeTime > 0) && canFade(source.metadata())) ? crossfadeBytes(source.metadata(), crossfadeTime) : 0;
+			byte[] fadeIn = new byte[fadeBytes];
+			int fadeInLength = 0;
+			int prefetchSize = Math.max(this.prefetchSize, fadeBytes * 2);
+			int prefetchedBytes = 0;
+			try {
+				while (prefetchedBytes < prefetchSize) {
+					DataPacket dataPacket = source.get(Math.min(PACKET_SIZE, prefetchSize - prefetchedBytes));
+					byte[] buffer = dataPacket.buffer();
+					prefetchedBytes += buffer.length;
+					int length = Math.min(buffer.length, fadeBytes - fadeInLength);
+					System.arraycopy(buffer, 0, fadeIn, fadeInLength, length);
+					fadeInLength += length;
+					if (length == 0) {
+						dataPackets.add(dataPacket);
+					} else if (length < buffer.length) {
+						dataPackets.add(new DataPacket(source.metadata(), Arrays.copyOfRange(buffer, length, buffer.length)));
+					}
 				}
+			} catch (EOFException eofe1) {
+				/* short source, the next get() will throw again. */
 			}
+			logger.fine(String.format("Prepared %s with %d bytes in %d ms.", source.name(), prefetchedBytes, System.currentTimeMillis() - startTime));
+			return new PrefetchedSource(source, fadeIn, fadeInLength, dataPackets);
 		}
+
 	}
 
 }
@@ -0,0 +1,91 @@
+/*
+ * Sonitus - SilenceSource.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.source;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.Controller;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.PcmSamples;
+
+/**
+ * A {@link Filter} that endlessly creates PCM-encoded silence in the format
+ * of the given metadata. It can be used as {@link MultiSource#fallback(Filter)
+ * fallback} of a {@link MultiSource} to cover gaps between sources.
+ * <p/>
+ * Only uncompressed silence (integer or floating-point PCM) can be created.
+ * A multi source that carries encoded streams, e.g. the MP3 or FLAC data of
+ * {@link FileSource}s, needs a fallback in the same encoding, e.g. a {@link
+ * FileSource} of a silent file, or a standby stream, unless it {@link
+ * MultiSource#decode(boolean) decodes} its sources.
+ * <p/>
+ * All packets share the same buffer, so the receivers of the packets must not
+ * modify them.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SilenceSource extends AbstractFilter {
+
+	/** The size of a frame (one sample of every channel, in bytes). */
+	private final int frameSize;
+
+	/** The buffer of the last packet. */
+	private byte[] silence = new byte[0];
+
+	/**
+	 * Creates a new silence source.
+	 *
+	 * @param metadata
+	 * 		The metadata of the silence
+	 */
+	public SilenceSource(Metadata metadata) {
+		super("Silence");
+		checkNotNull(metadata, "metadata must not be null");
+		checkArgument(metadata.encoding().equalsIgnoreCase("PCM") || metadata.encoding().equalsIgnoreCase(FormatMetadata.PCM_FLOAT), "metadata must be PCM-encoded");
+		metadataUpdated(metadata);
+		boolean floatingPoint = metadata.encoding().equalsIgnoreCase(FormatMetadata.PCM_FLOAT);
+		frameSize = Math.max(1, metadata.channels()) * (floatingPoint ? 4 : PcmSamples.sampleSize(metadata.sampleWidth()));
+	}
+
+	//
+	// FILTER METHODS
+	//
+
+	@Override
+	public List<Controller<?>> controllers() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public synchronized DataPacket get(int bufferSize) {
+		int length = Math.max(frameSize, bufferSize - (bufferSize % frameSize));
+		if (silence.length != length) {
+			silence = new byte[length];
+		}
+		return new DataPacket(metadata(), silence);
+	}
+
+}
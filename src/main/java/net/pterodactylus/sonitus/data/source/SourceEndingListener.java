@@ -0,0 +1,43 @@
+/*
+ * Sonitus - SourceEndingListener.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.source;
+
+import java.util.EventListener;
+
+/**
+ * Interface for {@link MultiSource} notifications if a source is about to
+ * finish playing.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public interface SourceEndingListener extends EventListener {
+
+	/**
+	 * Notifies the listener that the current source of the given multi source
+	 * will finish playing soon, and that the next source should be {@link
+	 * MultiSource#queueSource(java.util.concurrent.Callable) queued} so that it
+	 * can be prepared in the background.
+	 *
+	 * @param multiSource
+	 * 		The multi source whose source is ending
+	 * @param remainingTime
+	 * 		The estimated remaining time of the current source (in milliseconds)
+	 */
+	public void sourceEnding(MultiSource multiSource, long remainingTime);
+
+}
@@ -33,6 +33,8 @@ import net.pterodactylus.sonitus.data.FormatMetadata;
 import net.pterodactylus.sonitus.data.controller.Fader;
 import net.pterodactylus.sonitus.data.controller.Knob;
 import net.pterodactylus.sonitus.data.controller.Switch;
+import net.pterodactylus.sonitus.data.filter.MeterFilter;
+import net.pterodactylus.sonitus.io.loudness.Levels;
 
 import com.google.common.base.Optional;
 
@@ -55,6 +57,12 @@ public class FilterInfoPanel extends JPanel {
 	/** The current format metadata. */
 	private final JLabel formatLabel = new JLabel();
 
+	/** The momentary and short-term loudness. */
+	private final JLabel loudnessLabel = new JLabel();
+
+	/** The levels of all channels. */
+	private final MeterPanel meterPanel = new MeterPanel();
+
 	/**
 	 * Creates a new filter info panel.
 	 *
@@ -120,6 +128,23 @@ public class FilterInfoPanel extends JPanel {
 		return this;
 	}
 
+	/**
+	 * Sets the current levels.
+	 *
+	 * @param levels
+	 * 		The levels
+	 * @return This panel
+	 */
+	public FilterInfoPanel levels(Optional<Levels> levels) {
+		if (levels.isPresent()) {
+			loudnessLabel.setText(String.format("M: %.1f LUFS, S: %.1f LUFS", levels.get().momentaryLoudness(), levels.get().shortTermLoudness()));
+		} else {
+			loudnessLabel.setText("");
+		}
+		meterPanel.levels(levels);
+		return this;
+	}
+
 	//
 	// PRIVATE METHODS
 	//
@@ -145,6 +170,14 @@ public class FilterInfoPanel extends JPanel {
 		add(new JLabel("Format"), new GridBagConstraints(0, line, 1, 1, 0, 0, GridBagConstraints.EAST, GridBagConstraints.NONE, new Insets(6, 0, 0, 0), 0, 0));
 		add(formatLabel, new GridBagConstraints(1, line++, 1, 1, 1.0, 0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(6, 6, 0, 0), 0, 0));
 
+		/* add the meters. */
+		if (filter instanceof MeterFilter) {
+			add(new JLabel("Loudness"), new GridBagConstraints(0, line, 1, 1, 0, 0, GridBagConstraints.EAST, GridBagConstraints.NONE, new Insets(6, 0, 0, 0), 0, 0));
+			add(loudnessLabel, new GridBagConstraints(1, line++, 1, 1, 1.0, 0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(6, 6, 0, 0), 0, 0));
+			add(new JLabel("Levels"), new GridBagConstraints(0, line, 1, 1, 0, 0, GridBagConstraints.EAST, GridBagConstraints.NONE, new Insets(6, 0, 0, 0), 0, 0));
+			add(meterPanel, new GridBagConstraints(1, line++, 1, 1, 1.0, 0, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL, new Insets(6, 6, 0, 0), 0, 0));
+		}
+
 		/* add the controllers. */
 		for (Controller<?> controller : filter.controllers()) {
 			add(new JLabel(controller.name()), new GridBagConstraints(0, line, 1, 1, 0.0, 0.0, GridBagConstraints.EAST, GridBagConstraints.NONE, new Insets(6, 0, 0, 6), 0, 0));
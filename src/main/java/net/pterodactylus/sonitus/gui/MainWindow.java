@@ -32,6 +32,7 @@ import javax.swing.WindowConstants;
 
 import net.pterodactylus.sonitus.data.Filter;
 import net.pterodactylus.sonitus.data.Pipeline;
+import net.pterodactylus.sonitus.data.filter.MeterFilter;
 import net.pterodactylus.sonitus.gui.PipelinePanel.FilterSelectionListener;
 import net.pterodactylus.sonitus.main.Version;
 
@@ -102,6 +103,9 @@ public class MainWindow extends JFrame {
 					filterInfoPanel.input(MainWindow.this.pipeline.trafficCounter(filter).input());
 					filterInfoPanel.output(MainWindow.this.pipeline.trafficCounter(filter).output());
 					filterInfoPanel.format(Optional.of(filter.metadata().format()));
+					if (filter instanceof MeterFilter) {
+						filterInfoPanel.levels(((MeterFilter) filter).levels());
+					}
 				}
 			}
 		});
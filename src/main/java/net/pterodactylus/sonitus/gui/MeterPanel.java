@@ -0,0 +1,119 @@
+/*
+ * Sonitus - MeterPanel.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.gui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import javax.swing.JPanel;
+
+import net.pterodactylus.sonitus.io.loudness.Levels;
+
+import com.google.common.base.Optional;
+
+/**
+ * Displays the RMS levels and peaks of all channels of {@link Levels} as
+ * horizontal bars.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class MeterPanel extends JPanel {
+
+	/** The lowest level that is displayed (in dBFS). */
+	private static final double FLOOR = -60;
+
+	/** The height of the bar of a single channel. */
+	private static final int BAR_HEIGHT = 8;
+
+	/** The levels to display. */
+	private Optional<Levels> levels = Optional.absent();
+
+	/** Creates a new meter panel. */
+	public MeterPanel() {
+		setPreferredSize(new Dimension(0, 2 * (BAR_HEIGHT + 2)));
+		setBackground(Color.BLACK);
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Sets the levels to display.
+	 *
+	 * @param levels
+	 * 		The levels to display
+	 * @return This panel
+	 */
+	public MeterPanel levels(Optional<Levels> levels) {
+		this.levels = levels;
+		if (levels.isPresent()) {
+			Dimension preferredSize = new Dimension(0, levels.get().channels() * (BAR_HEIGHT + 2));
+			if (!preferredSize.equals(getPreferredSize())) {
+				setPreferredSize(preferredSize);
+				revalidate();
+			}
+		}
+		repaint();
+		return this;
+	}
+
+	//
+	// COMPONENT METHODS
+	//
+
+	@Override
+	protected void paintComponent(Graphics graphics) {
+		super.paintComponent(graphics);
+		if (!levels.isPresent()) {
+			return;
+		}
+		int width = getWidth();
+		for (int channel = 0; channel < levels.get().channels(); ++channel) {
+			int top = channel * (BAR_HEIGHT + 2) + 1;
+			double rms = levels.get().rms(channel);
+			double peak = levels.get().peak(channel);
+			graphics.setColor((peak >= -0.1) ? Color.RED : (rms > -18) ? Color.YELLOW : Color.GREEN);
+			graphics.fillRect(0, top, position(rms, width), BAR_HEIGHT);
+			graphics.setColor(Color.WHITE);
+			int peakPosition = position(peak, width);
+			graphics.drawLine(peakPosition, top, peakPosition, top + BAR_HEIGHT - 1);
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the horizontal position of the given level.
+	 *
+	 * @param level
+	 * 		The level (in dBFS)
+	 * @param width
+	 * 		The width of the panel
+	 * @return The position of the level
+	 */
+	private static int position(double level, int width) {
+		if (level <= FLOOR) {
+			return 0;
+		}
+		return (int) (width * (Math.min(level, 0) - FLOOR) / -FLOOR);
+	}
+
+}
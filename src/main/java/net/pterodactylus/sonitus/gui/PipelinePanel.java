@@ -31,6 +31,7 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.Collection;
 import java.util.EventListener;
+import java.util.List;
 import java.util.logging.Logger;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -108,13 +109,17 @@ public class PipelinePanel extends JPanel {
 		}
 
 		/* get number of maximum horizontal grid cells. */
+		List<Filter> sources = pipeline.sources();
 		int gridCellCount = 1;
-		for (int n = 2; n <= sinkCount; ++n) {
+		for (int n = 2; n <= Math.max(sinkCount, sources.size()); ++n) {
 			gridCellCount *= n;
 		}
 
-		/* paint all filters recursively. */
-		addFilter(pipeline.source(), 0, 0, gridCellCount, null);
+		/* paint all filters recursively, placing the sources next to each other. */
+		int sourceWidth = gridCellCount / sources.size();
+		for (int sourceIndex = 0; sourceIndex < sources.size(); ++sourceIndex) {
+			addFilter(sources.get(sourceIndex), 0, sourceIndex * sourceWidth, sourceWidth, null);
+		}
 	}
 
 	/**
@@ -176,8 +181,11 @@ public class PipelinePanel extends JPanel {
 			int sinkWidth = width / sinks.size();
 			int sinkIndex = 0;
 			for (Filter connectedSink : sinks) {
-				/* distribute all filters evenly below this source. */
-				addFilter(connectedSink, level + 1, position + sinkIndex * sinkWidth, sinkWidth, filter);
+				/* filters with several inputs are only shown below their first input. */
+				if (pipeline.inputs(connectedSink).get(0).equals(filter)) {
+					/* distribute all filters evenly below this source. */
+					addFilter(connectedSink, level + 1, position + sinkIndex * sinkWidth, sinkWidth, filter);
+				}
 				sinkIndex++;
 			}
 		}
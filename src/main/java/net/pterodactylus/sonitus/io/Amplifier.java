@@ -0,0 +1,80 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import java.nio.ByteOrder;
+
+/**
+ * Amplifies integer PCM samples of any width and byte order by a gain given in
+ * decibels. Samples that would exceed the range of their width are clipped.
+ * <p/>
+ * An amplifier must not be shared between threads.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ * @see PcmSamples
+ */
+public class Amplifier {
+
+	/** The decoded samples. */
+	private int[] samples = new int[0];
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Amplifies the given samples. The input and the output buffer may be the
+	 * same buffer.
+	 *
+	 * @param input
+	 * 		The buffer containing the samples to amplify
+	 * @param inputOffset
+	 * 		The offset of the first sample in the input buffer
+	 * @param output
+	 * 		The buffer to store the amplified samples in
+	 * @param outputOffset
+	 * 		The offset of the first sample in the output buffer
+	 * @param count
+	 * 		The number of samples to amplify
+	 * @param sampleWidth
+	 * 		The width of the samples (in bits, 8 to 32)
+	 * @param byteOrder
+	 * 		The byte order of the samples
+	 * @param gain
+	 * 		The gain (in dB)
+	 */
+	public void amplify(byte[] input, int inputOffset, byte[] output, int outputOffset, int count, int sampleWidth, ByteOrder byteOrder, double gain) {
+		int sampleSize = PcmSamples.sampleSize(sampleWidth);
+		if (gain == 0) {
+			System.arraycopy(input, inputOffset, output, outputOffset, count * sampleSize);
+			return;
+		}
+		if (samples.length < count) {
+			samples = new int[count];
+		}
+		PcmSamples.decode(input, inputOffset, sampleSize, byteOrder, samples, count);
+		double factor = Math.pow(10, gain / 20);
+		long maximum = (1L << (sampleWidth - 1)) - 1;
+		long minimum = -(1L << (sampleWidth - 1));
+		for (int sample = 0; sample < count; ++sample) {
+			samples[sample] = (int) Math.max(minimum, Math.min(maximum, Math.round(samples[sample] * factor)));
+		}
+		PcmSamples.encode(samples, count, sampleSize, byteOrder, output, outputOffset);
+	}
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Sonitus - BitReader.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+/**
+ * Reads bit fields from a byte array, most significant bit first. Reading past
+ * the end of the data does not throw but returns zero bits; use {@link
+ * #overrun()} to check whether that happened.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class BitReader {
+
+	/** The buffer to read from. */
+	private final byte[] buffer;
+
+	/** The offset of the first byte (in bytes). */
+	private final int offset;
+
+	/** The end of the data (in bytes, exclusive). */
+	private final int end;
+
+	/** The current position (in bits, relative to the start of the buffer). */
+	private long position;
+
+	/**
+	 * Creates a new bit reader.
+	 *
+	 * @param buffer
+	 * 		The buffer to read from
+	 * @param offset
+	 * 		The offset of the first byte to read
+	 * @param length
+	 * 		The number of bytes to read
+	 */
+	public BitReader(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.end = offset + length;
+		this.position = offset * 8L;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of bytes read so far, including a partially read byte.
+	 *
+	 * @return The number of bytes read
+	 */
+	public int bytesRead() {
+		return (int) (((position + 7) >>> 3) - offset);
+	}
+
+	/**
+	 * Returns the current position.
+	 *
+	 * @return The number of bits read so far
+	 */
+	public long position() {
+		return position - offset * 8L;
+	}
+
+	/**
+	 * Returns whether more bits were read than were available.
+	 *
+	 * @return {@code true} if the reader ran past the end of its data, {@code
+	 *         false} otherwise
+	 */
+	public boolean overrun() {
+		return position > end * 8L;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Reads the given number of bits as an unsigned value.
+	 *
+	 * @param bits
+	 * 		The number of bits to read (from 0 to 32)
+	 * @return The read bits
+	 */
+	public int readBits(int bits) {
+		if (bits == 0) {
+			return 0;
+		}
+		int bytePosition = (int) (position >>> 3);
+		int bitOffset = (int) (position & 7);
+		long window = ((long) byteAt(bytePosition) << 32) | ((long) byteAt(bytePosition + 1) << 24) | (byteAt(bytePosition + 2) << 16) | (byteAt(bytePosition + 3) << 8) | byteAt(bytePosition + 4);
+		position += bits;
+		return (int) ((window >>> (40 - bitOffset - bits)) & ((1L << bits) - 1));
+	}
+
+	/**
+	 * Reads the given number of bits as a two’s complement signed value.
+	 *
+	 * @param bits
+	 * 		The number of bits to read (from 0 to 32)
+	 * @return The read value
+	 */
+	public int readSignedBits(int bits) {
+		if (bits == 0) {
+			return 0;
+		}
+		return (readBits(bits) << (32 - bits)) >> (32 - bits);
+	}
+
+	/**
+	 * Reads a unary-coded value, i.e. counts the zero bits up to the next one
+	 * bit, and skips the one bit, too.
+	 *
+	 * @return The number of zero bits that were read
+	 */
+	public int readUnary() {
+		int zeros = 0;
+		while (true) {
+			int bytePosition = (int) (position >>> 3);
+			int bitOffset = (int) (position & 7);
+			int remaining = (byteAt(bytePosition) << bitOffset) & 0xff;
+			if (remaining != 0) {
+				int leadingZeros = Integer.numberOfLeadingZeros(remaining) - 24;
+				position += leadingZeros + 1;
+				return zeros + leadingZeros;
+			}
+			zeros += 8 - bitOffset;
+			position += 8 - bitOffset;
+			if (bytePosition >= end) {
+				return zeros;
+			}
+		}
+	}
+
+	/**
+	 * Reads a Rice-coded, zig-zag-folded signed value.
+	 *
+	 * @param parameter
+	 * 		The Rice parameter
+	 * @return The decoded value
+	 */
+	public int readRice(int parameter) {
+		int folded = (readUnary() << parameter) | readBits(parameter);
+		return (folded >>> 1) ^ -(folded & 1);
+	}
+
+	/**
+	 * Reads a single bit.
+	 *
+	 * @return {@code 1} if the bit is set, {@code 0} otherwise
+	 */
+	public int readBit() {
+		int bytePosition = (int) (position >>> 3);
+		int bit = (byteAt(bytePosition) >>> (7 - (int) (position & 7))) & 1;
+		position++;
+		return bit;
+	}
+
+	/**
+	 * Skips the given number of bits.
+	 *
+	 * @param bits
+	 * 		The number of bits to skip
+	 */
+	public void skipBits(long bits) {
+		position += bits;
+	}
+
+	/** Skips the remaining bits of the current byte. */
+	public void alignToByte() {
+		position = (position + 7) & ~7L;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the byte at the given position, or {@code 0} if the position is
+	 * beyond the end of the data.
+	 *
+	 * @param bytePosition
+	 * 		The position of the byte
+	 * @return The unsigned value of the byte
+	 */
+	private int byteAt(int bytePosition) {
+		return (bytePosition < end) ? (buffer[bytePosition] & 0xff) : 0;
+	}
+
+}
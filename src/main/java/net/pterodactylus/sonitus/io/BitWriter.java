@@ -0,0 +1,107 @@
+/*
+ * Sonitus - BitWriter.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+/**
+ * Writes bit fields into a byte array, most significant bit first. This is the
+ * counterpart of {@link BitReader}; the buffer has to be large enough for all
+ * written bits.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class BitWriter {
+
+	/** The buffer to write to. */
+	private final byte[] buffer;
+
+	/** The offset of the first byte (in bytes). */
+	private final int offset;
+
+	/** The current position (in bits, relative to the start of the buffer). */
+	private long position;
+
+	/**
+	 * Creates a new bit writer.
+	 *
+	 * @param buffer
+	 * 		The buffer to write to
+	 * @param offset
+	 * 		The offset of the first byte to write
+	 */
+	public BitWriter(byte[] buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.position = offset * 8L;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of bytes written so far, including a partially written
+	 * byte.
+	 *
+	 * @return The number of bytes written
+	 */
+	public int bytesWritten() {
+		return (int) (((position + 7) >>> 3) - offset);
+	}
+
+	/**
+	 * Returns the current position.
+	 *
+	 * @return The number of bits written so far
+	 */
+	public long position() {
+		return position - offset * 8L;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Writes the lowest bits of the given value. Bits of partially written
+	 * bytes that have not been written yet are cleared.
+	 *
+	 * @param value
+	 * 		The value to write
+	 * @param bits
+	 * 		The number of bits to write (from 0 to 32)
+	 */
+	public void writeBits(int value, int bits) {
+		for (int remaining = bits; remaining > 0; ) {
+			int bytePosition = (int) (position >>> 3);
+			int bitOffset = (int) (position & 7);
+			int count = Math.min(8 - bitOffset, remaining);
+			int chunk = (value >>> (remaining - count)) & ((1 << count) - 1);
+			int shift = 8 - bitOffset - count;
+			int current = (bitOffset == 0) ? 0 : (buffer[bytePosition] & (0xff << (8 - bitOffset)));
+			buffer[bytePosition] = (byte) (current | (chunk << shift));
+			position += count;
+			remaining -= count;
+		}
+	}
+
+	/** Writes zero bits up to the next byte boundary. */
+	public void alignToByte() {
+		writeBits(0, (int) ((8 - (position & 7)) & 7));
+	}
+
+}
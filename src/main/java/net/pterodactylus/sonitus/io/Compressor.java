@@ -0,0 +1,229 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Feed-forward compressor for interleaved 16-bit samples. The peak of every
+ * sample frame is compared to the threshold; the amount by which it exceeds
+ * the threshold is divided by the ratio, and the resulting gain reduction is
+ * smoothed with the attack and release time constants. All channels are
+ * reduced by the same gain so that the stereo image does not move.
+ * <p/>
+ * The compressor processes blocks of samples in place and does not allocate
+ * any memory while processing. Processed samples are not clipped.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Compressor {
+
+	/** The sampling frequency. */
+	private final int frequency;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** The threshold (in dBFS). */
+	private double threshold = -18;
+
+	/** The threshold (in sample values). */
+	private double thresholdLevel = level(-18);
+
+	/** The ratio. */
+	private double ratio = 4;
+
+	/** The coefficient of the attack. */
+	private double attackCoefficient;
+
+	/** The coefficient of the release. */
+	private double releaseCoefficient;
+
+	/** The makeup gain (in dB). */
+	private double makeupGain;
+
+	/** The current gain reduction (in dB). */
+	private double gainReduction;
+
+	/**
+	 * Creates a new compressor with a threshold of -18 dBFS, a ratio of 4:1, an
+	 * attack time of 10 ms, a release time of 200 ms, and no makeup gain.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param channels
+	 * 		The number of channels
+	 */
+	public Compressor(int frequency, int channels) {
+		checkArgument(frequency > 0, "frequency must be positive");
+		checkArgument(channels > 0, "channels must be positive");
+		this.frequency = frequency;
+		this.channels = channels;
+		attack(10);
+		release(200);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Sets the level above which the signal is compressed.
+	 *
+	 * @param threshold
+	 * 		The threshold (in dBFS)
+	 * @return This compressor
+	 */
+	public Compressor threshold(double threshold) {
+		checkArgument(threshold <= 0, "threshold must not be positive");
+		this.threshold = threshold;
+		thresholdLevel = level(threshold);
+		return this;
+	}
+
+	/**
+	 * Sets the ratio of the level above the threshold to the level of the
+	 * compressed signal above the threshold.
+	 *
+	 * @param ratio
+	 * 		The ratio (at least {@code 1.0})
+	 * @return This compressor
+	 */
+	public Compressor ratio(double ratio) {
+		checkArgument(ratio >= 1, "ratio must be at least 1");
+		this.ratio = ratio;
+		return this;
+	}
+
+	/**
+	 * Sets the attack time, i.e. the time it takes the gain reduction to reach
+	 * 63% of its target when the signal gets louder.
+	 *
+	 * @param attack
+	 * 		The attack time (in milliseconds)
+	 * @return This compressor
+	 */
+	public Compressor attack(double attack) {
+		checkArgument(attack >= 0, "attack must not be negative");
+		attackCoefficient = coefficient(attack);
+		return this;
+	}
+
+	/**
+	 * Sets the release time, i.e. the time it takes the gain reduction to reach
+	 * 63% of its target when the signal gets quieter.
+	 *
+	 * @param release
+	 * 		The release time (in milliseconds)
+	 * @return This compressor
+	 */
+	public Compressor release(double release) {
+		checkArgument(release >= 0, "release must not be negative");
+		releaseCoefficient = coefficient(release);
+		return this;
+	}
+
+	/**
+	 * Sets the gain that is applied after compression.
+	 *
+	 * @param makeupGain
+	 * 		The makeup gain (in dB)
+	 * @return This compressor
+	 */
+	public Compressor makeupGain(double makeupGain) {
+		this.makeupGain = makeupGain;
+		return this;
+	}
+
+	/**
+	 * Returns the current gain reduction.
+	 *
+	 * @return The current gain reduction (in dB)
+	 */
+	public double gainReduction() {
+		return gainReduction;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Compresses the given samples in place.
+	 *
+	 * @param samples
+	 * 		The interleaved samples
+	 * @param frames
+	 * 		The number of sample frames to process
+	 */
+	public void process(int[] samples, int frames) {
+		double gainReduction = this.gainReduction;
+		double appliedReduction = Double.NaN;
+		double gain = 1;
+		double slope = 1 - 1 / ratio;
+		int index = 0;
+		for (int frame = 0; frame < frames; ++frame) {
+			int peak = 0;
+			for (int channel = 0; channel < channels; ++channel) {
+				peak = Math.max(peak, Math.abs(samples[index + channel]));
+			}
+			double target = (peak > thresholdLevel) ? (20 * Math.log10(peak / 32768.0) - threshold) * slope : 0;
+			gainReduction = target + (gainReduction - target) * ((target > gainReduction) ? attackCoefficient : releaseCoefficient);
+			if (gainReduction < 1e-6) {
+				/* stop the release before it decays into denormals. */
+				gainReduction = 0;
+			}
+			if (gainReduction != appliedReduction) {
+				gain = Math.pow(10, (makeupGain - gainReduction) / 20);
+				appliedReduction = gainReduction;
+			}
+			for (int channel = 0; channel < channels; ++channel, ++index) {
+				samples[index] = (int) Math.round(samples[index] * gain);
+			}
+		}
+		this.gainReduction = gainReduction;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Calculates the coefficient of a one-pole filter with the given time
+	 * constant.
+	 *
+	 * @param time
+	 * 		The time constant (in milliseconds)
+	 * @return The coefficient of the filter
+	 */
+	private double coefficient(double time) {
+		return (time == 0) ? 0 : Math.exp(-1000 / (time * frequency));
+	}
+
+	/**
+	 * Converts the given level to a sample value.
+	 *
+	 * @param level
+	 * 		The level (in dBFS)
+	 * @return The sample value
+	 */
+	private static double level(double level) {
+		return Math.pow(10, level / 20) * 32768;
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Mixes two blocks of interleaved 16-bit signed little-endian PCM samples with
+ * equal-power curves: the outgoing samples are faded out with a quarter cosine,
+ * the incoming samples are faded in with a quarter sine, so the summed power
+ * of uncorrelated signals stays constant during the fade. The curves are not
+ * stored; the gains are advanced by a rotation for every sample frame, so a
+ * crossfader needs no buffers, and a single crossfader can be reused for any
+ * number of fades of any length.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Crossfader {
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** The length of the current fade (in sample frames). */
+	private int frames;
+
+	/** The position in the current fade (in sample frames). */
+	private int position;
+
+	/** The gain of the outgoing samples. */
+	private double outgoingGain;
+
+	/** The gain of the incoming samples. */
+	private double incomingGain;
+
+	/** The cosine of the angle the gains are rotated by per frame. */
+	private double stepCosine;
+
+	/** The sine of the angle the gains are rotated by per frame. */
+	private double stepSine;
+
+	/**
+	 * Creates a new crossfader.
+	 *
+	 * @param channels
+	 * 		The number of channels
+	 */
+	public Crossfader(int channels) {
+		checkArgument(channels > 0, "channels must be positive");
+		this.channels = channels;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of channels.
+	 *
+	 * @return The number of channels
+	 */
+	public int channels() {
+		return channels;
+	}
+
+	/**
+	 * Returns whether a fade is in progress.
+	 *
+	 * @return {@code true} if a fade is in progress, {@code false} otherwise
+	 */
+	public boolean active() {
+		return position < frames;
+	}
+
+	/**
+	 * Returns the number of sample frames remaining in the current fade.
+	 *
+	 * @return The number of remaining sample frames
+	 */
+	public int remaining() {
+		return frames - position;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Starts a new fade.
+	 *
+	 * @param frames
+	 * 		The length of the fade (in sample frames)
+	 */
+	public void start(int frames) {
+		checkArgument(frames > 0, "frames must be positive");
+		this.frames = frames;
+		this.position = 0;
+		double step = Math.PI / 2 / frames;
+		stepCosine = Math.cos(step);
+		stepSine = Math.sin(step);
+		/* gains are taken at the middle of every frame. */
+		outgoingGain = Math.cos(step / 2);
+		incomingGain = Math.sin(step / 2);
+	}
+
+	/**
+	 * Mixes the next sample frames of the current fade.
+	 *
+	 * @param outgoing
+	 * 		The buffer containing the outgoing samples
+	 * @param outgoingOffset
+	 * 		The offset of the first outgoing sample
+	 * @param incoming
+	 * 		The buffer containing the incoming samples
+	 * @param incomingOffset
+	 * 		The offset of the first incoming sample
+	 * @param output
+	 * 		The buffer to write the mixed samples to
+	 * @param outputOffset
+	 * 		The offset of the first mixed sample
+	 * @param frames
+	 * 		The number of sample frames to mix
+	 */
+	public void mix(byte[] outgoing, int outgoingOffset, byte[] incoming, int incomingOffset, byte[] output, int outputOffset, int frames) {
+		checkState(frames <= remaining(), "frames must not exceed remaining frames");
+		double outgoingGain = this.outgoingGain;
+		double incomingGain = this.incomingGain;
+		int outgoingIndex = outgoingOffset;
+		int incomingIndex = incomingOffset;
+		int outputIndex = outputOffset;
+		for (int frame = 0; frame < frames; ++frame) {
+			float outgoingFactor = (float) outgoingGain;
+			float incomingFactor = (float) incomingGain;
+			for (int channel = 0; channel < channels; ++channel) {
+				int outgoingSample = (outgoing[outgoingIndex] & 0xff) | (outgoing[outgoingIndex + 1] << 8);
+				int incomingSample = (incoming[incomingIndex] & 0xff) | (incoming[incomingIndex + 1] << 8);
+				int mixedSample = Math.round(outgoingSample * outgoingFactor + incomingSample * incomingFactor);
+				mixedSample = Math.max(-32768, Math.min(32767, mixedSample));
+				output[outputIndex] = (byte) mixedSample;
+				output[outputIndex + 1] = (byte) (mixedSample >> 8);
+				outgoingIndex += 2;
+				incomingIndex += 2;
+				outputIndex += 2;
+			}
+			double nextOutgoingGain = outgoingGain * stepCosine - incomingGain * stepSine;
+			incomingGain = incomingGain * stepCosine + outgoingGain * stepSine;
+			outgoingGain = nextOutgoingGain;
+		}
+		this.outgoingGain = outgoingGain;
+		this.incomingGain = incomingGain;
+		position += frames;
+	}
+
+}
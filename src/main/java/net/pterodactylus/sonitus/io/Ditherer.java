@@ -0,0 +1,126 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+/**
+ * Quantizes floating-point samples to 16-bit samples, or integer samples to a
+ * smaller width, with TPDF dither: before rounding, the difference of two
+ * uniformly distributed random values of one LSB each is added to every
+ * sample, which turns the quantization error into signal-independent white
+ * noise. The random values are created by a xorshift generator so that
+ * dithering does not allocate memory or synchronize.
+ * <p/>
+ * A ditherer must not be shared between threads.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ * @see FloatSamples
+ */
+public class Ditherer {
+
+	/** The scale of a random value to one LSB. */
+	private static final float RANDOM_SCALE = 1 / 4294967296f;
+
+	/** The state of the random generator. */
+	private int state;
+
+	/** Creates a new ditherer. */
+	public Ditherer() {
+		this((int) System.nanoTime());
+	}
+
+	/**
+	 * Creates a new ditherer with the given seed.
+	 *
+	 * @param seed
+	 * 		The seed of the random generator
+	 */
+	public Ditherer(int seed) {
+		state = (seed == 0) ? 0x2545f491 : seed;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Quantizes the given floating-point samples to 16-bit signed little-endian
+	 * samples. Samples outside of the range of 16-bit samples are clipped.
+	 *
+	 * @param samples
+	 * 		The floating-point samples
+	 * @param count
+	 * 		The number of samples to quantize
+	 * @param buffer
+	 * 		The buffer to store the 16-bit samples in
+	 * @param offset
+	 * 		The offset of the first sample in the buffer
+	 */
+	public void toInt16(float[] samples, int count, byte[] buffer, int offset) {
+		int state = this.state;
+		for (int sample = 0, index = offset; sample < count; ++sample, index += 2) {
+			state ^= state << 13;
+			state ^= state >>> 17;
+			state ^= state << 5;
+			int first = state;
+			state ^= state << 13;
+			state ^= state >>> 17;
+			state ^= state << 5;
+			float dither = ((long) first - state) * RANDOM_SCALE;
+			int value = (int) Math.floor(samples[sample] * 32768f + dither + 0.5f);
+			value = (value < -32768) ? -32768 : ((value > 32767) ? 32767 : value);
+			buffer[index] = (byte) value;
+			buffer[index + 1] = (byte) (value >> 8);
+		}
+		this.state = state;
+	}
+
+	/**
+	 * Reduces the width of the given integer samples by the given number of bits,
+	 * adding TPDF dither of one LSB of the reduced width. Samples outside of the
+	 * range of the reduced width are clipped.
+	 *
+	 * @param samples
+	 * 		The samples to reduce (will be overwritten)
+	 * @param count
+	 * 		The number of samples to reduce
+	 * @param bits
+	 * 		The number of bits to remove (1 to 31)
+	 * @param sampleWidth
+	 * 		The reduced width of the samples (in bits)
+	 */
+	public void quantize(int[] samples, int count, int bits, int sampleWidth) {
+		int state = this.state;
+		long half = 1L << (bits - 1);
+		long minimum = -(1L << (sampleWidth - 1));
+		long maximum = (1L << (sampleWidth - 1)) - 1;
+		for (int sample = 0; sample < count; ++sample) {
+			state ^= state << 13;
+			state ^= state >>> 17;
+			state ^= state << 5;
+			int first = state;
+			state ^= state << 13;
+			state ^= state >>> 17;
+			state ^= state << 5;
+			long dither = ((long) first - state) >> (32 - bits);
+			long value = (samples[sample] + dither + half) >> bits;
+			samples[sample] = (int) ((value < minimum) ? minimum : ((value > maximum) ? maximum : value));
+		}
+		this.state = state;
+	}
+
+}
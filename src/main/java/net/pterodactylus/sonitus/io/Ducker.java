@@ -0,0 +1,204 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Calculates the gain for a signal that is ducked under a side chain. The
+ * envelope of the side chain is followed by a peak detector; while it exceeds
+ * the threshold, the gain moves towards the ducking level with the attack time
+ * constant, otherwise it moves back to unity gain with the release time
+ * constant.
+ * <p/>
+ * The ducker works on blocks of interleaved samples and only calculates one
+ * gain per sample frame; it does not allocate any memory while processing.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Ducker {
+
+	/** The time constant of the envelope detector (in milliseconds). */
+	private static final double DETECTOR_RELEASE = 20;
+
+	/** The sampling frequency. */
+	private final int frequency;
+
+	/** The number of channels of the side chain. */
+	private final int channels;
+
+	/** The coefficient of the envelope detector. */
+	private final double detectorCoefficient;
+
+	/** The threshold of the side chain (in sample values). */
+	private double threshold = 0.0316 * 32768;
+
+	/** The gain of the ducked signal. */
+	private double level = 0.25;
+
+	/** The coefficient of the attack. */
+	private double attackCoefficient;
+
+	/** The coefficient of the release. */
+	private double releaseCoefficient;
+
+	/** The current envelope of the side chain (in sample values). */
+	private double envelope;
+
+	/** The current gain. */
+	private double gain = 1.0;
+
+	/**
+	 * Creates a new ducker with a threshold of -30 dBFS, a ducking level of
+	 * -12 dB, an attack time of 50 ms, and a release time of 500 ms.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param channels
+	 * 		The number of channels of the side chain
+	 */
+	public Ducker(int frequency, int channels) {
+		checkArgument(frequency > 0, "frequency must be positive");
+		checkArgument(channels > 0, "channels must be positive");
+		this.frequency = frequency;
+		this.channels = channels;
+		detectorCoefficient = coefficient(DETECTOR_RELEASE);
+		attack(50);
+		release(500);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Sets the level of the side chain above which the signal is ducked.
+	 *
+	 * @param threshold
+	 * 		The threshold (from {@code 0.0} to {@code 1.0} of full scale)
+	 * @return This ducker
+	 */
+	public Ducker threshold(double threshold) {
+		checkArgument((threshold >= 0) && (threshold <= 1), "threshold must be between 0 and 1");
+		this.threshold = threshold * 32768;
+		return this;
+	}
+
+	/**
+	 * Sets the gain of the ducked signal.
+	 *
+	 * @param level
+	 * 		The gain of the ducked signal (from {@code 0.0} to {@code 1.0})
+	 * @return This ducker
+	 */
+	public Ducker level(double level) {
+		checkArgument((level >= 0) && (level <= 1), "level must be between 0 and 1");
+		this.level = level;
+		return this;
+	}
+
+	/**
+	 * Sets the attack time, i.e. the time it takes the gain to move 63% of the
+	 * way to the ducking level.
+	 *
+	 * @param attack
+	 * 		The attack time (in milliseconds)
+	 * @return This ducker
+	 */
+	public Ducker attack(double attack) {
+		checkArgument(attack >= 0, "attack must not be negative");
+		attackCoefficient = coefficient(attack);
+		return this;
+	}
+
+	/**
+	 * Sets the release time, i.e. the time it takes the gain to move 63% of the
+	 * way back to unity gain.
+	 *
+	 * @param release
+	 * 		The release time (in milliseconds)
+	 * @return This ducker
+	 */
+	public Ducker release(double release) {
+		checkArgument(release >= 0, "release must not be negative");
+		releaseCoefficient = coefficient(release);
+		return this;
+	}
+
+	/**
+	 * Returns the current gain of the ducked signal.
+	 *
+	 * @return The current gain
+	 */
+	public double gain() {
+		return gain;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Calculates the gains of the ducked signal for the given side chain. If
+	 * the side chain contains fewer samples than are required for the given
+	 * number of frames, the missing samples are treated as silence.
+	 *
+	 * @param sideChain
+	 * 		The interleaved samples of the side chain
+	 * @param samples
+	 * 		The number of valid samples in the side chain
+	 * @param gains
+	 * 		The array to store the gain of every sample frame in
+	 * @param frames
+	 * 		The number of sample frames to calculate gains for
+	 */
+	public void process(int[] sideChain, int samples, float[] gains, int frames) {
+		double envelope = this.envelope;
+		double gain = this.gain;
+		int index = 0;
+		for (int frame = 0; frame < frames; ++frame) {
+			int peak = 0;
+			for (int channel = 0; (channel < channels) && (index < samples); ++channel) {
+				peak = Math.max(peak, Math.abs(sideChain[index++]));
+			}
+			envelope = (peak > envelope) ? peak : envelope * detectorCoefficient;
+			double target = (envelope > threshold) ? level : 1.0;
+			gain = target + (gain - target) * ((target < gain) ? attackCoefficient : releaseCoefficient);
+			gains[frame] = (float) gain;
+		}
+		this.envelope = envelope;
+		this.gain = gain;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Calculates the coefficient of a one-pole filter with the given time
+	 * constant.
+	 *
+	 * @param time
+	 * 		The time constant (in milliseconds)
+	 * @return The coefficient of the filter
+	 */
+	private double coefficient(double time) {
+		return (time == 0) ? 0 : Math.exp(-1000 / (time * frequency));
+	}
+
+}
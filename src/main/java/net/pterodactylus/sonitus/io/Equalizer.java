@@ -0,0 +1,310 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+
+/**
+ * Parametric equalizer for interleaved 16-bit samples that consists of a
+ * cascade of biquad filters, one per band, using the formulas of Robert
+ * Bristow-Johnson’s “Audio EQ Cookbook”.
+ * <p/>
+ * The coefficients of all bands and the filter states of all channels are
+ * kept in flat arrays; coefficients are only calculated when a {@link
+ * #band(int, Type, double, double, double) band is changed}. Blocks are
+ * processed one band and one channel at a time so that the filter state stays
+ * in local variables, and bands that are set to unity gain are skipped (and
+ * lose their state). The equalizer does not allocate any memory while
+ * processing blocks of the same size.
+ * <p/>
+ * An equalizer must not be shared between threads.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Equalizer {
+
+	/** The type of a band. */
+	public enum Type {
+
+		/** Boosts or cuts a band around the center frequency. */
+		PEAKING,
+
+		/** Boosts or cuts all frequencies below the corner frequency. */
+		LOW_SHELF,
+
+		/** Boosts or cuts all frequencies above the corner frequency. */
+		HIGH_SHELF,
+
+		/** Removes all frequencies above the corner frequency; the gain is ignored. */
+		LOW_PASS,
+
+		/** Removes all frequencies below the corner frequency; the gain is ignored. */
+		HIGH_PASS
+
+	}
+
+	/** The sampling frequency. */
+	private final int frequency;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** The coefficients of every band (b0, b1, b2, a1, a2, normalized by a0). */
+	private final double[] coefficients;
+
+	/** Whether a band changes the signal at all. */
+	private final boolean[] active;
+
+	/** The filter states of every band and channel (two values each). */
+	private final double[] states;
+
+	/** The samples of the current block. */
+	private double[] block = new double[0];
+
+	/**
+	 * Creates a new equalizer. All bands are initially flat.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param channels
+	 * 		The number of channels
+	 * @param bands
+	 * 		The number of bands
+	 */
+	public Equalizer(int frequency, int channels, int bands) {
+		checkArgument(frequency > 0, "frequency must be positive");
+		checkArgument(channels > 0, "channels must be positive");
+		checkArgument(bands >= 0, "bands must not be negative");
+		this.frequency = frequency;
+		this.channels = channels;
+		coefficients = new double[bands * 5];
+		for (int band = 0; band < bands; ++band) {
+			coefficients[band * 5] = 1;
+		}
+		active = new boolean[bands];
+		states = new double[bands * channels * 2];
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of bands.
+	 *
+	 * @return The number of bands
+	 */
+	public int bands() {
+		return active.length;
+	}
+
+	/**
+	 * Sets the parameters of the given band and calculates its coefficients.
+	 * The filter state of the band is kept so that changing a band while
+	 * processing does not click.
+	 *
+	 * @param band
+	 * 		The index of the band
+	 * @param type
+	 * 		The type of the band
+	 * @param centerFrequency
+	 * 		The center or corner frequency (in Hz)
+	 * @param gain
+	 * 		The gain (in dB)
+	 * @param q
+	 * 		The quality of the band
+	 * @return This equalizer
+	 */
+	public Equalizer band(int band, Type type, double centerFrequency, double gain, double q) {
+		checkElementIndex(band, bands(), "band");
+		checkNotNull(type, "type must not be null");
+		checkArgument(centerFrequency > 0, "centerFrequency must be positive");
+		checkArgument(q > 0, "q must be positive");
+		double a = Math.pow(10, gain / 40);
+		double omega = 2 * Math.PI * Math.min(centerFrequency, frequency * 0.49) / frequency;
+		double cos = Math.cos(omega);
+		double alpha = Math.sin(omega) / (2 * q);
+		double shelfAlpha = 2 * Math.sqrt(a) * alpha;
+		double b0, b1, b2, a0, a1, a2;
+		switch (type) {
+			case PEAKING:
+				b0 = 1 + alpha * a;
+				b1 = -2 * cos;
+				b2 = 1 - alpha * a;
+				a0 = 1 + alpha / a;
+				a1 = -2 * cos;
+				a2 = 1 - alpha / a;
+				break;
+			case LOW_SHELF:
+				b0 = a * ((a + 1) - (a - 1) * cos + shelfAlpha);
+				b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+				b2 = a * ((a + 1) - (a - 1) * cos - shelfAlpha);
+				a0 = (a + 1) + (a - 1) * cos + shelfAlpha;
+				a1 = -2 * ((a - 1) + (a + 1) * cos);
+				a2 = (a + 1) + (a - 1) * cos - shelfAlpha;
+				break;
+			case HIGH_SHELF:
+				b0 = a * ((a + 1) + (a - 1) * cos + shelfAlpha);
+				b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+				b2 = a * ((a + 1) + (a - 1) * cos - shelfAlpha);
+				a0 = (a + 1) - (a - 1) * cos + shelfAlpha;
+				a1 = 2 * ((a - 1) - (a + 1) * cos);
+				a2 = (a + 1) - (a - 1) * cos - shelfAlpha;
+				break;
+			case LOW_PASS:
+				b0 = (1 - cos) / 2;
+				b1 = 1 - cos;
+				b2 = (1 - cos) / 2;
+				a0 = 1 + alpha;
+				a1 = -2 * cos;
+				a2 = 1 - alpha;
+				break;
+			default:
+				b0 = (1 + cos) / 2;
+				b1 = -(1 + cos);
+				b2 = (1 + cos) / 2;
+				a0 = 1 + alpha;
+				a1 = -2 * cos;
+				a2 = 1 - alpha;
+				break;
+		}
+		coefficients[band * 5] = b0 / a0;
+		coefficients[band * 5 + 1] = b1 / a0;
+		coefficients[band * 5 + 2] = b2 / a0;
+		coefficients[band * 5 + 3] = a1 / a0;
+		coefficients[band * 5 + 4] = a2 / a0;
+		active[band] = (gain != 0) || (type == Type.LOW_PASS) || (type == Type.HIGH_PASS);
+		if (!active[band]) {
+			Arrays.fill(states, band * channels * 2, (band + 1) * channels * 2, 0);
+		}
+		return this;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Equalizes the given samples in place. The processed samples are not
+	 * clipped.
+	 *
+	 * @param samples
+	 * 		The interleaved samples
+	 * @param frames
+	 * 		The number of sample frames to process
+	 */
+	public void process(int[] samples, int frames) {
+		int sampleCount = frames * channels;
+		if (!prepareBlock(sampleCount)) {
+			return;
+		}
+		for (int sample = 0; sample < sampleCount; ++sample) {
+			block[sample] = samples[sample];
+		}
+		filterBlock(sampleCount);
+		for (int sample = 0; sample < sampleCount; ++sample) {
+			samples[sample] = (int) Math.round(block[sample]);
+		}
+	}
+
+	/**
+	 * Equalizes the given floating-point samples in place.
+	 *
+	 * @param samples
+	 * 		The interleaved samples
+	 * @param frames
+	 * 		The number of sample frames to process
+	 */
+	public void process(float[] samples, int frames) {
+		int sampleCount = frames * channels;
+		if (!prepareBlock(sampleCount)) {
+			return;
+		}
+		for (int sample = 0; sample < sampleCount; ++sample) {
+			block[sample] = samples[sample];
+		}
+		filterBlock(sampleCount);
+		for (int sample = 0; sample < sampleCount; ++sample) {
+			samples[sample] = (float) block[sample];
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Makes sure that the block can hold the given number of samples.
+	 *
+	 * @param sampleCount
+	 * 		The number of samples
+	 * @return {@code true} if at least one band is active, {@code false} if the
+	 *         samples do not need to be processed
+	 */
+	private boolean prepareBlock(int sampleCount) {
+		for (boolean bandActive : active) {
+			if (bandActive) {
+				if (block.length < sampleCount) {
+					block = new double[sampleCount];
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the samples of the block through all active bands.
+	 *
+	 * @param sampleCount
+	 * 		The number of samples in the block
+	 */
+	private void filterBlock(int sampleCount) {
+		for (int band = 0; band < active.length; ++band) {
+			if (!active[band]) {
+				continue;
+			}
+			double b0 = coefficients[band * 5];
+			double b1 = coefficients[band * 5 + 1];
+			double b2 = coefficients[band * 5 + 2];
+			double a1 = coefficients[band * 5 + 3];
+			double a2 = coefficients[band * 5 + 4];
+			for (int channel = 0; channel < channels; ++channel) {
+				int stateIndex = (band * channels + channel) * 2;
+				double state1 = states[stateIndex];
+				double state2 = states[stateIndex + 1];
+				for (int index = channel; index < sampleCount; index += channels) {
+					/* transposed direct form II. */
+					double input = block[index];
+					double output = b0 * input + state1;
+					state1 = b1 * input - a1 * output + state2;
+					state2 = b2 * input - a2 * output;
+					block[index] = output;
+				}
+				/* flush the states before they decay into denormals. */
+				states[stateIndex] = (Math.abs(state1) < 1e-20) ? 0 : state1;
+				states[stateIndex + 1] = (Math.abs(state2) < 1e-20) ? 0 : state2;
+			}
+		}
+	}
+
+}
@@ -18,9 +18,11 @@
 package net.pterodactylus.sonitus.io;
 
 import static net.pterodactylus.sonitus.io.flac.BlockType.STREAMINFO;
+import static net.pterodactylus.sonitus.io.flac.BlockType.VORBIS_COMMENT;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.EnumSet;
 import java.util.List;
 
 import net.pterodactylus.sonitus.data.ContentMetadata;
@@ -29,6 +31,7 @@ import net.pterodactylus.sonitus.data.Metadata;
 import net.pterodactylus.sonitus.io.flac.MetadataBlock;
 import net.pterodactylus.sonitus.io.flac.Stream;
 import net.pterodactylus.sonitus.io.flac.StreamInfo;
+import net.pterodactylus.sonitus.io.flac.VorbisComment;
 
 import com.google.common.base.Optional;
 
@@ -50,7 +53,7 @@ public class FlacIdentifier {
 	 * 		if an I/O error occurs
 	 */
 	public static Optional<Metadata> identify(InputStream inputStream) throws IOException {
-		Optional<Stream> stream = Stream.parse(inputStream);
+		Optional<Stream> stream = Stream.parse(inputStream, EnumSet.of(STREAMINFO, VORBIS_COMMENT));
 		if (!stream.isPresent()) {
 			return Optional.absent();
 		}
@@ -64,7 +67,19 @@ public class FlacIdentifier {
 		MetadataBlock streamInfoBlock = streamInfos.get(0);
 		StreamInfo streamInfo = (StreamInfo) streamInfoBlock.data();
 
-		return Optional.of(new Metadata(new FormatMetadata(streamInfo.numberOfChannels(), streamInfo.sampleRate(), "FLAC"), new ContentMetadata()));
+		ContentMetadata contentMetadata = new ContentMetadata("");
+		List<MetadataBlock> vorbisComments = stream.get().metadataBlocks(VORBIS_COMMENT);
+		if (!vorbisComments.isEmpty()) {
+			VorbisComment vorbisComment = (VorbisComment) vorbisComments.get(0).data();
+			if (vorbisComment.artist().isPresent()) {
+				contentMetadata = contentMetadata.artist(vorbisComment.artist().get());
+			}
+			if (vorbisComment.title().isPresent()) {
+				contentMetadata = contentMetadata.name(vorbisComment.title().get());
+			}
+		}
+
+		return Optional.of(new Metadata(new FormatMetadata(streamInfo.numberOfChannels(), streamInfo.sampleRate(), "FLAC").sampleWidth(streamInfo.bitsPerSample()), contentMetadata));
 	}
 
 }
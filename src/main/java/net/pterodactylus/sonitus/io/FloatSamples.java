@@ -0,0 +1,121 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+/**
+ * Converts between the byte representations of samples and floating-point
+ * samples with a nominal range from {@code -1.0} to {@code 1.0}. All methods
+ * work on whole blocks of samples.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ * @see Ditherer
+ */
+public class FloatSamples {
+
+	/** The scale of 16-bit samples. */
+	private static final float INT16_SCALE = 1 / 32768f;
+
+	/** The scale of 24-bit samples. */
+	private static final float INT24_SCALE = 1 / 8388608f;
+
+	/** Prevents instantiation. */
+	private FloatSamples() {
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Converts 16-bit signed little-endian samples to floating-point samples.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the 16-bit samples
+	 * @param offset
+	 * 		The offset of the first sample in the buffer
+	 * @param samples
+	 * 		The array to store the floating-point samples in
+	 * @param count
+	 * 		The number of samples to convert
+	 */
+	public static void fromInt16(byte[] buffer, int offset, float[] samples, int count) {
+		for (int sample = 0, index = offset; sample < count; ++sample, index += 2) {
+			samples[sample] = ((buffer[index + 1] << 8) | (buffer[index] & 0xff)) * INT16_SCALE;
+		}
+	}
+
+	/**
+	 * Converts 24-bit signed little-endian samples to floating-point samples.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the 24-bit samples
+	 * @param offset
+	 * 		The offset of the first sample in the buffer
+	 * @param samples
+	 * 		The array to store the floating-point samples in
+	 * @param count
+	 * 		The number of samples to convert
+	 */
+	public static void fromInt24(byte[] buffer, int offset, float[] samples, int count) {
+		for (int sample = 0, index = offset; sample < count; ++sample, index += 3) {
+			samples[sample] = ((buffer[index + 2] << 16) | ((buffer[index + 1] & 0xff) << 8) | (buffer[index] & 0xff)) * INT24_SCALE;
+		}
+	}
+
+	/**
+	 * Decodes 32-bit little-endian floating-point samples.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the encoded samples
+	 * @param offset
+	 * 		The offset of the first sample in the buffer
+	 * @param samples
+	 * 		The array to store the samples in
+	 * @param count
+	 * 		The number of samples to decode
+	 */
+	public static void decode(byte[] buffer, int offset, float[] samples, int count) {
+		for (int sample = 0, index = offset; sample < count; ++sample, index += 4) {
+			samples[sample] = Float.intBitsToFloat((buffer[index + 3] << 24) | ((buffer[index + 2] & 0xff) << 16) | ((buffer[index + 1] & 0xff) << 8) | (buffer[index] & 0xff));
+		}
+	}
+
+	/**
+	 * Encodes floating-point samples as 32-bit little-endian floating-point
+	 * samples.
+	 *
+	 * @param samples
+	 * 		The samples to encode
+	 * @param count
+	 * 		The number of samples to encode
+	 * @param buffer
+	 * 		The buffer to store the encoded samples in
+	 * @param offset
+	 * 		The offset of the first sample in the buffer
+	 */
+	public static void encode(float[] samples, int count, byte[] buffer, int offset) {
+		for (int sample = 0, index = offset; sample < count; ++sample, index += 4) {
+			int bits = Float.floatToRawIntBits(samples[sample]);
+			buffer[index] = (byte) bits;
+			buffer[index + 1] = (byte) (bits >> 8);
+			buffer[index + 2] = (byte) (bits >> 16);
+			buffer[index + 3] = (byte) (bits >> 24);
+		}
+	}
+
+}
@@ -18,9 +18,11 @@
 package net.pterodactylus.sonitus.io;
 
 import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 import net.pterodactylus.sonitus.data.Metadata;
 
@@ -30,6 +32,12 @@ import com.google.common.io.ByteStreams;
 /**
  * Wrapper around an {@link InputStream} that identifies the {@link Metadata} of
  * the wrapped stream.
+ * <p/>
+ * Identifying a stream requires reading its first bytes; for most streams, they
+ * are remembered by a {@link RememberingInputStream} and replayed afterwards.
+ * A {@link FileInputStream} is instead repositioned to where identification
+ * started, so that the metadata blocks of a FLAC file (which may contain large
+ * pictures) can be skipped instead of being read and remembered.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
@@ -81,17 +89,27 @@ public class IdentifyingInputStream extends FilterInputStream {
 	 */
 	public static Optional<IdentifyingInputStream> create(InputStream inputStream) throws IOException {
 
+		/* first, try formats with unambiguous layouts. */
+		if (inputStream instanceof FileInputStream) {
+			Optional<Metadata> metadata = identifyFlac((FileInputStream) inputStream);
+			if (metadata.isPresent()) {
+				return Optional.of(new IdentifyingInputStream(inputStream, metadata.get()));
+			}
+		}
+
 		/* remember everything we read here. */
 		RememberingInputStream rememberingInputStream = new RememberingInputStream(inputStream);
 
-		/* first, try formats with unambiguous layouts. */
-		try {
-			Optional<Metadata> metadata = FlacIdentifier.identify(rememberingInputStream);
-			if (metadata.isPresent()) {
-				return Optional.of(new IdentifyingInputStream(rememberingInputStream.remembered(), metadata.get()));
+		/* a remembering stream can not skip, so all FLAC metadata blocks are read. */
+		if (!(inputStream instanceof FileInputStream)) {
+			try {
+				Optional<Metadata> metadata = FlacIdentifier.identify(rememberingInputStream);
+				if (metadata.isPresent()) {
+					return Optional.of(new IdentifyingInputStream(rememberingInputStream.remembered(), metadata.get()));
+				}
+			} catch (EOFException eofe1) {
+				/* ignore. */
 			}
-		} catch (EOFException eofe1) {
-			/* ignore. */
 		}
 
 		/* try Ogg Vorbis next. */
@@ -120,4 +138,27 @@ public class IdentifyingInputStream extends FilterInputStream {
 		return Optional.absent();
 	}
 
+	/**
+	 * Tries to identify the FLAC file contained in the given stream. The stream
+	 * is repositioned to where identification started afterwards.
+	 *
+	 * @param fileInputStream
+	 * 		The stream to identify
+	 * @return The identified metadata, or {@link Optional#absent()} if the
+	 *         stream does not contain a FLAC file
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static Optional<Metadata> identifyFlac(FileInputStream fileInputStream) throws IOException {
+		FileChannel fileChannel = fileInputStream.getChannel();
+		long position = fileChannel.position();
+		try {
+			return FlacIdentifier.identify(fileInputStream);
+		} catch (EOFException eofe1) {
+			return Optional.absent();
+		} finally {
+			fileChannel.position(position);
+		}
+	}
+
 }
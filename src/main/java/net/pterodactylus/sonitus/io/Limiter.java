@@ -0,0 +1,255 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import net.pterodactylus.sonitus.io.loudness.TruePeakDetector;
+
+/**
+ * Look-ahead brickwall limiter for interleaved 16-bit samples. The gain that
+ * is required to keep every sample frame (including its inter-sample peaks,
+ * as found by a {@link TruePeakDetector}) below the ceiling is held for the
+ * length of the look-ahead and then released with the release time constant;
+ * the held gain is averaged over the look-ahead so that it fades in smoothly
+ * before a peak reaches the output. The samples are delayed by a fixed delay
+ * line for that purpose.
+ * <p/>
+ * The limiter processes blocks of samples in place and does not allocate any
+ * memory while processing. The processed samples are clipped to the range of
+ * 16-bit samples.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Limiter {
+
+	/** The sampling frequency. */
+	private final int frequency;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** The number of frames of the look-ahead. */
+	private final int lookAhead;
+
+	/** The detector of inter-sample peaks. */
+	private final TruePeakDetector truePeakDetector;
+
+	/** The delayed samples. */
+	private final int[] delayLine;
+
+	/** The position of the next frame in the delay line. */
+	private int delayPosition;
+
+	/** The gains required by the frames of the look-ahead. */
+	private final double[] requiredGains;
+
+	/** The released gains of the frames of the look-ahead. */
+	private final double[] releasedGains;
+
+	/** The position of the next frame in the look-ahead. */
+	private int lookAheadPosition;
+
+	/** The lowest required gain of the look-ahead. */
+	private double minimumGain = 1;
+
+	/** The number of frames since the lowest required gain was added. */
+	private int minimumGainAge;
+
+	/** The current released gain. */
+	private double releasedGain = 1;
+
+	/** The sum of all released gains of the look-ahead. */
+	private double releasedGainSum;
+
+	/** The ceiling (relative to full scale). */
+	private double ceiling = Math.pow(10, -1 / 20.0);
+
+	/** The coefficient of the release. */
+	private double releaseCoefficient;
+
+	/**
+	 * Creates a new limiter with a ceiling of -1 dBTP and a release time of
+	 * 100 ms.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param channels
+	 * 		The number of channels
+	 * @param lookAhead
+	 * 		The look-ahead (in milliseconds)
+	 */
+	public Limiter(int frequency, int channels, double lookAhead) {
+		checkArgument(frequency > 0, "frequency must be positive");
+		checkArgument(channels > 0, "channels must be positive");
+		checkArgument(lookAhead >= 0, "lookAhead must not be negative");
+		this.frequency = frequency;
+		this.channels = channels;
+		this.lookAhead = Math.max(1, (int) Math.round(lookAhead * frequency / 1000));
+		truePeakDetector = new TruePeakDetector(channels);
+		delayLine = new int[latency() * channels];
+		requiredGains = new double[this.lookAhead];
+		releasedGains = new double[this.lookAhead];
+		Arrays.fill(requiredGains, 1);
+		Arrays.fill(releasedGains, 1);
+		releasedGainSum = this.lookAhead;
+		release(100);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Sets the ceiling that the samples must not exceed.
+	 *
+	 * @param ceiling
+	 * 		The ceiling (in dBTP)
+	 * @return This limiter
+	 */
+	public Limiter ceiling(double ceiling) {
+		checkArgument(ceiling <= 0, "ceiling must not be positive");
+		this.ceiling = Math.pow(10, ceiling / 20);
+		return this;
+	}
+
+	/**
+	 * Sets the release time, i.e. the time it takes the gain to move 63% of the
+	 * way back to unity gain once a peak has passed.
+	 *
+	 * @param release
+	 * 		The release time (in milliseconds)
+	 * @return This limiter
+	 */
+	public Limiter release(double release) {
+		checkArgument(release >= 0, "release must not be negative");
+		releaseCoefficient = (release == 0) ? 0 : Math.exp(-1000 / (release * frequency));
+		return this;
+	}
+
+	/**
+	 * Returns the number of frames by which the samples are delayed.
+	 *
+	 * @return The latency of the limiter (in sample frames)
+	 */
+	public int latency() {
+		return lookAhead - 1 + TruePeakDetector.DELAY;
+	}
+
+	/**
+	 * Returns the gain that was applied to the last processed frame.
+	 *
+	 * @return The current gain
+	 */
+	public double gain() {
+		return releasedGainSum / lookAhead;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Limits the given samples in place. The returned samples are delayed by
+	 * {@link #latency()} frames; the first frames after creating the limiter
+	 * are silent.
+	 *
+	 * @param samples
+	 * 		The interleaved samples
+	 * @param frames
+	 * 		The number of sample frames to process
+	 */
+	public void process(int[] samples, int frames) {
+		int index = 0;
+		for (int frame = 0; frame < frames; ++frame) {
+			/* find the gain required for the new frame. */
+			double peak = 0;
+			for (int channel = 0; channel < channels; ++channel) {
+				double sample = samples[index + channel] / 32768.0;
+				peak = Math.max(peak, Math.max(Math.abs(sample), truePeakDetector.process(channel, sample)));
+			}
+			double requiredGain = (peak > ceiling) ? (ceiling / peak) : 1;
+
+			/* hold the lowest gain for the length of the look-ahead. */
+			requiredGains[lookAheadPosition] = requiredGain;
+			if (requiredGain <= minimumGain) {
+				minimumGain = requiredGain;
+				minimumGainAge = 0;
+			} else if (++minimumGainAge >= lookAhead) {
+				findMinimumGain();
+			}
+
+			/* release, then smooth over the look-ahead. */
+			releasedGain = (minimumGain < releasedGain) ? minimumGain : minimumGain + (releasedGain - minimumGain) * releaseCoefficient;
+			releasedGainSum += releasedGain - releasedGains[lookAheadPosition];
+			releasedGains[lookAheadPosition] = releasedGain;
+			if (++lookAheadPosition == lookAhead) {
+				lookAheadPosition = 0;
+				releasedGainSum = sum(releasedGains);
+			}
+			double gain = releasedGainSum / lookAhead;
+
+			/* exchange the frame with the delayed one, and apply the gain. */
+			for (int channel = 0; channel < channels; ++channel, ++index) {
+				int delayedSample = delayLine[delayPosition];
+				delayLine[delayPosition++] = samples[index];
+				samples[index] = Math.max(-32768, Math.min(32767, (int) Math.round(delayedSample * gain)));
+			}
+			if (delayPosition == delayLine.length) {
+				delayPosition = 0;
+			}
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Finds the lowest required gain of the look-ahead after the previous
+	 * lowest gain has left it.
+	 */
+	private void findMinimumGain() {
+		minimumGain = Double.MAX_VALUE;
+		for (int age = 0; age < lookAhead; ++age) {
+			double requiredGain = requiredGains[(lookAheadPosition - age + lookAhead) % lookAhead];
+			if (requiredGain < minimumGain) {
+				minimumGain = requiredGain;
+				minimumGainAge = age;
+			}
+		}
+	}
+
+	/**
+	 * Returns the sum of the given values.
+	 *
+	 * @param values
+	 * 		The values to sum
+	 * @return The sum of the values
+	 */
+	private static double sum(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum;
+	}
+
+}
@@ -17,6 +17,7 @@
 
 package net.pterodactylus.sonitus.io;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -57,6 +58,8 @@ public class OggVorbisIdentifier {
 	 * 		The input stream to identify as Ogg Vorbis
 	 * @return The identified metadata, or {@link Optional#absent()} if the stream
 	 *         could not be identified
+	 * @throws EOFException
+	 * 		if the stream ends before the headers have been read
 	 * @throws IOException
 	 * 		if an I/O error occurs
 	 */
@@ -84,6 +87,9 @@ public class OggVorbisIdentifier {
 		/* read until we have read the three packets required to decode the header. */
 		while (packetsRead < 3) {
 			int read = inputStream.read(buffer, index, bufferSize);
+			if (read == -1) {
+				throw new EOFException();
+			}
 			syncState.wrote(read);
 			switch (syncState.pageout(page)) {
 				case -1:
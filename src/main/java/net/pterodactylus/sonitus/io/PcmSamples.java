@@ -0,0 +1,188 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import java.nio.ByteOrder;
+
+/**
+ * Converts between the byte representations of integer PCM samples of
+ * different widths and byte orders. All methods work on whole blocks of
+ * samples; the loops are specialized for the common sample sizes so that
+ * swapping the bytes of a whole packet does not need a branch per sample.
+ * <p/>
+ * Samples with a width that is not a multiple of 8 bits (e.g. 20-bit samples)
+ * are stored right-aligned in the smallest number of bytes that can hold them.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ * @see Ditherer#quantize(int[], int, int, int)
+ */
+public class PcmSamples {
+
+	/** Prevents instantiation. */
+	private PcmSamples() {
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns the number of bytes of a sample with the given width.
+	 *
+	 * @param sampleWidth
+	 * 		The width of the sample (in bits)
+	 * @return The number of bytes of the sample
+	 */
+	public static int sampleSize(int sampleWidth) {
+		return (sampleWidth + 7) / 8;
+	}
+
+	/**
+	 * Reverses the byte order of the given samples.
+	 *
+	 * @param input
+	 * 		The buffer containing the samples
+	 * @param inputOffset
+	 * 		The offset of the first sample in the input buffer
+	 * @param output
+	 * 		The buffer to store the swapped samples in (may be the input buffer)
+	 * @param outputOffset
+	 * 		The offset of the first sample in the output buffer
+	 * @param count
+	 * 		The number of samples to swap
+	 * @param sampleSize
+	 * 		The size of a single sample (in bytes)
+	 */
+	public static void swapBytes(byte[] input, int inputOffset, byte[] output, int outputOffset, int count, int sampleSize) {
+		int end = inputOffset + count * sampleSize;
+		if (sampleSize == 2) {
+			for (int index = inputOffset, outputIndex = outputOffset; index < end; index += 2, outputIndex += 2) {
+				byte first = input[index];
+				output[outputIndex] = input[index + 1];
+				output[outputIndex + 1] = first;
+			}
+		} else if (sampleSize == 3) {
+			for (int index = inputOffset, outputIndex = outputOffset; index < end; index += 3, outputIndex += 3) {
+				byte first = input[index];
+				output[outputIndex + 1] = input[index + 1];
+				output[outputIndex] = input[index + 2];
+				output[outputIndex + 2] = first;
+			}
+		} else if (sampleSize == 4) {
+			for (int index = inputOffset, outputIndex = outputOffset; index < end; index += 4, outputIndex += 4) {
+				byte first = input[index];
+				byte second = input[index + 1];
+				output[outputIndex] = input[index + 3];
+				output[outputIndex + 1] = input[index + 2];
+				output[outputIndex + 2] = second;
+				output[outputIndex + 3] = first;
+			}
+		} else if (input != output || inputOffset != outputOffset) {
+			System.arraycopy(input, inputOffset, output, outputOffset, count * sampleSize);
+		}
+	}
+
+	/**
+	 * Decodes signed integer samples.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the encoded samples
+	 * @param offset
+	 * 		The offset of the first sample in the buffer
+	 * @param sampleSize
+	 * 		The size of a single sample (in bytes, 1 to 4)
+	 * @param byteOrder
+	 * 		The byte order of the samples
+	 * @param samples
+	 * 		The array to store the decoded samples in
+	 * @param count
+	 * 		The number of samples to decode
+	 */
+	public static void decode(byte[] buffer, int offset, int sampleSize, ByteOrder byteOrder, int[] samples, int count) {
+		boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+		if (sampleSize == 2) {
+			int high = bigEndian ? 0 : 1;
+			int low = 1 - high;
+			for (int sample = 0, index = offset; sample < count; ++sample, index += 2) {
+				samples[sample] = (buffer[index + high] << 8) | (buffer[index + low] & 0xff);
+			}
+		} else if (sampleSize == 3) {
+			int high = bigEndian ? 0 : 2;
+			int low = 2 - high;
+			for (int sample = 0, index = offset; sample < count; ++sample, index += 3) {
+				samples[sample] = (buffer[index + high] << 16) | ((buffer[index + 1] & 0xff) << 8) | (buffer[index + low] & 0xff);
+			}
+		} else {
+			for (int sample = 0, index = offset; sample < count; ++sample, index += sampleSize) {
+				int value = 0;
+				for (int byteIndex = 0; byteIndex < sampleSize; ++byteIndex) {
+					value = (value << 8) | (buffer[index + (bigEndian ? byteIndex : (sampleSize - 1 - byteIndex))] & 0xff);
+				}
+				int unusedBits = 32 - sampleSize * 8;
+				samples[sample] = (value << unusedBits) >> unusedBits;
+			}
+		}
+	}
+
+	/**
+	 * Encodes signed integer samples. Only the lowest bytes of every sample are
+	 * stored; the samples have to be in the range of the sample size.
+	 *
+	 * @param samples
+	 * 		The samples to encode
+	 * @param count
+	 * 		The number of samples to encode
+	 * @param sampleSize
+	 * 		The size of a single sample (in bytes, 1 to 4)
+	 * @param byteOrder
+	 * 		The byte order of the encoded samples
+	 * @param buffer
+	 * 		The buffer to store the encoded samples in
+	 * @param offset
+	 * 		The offset of the first sample in the buffer
+	 */
+	public static void encode(int[] samples, int count, int sampleSize, ByteOrder byteOrder, byte[] buffer, int offset) {
+		boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+		if (sampleSize == 2) {
+			int high = bigEndian ? 0 : 1;
+			int low = 1 - high;
+			for (int sample = 0, index = offset; sample < count; ++sample, index += 2) {
+				int value = samples[sample];
+				buffer[index + high] = (byte) (value >> 8);
+				buffer[index + low] = (byte) value;
+			}
+		} else if (sampleSize == 3) {
+			int high = bigEndian ? 0 : 2;
+			int low = 2 - high;
+			for (int sample = 0, index = offset; sample < count; ++sample, index += 3) {
+				int value = samples[sample];
+				buffer[index + high] = (byte) (value >> 16);
+				buffer[index + 1] = (byte) (value >> 8);
+				buffer[index + low] = (byte) value;
+			}
+		} else {
+			for (int sample = 0, index = offset; sample < count; ++sample, index += sampleSize) {
+				int value = samples[sample];
+				for (int byteIndex = 0; byteIndex < sampleSize; ++byteIndex) {
+					buffer[index + (bigEndian ? (sampleSize - 1 - byteIndex) : byteIndex)] = (byte) (value >> (byteIndex * 8));
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,516 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Keeps external processes started ahead of time so that opening an external
+ * filter does not have to wait for the process to start. Processes are pooled
+ * per command line (binary and parameters); for every command line that has
+ * been requested recently, the pool keeps up to {@link #size()} idle processes
+ * ready and starts new ones in the background whenever one is handed out. A
+ * command line that has not been requested for the {@link #idleTimeout(long)
+ * idle timeout} (e.g. because it decodes to a sampling rate that is no longer
+ * used) is dropped, and its idle processes are retired.
+ * <p/>
+ * A process can only be used once, as external encoders and decoders only
+ * finish their output when their input is closed. Idle processes are retired
+ * when they are older than the {@link #maximumAge(long) maximum age}, when they
+ * have written more than the {@link #maximumIdleBytes(long) maximum number of
+ * bytes} to stderr while waiting (a process that is waiting for input should be
+ * silent), or when they have exited.
+ * <p/>
+ * The pool counts hits, misses, and the time it takes to start a process;
+ * these metrics can be used to choose the size of the pool.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ProcessPool {
+
+	/** The logger. */
+	private static final Logger logger = Logger.getLogger(ProcessPool.class.getName());
+
+	/** The number of idle processes to keep per command line. */
+	private final int size;
+
+	/** The maximum age of an idle process (in milliseconds). */
+	private volatile long maximumAge = TimeUnit.MINUTES.toMillis(5);
+
+	/** The maximum number of bytes an idle process may write to stderr. */
+	private volatile long maximumIdleBytes = 4096;
+
+	/** The idle processes, per command line. */
+	private final ListMultimap<List<String>, PooledProcess> idleProcesses = ArrayListMultimap.create();
+
+	/** The time each command line was last requested (in milliseconds). */
+	private final Map<List<String>, Long> commands = Maps.newHashMap();
+
+	/** The time after which an unused command line is dropped (in milliseconds). */
+	private volatile long idleTimeout = TimeUnit.MINUTES.toMillis(10);
+
+	/** The executor that starts and retires processes. */
+	private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ProcessPool-%d").setDaemon(true).build());
+
+	/** The number of requests that were served by an idle process. */
+	private final AtomicLong hits = new AtomicLong();
+
+	/** The number of requests that had to start a new process. */
+	private final AtomicLong misses = new AtomicLong();
+
+	/** The number of started processes. */
+	private final AtomicLong spawns = new AtomicLong();
+
+	/** The total time spent starting processes (in nanoseconds). */
+	private final AtomicLong spawnTime = new AtomicLong();
+
+	/** The number of retired processes. */
+	private final AtomicLong retirements = new AtomicLong();
+
+	/** Whether this pool has been closed. */
+	private boolean closed;
+
+	/**
+	 * Creates a new process pool.
+	 *
+	 * @param size
+	 * 		The number of idle processes to keep per command line
+	 */
+	public ProcessPool(int size) {
+		checkArgument(size > 0, "size must be positive");
+		this.size = size;
+		executorService.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				maintain();
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Sets the maximum age of an idle process.
+	 *
+	 * @param maximumAge
+	 * 		The maximum age of an idle process (in milliseconds)
+	 * @return This process pool
+	 */
+	public ProcessPool maximumAge(long maximumAge) {
+		checkArgument(maximumAge > 0, "maximumAge must be positive");
+		this.maximumAge = maximumAge;
+		return this;
+	}
+
+	/**
+	 * Sets the time after which a command line that has not been requested is
+	 * dropped from the pool. Its idle processes are retired, and no new ones
+	 * are started until it is requested again.
+	 *
+	 * @param idleTimeout
+	 * 		The idle timeout (in milliseconds)
+	 * @return This process pool
+	 */
+	public ProcessPool idleTimeout(long idleTimeout) {
+		checkArgument(idleTimeout > 0, "idleTimeout must be positive");
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of bytes an idle process may write to stderr
+	 * before it is retired.
+	 *
+	 * @param maximumIdleBytes
+	 * 		The maximum number of bytes
+	 * @return This process pool
+	 */
+	public ProcessPool maximumIdleBytes(long maximumIdleBytes) {
+		checkArgument(maximumIdleBytes >= 0, "maximumIdleBytes must not be negative");
+		this.maximumIdleBytes = maximumIdleBytes;
+		return this;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of idle processes kept per command line.
+	 *
+	 * @return The size of the pool
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the command lines for which idle processes are kept.
+	 *
+	 * @return The pooled command lines
+	 */
+	public synchronized Set<List<String>> commands() {
+		return ImmutableSet.copyOf(commands.keySet());
+	}
+
+	/**
+	 * Returns the number of idle processes for the given command line.
+	 *
+	 * @param command
+	 * 		The command line
+	 * @return The number of idle processes
+	 */
+	public synchronized int idleProcesses(List<String> command) {
+		return idleProcesses.get(command).size();
+	}
+
+	/**
+	 * Returns the number of requests that were served by an idle process.
+	 *
+	 * @return The number of hits
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests that had to start a new process.
+	 *
+	 * @return The number of misses
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the ratio of requests that were served by an idle process.
+	 *
+	 * @return The hit rate (from 0 to 1)
+	 */
+	public double hitRate() {
+		long hits = this.hits.get();
+		long requests = hits + misses.get();
+		return (requests == 0) ? 0 : ((double) hits / requests);
+	}
+
+	/**
+	 * Returns the number of processes that have been started.
+	 *
+	 * @return The number of started processes
+	 */
+	public long spawns() {
+		return spawns.get();
+	}
+
+	/**
+	 * Returns the average time it took to start a process.
+	 *
+	 * @return The average spawn latency (in milliseconds)
+	 */
+	public double averageSpawnLatency() {
+		long spawns = this.spawns.get();
+		return (spawns == 0) ? 0 : (spawnTime.get() / 1000000.0 / spawns);
+	}
+
+	/**
+	 * Returns the number of idle processes that were retired.
+	 *
+	 * @return The number of retired processes
+	 */
+	public long retirements() {
+		return retirements.get();
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Returns a process for the given command line. If an idle process is
+	 * available, it is returned immediately; otherwise a new process is
+	 * started. In both cases the idle processes for the command line are
+	 * replenished in the background. The stderr of the returned process is
+	 * already being drained.
+	 *
+	 * @param command
+	 * 		The command line (the binary, followed by its parameters)
+	 * @return The process
+	 * @throws IOException
+	 * 		if the process can not be started
+	 */
+	public Process get(List<String> command) throws IOException {
+		List<String> key = ImmutableList.copyOf(checkNotNull(command, "command must not be null"));
+		checkArgument(!key.isEmpty(), "command must not be empty");
+		PooledProcess pooledProcess = null;
+		synchronized (this) {
+			checkState(!closed, "process pool is closed");
+			Iterator<PooledProcess> processes = idleProcesses.get(key).iterator();
+			while ((pooledProcess == null) && processes.hasNext()) {
+				PooledProcess candidate = processes.next();
+				processes.remove();
+				if (candidate.usable()) {
+					pooledProcess = candidate;
+				} else {
+					retire(candidate);
+				}
+			}
+		}
+		replenish(key);
+		if (pooledProcess != null) {
+			hits.incrementAndGet();
+			return pooledProcess.process;
+		}
+		misses.incrementAndGet();
+		return spawn(key).process;
+	}
+
+	/**
+	 * Starts idle processes for the given command line in the background,
+	 * without handing out a process.
+	 *
+	 * @param command
+	 * 		The command line (the binary, followed by its parameters)
+	 */
+	public void warmUp(List<String> command) {
+		replenish(ImmutableList.copyOf(checkNotNull(command, "command must not be null")));
+	}
+
+	/** Stops the background thread and destroys all idle processes. */
+	public void close() {
+		List<PooledProcess> processes;
+		synchronized (this) {
+			closed = true;
+			processes = Lists.newArrayList(idleProcesses.values());
+			idleProcesses.clear();
+		}
+		executorService.shutdownNow();
+		for (PooledProcess process : processes) {
+			process.process.destroy();
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Starts idle processes for the given command line in the background until
+	 * there are {@link #size} of them.
+	 *
+	 * @param command
+	 * 		The command line
+	 */
+	private void replenish(final List<String> command) {
+		synchronized (this) {
+			commands.put(command, System.currentTimeMillis());
+		}
+		try {
+			executorService.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					fill(command);
+				}
+			});
+		} catch (RejectedExecutionException ree1) {
+			/* pool has been closed, do not replenish. */
+		}
+	}
+
+	/**
+	 * Starts idle processes for the given command line until there are {@link
+	 * #size} of them. This method is only called from the background thread.
+	 *
+	 * @param command
+	 * 		The command line
+	 */
+	private void fill(List<String> command) {
+		while (true) {
+			synchronized (this) {
+				if (closed || !commands.containsKey(command) || (idleProcesses.get(command).size() >= size)) {
+					return;
+				}
+			}
+			PooledProcess process;
+			try {
+				process = spawn(command);
+			} catch (IOException ioe1) {
+				logger.warning(String.format("Could not start %s: %s", command, ioe1.getMessage()));
+				return;
+			}
+			synchronized (this) {
+				if (closed || !commands.containsKey(command)) {
+					process.process.destroy();
+					return;
+				}
+				idleProcesses.put(command, process);
+			}
+		}
+	}
+
+	/**
+	 * Drops all command lines that have not been requested for the idle
+	 * timeout, retires all idle processes that are no longer usable or whose
+	 * command line has been dropped, and replenishes the idle processes of all
+	 * remaining command lines. This method is only called from the background
+	 * thread.
+	 */
+	private void maintain() {
+		List<List<String>> commands;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			for (Iterator<Map.Entry<List<String>, Long>> lastRequests = this.commands.entrySet().iterator(); lastRequests.hasNext(); ) {
+				Map.Entry<List<String>, Long> lastRequest = lastRequests.next();
+				if ((now - lastRequest.getValue()) > idleTimeout) {
+					logger.fine(String.format("Dropping unused command %s.", lastRequest.getKey()));
+					lastRequests.remove();
+					for (PooledProcess process : idleProcesses.removeAll(lastRequest.getKey())) {
+						retire(process);
+					}
+				}
+			}
+			for (Iterator<PooledProcess> processes = idleProcesses.values().iterator(); processes.hasNext(); ) {
+				PooledProcess process = processes.next();
+				if (!process.usable()) {
+					processes.remove();
+					retire(process);
+				}
+			}
+			commands = Lists.newArrayList(this.commands.keySet());
+		}
+		for (List<String> command : commands) {
+			fill(command);
+		}
+	}
+
+	/**
+	 * Destroys the given process.
+	 *
+	 * @param process
+	 * 		The process to retire
+	 */
+	private void retire(PooledProcess process) {
+		logger.fine(String.format("Retiring process for %s.", process.command));
+		retirements.incrementAndGet();
+		process.process.destroy();
+	}
+
+	/**
+	 * Starts a new process for the given command line and starts draining its
+	 * stderr.
+	 *
+	 * @param command
+	 * 		The command line
+	 * @return The started process
+	 * @throws IOException
+	 * 		if the process can not be started
+	 */
+	private PooledProcess spawn(List<String> command) throws IOException {
+		long startTime = System.nanoTime();
+		Process process = Runtime.getRuntime().exec(command.toArray(new String[command.size()]));
+		long latency = System.nanoTime() - startTime;
+		spawns.incrementAndGet();
+		spawnTime.addAndGet(latency);
+		logger.finest(String.format("Started %s in %.1f ms.", command, latency / 1000000.0));
+		CountingInputStream errorStream = new CountingInputStream(process.getErrorStream());
+		new Thread(new InputStreamDrainer(errorStream)).start();
+		return new PooledProcess(command, process, errorStream);
+	}
+
+	/**
+	 * An idle process.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private class PooledProcess {
+
+		/** The command line of the process. */
+		private final List<String> command;
+
+		/** The process. */
+		private final Process process;
+
+		/** The counting stderr of the process. */
+		private final CountingInputStream errorStream;
+
+		/** The time the process was started. */
+		private final long startTime = System.currentTimeMillis();
+
+		/**
+		 * Creates a new pooled process.
+		 *
+		 * @param command
+		 * 		The command line of the process
+		 * @param process
+		 * 		The process
+		 * @param errorStream
+		 * 		The counting stderr of the process
+		 */
+		private PooledProcess(List<String> command, Process process, CountingInputStream errorStream) {
+			this.command = command;
+			this.process = process;
+			this.errorStream = errorStream;
+		}
+
+		/**
+		 * Returns whether this process can still be handed out.
+		 *
+		 * @return {@code true} if the process is young enough, has not written
+		 *         too much to stderr, and is still running, {@code false}
+		 *         otherwise
+		 */
+		private boolean usable() {
+			if ((System.currentTimeMillis() - startTime) > maximumAge) {
+				return false;
+			}
+			if (errorStream.getCount() > maximumIdleBytes) {
+				return false;
+			}
+			try {
+				process.exitValue();
+				return false;
+			} catch (IllegalThreadStateException itse1) {
+				return true;
+			}
+		}
+
+	}
+
+}
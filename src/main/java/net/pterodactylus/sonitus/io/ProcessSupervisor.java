@@ -0,0 +1,860 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+
+/**
+ * Supervises external processes. A single thread drains the stderr of all
+ * supervised processes into a bounded log per process, and detects processes
+ * that exit while their input is still open, or that stall, i.e. that do not
+ * create any output for the {@link #stallTimeout(long) stall timeout} while
+ * input is waiting for them and somebody is waiting for their output. Such a
+ * process is destroyed and restarted with the same command line after a
+ * back-off that doubles with every consecutive restart; after too many
+ * consecutive restarts the process is given up.
+ * <p/>
+ * The streams of a {@link SupervisedProcess} always talk to the current
+ * process, so a restart is transparent for the user of the streams, except for
+ * the data that was buffered in the failed process.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ProcessSupervisor {
+
+	/** The logger. */
+	private static final Logger logger = Logger.getLogger(ProcessSupervisor.class.getName());
+
+	/** The supervised processes. */
+	private final List<SupervisedProcess> supervisedProcesses = Lists.newCopyOnWriteArrayList();
+
+	/** The interval in which the processes are checked (in milliseconds). */
+	private volatile long pollInterval = 20;
+
+	/** The time after which a process is considered stalled (in milliseconds). */
+	private volatile long stallTimeout = 10000;
+
+	/** The back-off before the first restart (in milliseconds). */
+	private volatile long initialBackoff = 100;
+
+	/** The maximum back-off before a restart (in milliseconds). */
+	private volatile long maximumBackoff = 10000;
+
+	/** The maximum number of consecutive restarts. */
+	private volatile int maximumRestarts = 5;
+
+	/** The number of stderr lines kept per process. */
+	private volatile int logLines = 100;
+
+	/** The number of restarts of all processes. */
+	private final AtomicLong restarts = new AtomicLong();
+
+	/** The number of processes that exited unexpectedly. */
+	private final AtomicLong crashes = new AtomicLong();
+
+	/** The number of processes that stalled. */
+	private final AtomicLong stalls = new AtomicLong();
+
+	/** The supervising thread. */
+	private Thread thread;
+
+	/** Whether this supervisor has been closed. */
+	private volatile boolean closed;
+
+	/**
+	 * Sets the interval in which the processes are checked and their stderr
+	 * is drained.
+	 *
+	 * @param pollInterval
+	 * 		The poll interval (in milliseconds)
+	 * @return This process supervisor
+	 */
+	public ProcessSupervisor pollInterval(long pollInterval) {
+		checkArgument(pollInterval > 0, "pollInterval must be positive");
+		this.pollInterval = pollInterval;
+		return this;
+	}
+
+	/**
+	 * Sets the time after which a process that does not create output while
+	 * input is waiting for it is considered stalled.
+	 *
+	 * @param stallTimeout
+	 * 		The stall timeout (in milliseconds)
+	 * @return This process supervisor
+	 */
+	public ProcessSupervisor stallTimeout(long stallTimeout) {
+		checkArgument(stallTimeout > 0, "stallTimeout must be positive");
+		this.stallTimeout = stallTimeout;
+		return this;
+	}
+
+	/**
+	 * Sets the back-off before restarting a process. The first restart waits
+	 * for the initial back-off; every consecutive restart waits twice as long
+	 * as the previous one, up to the maximum back-off.
+	 *
+	 * @param initialBackoff
+	 * 		The back-off before the first restart (in milliseconds)
+	 * @param maximumBackoff
+	 * 		The maximum back-off (in milliseconds)
+	 * @return This process supervisor
+	 */
+	public ProcessSupervisor backoff(long initialBackoff, long maximumBackoff) {
+		checkArgument(initialBackoff >= 0, "initialBackoff must not be negative");
+		checkArgument(maximumBackoff >= initialBackoff, "maximumBackoff must not be less than initialBackoff");
+		this.initialBackoff = initialBackoff;
+		this.maximumBackoff = maximumBackoff;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of consecutive restarts of a process. A process
+	 * that fails again after that many restarts, none of which kept running
+	 * for longer than the stall timeout, is given up.
+	 *
+	 * @param maximumRestarts
+	 * 		The maximum number of consecutive restarts
+	 * @return This process supervisor
+	 */
+	public ProcessSupervisor maximumRestarts(int maximumRestarts) {
+		checkArgument(maximumRestarts >= 0, "maximumRestarts must not be negative");
+		this.maximumRestarts = maximumRestarts;
+		return this;
+	}
+
+	/**
+	 * Sets the number of stderr lines that are kept per process.
+	 *
+	 * @param logLines
+	 * 		The number of stderr lines
+	 * @return This process supervisor
+	 */
+	public ProcessSupervisor logLines(int logLines) {
+		checkArgument(logLines > 0, "logLines must be positive");
+		this.logLines = logLines;
+		return this;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of restarts of all processes.
+	 *
+	 * @return The number of restarts
+	 */
+	public long restarts() {
+		return restarts.get();
+	}
+
+	/**
+	 * Returns the number of processes that exited while their input was still
+	 * open.
+	 *
+	 * @return The number of crashes
+	 */
+	public long crashes() {
+		return crashes.get();
+	}
+
+	/**
+	 * Returns the number of processes that stalled.
+	 *
+	 * @return The number of stalls
+	 */
+	public long stalls() {
+		return stalls.get();
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Starts a new supervised process.
+	 *
+	 * @param command
+	 * 		The command line (the binary, followed by its parameters)
+	 * @return The supervised process
+	 * @throws IOException
+	 * 		if the process can not be started
+	 */
+	public SupervisedProcess supervise(List<String> command) throws IOException {
+		List<String> commandLine = ImmutableList.copyOf(checkNotNull(command, "command must not be null"));
+		checkArgument(!commandLine.isEmpty(), "command must not be empty");
+		SupervisedProcess supervisedProcess = new SupervisedProcess(commandLine);
+		synchronized (this) {
+			if (closed) {
+				supervisedProcess.close();
+				throw new IOException("Process supervisor is closed.");
+			}
+			supervisedProcesses.add(supervisedProcess);
+			if (thread == null) {
+				thread = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						supervise();
+					}
+				}, "ProcessSupervisor");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		return supervisedProcess;
+	}
+
+	/** Stops the supervising thread and destroys all supervised processes. */
+	public void close() {
+		closed = true;
+		for (SupervisedProcess supervisedProcess : supervisedProcesses) {
+			supervisedProcess.close();
+		}
+		synchronized (this) {
+			if (thread != null) {
+				thread.interrupt();
+			}
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/** Checks all supervised processes until this supervisor is closed. */
+	private void supervise() {
+		while (!closed) {
+			long now = System.currentTimeMillis();
+			for (SupervisedProcess supervisedProcess : supervisedProcesses) {
+				if (!supervisedProcess.check(now)) {
+					supervisedProcesses.remove(supervisedProcess);
+				}
+			}
+			try {
+				Thread.sleep(pollInterval);
+			} catch (InterruptedException ie1) {
+				/* closed, probably. */
+			}
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Closes the given stream, ignoring any exceptions.
+	 *
+	 * @param closeable
+	 * 		The stream to close
+	 */
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			Closeables.close(closeable, true);
+		} catch (IOException ioe1) {
+			/* won’t throw. */
+		}
+	}
+
+	/**
+	 * An external process under supervision. The streams returned by {@link
+	 * #inputStream()} and {@link #outputStream()} always talk to the current
+	 * process.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	public class SupervisedProcess {
+
+		/** The command line of the process. */
+		private final List<String> command;
+
+		/** The last lines the process wrote to stderr. */
+		private final ArrayDeque<String> log = new ArrayDeque<String>();
+
+		/** The incomplete last line the process wrote to stderr. */
+		private final StringBuilder logLine = new StringBuilder();
+
+		/** Buffer for draining stderr. */
+		private final byte[] errorBuffer = new byte[1024];
+
+		/** The stream to read the output of the process from. */
+		private final InputStream inputStream = new SupervisedInputStream();
+
+		/** The stream to write the input of the process to. */
+		private final OutputStream outputStream = new SupervisedOutputStream();
+
+		/** The current process. */
+		private Process process;
+
+		/** The replaced process whose output has not been read to its end, or {@code null}. */
+		private Process replacedProcess;
+
+		/** The generation of the current process, incremented on every restart. */
+		private int generation;
+
+		/** The number of restarts of this process. */
+		private int restarts;
+
+		/** The number of restarts since the process last ran long enough. */
+		private int consecutiveRestarts;
+
+		/** The time the current process was started. */
+		private long startTime;
+
+		/** The time at which to restart the process, or {@code 0}. */
+		private long restartTime;
+
+		/** The time the process last created output. */
+		private long lastOutputTime;
+
+		/** The time input was written after the last output, or {@code 0}. */
+		private long pendingInputTime;
+
+		/** The number of threads waiting for output of the process. */
+		private int readers;
+
+		/** Whether the input of the process has been closed. */
+		private boolean inputClosed;
+
+		/** Whether the process has exited after its input was closed. */
+		private boolean finished;
+
+		/** The reason the process was given up, or {@code null}. */
+		private String failure;
+
+		/** Whether this process has been closed. */
+		private boolean closed;
+
+		/**
+		 * Creates and starts a new supervised process.
+		 *
+		 * @param command
+		 * 		The command line of the process
+		 * @throws IOException
+		 * 		if the process can not be started
+		 */
+		private SupervisedProcess(List<String> command) throws IOException {
+			this.command = command;
+			this.process = start();
+			this.startTime = System.currentTimeMillis();
+			this.lastOutputTime = startTime;
+		}
+
+		//
+		// ACCESSORS
+		//
+
+		/**
+		 * Returns the stream to read the output of the process from.
+		 *
+		 * @return The output of the process
+		 */
+		public InputStream inputStream() {
+			return inputStream;
+		}
+
+		/**
+		 * Returns the stream to write the input of the process to.
+		 *
+		 * @return The input of the process
+		 */
+		public OutputStream outputStream() {
+			return outputStream;
+		}
+
+		/**
+		 * Returns the number of times the process has been restarted.
+		 *
+		 * @return The number of restarts
+		 */
+		public synchronized int restarts() {
+			return restarts;
+		}
+
+		/**
+		 * Returns the last lines the process (or its predecessors) wrote to
+		 * stderr.
+		 *
+		 * @return The last lines of stderr
+		 */
+		public synchronized List<String> log() {
+			return ImmutableList.copyOf(log);
+		}
+
+		//
+		// ACTIONS
+		//
+
+		/** Destroys the process and stops supervising it. */
+		public void close() {
+			Process currentProcess;
+			Process replacedProcess;
+			synchronized (this) {
+				closed = true;
+				currentProcess = process;
+				replacedProcess = this.replacedProcess;
+				this.replacedProcess = null;
+				notifyAll();
+			}
+			currentProcess.destroy();
+			if (replacedProcess != null) {
+				closeQuietly(replacedProcess.getInputStream());
+			}
+		}
+
+		//
+		// PRIVATE METHODS
+		//
+
+		/**
+		 * Starts a new process for the command line.
+		 *
+		 * @return The started process
+		 * @throws IOException
+		 * 		if the process can not be started
+		 */
+		private Process start() throws IOException {
+			return Runtime.getRuntime().exec(command.toArray(new String[command.size()]));
+		}
+
+		/**
+		 * Drains stderr, and detects exited and stalled processes. This method
+		 * is only called by the supervising thread.
+		 *
+		 * @param now
+		 * 		The current time
+		 * @return {@code true} if the process should still be supervised,
+		 *         {@code false} if it has been closed
+		 */
+		private synchronized boolean check(long now) {
+			if (closed) {
+				return false;
+			}
+			drainErrorStream();
+			if ((failure != null) || finished) {
+				return true;
+			}
+			if (restartTime != 0) {
+				if (now >= restartTime) {
+					restart(now);
+				}
+				return true;
+			}
+			Integer exitValue = exitValue();
+			if (exitValue != null) {
+				if (inputClosed) {
+					finished = true;
+					notifyAll();
+				} else {
+					crashes.incrementAndGet();
+					scheduleRestart(now, String.format("exited with %d", exitValue));
+				}
+			} else if ((readers > 0) && (pendingInputTime != 0) && ((now - pendingInputTime) > stallTimeout) && ((now - lastOutputTime) > stallTimeout)) {
+				stalls.incrementAndGet();
+				process.destroy();
+				scheduleRestart(now, String.format("stalled for %d ms", now - Math.max(pendingInputTime, lastOutputTime)));
+			} else if ((now - startTime) > stallTimeout) {
+				consecutiveRestarts = 0;
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the exit value of the process.
+		 *
+		 * @return The exit value of the process, or {@code null} if the process
+		 *         is still running
+		 */
+		private Integer exitValue() {
+			try {
+				return process.exitValue();
+			} catch (IllegalThreadStateException itse1) {
+				return null;
+			}
+		}
+
+		/**
+		 * Schedules the restart of the process, or gives it up if it has already
+		 * been restarted too often. The process has to have exited or to have
+		 * been destroyed; an exited process is not destroyed so that its
+		 * remaining output can still be read.
+		 *
+		 * @param now
+		 * 		The current time
+		 * @param reason
+		 * 		The reason for the restart
+		 */
+		private void scheduleRestart(long now, String reason) {
+			if (consecutiveRestarts >= maximumRestarts) {
+				logger.warning(String.format("Giving up %s, it %s; last output: %s", command, reason, log));
+				failure = reason;
+				notifyAll();
+				return;
+			}
+			long backoff = Math.min(maximumBackoff, initialBackoff << Math.min(consecutiveRestarts, 30));
+			logger.warning(String.format("Restarting %s in %d ms, it %s; last output: %s", command, backoff, reason, log));
+			restartTime = now + Math.max(1, backoff);
+			++consecutiveRestarts;
+		}
+
+		/**
+		 * Restarts the process. The input and stderr of the replaced process are
+		 * closed; its output is closed once it has been read to its end, or when
+		 * the next process is replaced.
+		 *
+		 * @param now
+		 * 		The current time
+		 */
+		private void restart(long now) {
+			restartTime = 0;
+			Process previousProcess = process;
+			try {
+				process = start();
+			} catch (IOException ioe1) {
+				scheduleRestart(now, String.format("could not be started (%s)", ioe1.getMessage()));
+				return;
+			}
+			closeQuietly(previousProcess.getOutputStream());
+			closeQuietly(previousProcess.getErrorStream());
+			if (replacedProcess != null) {
+				closeQuietly(replacedProcess.getInputStream());
+			}
+			replacedProcess = previousProcess;
+			if (inputClosed) {
+				try {
+					process.getOutputStream().close();
+				} catch (IOException ioe1) {
+					/* will be detected as crash. */
+				}
+			}
+			++generation;
+			++restarts;
+			ProcessSupervisor.this.restarts.incrementAndGet();
+			startTime = now;
+			lastOutputTime = now;
+			pendingInputTime = 0;
+			notifyAll();
+		}
+
+		/**
+		 * Closes the output of the given process if it is the replaced process.
+		 * This method is called by the reader once it has read the output of the
+		 * process to its end.
+		 *
+		 * @param finishedProcess
+		 * 		The process whose output has been read
+		 */
+		private synchronized void outputFinished(Process finishedProcess) {
+			if (replacedProcess == finishedProcess) {
+				closeQuietly(finishedProcess.getInputStream());
+				replacedProcess = null;
+			}
+		}
+
+		/** Appends everything that is available on stderr to the log. */
+		private void drainErrorStream() {
+			InputStream errorStream = process.getErrorStream();
+			try {
+				while (errorStream.available() > 0) {
+					int read = errorStream.read(errorBuffer);
+					if (read == -1) {
+						break;
+					}
+					for (int index = 0; index < read; ++index) {
+						char character = (char) (errorBuffer[index] & 0xff);
+						if ((character == '\n') || (character == '\r')) {
+							appendLogLine();
+						} else {
+							logLine.append(character);
+						}
+					}
+				}
+			} catch (IOException ioe1) {
+				/* process has gone, ignore. */
+			}
+		}
+
+		/** Moves the current stderr line to the log. */
+		private void appendLogLine() {
+			if (logLine.length() == 0) {
+				return;
+			}
+			logger.finest(String.format("%s: %s", command.get(0), logLine));
+			log.add(logLine.toString());
+			logLine.setLength(0);
+			while (log.size() > logLines) {
+				log.removeFirst();
+			}
+		}
+
+		/**
+		 * Waits until a process is running, and returns its generation.
+		 *
+		 * @return The generation of the running process
+		 * @throws IOException
+		 * 		if the process has been given up or closed
+		 */
+		private synchronized int awaitProcess() throws IOException {
+			while (restartTime != 0) {
+				checkUsable();
+				waitForSupervisor();
+			}
+			checkUsable();
+			return generation;
+		}
+
+		/**
+		 * Waits until a process is running, or the process has been given up,
+		 * and returns its generation. The output of a process that has been
+		 * given up can still be read to its end.
+		 *
+		 * @return The generation of the process whose output to read
+		 * @throws IOException
+		 * 		if the process has been closed
+		 */
+		private synchronized int awaitOutput() throws IOException {
+			while ((restartTime != 0) && (failure == null)) {
+				checkOpen();
+				waitForSupervisor();
+			}
+			checkOpen();
+			return generation;
+		}
+
+		/**
+		 * Waits until the process of the given generation has been replaced.
+		 *
+		 * @param generation
+		 * 		The generation of the failed process
+		 * @return {@code true} if the process has been replaced, {@code false}
+		 *         if it has finished normally
+		 * @throws IOException
+		 * 		if the process has been given up or closed
+		 */
+		private synchronized boolean awaitReplacement(int generation) throws IOException {
+			while (this.generation == generation) {
+				checkUsable();
+				if (finished) {
+					return false;
+				}
+				waitForSupervisor();
+			}
+			return true;
+		}
+
+		/**
+		 * Throws an exception if the process has been given up or closed.
+		 *
+		 * @throws IOException
+		 * 		if the process has been given up or closed
+		 */
+		private void checkUsable() throws IOException {
+			checkOpen();
+			if (failure != null) {
+				throw new IOException(String.format("%s has been given up, it %s.", command, failure));
+			}
+		}
+
+		/**
+		 * Throws an exception if the process has been closed.
+		 *
+		 * @throws IOException
+		 * 		if the process has been closed
+		 */
+		private void checkOpen() throws IOException {
+			if (closed) {
+				throw new IOException(String.format("%s has been closed.", command));
+			}
+		}
+
+		/**
+		 * Waits for the supervising thread to check the process.
+		 *
+		 * @throws IOException
+		 * 		if the thread is interrupted
+		 */
+		private void waitForSupervisor() throws IOException {
+			try {
+				wait(pollInterval * 5);
+			} catch (InterruptedException ie1) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(String.format("Interrupted while waiting for %s.", command));
+			}
+		}
+
+		/**
+		 * The stream the output of the process is read from. The output of every
+		 * process is read to its end before the output of the process replacing
+		 * it is read.
+		 *
+		 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+		 */
+		private class SupervisedInputStream extends InputStream {
+
+			/** The process whose output is being read, or {@code null}. */
+			private Process readProcess;
+
+			/** The generation of the process whose output is being read. */
+			private int readGeneration;
+
+			@Override
+			public int read() throws IOException {
+				byte[] buffer = new byte[1];
+				int read;
+				while ((read = read(buffer, 0, 1)) == 0) {
+					/* read again. */
+				}
+				return (read == -1) ? -1 : (buffer[0] & 0xff);
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				while (true) {
+					synchronized (SupervisedProcess.this) {
+						if (readProcess == null) {
+							readGeneration = awaitOutput();
+							readProcess = process;
+							if (replacedProcess != null) {
+								/* the output of the replaced process has not been read to its end. */
+								readGeneration -= 1;
+								readProcess = replacedProcess;
+							}
+						}
+						++readers;
+					}
+					int read;
+					try {
+						read = readProcess.getInputStream().read(buffer, offset, length);
+					} catch (IOException ioe1) {
+						read = -1;
+					} finally {
+						synchronized (SupervisedProcess.this) {
+							--readers;
+						}
+					}
+					if (read > 0) {
+						synchronized (SupervisedProcess.this) {
+							lastOutputTime = System.currentTimeMillis();
+							pendingInputTime = 0;
+						}
+					}
+					if (read != -1) {
+						return read;
+					}
+					Process finishedProcess = readProcess;
+					readProcess = null;
+					if (!awaitReplacement(readGeneration)) {
+						return -1;
+					}
+					outputFinished(finishedProcess);
+				}
+			}
+
+			@Override
+			public void close() {
+				SupervisedProcess.this.close();
+			}
+
+		}
+
+		/**
+		 * The stream the input of the process is written to.
+		 *
+		 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+		 */
+		private class SupervisedOutputStream extends OutputStream {
+
+			@Override
+			public void write(int data) throws IOException {
+				write(new byte[] { (byte) data }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] buffer, int offset, int length) throws IOException {
+				while (true) {
+					int generation;
+					Process currentProcess;
+					synchronized (SupervisedProcess.this) {
+						generation = awaitProcess();
+						currentProcess = process;
+					}
+					try {
+						currentProcess.getOutputStream().write(buffer, offset, length);
+						synchronized (SupervisedProcess.this) {
+							if (pendingInputTime == 0) {
+								pendingInputTime = System.currentTimeMillis();
+							}
+						}
+						return;
+					} catch (IOException ioe1) {
+						if (!awaitReplacement(generation)) {
+							throw ioe1;
+						}
+					}
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				int generation;
+				Process currentProcess;
+				synchronized (SupervisedProcess.this) {
+					generation = awaitProcess();
+					currentProcess = process;
+				}
+				try {
+					currentProcess.getOutputStream().flush();
+				} catch (IOException ioe1) {
+					if (!awaitReplacement(generation)) {
+						throw ioe1;
+					}
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				Process currentProcess;
+				synchronized (SupervisedProcess.this) {
+					inputClosed = true;
+					currentProcess = process;
+				}
+				currentProcess.getOutputStream().close();
+			}
+
+		}
+
+	}
+
+}
@@ -39,10 +39,20 @@ public enum BlockType {
 	APPLICATION,
 
 	/** A SEEKTABLE block. */
-	SEEKTABLE,
+	SEEKTABLE {
+		@Override
+		public Data createData(byte[] content) {
+			return new SeekTable(content);
+		}
+	},
 
 	/** A VORBIS_COMMENT block. */
-	VORBIS_COMMENT,
+	VORBIS_COMMENT {
+		@Override
+		public Data createData(byte[] content) {
+			return new VorbisComment(content);
+		}
+	},
 
 	/** A CUESHEET block. */
 	CUESHEET,
@@ -0,0 +1,85 @@
+/*
+ * Sonitus - Crc.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+/**
+ * The CRC-8 (polynomial 0x07) and CRC-16 (polynomial 0x8005) checksums that
+ * protect FLAC frame headers and frames.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+class Crc {
+
+	/** The CRC-8 lookup table. */
+	private static final int[] crc8Table = new int[256];
+
+	/** The CRC-16 lookup table. */
+	private static final int[] crc16Table = new int[256];
+
+	static {
+		for (int index = 0; index < 256; ++index) {
+			int crc8 = index;
+			int crc16 = index << 8;
+			for (int bit = 0; bit < 8; ++bit) {
+				crc8 = ((crc8 & 0x80) != 0) ? ((crc8 << 1) ^ 0x07) : (crc8 << 1);
+				crc16 = ((crc16 & 0x8000) != 0) ? ((crc16 << 1) ^ 0x8005) : (crc16 << 1);
+			}
+			crc8Table[index] = crc8 & 0xff;
+			crc16Table[index] = crc16 & 0xffff;
+		}
+	}
+
+	/**
+	 * Calculates the CRC-8 of the given data.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the data
+	 * @param offset
+	 * 		The offset of the data
+	 * @param length
+	 * 		The length of the data
+	 * @return The CRC-8 of the data
+	 */
+	static int crc8(byte[] buffer, int offset, int length) {
+		int crc = 0;
+		for (int index = offset; index < offset + length; ++index) {
+			crc = crc8Table[crc ^ (buffer[index] & 0xff)];
+		}
+		return crc;
+	}
+
+	/**
+	 * Calculates the CRC-16 of the given data.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the data
+	 * @param offset
+	 * 		The offset of the data
+	 * @param length
+	 * 		The length of the data
+	 * @return The CRC-16 of the data
+	 */
+	static int crc16(byte[] buffer, int offset, int length) {
+		int crc = 0;
+		for (int index = offset; index < offset + length; ++index) {
+			crc = ((crc << 8) ^ crc16Table[(crc >>> 8) ^ (buffer[index] & 0xff)]) & 0xffff;
+		}
+		return crc;
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Sonitus - DecodingOutputStream.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import static net.pterodactylus.sonitus.io.flac.BlockType.STREAMINFO;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * {@link OutputStream} wrapper that decodes the FLAC stream written to it
+ * using a {@link FrameDecoder} and forwards the decoded samples as interleaved
+ * 16-bit signed little-endian PCM to the wrapped output stream. The stream has
+ * to start with the FLAC marker and the metadata blocks; the frames following
+ * them may be interrupted by a seek. A frame is decoded as soon as it has been
+ * written completely, i.e. as soon as its CRC-16 matches; data that does not
+ * form a valid frame is skipped until the next frame sync code.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class DecodingOutputStream extends FilterOutputStream {
+
+	/** The buffer for the encoded data. */
+	private byte[] buffer = new byte[16384];
+
+	/** The number of bytes in the buffer. */
+	private int length;
+
+	/** The stream info, once the metadata blocks have been read. */
+	private StreamInfo streamInfo;
+
+	/** The frame decoder. */
+	private FrameDecoder frameDecoder;
+
+	/** The number of bytes after which an undecodable frame is skipped. */
+	private int maximumFrameSize;
+
+	/** The buffer for the decoded samples. */
+	private byte[] pcmBuffer = new byte[0];
+
+	/**
+	 * Creates a new decoding output stream.
+	 *
+	 * @param outputStream
+	 * 		The output stream to write the decoded samples to
+	 */
+	public DecodingOutputStream(OutputStream outputStream) {
+		super(outputStream);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the stream info of the decoded stream.
+	 *
+	 * @return The stream info, or {@code null} if the metadata blocks have not
+	 *         been written completely yet
+	 */
+	public StreamInfo streamInfo() {
+		return streamInfo;
+	}
+
+	//
+	// OUTPUTSTREAM METHODS
+	//
+
+	@Override
+	public void write(int data) throws IOException {
+		write(new byte[] { (byte) data }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer) throws IOException {
+		write(buffer, 0, buffer.length);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		if ((this.length + length) > this.buffer.length) {
+			this.buffer = Arrays.copyOf(this.buffer, Math.max(this.length + length, this.buffer.length * 2));
+		}
+		System.arraycopy(buffer, offset, this.buffer, this.length, length);
+		this.length += length;
+		decodeFrames(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		decodeFrames(true);
+		super.close();
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Decodes all complete frames in the buffer and removes the consumed data
+	 * from the buffer.
+	 *
+	 * @param endOfStream
+	 * 		{@code true} if no more data will be written, {@code false} otherwise
+	 * @throws IOException
+	 * 		if the stream is not a FLAC stream, or the decoded samples can not be
+	 * 		written
+	 */
+	private void decodeFrames(boolean endOfStream) throws IOException {
+		int position = 0;
+		if (streamInfo == null) {
+			position = parseMetadataBlocks();
+			if (streamInfo == null) {
+				return;
+			}
+		}
+		while (position < length) {
+			int remaining = length - position;
+			if (!FrameHeader.isSync(buffer, position, remaining)) {
+				if ((remaining < 2) && !endOfStream) {
+					break;
+				}
+				++position;
+				continue;
+			}
+			try {
+				frameDecoder.decode(buffer, position, remaining);
+			} catch (IOException ioe1) {
+				if ((remaining < maximumFrameSize) && !endOfStream) {
+					/* the frame is probably not complete yet. */
+					break;
+				}
+				++position;
+				continue;
+			}
+			position += frameDecoder.length();
+			FrameHeader frameHeader = frameDecoder.frameHeader();
+			int pcmLength = frameHeader.blockSize() * frameHeader.channels() * 2;
+			if (pcmBuffer.length < pcmLength) {
+				pcmBuffer = new byte[pcmLength];
+			}
+			out.write(pcmBuffer, 0, frameDecoder.writePcm16(pcmBuffer, 0));
+		}
+		System.arraycopy(buffer, position, buffer, 0, length - position);
+		length -= position;
+	}
+
+	/**
+	 * Parses the FLAC marker and the metadata blocks at the start of the
+	 * buffer. The stream info is only set once all metadata blocks are
+	 * available.
+	 *
+	 * @return The offset of the first frame, or {@code 0} if the metadata
+	 *         blocks are not complete yet
+	 * @throws IOException
+	 * 		if the stream does not start with the FLAC marker, or does not contain
+	 * 		a STREAMINFO block
+	 */
+	private int parseMetadataBlocks() throws IOException {
+		if (length < 4) {
+			return 0;
+		}
+		if ((buffer[0] != 'f') || (buffer[1] != 'L') || (buffer[2] != 'a') || (buffer[3] != 'C')) {
+			throw new IOException("Stream does not start with a FLAC marker.");
+		}
+		StreamInfo streamInfo = null;
+		int position = 4;
+		while ((position + 4) <= length) {
+			boolean lastBlock = (buffer[position] & 0x80) != 0;
+			BlockType blockType = BlockType.valueOf(buffer[position] & 0x7f);
+			int blockLength = ((buffer[position + 1] & 0xff) << 16) | ((buffer[position + 2] & 0xff) << 8) | (buffer[position + 3] & 0xff);
+			if ((position + 4 + blockLength) > length) {
+				return 0;
+			}
+			if (blockType == STREAMINFO) {
+				streamInfo = new StreamInfo(Arrays.copyOfRange(buffer, position + 4, position + 4 + blockLength));
+			}
+			position += 4 + blockLength;
+			if (lastBlock) {
+				if (streamInfo == null) {
+					throw new IOException("Stream does not contain a STREAMINFO block.");
+				}
+				this.streamInfo = streamInfo;
+				frameDecoder = new FrameDecoder(streamInfo);
+				maximumFrameSize = (streamInfo.maximumFrameSize() > 0) ? streamInfo.maximumFrameSize() : (streamInfo.maximumBlockSize() * streamInfo.numberOfChannels() * 4 + FrameHeader.MAXIMUM_LENGTH + 2);
+				return position;
+			}
+		}
+		return 0;
+	}
+
+}
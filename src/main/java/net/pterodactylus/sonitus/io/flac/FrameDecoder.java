@@ -0,0 +1,430 @@
+/*
+ * Sonitus - FrameDecoder.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import java.io.IOException;
+
+import net.pterodactylus.sonitus.io.BitReader;
+import net.pterodactylus.sonitus.io.PcmSamples;
+
+import com.google.common.base.Optional;
+
+/**
+ * Decodes single FLAC audio frames. Frames are independent from each other so
+ * a decoder can decode frames in any order; however, a decoder reuses its
+ * sample buffers and must not be shared between threads.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FrameDecoder {
+
+	/** The stream info of the stream being decoded. */
+	private final StreamInfo streamInfo;
+
+	/** The decoded samples, per channel. */
+	private int[][] samples = new int[0][0];
+
+	/** The LPC coefficients of the current subframe. */
+	private final int[] coefficients = new int[32];
+
+	/** The header of the last decoded frame. */
+	private FrameHeader frameHeader;
+
+	/** The length of the last decoded frame (in bytes). */
+	private int length;
+
+	/**
+	 * Creates a new frame decoder.
+	 *
+	 * @param streamInfo
+	 * 		The stream info of the stream to decode
+	 */
+	public FrameDecoder(StreamInfo streamInfo) {
+		this.streamInfo = streamInfo;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the header of the last decoded frame.
+	 *
+	 * @return The header of the last decoded frame
+	 */
+	public FrameHeader frameHeader() {
+		return frameHeader;
+	}
+
+	/**
+	 * Returns the length of the last decoded frame.
+	 *
+	 * @return The length of the last decoded frame (in bytes)
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns the decoded samples of the given channel. Only the first {@link
+	 * FrameHeader#blockSize()} samples are valid; the array is reused for the
+	 * next frame.
+	 *
+	 * @param channel
+	 * 		The index of the channel
+	 * @return The decoded samples of the channel
+	 */
+	public int[] samples(int channel) {
+		return samples[channel];
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Decodes the frame starting at the given offset.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the frame
+	 * @param offset
+	 * 		The offset of the frame
+	 * @param length
+	 * 		The number of bytes available at the offset; this may include data
+	 * 		following the frame
+	 * @return The header of the decoded frame
+	 * @throws IOException
+	 * 		if the frame can not be decoded, or its checksum is invalid
+	 */
+	public FrameHeader decode(byte[] buffer, int offset, int length) throws IOException {
+		Optional<FrameHeader> parsedFrameHeader = FrameHeader.parse(buffer, offset, length, streamInfo);
+		if (!parsedFrameHeader.isPresent()) {
+			throw new IOException("No valid frame header found.");
+		}
+		FrameHeader frameHeader = parsedFrameHeader.get();
+		int blockSize = frameHeader.blockSize();
+		if ((samples.length < frameHeader.channels()) || (samples[0].length < blockSize)) {
+			samples = new int[Math.max(samples.length, frameHeader.channels())][Math.max(blockSize, streamInfo.maximumBlockSize())];
+		}
+
+		BitReader bitReader = new BitReader(buffer, offset + frameHeader.length(), length - frameHeader.length());
+		for (int channel = 0; channel < frameHeader.channels(); ++channel) {
+			int bitsPerSample = frameHeader.bitsPerSample();
+			if (((frameHeader.channelAssignment() == FrameHeader.LEFT_SIDE) && (channel == 1)) || ((frameHeader.channelAssignment() == FrameHeader.SIDE_RIGHT) && (channel == 0)) || ((frameHeader.channelAssignment() == FrameHeader.MID_SIDE) && (channel == 1))) {
+				bitsPerSample++;
+			}
+			decodeSubframe(bitReader, samples[channel], blockSize, bitsPerSample);
+		}
+		bitReader.alignToByte();
+		int frameLength = frameHeader.length() + bitReader.bytesRead() + 2;
+		if (bitReader.overrun() || (frameLength > length)) {
+			throw new IOException("Frame is truncated.");
+		}
+		int crc = ((buffer[offset + frameLength - 2] & 0xff) << 8) | (buffer[offset + frameLength - 1] & 0xff);
+		if (Crc.crc16(buffer, offset, frameLength - 2) != crc) {
+			throw new IOException("Frame checksum mismatch.");
+		}
+
+		decorrelate(frameHeader.channelAssignment(), blockSize);
+		this.frameHeader = frameHeader;
+		this.length = frameLength;
+		return frameHeader;
+	}
+
+	/**
+	 * Writes the samples of the last decoded frame as interleaved,
+	 * little-endian signed PCM samples of their original width. Every sample
+	 * occupies as many whole bytes as its width needs and is not scaled, which
+	 * is also the layout the MD5 signature of a FLAC stream is calculated over.
+	 *
+	 * @param buffer
+	 * 		The buffer to write to
+	 * @param offset
+	 * 		The offset at which to start writing
+	 * @return The number of bytes written
+	 */
+	public int writePcm(byte[] buffer, int offset) {
+		int sampleSize = PcmSamples.sampleSize(frameHeader.bitsPerSample());
+		int channels = frameHeader.channels();
+		int blockSize = frameHeader.blockSize();
+		int position = offset;
+		for (int sample = 0; sample < blockSize; ++sample) {
+			for (int channel = 0; channel < channels; ++channel) {
+				int value = samples[channel][sample];
+				for (int shift = 0; shift < sampleSize * 8; shift += 8) {
+					buffer[position++] = (byte) (value >> shift);
+				}
+			}
+		}
+		return position - offset;
+	}
+
+	/**
+	 * Writes the samples of the last decoded frame as interleaved, 16-bit
+	 * little-endian signed PCM samples, scaling samples of other widths.
+	 *
+	 * @param buffer
+	 * 		The buffer to write to
+	 * @param offset
+	 * 		The offset at which to start writing
+	 * @return The number of bytes written
+	 */
+	public int writePcm16(byte[] buffer, int offset) {
+		int shift = frameHeader.bitsPerSample() - 16;
+		int channels = frameHeader.channels();
+		int blockSize = frameHeader.blockSize();
+		int position = offset;
+		for (int sample = 0; sample < blockSize; ++sample) {
+			for (int channel = 0; channel < channels; ++channel) {
+				int value = (shift >= 0) ? (samples[channel][sample] >> shift) : (samples[channel][sample] << -shift);
+				buffer[position++] = (byte) value;
+				buffer[position++] = (byte) (value >> 8);
+			}
+		}
+		return position - offset;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Decodes a single subframe.
+	 *
+	 * @param bitReader
+	 * 		The bit reader to read the subframe from
+	 * @param samples
+	 * 		The array to store the decoded samples in
+	 * @param blockSize
+	 * 		The number of samples to decode
+	 * @param bitsPerSample
+	 * 		The number of bits per sample of this subframe
+	 * @throws IOException
+	 * 		if the subframe uses a reserved type
+	 */
+	private void decodeSubframe(BitReader bitReader, int[] samples, int blockSize, int bitsPerSample) throws IOException {
+		int header = bitReader.readBits(8);
+		if ((header & 0x80) != 0) {
+			throw new IOException("Invalid subframe padding.");
+		}
+		int type = (header >>> 1) & 0x3f;
+		int wastedBits = 0;
+		if ((header & 0x01) != 0) {
+			wastedBits = bitReader.readUnary() + 1;
+			bitsPerSample -= wastedBits;
+		}
+
+		if (type == 0) {
+			int value = bitReader.readSignedBits(bitsPerSample);
+			for (int sample = 0; sample < blockSize; ++sample) {
+				samples[sample] = value;
+			}
+		} else if (type == 1) {
+			for (int sample = 0; sample < blockSize; ++sample) {
+				samples[sample] = bitReader.readSignedBits(bitsPerSample);
+			}
+		} else if ((type >= 8) && (type <= 12)) {
+			decodeFixed(bitReader, samples, blockSize, bitsPerSample, type - 8);
+		} else if (type >= 32) {
+			decodeLpc(bitReader, samples, blockSize, bitsPerSample, type - 31);
+		} else {
+			throw new IOException(String.format("Reserved subframe type: %d", type));
+		}
+
+		if (wastedBits > 0) {
+			for (int sample = 0; sample < blockSize; ++sample) {
+				samples[sample] <<= wastedBits;
+			}
+		}
+	}
+
+	/**
+	 * Decodes a subframe using a fixed predictor.
+	 *
+	 * @param bitReader
+	 * 		The bit reader to read the subframe from
+	 * @param samples
+	 * 		The array to store the decoded samples in
+	 * @param blockSize
+	 * 		The number of samples to decode
+	 * @param bitsPerSample
+	 * 		The number of bits per sample of this subframe
+	 * @param order
+	 * 		The order of the predictor
+	 * @throws IOException
+	 * 		if the residual can not be decoded
+	 */
+	private void decodeFixed(BitReader bitReader, int[] samples, int blockSize, int bitsPerSample, int order) throws IOException {
+		for (int sample = 0; sample < order; ++sample) {
+			samples[sample] = bitReader.readSignedBits(bitsPerSample);
+		}
+		decodeResidual(bitReader, samples, blockSize, order);
+		switch (order) {
+			case 1:
+				for (int sample = 1; sample < blockSize; ++sample) {
+					samples[sample] += samples[sample - 1];
+				}
+				break;
+			case 2:
+				for (int sample = 2; sample < blockSize; ++sample) {
+					samples[sample] += 2 * samples[sample - 1] - samples[sample - 2];
+				}
+				break;
+			case 3:
+				for (int sample = 3; sample < blockSize; ++sample) {
+					samples[sample] += 3 * (samples[sample - 1] - samples[sample - 2]) + samples[sample - 3];
+				}
+				break;
+			case 4:
+				for (int sample = 4; sample < blockSize; ++sample) {
+					samples[sample] += 4 * (samples[sample - 1] + samples[sample - 3]) - 6 * samples[sample - 2] - samples[sample - 4];
+				}
+				break;
+			default:
+				/* order 0: the residual is the signal. */
+		}
+	}
+
+	/**
+	 * Decodes a subframe using linear prediction.
+	 *
+	 * @param bitReader
+	 * 		The bit reader to read the subframe from
+	 * @param samples
+	 * 		The array to store the decoded samples in
+	 * @param blockSize
+	 * 		The number of samples to decode
+	 * @param bitsPerSample
+	 * 		The number of bits per sample of this subframe
+	 * @param order
+	 * 		The order of the predictor
+	 * @throws IOException
+	 * 		if the coefficients or the residual can not be decoded
+	 */
+	private void decodeLpc(BitReader bitReader, int[] samples, int blockSize, int bitsPerSample, int order) throws IOException {
+		for (int sample = 0; sample < order; ++sample) {
+			samples[sample] = bitReader.readSignedBits(bitsPerSample);
+		}
+		int precision = bitReader.readBits(4) + 1;
+		if (precision == 16) {
+			throw new IOException("Invalid LPC coefficient precision.");
+		}
+		int shift = bitReader.readSignedBits(5);
+		if (shift < 0) {
+			throw new IOException("Negative LPC shift.");
+		}
+		for (int coefficient = 0; coefficient < order; ++coefficient) {
+			coefficients[coefficient] = bitReader.readSignedBits(precision);
+		}
+		decodeResidual(bitReader, samples, blockSize, order);
+
+		/* use 32 bits where it can not overflow, 64 bits otherwise. */
+		if (bitsPerSample + precision + (32 - Integer.numberOfLeadingZeros(order)) <= 32) {
+			for (int sample = order; sample < blockSize; ++sample) {
+				int prediction = 0;
+				for (int coefficient = 0; coefficient < order; ++coefficient) {
+					prediction += coefficients[coefficient] * samples[sample - 1 - coefficient];
+				}
+				samples[sample] += prediction >> shift;
+			}
+		} else {
+			for (int sample = order; sample < blockSize; ++sample) {
+				long prediction = 0;
+				for (int coefficient = 0; coefficient < order; ++coefficient) {
+					prediction += (long) coefficients[coefficient] * samples[sample - 1 - coefficient];
+				}
+				samples[sample] += (int) (prediction >> shift);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the residual of a predicted subframe into the given array, starting
+	 * after the warm-up samples.
+	 *
+	 * @param bitReader
+	 * 		The bit reader to read the residual from
+	 * @param samples
+	 * 		The array to store the residual in
+	 * @param blockSize
+	 * 		The number of samples in the subframe
+	 * @param order
+	 * 		The order of the predictor
+	 * @throws IOException
+	 * 		if the residual uses a reserved coding method or is malformed
+	 */
+	private void decodeResidual(BitReader bitReader, int[] samples, int blockSize, int order) throws IOException {
+		int method = bitReader.readBits(2);
+		if (method > 1) {
+			throw new IOException(String.format("Reserved residual coding method: %d", method));
+		}
+		int parameterBits = (method == 0) ? 4 : 5;
+		int escapeParameter = (1 << parameterBits) - 1;
+		int partitionOrder = bitReader.readBits(4);
+		int partitions = 1 << partitionOrder;
+		int partitionSamples = blockSize >>> partitionOrder;
+		if ((partitionSamples << partitionOrder != blockSize) || (partitionSamples < order)) {
+			throw new IOException("Invalid residual partition order.");
+		}
+		int sample = order;
+		for (int partition = 0; partition < partitions; ++partition) {
+			int end = (partition + 1) * partitionSamples;
+			int parameter = bitReader.readBits(parameterBits);
+			if (parameter == escapeParameter) {
+				int bits = bitReader.readBits(5);
+				for (; sample < end; ++sample) {
+					samples[sample] = bitReader.readSignedBits(bits);
+				}
+			} else {
+				for (; sample < end; ++sample) {
+					samples[sample] = bitReader.readRice(parameter);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restores left and right channel from the decoded channels.
+	 *
+	 * @param channelAssignment
+	 * 		The channel assignment of the frame
+	 * @param blockSize
+	 * 		The number of samples in the frame
+	 */
+	private void decorrelate(int channelAssignment, int blockSize) {
+		int[] first = samples[0];
+		int[] second = (samples.length > 1) ? samples[1] : null;
+		if (channelAssignment == FrameHeader.LEFT_SIDE) {
+			for (int sample = 0; sample < blockSize; ++sample) {
+				second[sample] = first[sample] - second[sample];
+			}
+		} else if (channelAssignment == FrameHeader.SIDE_RIGHT) {
+			for (int sample = 0; sample < blockSize; ++sample) {
+				first[sample] += second[sample];
+			}
+		} else if (channelAssignment == FrameHeader.MID_SIDE) {
+			for (int sample = 0; sample < blockSize; ++sample) {
+				int side = second[sample];
+				int mid = (first[sample] << 1) | (side & 1);
+				first[sample] = (mid + side) >> 1;
+				second[sample] = (mid - side) >> 1;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,316 @@
+/*
+ * Sonitus - FrameHeader.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import com.google.common.base.Optional;
+
+/**
+ * The header of a FLAC audio frame.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FrameHeader {
+
+	/** The maximum length of a frame header (in bytes). */
+	public static final int MAXIMUM_LENGTH = 16;
+
+	/** Channel assignment: independent channels. */
+	public static final int INDEPENDENT = 0;
+
+	/** Channel assignment: left and side channel. */
+	public static final int LEFT_SIDE = 8;
+
+	/** Channel assignment: side and right channel. */
+	public static final int SIDE_RIGHT = 9;
+
+	/** Channel assignment: mid and side channel. */
+	public static final int MID_SIDE = 10;
+
+	/** The sample rates for the sample rate codes 1 to 11. */
+	private static final int[] sampleRates = { 0, 88200, 176400, 192000, 8000, 16000, 22050, 24000, 32000, 44100, 48000, 96000 };
+
+	/** The sample sizes for the sample size codes. */
+	private static final int[] sampleSizes = { 0, 8, 12, -1, 16, 20, 24, -1 };
+
+	/** Whether the stream uses a variable block size. */
+	private final boolean variableBlockSize;
+
+	/** The number of samples per channel in the frame. */
+	private final int blockSize;
+
+	/** The sample rate (in Hertz). */
+	private final int sampleRate;
+
+	/** The channel assignment. */
+	private final int channelAssignment;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** The number of bits per sample. */
+	private final int bitsPerSample;
+
+	/** The frame number, or the number of the first sample. */
+	private final long number;
+
+	/** The length of the header (in bytes). */
+	private final int length;
+
+	/**
+	 * Creates a new frame header.
+	 *
+	 * @param variableBlockSize
+	 * 		{@code true} if the stream uses a variable block size, {@code false}
+	 * 		otherwise
+	 * @param blockSize
+	 * 		The number of samples per channel
+	 * @param sampleRate
+	 * 		The sample rate
+	 * @param channelAssignment
+	 * 		The channel assignment
+	 * @param channels
+	 * 		The number of channels
+	 * @param bitsPerSample
+	 * 		The number of bits per sample
+	 * @param number
+	 * 		The frame or sample number
+	 * @param length
+	 * 		The length of the header
+	 */
+	private FrameHeader(boolean variableBlockSize, int blockSize, int sampleRate, int channelAssignment, int channels, int bitsPerSample, long number, int length) {
+		this.variableBlockSize = variableBlockSize;
+		this.blockSize = blockSize;
+		this.sampleRate = sampleRate;
+		this.channelAssignment = channelAssignment;
+		this.channels = channels;
+		this.bitsPerSample = bitsPerSample;
+		this.number = number;
+		this.length = length;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns whether the stream uses a variable block size. If it does, {@link
+	 * #number()} returns a sample number, otherwise it returns a frame number.
+	 *
+	 * @return {@code true} if the stream uses a variable block size, {@code
+	 *         false} otherwise
+	 */
+	public boolean variableBlockSize() {
+		return variableBlockSize;
+	}
+
+	/**
+	 * Returns the number of samples per channel in this frame.
+	 *
+	 * @return The block size of this frame
+	 */
+	public int blockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns the sample rate.
+	 *
+	 * @return The sample rate (in Hertz)
+	 */
+	public int sampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Returns the channel assignment, which is {@link #INDEPENDENT}, {@link
+	 * #LEFT_SIDE}, {@link #SIDE_RIGHT}, or {@link #MID_SIDE}.
+	 *
+	 * @return The channel assignment
+	 */
+	public int channelAssignment() {
+		return channelAssignment;
+	}
+
+	/**
+	 * Returns the number of channels.
+	 *
+	 * @return The number of channels
+	 */
+	public int channels() {
+		return channels;
+	}
+
+	/**
+	 * Returns the number of bits per sample.
+	 *
+	 * @return The number of bits per sample
+	 */
+	public int bitsPerSample() {
+		return bitsPerSample;
+	}
+
+	/**
+	 * Returns the frame number for fixed block size streams, or the number of
+	 * the first sample for variable block size streams.
+	 *
+	 * @return The frame or sample number
+	 */
+	public long number() {
+		return number;
+	}
+
+	/**
+	 * Returns the number of the first sample of this frame.
+	 *
+	 * @param fixedBlockSize
+	 * 		The block size of the stream, used for fixed block size streams
+	 * @return The number of the first sample of this frame
+	 */
+	public long sampleNumber(int fixedBlockSize) {
+		return variableBlockSize ? number : (number * fixedBlockSize);
+	}
+
+	/**
+	 * Returns the frame or sample number the next frame is expected to have.
+	 *
+	 * @return The number of the next frame
+	 */
+	public long nextNumber() {
+		return variableBlockSize ? (number + blockSize) : (number + 1);
+	}
+
+	/**
+	 * Returns the length of this header.
+	 *
+	 * @return The length of this header (in bytes)
+	 */
+	public int length() {
+		return length;
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns whether the given buffer contains a frame sync code at the given
+	 * offset.
+	 *
+	 * @param buffer
+	 * 		The buffer to check
+	 * @param offset
+	 * 		The offset to check at
+	 * @param length
+	 * 		The number of bytes available at the offset
+	 * @return {@code true} if a sync code was found, {@code false} otherwise
+	 */
+	public static boolean isSync(byte[] buffer, int offset, int length) {
+		return (length > 1) && ((buffer[offset] & 0xff) == 0xff) && ((buffer[offset + 1] & 0xfe) == 0xf8);
+	}
+
+	/**
+	 * Tries to parse a frame header at the given offset. The header is only
+	 * returned if its sync code, all its fields, and its CRC-8 are valid.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the header
+	 * @param offset
+	 * 		The offset of the header
+	 * @param length
+	 * 		The number of bytes available at the offset
+	 * @param streamInfo
+	 * 		The stream info, used for values the header refers to
+	 * @return The parsed frame header, or {@link Optional#absent()} if there is
+	 *         no valid frame header at the given offset
+	 */
+	public static Optional<FrameHeader> parse(byte[] buffer, int offset, int length, StreamInfo streamInfo) {
+		if (!isSync(buffer, offset, length) || (length < 6)) {
+			return Optional.absent();
+		}
+		boolean variableBlockSize = (buffer[offset + 1] & 0x01) != 0;
+		int blockSizeCode = (buffer[offset + 2] & 0xf0) >>> 4;
+		int sampleRateCode = buffer[offset + 2] & 0x0f;
+		int channelAssignment = (buffer[offset + 3] & 0xf0) >>> 4;
+		int sampleSizeCode = (buffer[offset + 3] & 0x0e) >>> 1;
+		if ((blockSizeCode == 0) || (sampleRateCode == 15) || (channelAssignment > MID_SIDE) || (sampleSizes[sampleSizeCode] == -1) || ((buffer[offset + 3] & 0x01) != 0)) {
+			return Optional.absent();
+		}
+
+		/* decode the UTF-8-like coded frame or sample number. */
+		int position = offset + 4;
+		int firstByte = buffer[position++] & 0xff;
+		int extraBytes = Integer.numberOfLeadingZeros(~(firstByte << 24));
+		if ((extraBytes == 1) || (extraBytes > 7) || (!variableBlockSize && (extraBytes > 6))) {
+			return Optional.absent();
+		}
+		extraBytes = Math.max(0, extraBytes - 1);
+		long number = firstByte & (0x7f >>> extraBytes);
+		int trailingBytes = ((blockSizeCode == 6) ? 1 : ((blockSizeCode == 7) ? 2 : 0)) + ((sampleRateCode == 12) ? 1 : ((sampleRateCode > 12) ? 2 : 0)) + 1;
+		if (position + extraBytes + trailingBytes > offset + length) {
+			return Optional.absent();
+		}
+		for (int extraByte = 0; extraByte < extraBytes; ++extraByte) {
+			int continuation = buffer[position++] & 0xff;
+			if ((continuation & 0xc0) != 0x80) {
+				return Optional.absent();
+			}
+			number = (number << 6) | (continuation & 0x3f);
+		}
+
+		/* block size. */
+		int blockSize;
+		if (blockSizeCode == 1) {
+			blockSize = 192;
+		} else if (blockSizeCode <= 5) {
+			blockSize = 576 << (blockSizeCode - 2);
+		} else if (blockSizeCode == 6) {
+			blockSize = (buffer[position++] & 0xff) + 1;
+		} else if (blockSizeCode == 7) {
+			blockSize = (((buffer[position] & 0xff) << 8) | (buffer[position + 1] & 0xff)) + 1;
+			position += 2;
+		} else {
+			blockSize = 256 << (blockSizeCode - 8);
+		}
+
+		/* sample rate. */
+		int sampleRate;
+		if (sampleRateCode == 0) {
+			sampleRate = streamInfo.sampleRate();
+		} else if (sampleRateCode < 12) {
+			sampleRate = sampleRates[sampleRateCode];
+		} else if (sampleRateCode == 12) {
+			sampleRate = (buffer[position++] & 0xff) * 1000;
+		} else {
+			sampleRate = ((buffer[position] & 0xff) << 8) | (buffer[position + 1] & 0xff);
+			position += 2;
+			if (sampleRateCode == 14) {
+				sampleRate *= 10;
+			}
+		}
+
+		/* verify the checksum. */
+		if (Crc.crc8(buffer, offset, position - offset) != (buffer[position] & 0xff)) {
+			return Optional.absent();
+		}
+
+		int bitsPerSample = (sampleSizeCode == 0) ? streamInfo.bitsPerSample() : sampleSizes[sampleSizeCode];
+		int channels = (channelAssignment < LEFT_SIDE) ? (channelAssignment + 1) : 2;
+		return Optional.of(new FrameHeader(variableBlockSize, blockSize, sampleRate, (channelAssignment < LEFT_SIDE) ? INDEPENDENT : channelAssignment, channels, bitsPerSample, number, position + 1 - offset));
+	}
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Sonitus - FrameScanner.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import com.google.common.base.Optional;
+
+/**
+ * Locates the boundaries of FLAC audio frames without decoding them. A frame
+ * start is recognized by its sync code, a header with a valid CRC-8, and a
+ * frame (or sample) number that continues the sequence of the previous frame;
+ * after a frame has been found the scanner skips the minimum frame size given
+ * in the {@link StreamInfo}.
+ * <p/>
+ * A scanner can also locate the frame containing a given sample in a file,
+ * starting at a nearby position, e.g. the offset of a {@link SeekTable} seek
+ * point.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FrameScanner {
+
+	/** The logger. */
+	private static final Logger logger = Logger.getLogger(FrameScanner.class.getName());
+
+	/** The stream info of the stream being scanned. */
+	private final StreamInfo streamInfo;
+
+	/** Buffer for a candidate frame header. */
+	private final byte[] headerBuffer = new byte[FrameHeader.MAXIMUM_LENGTH];
+
+	/** The header of the last frame that was found. */
+	private FrameHeader lastFrameHeader;
+
+	/**
+	 * Creates a new frame scanner.
+	 *
+	 * @param streamInfo
+	 * 		The stream info of the stream to scan
+	 */
+	public FrameScanner(StreamInfo streamInfo) {
+		this.streamInfo = streamInfo;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the header of the frame found by the last successful call to
+	 * {@link #findFrame(ByteBuffer, int, int, long)}.
+	 *
+	 * @return The header of the last found frame
+	 */
+	public FrameHeader lastFrameHeader() {
+		return lastFrameHeader;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Returns the offsets of all frames in the given buffer. The buffer has to
+	 * start with a frame; the frames end at the buffer’s limit.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the frames
+	 * @return The offsets of all frames, in ascending order
+	 */
+	public int[] scan(ByteBuffer buffer) {
+		int[] offsets = new int[1024];
+		int frames = 0;
+		int position = 0;
+		long expectedNumber = -1;
+		while (true) {
+			int offset = findFrame(buffer, position, buffer.limit(), expectedNumber);
+			if (offset == -1) {
+				break;
+			}
+			if ((frames > 0) && (streamInfo.maximumFrameSize() > 0) && ((offset - offsets[frames - 1]) > streamInfo.maximumFrameSize())) {
+				logger.warning(String.format("Frame at %d is larger than the maximum frame size.", offsets[frames - 1]));
+			}
+			if (frames == offsets.length) {
+				offsets = Arrays.copyOf(offsets, frames * 2);
+			}
+			offsets[frames++] = offset;
+			expectedNumber = lastFrameHeader.nextNumber();
+			position = offset + Math.max(streamInfo.minimumFrameSize(), lastFrameHeader.length() + 1);
+		}
+		return Arrays.copyOf(offsets, frames);
+	}
+
+	/**
+	 * Searches the next frame start in the given buffer.
+	 *
+	 * @param buffer
+	 * 		The buffer to search
+	 * @param position
+	 * 		The position at which to start searching
+	 * @param limit
+	 * 		The position at which to stop searching
+	 * @param expectedNumber
+	 * 		The frame or sample number the frame has to have, or {@code -1} to
+	 * 		accept any number
+	 * @return The offset of the next frame, or {@code -1} if no frame was found
+	 */
+	public int findFrame(ByteBuffer buffer, int position, int limit, long expectedNumber) {
+		for (int offset = position; offset < limit - 1; ++offset) {
+			if (((buffer.get(offset) & 0xff) != 0xff) || ((buffer.get(offset + 1) & 0xfe) != 0xf8)) {
+				continue;
+			}
+			int headerLength = Math.min(headerBuffer.length, limit - offset);
+			for (int index = 0; index < headerLength; ++index) {
+				headerBuffer[index] = buffer.get(offset + index);
+			}
+			Optional<FrameHeader> frameHeader = FrameHeader.parse(headerBuffer, 0, headerLength, streamInfo);
+			if (frameHeader.isPresent() && ((expectedNumber == -1) || (frameHeader.get().number() == expectedNumber))) {
+				lastFrameHeader = frameHeader.get();
+				return offset;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the offset of the frame that contains the given sample. The file
+	 * is scanned forward from the given offset, which has to be at or before
+	 * the start of that frame.
+	 *
+	 * @param channel
+	 * 		The channel of the FLAC file
+	 * @param offset
+	 * 		The offset at which to start scanning
+	 * @param samplePosition
+	 * 		The number of the sample to find
+	 * @return The offset of the frame in the file, or {@code -1} if the file
+	 *         ends before the given sample
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	public long findFrame(FileChannel channel, long offset, long samplePosition) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(65536 + FrameHeader.MAXIMUM_LENGTH);
+		long bufferOffset = offset;
+		boolean endOfFile = read(channel, buffer, bufferOffset);
+		int position = 0;
+		long expectedNumber = -1;
+		while (true) {
+			int frame = findFrame(buffer, position, buffer.limit(), expectedNumber);
+			if (frame == -1) {
+				if (endOfFile) {
+					return -1;
+				}
+				/* re-examine the last bytes, they could start a truncated header. */
+				bufferOffset += Math.max(position, buffer.limit() - FrameHeader.MAXIMUM_LENGTH);
+				endOfFile = read(channel, buffer, bufferOffset);
+				position = 0;
+				continue;
+			}
+			if ((lastFrameHeader.sampleNumber(streamInfo.maximumBlockSize()) + lastFrameHeader.blockSize()) > samplePosition) {
+				return bufferOffset + frame;
+			}
+			expectedNumber = lastFrameHeader.nextNumber();
+			position = frame + Math.max(streamInfo.minimumFrameSize(), lastFrameHeader.length() + 1);
+			if (position > buffer.limit()) {
+				bufferOffset += position;
+				endOfFile = read(channel, buffer, bufferOffset);
+				position = 0;
+			}
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Fills the given buffer with data from the given channel and flips it.
+	 *
+	 * @param channel
+	 * 		The channel to read from
+	 * @param buffer
+	 * 		The buffer to fill
+	 * @param offset
+	 * 		The offset to start reading at
+	 * @return {@code true} if the end of the file was reached, {@code false}
+	 *         otherwise
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static boolean read(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) == -1) {
+				buffer.flip();
+				return true;
+			}
+		}
+		buffer.flip();
+		return false;
+	}
+
+}
@@ -0,0 +1,324 @@
+/*
+ * Sonitus - ParallelDecoder.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static net.pterodactylus.sonitus.io.flac.BlockType.STREAMINFO;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import net.pterodactylus.sonitus.io.PcmSamples;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Decodes complete FLAC files using multiple threads. The file is memory-mapped
+ * and {@link FrameScanner scanned} for frame boundaries first, then ranges of
+ * frames are decoded in parallel on the given {@link ExecutorService}, and the
+ * decoded ranges are written in order as interleaved, little-endian PCM with
+ * the bits per sample of the stream (see {@link FrameDecoder#writePcm(byte[],
+ * int)}), so that 24-bit files are not truncated.
+ * <p/>
+ * Files are mapped in windows of at most {@link #windowSize(int) 1 GiB}, so
+ * files larger than the 2 GiB a single mapping can cover can be decoded, too.
+ * <p/>
+ * This is meant for offline jobs such as library analysis or bulk transcoding
+ * where a whole file is available up front; for streaming use the normal
+ * decoders.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ParallelDecoder {
+
+	/** The logger. */
+	private static final Logger logger = Logger.getLogger(ParallelDecoder.class.getName());
+
+	/** The executor service to decode on. */
+	private final ExecutorService executorService;
+
+	/** The number of threads of the executor service. */
+	private final int parallelism;
+
+	/** The default size of a mapped window of the file. */
+	private static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+	/** The number of frames decoded by a single task. */
+	private int framesPerTask = 32;
+
+	/** The maximum size of a mapped window of the file. */
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+
+	/**
+	 * Creates a new parallel decoder.
+	 *
+	 * @param executorService
+	 * 		The executor service to decode on
+	 * @param parallelism
+	 * 		The number of threads of the executor service
+	 */
+	public ParallelDecoder(ExecutorService executorService, int parallelism) {
+		checkArgument(parallelism > 0, "parallelism must be positive");
+		this.executorService = checkNotNull(executorService, "executorService must not be null");
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Sets the number of frames that are decoded by a single task.
+	 *
+	 * @param framesPerTask
+	 * 		The number of frames per task
+	 * @return This parallel decoder
+	 */
+	public ParallelDecoder framesPerTask(int framesPerTask) {
+		checkArgument(framesPerTask > 0, "framesPerTask must be positive");
+		this.framesPerTask = framesPerTask;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum size of the windows the file is mapped in. A window has
+	 * to be able to hold at least two frames.
+	 *
+	 * @param windowSize
+	 * 		The maximum size of a window (in bytes)
+	 * @return This parallel decoder
+	 */
+	public ParallelDecoder windowSize(int windowSize) {
+		checkArgument(windowSize > 0, "windowSize must be positive");
+		this.windowSize = windowSize;
+		return this;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Decodes the given FLAC file to the given output stream.
+	 *
+	 * @param file
+	 * 		The FLAC file to decode
+	 * @param outputStream
+	 * 		The output stream to write the decoded PCM samples to
+	 * @return The number of decoded samples (per channel)
+	 * @throws IOException
+	 * 		if the file can not be read or decoded, a window can not hold two
+	 * 		frames, or the output stream can not be written to
+	 */
+	public long decode(File file, OutputStream outputStream) throws IOException {
+		FileInputStream fileInputStream = new FileInputStream(file);
+		try {
+			CountingInputStream countingInputStream = new CountingInputStream(new BufferedInputStream(fileInputStream));
+			Optional<Stream> stream = Stream.parse(countingInputStream, EnumSet.of(STREAMINFO));
+			if (!stream.isPresent()) {
+				throw new IOException(String.format("%s is not a FLAC file.", file));
+			}
+			List<MetadataBlock> streamInfos = stream.get().metadataBlocks(STREAMINFO);
+			if (streamInfos.isEmpty()) {
+				throw new IOException(String.format("%s does not contain a STREAMINFO block.", file));
+			}
+			StreamInfo streamInfo = (StreamInfo) streamInfos.get(0).data();
+
+			FileChannel fileChannel = fileInputStream.getChannel();
+			FrameScanner frameScanner = new FrameScanner(streamInfo);
+			long fileSize = fileChannel.size();
+			long windowOffset = countingInputStream.getCount();
+			long bytes = 0;
+			while (windowOffset < fileSize) {
+				long windowLength = Math.min(windowSize, fileSize - windowOffset);
+				ByteBuffer audio = fileChannel.map(MapMode.READ_ONLY, windowOffset, windowLength);
+				long scanStartTime = System.currentTimeMillis();
+				int[] frameOffsets = frameScanner.scan(audio);
+				logger.fine(String.format("Found %d frames in %d ms.", frameOffsets.length, System.currentTimeMillis() - scanStartTime));
+				if ((windowOffset + windowLength) < fileSize) {
+					/* the last frame may be truncated, the next window starts with it. */
+					if (frameOffsets.length < 2) {
+						throw new IOException(String.format("No complete frame in %d bytes at %d of %s.", windowLength, windowOffset, file));
+					}
+					int nextWindow = frameOffsets[frameOffsets.length - 1];
+					frameOffsets = Arrays.copyOf(frameOffsets, frameOffsets.length - 1);
+					audio.limit(nextWindow);
+					windowOffset += nextWindow;
+				} else {
+					windowOffset = fileSize;
+				}
+				bytes += decode(audio, frameOffsets, streamInfo, outputStream);
+			}
+			return bytes / (streamInfo.numberOfChannels() * PcmSamples.sampleSize(streamInfo.bitsPerSample()));
+		} finally {
+			Closeables.close(fileInputStream, true);
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Decodes the given frames in parallel, writing them in order.
+	 *
+	 * @param audio
+	 * 		The buffer containing the frames
+	 * @param frameOffsets
+	 * 		The offsets of all frames
+	 * @param streamInfo
+	 * 		The stream info of the stream
+	 * @param outputStream
+	 * 		The output stream to write the decoded PCM samples to
+	 * @return The number of written bytes
+	 * @throws IOException
+	 * 		if a frame can not be decoded, or the output stream can not be written
+	 * 		to
+	 */
+	private long decode(ByteBuffer audio, int[] frameOffsets, StreamInfo streamInfo, OutputStream outputStream) throws IOException {
+		LinkedList<Future<byte[]>> pendingTasks = Lists.newLinkedList();
+		long bytes = 0;
+		try {
+			for (int firstFrame = 0; firstFrame < frameOffsets.length; firstFrame += framesPerTask) {
+				int lastFrame = Math.min(firstFrame + framesPerTask, frameOffsets.length);
+				int end = (lastFrame < frameOffsets.length) ? frameOffsets[lastFrame] : audio.limit();
+				pendingTasks.add(executorService.submit(new DecodeTask(audio, frameOffsets[firstFrame], end, lastFrame - firstFrame, streamInfo)));
+				if (pendingTasks.size() >= (parallelism * 2)) {
+					bytes += write(pendingTasks.removeFirst(), outputStream);
+				}
+			}
+			while (!pendingTasks.isEmpty()) {
+				bytes += write(pendingTasks.removeFirst(), outputStream);
+			}
+		} finally {
+			for (Future<byte[]> pendingTask : pendingTasks) {
+				pendingTask.cancel(true);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Waits for the given task to finish and writes its result.
+	 *
+	 * @param task
+	 * 		The task to wait for
+	 * @param outputStream
+	 * 		The output stream to write the decoded PCM samples to
+	 * @return The number of written bytes
+	 * @throws IOException
+	 * 		if the task failed, or the output stream can not be written to
+	 */
+	private static int write(Future<byte[]> task, OutputStream outputStream) throws IOException {
+		try {
+			byte[] pcm = task.get();
+			outputStream.write(pcm);
+			return pcm.length;
+		} catch (InterruptedException ie1) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while decoding.");
+		} catch (ExecutionException ee1) {
+			if (ee1.getCause() instanceof IOException) {
+				throw (IOException) ee1.getCause();
+			}
+			throw new IOException(ee1.getCause());
+		}
+	}
+
+	/**
+	 * Task that decodes a range of consecutive frames.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class DecodeTask implements Callable<byte[]> {
+
+		/** The buffer containing the frames. */
+		private final ByteBuffer audio;
+
+		/** The offset of the first frame. */
+		private final int start;
+
+		/** The end of the last frame. */
+		private final int end;
+
+		/** The number of frames to decode. */
+		private final int frames;
+
+		/** The stream info of the stream. */
+		private final StreamInfo streamInfo;
+
+		/**
+		 * Creates a new decode task.
+		 *
+		 * @param audio
+		 * 		The buffer containing the frames
+		 * @param start
+		 * 		The offset of the first frame
+		 * @param end
+		 * 		The end of the last frame
+		 * @param frames
+		 * 		The number of frames to decode
+		 * @param streamInfo
+		 * 		The stream info of the stream
+		 */
+		private DecodeTask(ByteBuffer audio, int start, int end, int frames, StreamInfo streamInfo) {
+			this.audio = audio;
+			this.start = start;
+			this.end = end;
+			this.frames = frames;
+			this.streamInfo = streamInfo;
+		}
+
+		@Override
+		public byte[] call() throws IOException {
+			byte[] encoded = new byte[end - start];
+			ByteBuffer range = audio.duplicate();
+			range.position(start);
+			range.get(encoded);
+
+			FrameDecoder frameDecoder = new FrameDecoder(streamInfo);
+			byte[] pcm = new byte[frames * streamInfo.maximumBlockSize() * streamInfo.numberOfChannels() * PcmSamples.sampleSize(streamInfo.bitsPerSample())];
+			int position = 0;
+			int pcmLength = 0;
+			for (int frame = 0; frame < frames; ++frame) {
+				frameDecoder.decode(encoded, position, encoded.length - position);
+				position += frameDecoder.length();
+				pcmLength += frameDecoder.writePcm(pcm, pcmLength);
+			}
+			return Arrays.copyOf(pcm, pcmLength);
+		}
+
+	}
+
+}
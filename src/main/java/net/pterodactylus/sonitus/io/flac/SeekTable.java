@@ -0,0 +1,140 @@
+/*
+ * Sonitus - SeekTable.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import java.util.Arrays;
+
+/**
+ * Parser for a {@link BlockType#SEEKTABLE} metadata block. The seek points are
+ * parsed once; placeholder points are dropped.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SeekTable extends Data {
+
+	/** The length of a single seek point (in bytes). */
+	private static final int SEEK_POINT_LENGTH = 18;
+
+	/** The sample number of a placeholder point. */
+	private static final long PLACEHOLDER = 0xffffffffffffffffL;
+
+	/** The sample numbers of the seek points, in ascending order. */
+	private final long[] sampleNumbers;
+
+	/** The offsets of the seek points. */
+	private final long[] offsets;
+
+	/** The number of samples in the target frames of the seek points. */
+	private final int[] frameSamples;
+
+	/**
+	 * Creates a new SEEKTABLE block from the given buffer.
+	 *
+	 * @param content
+	 * 		The contents of the metadata block
+	 */
+	public SeekTable(byte[] content) {
+		super(content);
+		int count = content.length / SEEK_POINT_LENGTH;
+		long[] sampleNumbers = new long[count];
+		long[] offsets = new long[count];
+		int[] frameSamples = new int[count];
+		int seekPoints = 0;
+		for (int seekPoint = 0; seekPoint < count; ++seekPoint) {
+			int offset = seekPoint * SEEK_POINT_LENGTH;
+			long sampleNumber = parseBits(offset, 0, 64);
+			if (sampleNumber == PLACEHOLDER) {
+				continue;
+			}
+			sampleNumbers[seekPoints] = sampleNumber;
+			offsets[seekPoints] = parseBits(offset + 8, 0, 64);
+			frameSamples[seekPoints] = (int) parseBits(offset + 16, 0, 16);
+			++seekPoints;
+		}
+		this.sampleNumbers = Arrays.copyOf(sampleNumbers, seekPoints);
+		this.offsets = Arrays.copyOf(offsets, seekPoints);
+		this.frameSamples = Arrays.copyOf(frameSamples, seekPoints);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of seek points, not counting placeholder points.
+	 *
+	 * @return The number of seek points
+	 */
+	public int size() {
+		return sampleNumbers.length;
+	}
+
+	/**
+	 * Returns the number of the first sample in the target frame of the given
+	 * seek point.
+	 *
+	 * @param seekPoint
+	 * 		The index of the seek point
+	 * @return The sample number of the seek point
+	 */
+	public long sampleNumber(int seekPoint) {
+		return sampleNumbers[seekPoint];
+	}
+
+	/**
+	 * Returns the offset of the target frame of the given seek point, relative
+	 * to the first frame of the stream.
+	 *
+	 * @param seekPoint
+	 * 		The index of the seek point
+	 * @return The offset of the seek point (in bytes)
+	 */
+	public long offset(int seekPoint) {
+		return offsets[seekPoint];
+	}
+
+	/**
+	 * Returns the number of samples in the target frame of the given seek
+	 * point.
+	 *
+	 * @param seekPoint
+	 * 		The index of the seek point
+	 * @return The number of samples in the target frame
+	 */
+	public int frameSamples(int seekPoint) {
+		return frameSamples[seekPoint];
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Returns the last seek point at or before the given sample.
+	 *
+	 * @param samplePosition
+	 * 		The number of the sample to seek to
+	 * @return The index of the seek point, or {@code -1} if all seek points are
+	 *         after the given sample
+	 */
+	public int find(long samplePosition) {
+		int seekPoint = Arrays.binarySearch(sampleNumbers, samplePosition);
+		return (seekPoint >= 0) ? seekPoint : (-seekPoint - 2);
+	}
+
+}
@@ -19,10 +19,13 @@ package net.pterodactylus.sonitus.io.flac;
 
 import static com.google.common.io.ByteStreams.readFully;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
@@ -30,7 +33,12 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Lists;
 
 /**
- * Parser and container for information about a FLAC stream.
+ * Parser and container for information about a FLAC stream. Only the
+ * metadata blocks of the requested {@link BlockType}s are parsed; all other
+ * blocks are skipped by their length and are not kept. If the input stream
+ * supports {@link InputStream#skip(long) skipping} (e.g. a {@link
+ * java.io.FileInputStream}), skipped blocks such as embedded pictures are not
+ * read at all; otherwise they are read and discarded.
  * <p/>
  * Information taken from <a href="http://flac.sourceforge.net/format.html">http://flac.sourceforge.net/format.html</a>.
  *
@@ -89,6 +97,27 @@ public class Stream {
 	 * 		if an I/O error occurs
 	 */
 	public static Optional<Stream> parse(InputStream inputStream) throws IOException {
+		return parse(inputStream, EnumSet.allOf(BlockType.class));
+	}
+
+	/**
+	 * Parses the given input stream and returns information about the stream if it
+	 * can be successfully parsed as a FLAC stream. Only metadata blocks of the
+	 * given types are parsed and contained in the returned stream; all other
+	 * metadata blocks are skipped, which only avoids reading them if the input
+	 * stream supports {@link InputStream#skip(long) skipping}. After this method
+	 * returns, the input stream is positioned at the first audio frame.
+	 *
+	 * @param inputStream
+	 * 		The input stream containing the FLAC stream
+	 * @param blockTypes
+	 * 		The types of the metadata blocks to parse
+	 * @return The parsed FLAC stream, or {@link Optional#absent()} if no FLAC
+	 *         stream could be found at the stream’s current position
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	public static Optional<Stream> parse(InputStream inputStream, Set<BlockType> blockTypes) throws IOException {
 		byte[] streamTag = new byte[4];
 		readFully(inputStream, streamTag);
 		if (!Arrays.equals(streamTag, new byte[] { 'f', 'L', 'a', 'C' })) {
@@ -96,13 +125,52 @@ public class Stream {
 		}
 		List<MetadataBlock> metadataBlocks = Lists.newArrayList();
 		while (true) {
-			MetadataBlock metadataBlock = MetadataBlock.parse(inputStream);
-			metadataBlocks.add(metadataBlock);
-			if (metadataBlock.header().isLastMetadataBlock()) {
+			Header header = Header.parse(inputStream);
+			if (blockTypes.contains(header.blockType())) {
+				metadataBlocks.add(new MetadataBlock(header, Data.parse(inputStream, header.blockType(), header.length())));
+			} else {
+				skip(inputStream, header.length());
+			}
+			if (header.isLastMetadataBlock()) {
 				break;
 			}
 		}
 		return Optional.of(new Stream(metadataBlocks));
 	}
 
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Skips the given number of bytes. If the input stream does not support
+	 * skipping, the bytes are read and discarded.
+	 *
+	 * @param inputStream
+	 * 		The input stream to skip bytes in
+	 * @param length
+	 * 		The number of bytes to skip
+	 * @throws IOException
+	 * 		if an I/O error occurs, or EOF is reached
+	 */
+	private static void skip(InputStream inputStream, long length) throws IOException {
+		long remaining = length;
+		byte[] buffer = null;
+		while (remaining > 0) {
+			long skipped = inputStream.skip(remaining);
+			if (skipped > 0) {
+				remaining -= skipped;
+				continue;
+			}
+			if (buffer == null) {
+				buffer = new byte[(int) Math.min(8192, remaining)];
+			}
+			int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (read == -1) {
+				throw new EOFException();
+			}
+			remaining -= read;
+		}
+	}
+
 }
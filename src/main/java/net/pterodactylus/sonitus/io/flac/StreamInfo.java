@@ -17,6 +17,8 @@
 
 package net.pterodactylus.sonitus.io.flac;
 
+import java.util.Arrays;
+
 /**
  * Parser for a {@link BlockType#STREAMINFO} metadata block.
  *
@@ -110,4 +112,13 @@ public class StreamInfo extends Data {
 		return parseBits(13, 4, 36);
 	}
 
+	/**
+	 * Returns the MD5 signature of the unencoded audio data.
+	 *
+	 * @return The MD5 signature of the audio data
+	 */
+	public byte[] md5Signature() {
+		return Arrays.copyOfRange(content(), 18, 34);
+	}
+
 }
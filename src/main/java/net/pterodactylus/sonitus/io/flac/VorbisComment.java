@@ -0,0 +1,163 @@
+/*
+ * Sonitus - VorbisComment.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import java.util.List;
+import java.util.Locale;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+
+/**
+ * Parser for a {@link BlockType#VORBIS_COMMENT} metadata block. The comments
+ * are parsed once; field names are converted to upper case because they are
+ * case-insensitive. Parsing stops at the first comment that exceeds the
+ * block.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class VorbisComment extends Data {
+
+	/** The vendor string. */
+	private final String vendor;
+
+	/** The comments, by upper-case field name. */
+	private final ListMultimap<String, String> comments;
+
+	/**
+	 * Creates a new VORBIS_COMMENT block from the given buffer.
+	 *
+	 * @param content
+	 * 		The contents of the metadata block
+	 */
+	public VorbisComment(byte[] content) {
+		super(content);
+		ListMultimap<String, String> comments = ArrayListMultimap.create();
+		int vendorLength = (content.length >= 8) ? readInt(content, 0) : -1;
+		if ((vendorLength < 0) || ((4 + vendorLength + 4) > content.length)) {
+			vendor = "";
+			this.comments = ImmutableListMultimap.of();
+			return;
+		}
+		vendor = new String(content, 4, vendorLength, Charsets.UTF_8);
+		int position = 4 + vendorLength;
+		int count = readInt(content, position);
+		position += 4;
+		for (int comment = 0; (comment < count) && ((position + 4) <= content.length); ++comment) {
+			int length = readInt(content, position);
+			position += 4;
+			if ((length < 0) || (length > (content.length - position))) {
+				break;
+			}
+			String field = new String(content, position, length, Charsets.UTF_8);
+			position += length;
+			int separator = field.indexOf('=');
+			if (separator > 0) {
+				comments.put(field.substring(0, separator).toUpperCase(Locale.ENGLISH), field.substring(separator + 1));
+			}
+		}
+		this.comments = ImmutableListMultimap.copyOf(comments);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the vendor string, i.e. the name of the encoder.
+	 *
+	 * @return The vendor string
+	 */
+	public String vendor() {
+		return vendor;
+	}
+
+	/**
+	 * Returns all comments, by upper-case field name.
+	 *
+	 * @return All comments
+	 */
+	public ListMultimap<String, String> comments() {
+		return comments;
+	}
+
+	/**
+	 * Returns all values of the given field.
+	 *
+	 * @param fieldName
+	 * 		The name of the field (case-insensitive)
+	 * @return The values of the field, in order of appearance
+	 */
+	public List<String> values(String fieldName) {
+		return comments.get(fieldName.toUpperCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * Returns the first value of the given field.
+	 *
+	 * @param fieldName
+	 * 		The name of the field (case-insensitive)
+	 * @return The first value of the field, or {@link Optional#absent()} if the
+	 *         field is not present
+	 */
+	public Optional<String> value(String fieldName) {
+		List<String> values = values(fieldName);
+		return values.isEmpty() ? Optional.<String>absent() : Optional.of(values.get(0));
+	}
+
+	/**
+	 * Returns the artist.
+	 *
+	 * @return The artist, or {@link Optional#absent()} if the ARTIST field is
+	 *         not present
+	 */
+	public Optional<String> artist() {
+		return value("ARTIST");
+	}
+
+	/**
+	 * Returns the title.
+	 *
+	 * @return The title, or {@link Optional#absent()} if the TITLE field is not
+	 *         present
+	 */
+	public Optional<String> title() {
+		return value("TITLE");
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Reads a little-endian 32-bit integer from the given buffer.
+	 *
+	 * @param buffer
+	 * 		The buffer
+	 * @param offset
+	 * 		The offset of the integer
+	 * @return The integer
+	 */
+	private static int readInt(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) | ((buffer[offset + 2] & 0xff) << 16) | ((buffer[offset + 3] & 0xff) << 24);
+	}
+
+}
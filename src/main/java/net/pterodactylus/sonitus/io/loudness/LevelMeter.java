@@ -0,0 +1,248 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * Real-time level meter for interleaved 16-bit signed little-endian PCM
+ * samples. It measures the momentary (400 ms) and short-term (3 s) loudness
+ * according to EBU R128, and the RMS level and the sample peak of every
+ * channel over the last 400 ms.
+ * <p/>
+ * The samples are only accumulated while they are {@link #process(byte[],
+ * int, int) processed}; the levels are calculated once every 100 ms and
+ * published as an immutable {@link Levels} snapshot in a volatile field, so
+ * {@link #levels()} may be called from any thread at any rate without
+ * interfering with the thread that processes the samples. Contrary to {@link
+ * LoudnessMeter} this meter neither measures the true peak nor keeps the
+ * history of the whole stream, which keeps it cheap enough to be left running
+ * all the time.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class LevelMeter {
+
+	/** The number of 100 ms steps of the momentary loudness. */
+	private static final int MOMENTARY_STEPS = 4;
+
+	/** The number of 100 ms steps of the short-term loudness. */
+	private static final int SHORT_TERM_STEPS = 30;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** The weight of every channel. */
+	private final double[] weights;
+
+	/** The number of frames in a 100 ms step. */
+	private final int stepFrames;
+
+	/** The coefficients of the K-weighting filter. */
+	private final double[] filter;
+
+	/** The state of the K-weighting filter, four values per channel. */
+	private final double[] filterState;
+
+	/** The sum of the weighted squares of the current step. */
+	private double stepSum;
+
+	/** The sums of the unweighted squares of every channel of the current step. */
+	private final double[] stepSquares;
+
+	/** The peaks of every channel of the current step. */
+	private final int[] stepPeaks;
+
+	/** The number of frames in the current step. */
+	private int stepFrameCount;
+
+	/** The weighted mean squares of the last 30 steps. */
+	private final double[] stepPowers = new double[SHORT_TERM_STEPS];
+
+	/** The sums of the squares of every channel of the last four steps. */
+	private final double[] recentSquares;
+
+	/** The peaks of every channel of the last four steps. */
+	private final int[] recentPeaks;
+
+	/** The number of finished steps. */
+	private long steps;
+
+	/** The index of the channel of the next sample. */
+	private int channel;
+
+	/** The low byte of an incomplete sample, or {@code -1}. */
+	private int lowByte = -1;
+
+	/** The last published levels. */
+	private volatile Levels levels;
+
+	/**
+	 * Creates a new level meter.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param channels
+	 * 		The number of channels
+	 */
+	public LevelMeter(int frequency, int channels) {
+		checkArgument(frequency > 0, "frequency must be positive");
+		checkArgument(channels > 0, "channels must be positive");
+		this.channels = channels;
+		weights = LoudnessMeter.channelWeights(channels);
+		stepFrames = Math.max(1, frequency / 10);
+		filter = LoudnessMeter.kWeighting(frequency);
+		filterState = new double[channels * 4];
+		stepSquares = new double[channels];
+		stepPeaks = new int[channels];
+		recentSquares = new double[channels * MOMENTARY_STEPS];
+		recentPeaks = new int[channels * MOMENTARY_STEPS];
+		double[] silence = new double[channels];
+		Arrays.fill(silence, Double.NEGATIVE_INFINITY);
+		levels = new Levels(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, silence, silence);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the levels that were calculated last. This method may be called
+	 * from any thread.
+	 *
+	 * @return The current levels
+	 */
+	public Levels levels() {
+		return levels;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Processes the given samples. Samples and frames may be split across
+	 * invocations.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the samples
+	 * @param offset
+	 * 		The offset of the first byte to process
+	 * @param length
+	 * 		The number of bytes to process
+	 */
+	public void process(byte[] buffer, int offset, int length) {
+		int index = offset;
+		int end = offset + length;
+		if ((lowByte != -1) && (index < end)) {
+			processSample((buffer[index++] << 8) | lowByte);
+			lowByte = -1;
+		}
+		for (; index < (end - 1); index += 2) {
+			processSample((buffer[index + 1] << 8) | (buffer[index] & 0xff));
+		}
+		if (index < end) {
+			lowByte = buffer[index] & 0xff;
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Processes a single sample of the current channel.
+	 *
+	 * @param sample
+	 * 		The sample
+	 */
+	private void processSample(int sample) {
+		double value = sample / 32768.0;
+		stepSquares[channel] += value * value;
+		int magnitude = (sample < 0) ? -sample : sample;
+		if (magnitude > stepPeaks[channel]) {
+			stepPeaks[channel] = magnitude;
+		}
+
+		/* k-weighting, two biquads in transposed direct form II. */
+		int stateOffset = channel * 4;
+		double shelved = filter[0] * value + filterState[stateOffset];
+		filterState[stateOffset] = filter[1] * value - filter[3] * shelved + filterState[stateOffset + 1];
+		filterState[stateOffset + 1] = filter[2] * value - filter[4] * shelved;
+		double weighted = filter[5] * shelved + filterState[stateOffset + 2];
+		filterState[stateOffset + 2] = filter[6] * shelved - filter[8] * weighted + filterState[stateOffset + 3];
+		filterState[stateOffset + 3] = filter[7] * shelved - filter[9] * weighted;
+		stepSum += weights[channel] * weighted * weighted;
+
+		if (++channel == channels) {
+			channel = 0;
+			if (++stepFrameCount == stepFrames) {
+				finishStep();
+			}
+		}
+	}
+
+	/** Finishes the current 100 ms step and publishes new levels. */
+	private void finishStep() {
+		stepPowers[(int) (steps % SHORT_TERM_STEPS)] = stepSum / stepFrames;
+		int recentOffset = (int) (steps % MOMENTARY_STEPS) * channels;
+		System.arraycopy(stepSquares, 0, recentSquares, recentOffset, channels);
+		System.arraycopy(stepPeaks, 0, recentPeaks, recentOffset, channels);
+		steps++;
+		stepSum = 0;
+		Arrays.fill(stepSquares, 0);
+		Arrays.fill(stepPeaks, 0);
+		stepFrameCount = 0;
+
+		double[] rms = new double[channels];
+		double[] peaks = new double[channels];
+		int momentarySteps = (int) Math.min(steps, MOMENTARY_STEPS);
+		for (int index = 0; index < channels; ++index) {
+			double squares = 0;
+			int peak = 0;
+			for (int step = 0; step < momentarySteps; ++step) {
+				squares += recentSquares[step * channels + index];
+				peak = Math.max(peak, recentPeaks[step * channels + index]);
+			}
+			rms[index] = 10 * Math.log10(squares / (momentarySteps * stepFrames));
+			peaks[index] = 20 * Math.log10(peak / 32768.0);
+		}
+		levels = new Levels(loudness(MOMENTARY_STEPS), loudness(SHORT_TERM_STEPS), rms, peaks);
+	}
+
+	/**
+	 * Returns the loudness of the given number of most recent steps. If fewer
+	 * steps have been finished, the loudness of all finished steps is
+	 * returned.
+	 *
+	 * @param count
+	 * 		The number of steps
+	 * @return The loudness (in LUFS)
+	 */
+	private double loudness(int count) {
+		int available = (int) Math.min(steps, count);
+		double sum = 0;
+		for (int step = 1; step <= available; ++step) {
+			sum += stepPowers[(int) ((steps - step) % SHORT_TERM_STEPS)];
+		}
+		return LoudnessMeter.loudness(sum / available);
+	}
+
+}
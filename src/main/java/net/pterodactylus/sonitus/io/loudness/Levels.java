@@ -0,0 +1,129 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the levels measured by a {@link LevelMeter}. Because
+ * a snapshot never changes after it has been created it can be handed from
+ * the audio thread to any number of readers without locking.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Levels {
+
+	/** The momentary loudness (in LUFS). */
+	private final double momentaryLoudness;
+
+	/** The short-term loudness (in LUFS). */
+	private final double shortTermLoudness;
+
+	/** The RMS level of every channel (in dBFS). */
+	private final double[] rms;
+
+	/** The sample peak of every channel (in dBFS). */
+	private final double[] peaks;
+
+	/**
+	 * Creates new levels. The given arrays are not copied and must not be
+	 * modified afterwards.
+	 *
+	 * @param momentaryLoudness
+	 * 		The momentary loudness (in LUFS)
+	 * @param shortTermLoudness
+	 * 		The short-term loudness (in LUFS)
+	 * @param rms
+	 * 		The RMS level of every channel (in dBFS)
+	 * @param peaks
+	 * 		The sample peak of every channel (in dBFS)
+	 */
+	Levels(double momentaryLoudness, double shortTermLoudness, double[] rms, double[] peaks) {
+		this.momentaryLoudness = momentaryLoudness;
+		this.shortTermLoudness = shortTermLoudness;
+		this.rms = rms;
+		this.peaks = peaks;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of channels.
+	 *
+	 * @return The number of channels
+	 */
+	public int channels() {
+		return rms.length;
+	}
+
+	/**
+	 * Returns the momentary loudness, i.e. the loudness of the last 400 ms.
+	 *
+	 * @return The momentary loudness (in LUFS), or {@link
+	 *         Double#NEGATIVE_INFINITY} for silence
+	 */
+	public double momentaryLoudness() {
+		return momentaryLoudness;
+	}
+
+	/**
+	 * Returns the short-term loudness, i.e. the loudness of the last 3 s.
+	 *
+	 * @return The short-term loudness (in LUFS), or {@link
+	 *         Double#NEGATIVE_INFINITY} for silence
+	 */
+	public double shortTermLoudness() {
+		return shortTermLoudness;
+	}
+
+	/**
+	 * Returns the RMS level of the given channel over the last 400 ms.
+	 *
+	 * @param channel
+	 * 		The index of the channel
+	 * @return The RMS level (in dBFS), or {@link Double#NEGATIVE_INFINITY} for
+	 *         silence
+	 */
+	public double rms(int channel) {
+		return rms[channel];
+	}
+
+	/**
+	 * Returns the sample peak of the given channel over the last 400 ms.
+	 *
+	 * @param channel
+	 * 		The index of the channel
+	 * @return The sample peak (in dBFS), or {@link Double#NEGATIVE_INFINITY}
+	 *         for silence
+	 */
+	public double peak(int channel) {
+		return peaks[channel];
+	}
+
+	//
+	// OBJECT METHODS
+	//
+
+	@Override
+	public String toString() {
+		return String.format("M: %.1f LUFS, S: %.1f LUFS, RMS: %s dBFS, Peak: %s dBFS", momentaryLoudness, shortTermLoudness, Arrays.toString(rms), Arrays.toString(peaks));
+	}
+
+}
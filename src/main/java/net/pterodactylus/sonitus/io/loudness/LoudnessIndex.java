@@ -0,0 +1,322 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Closeables;
+
+/**
+ * Persistent index of the loudness of audio files. Every file is stored with
+ * its size and its modification time so that changed files can be detected;
+ * the gain that normalizes a file is calculated from its integrated loudness
+ * and its true peak when it is requested.
+ * <p/>
+ * The index is stored as a compact binary file: a magic number and a version,
+ * followed by the number of entries and every entry as path, size,
+ * modification time, loudness and true peak.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ * @see LoudnessScanner
+ */
+public class LoudnessIndex {
+
+	/** The logger. */
+	private static final Logger logger = Logger.getLogger(LoudnessIndex.class.getName());
+
+	/** The magic number of an index file. */
+	private static final int MAGIC = 0x534c4958;
+
+	/** The version of the index file format. */
+	private static final int VERSION = 1;
+
+	/** The file the index is stored in. */
+	private final File indexFile;
+
+	/** The analyses, by path. */
+	private final Map<String, Analysis> analyses = new ConcurrentHashMap<String, Analysis>();
+
+	/** The loudness to normalize to (in LUFS). */
+	private double targetLoudness = -23;
+
+	/** The maximum true peak after normalization (in dBTP). */
+	private double maximumTruePeak = -1;
+
+	/**
+	 * Creates a new loudness index that is stored in the given file. If the
+	 * file exists, the index is loaded from it.
+	 *
+	 * @param indexFile
+	 * 		The file the index is stored in
+	 * @throws IOException
+	 * 		if the index file exists but can not be read
+	 */
+	public LoudnessIndex(File indexFile) throws IOException {
+		this.indexFile = checkNotNull(indexFile, "indexFile must not be null");
+		if (indexFile.exists()) {
+			load();
+		}
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Sets the loudness files are normalized to.
+	 *
+	 * @param targetLoudness
+	 * 		The target loudness (in LUFS)
+	 * @return This loudness index
+	 */
+	public LoudnessIndex targetLoudness(double targetLoudness) {
+		this.targetLoudness = targetLoudness;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum true peak of normalized files. Files whose true peak
+	 * would exceed this are normalized to a lower loudness.
+	 *
+	 * @param maximumTruePeak
+	 * 		The maximum true peak (in dBTP)
+	 * @return This loudness index
+	 */
+	public LoudnessIndex maximumTruePeak(double maximumTruePeak) {
+		this.maximumTruePeak = maximumTruePeak;
+		return this;
+	}
+
+	/**
+	 * Returns the number of files in this index.
+	 *
+	 * @return The number of files
+	 */
+	public int size() {
+		return analyses.size();
+	}
+
+	/**
+	 * Returns the paths of all files in this index.
+	 *
+	 * @return The paths of all files
+	 */
+	public Set<String> paths() {
+		return ImmutableSet.copyOf(analyses.keySet());
+	}
+
+	/**
+	 * Returns whether this index contains an analysis of the current version of
+	 * the given file, i.e. an analysis with the size and the modification time
+	 * of the file.
+	 *
+	 * @param file
+	 * 		The file to check
+	 * @return {@code true} if the index contains a current analysis of the
+	 *         file, {@code false} otherwise
+	 */
+	public boolean contains(File file) {
+		return analysis(file) != null;
+	}
+
+	/**
+	 * Returns the gain that normalizes the given file.
+	 *
+	 * @param file
+	 * 		The file to get the gain for
+	 * @return The gain (in dB), or {@link Optional#absent()} if the file has
+	 *         not been analyzed, has changed since it was analyzed, could not be
+	 *         decoded, or is silent
+	 */
+	public Optional<Double> gain(File file) {
+		Analysis analysis = analysis(file);
+		if ((analysis == null) || Float.isNaN(analysis.loudness) || Float.isInfinite(analysis.loudness)) {
+			return Optional.absent();
+		}
+		return Optional.of(Math.min(targetLoudness - analysis.loudness, maximumTruePeak - analysis.truePeak));
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Stores the analysis of the given file.
+	 *
+	 * @param file
+	 * 		The analyzed file
+	 * @param size
+	 * 		The size of the file when it was analyzed
+	 * @param lastModified
+	 * 		The modification time of the file when it was analyzed
+	 * @param loudness
+	 * 		The integrated loudness of the file (in LUFS, {@link Double#NaN} if
+	 * 		the file can not be decoded)
+	 * @param truePeak
+	 * 		The true peak of the file (in dBTP, {@link Double#NaN} if the file can
+	 * 		not be decoded)
+	 */
+	public void put(File file, long size, long lastModified, double loudness, double truePeak) {
+		analyses.put(file.getAbsolutePath(), new Analysis(size, lastModified, (float) loudness, (float) truePeak));
+	}
+
+	/**
+	 * Removes the analysis of the file with the given path.
+	 *
+	 * @param path
+	 * 		The path of the file
+	 */
+	public void remove(String path) {
+		analyses.remove(path);
+	}
+
+	/**
+	 * Stores this index. The index is written to a temporary file first which
+	 * then replaces the index file so that an interrupted write does not
+	 * destroy the index.
+	 *
+	 * @throws IOException
+	 * 		if the index can not be written
+	 */
+	public void save() throws IOException {
+		File temporaryFile = new File(indexFile.getPath() + ".new");
+		FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile);
+		try {
+			DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+			dataOutputStream.writeInt(MAGIC);
+			dataOutputStream.writeInt(VERSION);
+			Map<String, Analysis> analyses = ImmutableMap.copyOf(this.analyses);
+			dataOutputStream.writeInt(analyses.size());
+			for (Entry<String, Analysis> analysis : analyses.entrySet()) {
+				dataOutputStream.writeUTF(analysis.getKey());
+				dataOutputStream.writeLong(analysis.getValue().size);
+				dataOutputStream.writeLong(analysis.getValue().lastModified);
+				dataOutputStream.writeFloat(analysis.getValue().loudness);
+				dataOutputStream.writeFloat(analysis.getValue().truePeak);
+			}
+			dataOutputStream.flush();
+		} finally {
+			Closeables.close(fileOutputStream, false);
+		}
+		if (!temporaryFile.renameTo(indexFile) && !(indexFile.delete() && temporaryFile.renameTo(indexFile))) {
+			throw new IOException(String.format("Could not replace %s.", indexFile));
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the analysis of the current version of the given file.
+	 *
+	 * @param file
+	 * 		The file to get the analysis for
+	 * @return The analysis of the file, or {@code null} if the file has not been
+	 *         analyzed or has changed since it was analyzed
+	 */
+	private Analysis analysis(File file) {
+		Analysis analysis = analyses.get(file.getAbsolutePath());
+		if ((analysis == null) || (analysis.size != file.length()) || (analysis.lastModified != file.lastModified())) {
+			return null;
+		}
+		return analysis;
+	}
+
+	/**
+	 * Loads the index from the index file.
+	 *
+	 * @throws IOException
+	 * 		if the index file can not be read
+	 */
+	private void load() throws IOException {
+		FileInputStream fileInputStream = new FileInputStream(indexFile);
+		try {
+			DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(fileInputStream));
+			if ((dataInputStream.readInt() != MAGIC) || (dataInputStream.readInt() != VERSION)) {
+				throw new IOException(String.format("%s is not a loudness index.", indexFile));
+			}
+			int count = dataInputStream.readInt();
+			for (int index = 0; index < count; ++index) {
+				String path = dataInputStream.readUTF();
+				analyses.put(path, new Analysis(dataInputStream.readLong(), dataInputStream.readLong(), dataInputStream.readFloat(), dataInputStream.readFloat()));
+			}
+			logger.fine(String.format("Loaded %d analyses from %s.", count, indexFile));
+		} finally {
+			Closeables.close(fileInputStream, true);
+		}
+	}
+
+	/**
+	 * The analysis of a single file.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class Analysis {
+
+		/** The size of the file. */
+		private final long size;
+
+		/** The modification time of the file. */
+		private final long lastModified;
+
+		/** The integrated loudness (in LUFS). */
+		private final float loudness;
+
+		/** The true peak (in dBTP). */
+		private final float truePeak;
+
+		/**
+		 * Creates a new analysis.
+		 *
+		 * @param size
+		 * 		The size of the file
+		 * @param lastModified
+		 * 		The modification time of the file
+		 * @param loudness
+		 * 		The integrated loudness (in LUFS)
+		 * @param truePeak
+		 * 		The true peak (in dBTP)
+		 */
+		private Analysis(long size, long lastModified, float loudness, float truePeak) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.loudness = loudness;
+			this.truePeak = truePeak;
+		}
+
+	}
+
+}
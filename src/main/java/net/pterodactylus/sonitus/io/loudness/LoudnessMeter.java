@@ -0,0 +1,337 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import net.pterodactylus.sonitus.io.PcmSamples;
+
+/**
+ * Measures the integrated loudness and the true peak of interleaved signed
+ * little-endian PCM samples according to ITU-R BS.1770 and EBU R128. Samples
+ * are 16 bits wide unless another width is given; every sample occupies as
+ * many whole bytes as its width needs.
+ * <p/>
+ * The samples are K-weighted by a high-shelf and a high-pass biquad, and the
+ * mean square of every 400 ms block (with 75% overlap) is stored; the
+ * integrated loudness is the mean of all blocks that pass the absolute gate at
+ * -70 LUFS and the relative gate 10 LU below the loudness of the blocks that
+ * passed the absolute gate. The true peak is measured by a {@link
+ * TruePeakDetector}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class LoudnessMeter {
+
+	/** The power of the absolute gate at -70 LUFS. */
+	private static final double ABSOLUTE_GATE = power(-70);
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** The number of bytes of a sample. */
+	private final int sampleSize;
+
+	/** The value of a sample at full scale. */
+	private final double fullScale;
+
+	/** The weight of every channel. */
+	private final double[] weights;
+
+	/** The number of frames in a 100 ms step. */
+	private final int stepFrames;
+
+	/** The coefficients of the K-weighting filter (b0, b1, b2, a1, a2 of both stages). */
+	private final double[] filter;
+
+	/** The state of the K-weighting filter, four values per channel. */
+	private final double[] filterState;
+
+	/** The detector of inter-sample peaks. */
+	private final TruePeakDetector truePeakDetector;
+
+	/** The sum of the weighted squares of the current step. */
+	private double stepSum;
+
+	/** The number of frames in the current step. */
+	private int stepFrameCount;
+
+	/** The mean squares of the last four steps. */
+	private final double[] stepPowers = new double[4];
+
+	/** The number of finished steps. */
+	private long steps;
+
+	/** The mean squares of all finished blocks. */
+	private double[] blockPowers = new double[1024];
+
+	/** The number of finished blocks. */
+	private int blocks;
+
+	/** The index of the channel of the next sample. */
+	private int channel;
+
+	/** The bytes of an incomplete sample. */
+	private int partialSample;
+
+	/** The number of bytes of an incomplete sample. */
+	private int partialBytes;
+
+	/** The highest absolute value of all oversampled samples. */
+	private double peak;
+
+	/**
+	 * Creates a new loudness meter.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param channels
+	 * 		The number of channels
+	 */
+	public LoudnessMeter(int frequency, int channels) {
+		this(frequency, channels, 16);
+	}
+
+	/**
+	 * Creates a new loudness meter.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param channels
+	 * 		The number of channels
+	 * @param sampleWidth
+	 * 		The width of a sample (in bits)
+	 */
+	public LoudnessMeter(int frequency, int channels, int sampleWidth) {
+		checkArgument(frequency > 0, "frequency must be positive");
+		checkArgument(channels > 0, "channels must be positive");
+		checkArgument((sampleWidth > 1) && (sampleWidth <= 32), "sampleWidth must be between 2 and 32");
+		this.channels = channels;
+		sampleSize = PcmSamples.sampleSize(sampleWidth);
+		fullScale = 1L << (sampleWidth - 1);
+		weights = channelWeights(channels);
+		stepFrames = Math.max(1, frequency / 10);
+		filterState = new double[channels * 4];
+		truePeakDetector = new TruePeakDetector(channels);
+		filter = kWeighting(frequency);
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the integrated loudness of all samples processed so far.
+	 *
+	 * @return The integrated loudness (in LUFS), or {@link
+	 *         Double#NEGATIVE_INFINITY} if no block was louder than the absolute
+	 *         gate
+	 */
+	public double integratedLoudness() {
+		double sum = 0;
+		int count = 0;
+		for (int block = 0; block < blocks; ++block) {
+			if (blockPowers[block] > ABSOLUTE_GATE) {
+				sum += blockPowers[block];
+				count++;
+			}
+		}
+		if (count == 0) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		double relativeGate = sum / count / 10;
+		sum = 0;
+		count = 0;
+		for (int block = 0; block < blocks; ++block) {
+			if ((blockPowers[block] > ABSOLUTE_GATE) && (blockPowers[block] > relativeGate)) {
+				sum += blockPowers[block];
+				count++;
+			}
+		}
+		return loudness(sum / count);
+	}
+
+	/**
+	 * Returns the true peak of all samples processed so far.
+	 *
+	 * @return The true peak (in dBTP), or {@link Double#NEGATIVE_INFINITY} if
+	 *         all samples were silent
+	 */
+	public double truePeak() {
+		return 20 * Math.log10(peak);
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Processes the given samples. Samples and frames may be split across
+	 * invocations.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the samples
+	 * @param offset
+	 * 		The offset of the first byte to process
+	 * @param length
+	 * 		The number of bytes to process
+	 */
+	public void process(byte[] buffer, int offset, int length) {
+		int unusedBits = 32 - sampleSize * 8;
+		for (int index = offset; index < (offset + length); ++index) {
+			partialSample |= (buffer[index] & 0xff) << (partialBytes * 8);
+			if (++partialBytes < sampleSize) {
+				continue;
+			}
+			processSample(((partialSample << unusedBits) >> unusedBits) / fullScale);
+			partialSample = 0;
+			partialBytes = 0;
+			if (++channel == channels) {
+				channel = 0;
+				if (++stepFrameCount == stepFrames) {
+					finishStep();
+				}
+			}
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Processes a single sample of the current channel.
+	 *
+	 * @param sample
+	 * 		The sample
+	 */
+	private void processSample(double sample) {
+		/* true peak. */
+		peak = Math.max(peak, Math.max(truePeakDetector.process(channel, sample), Math.abs(sample)));
+
+		/* k-weighting, two biquads in transposed direct form II. */
+		int stateOffset = channel * 4;
+		double shelved = filter[0] * sample + filterState[stateOffset];
+		filterState[stateOffset] = filter[1] * sample - filter[3] * shelved + filterState[stateOffset + 1];
+		filterState[stateOffset + 1] = filter[2] * sample - filter[4] * shelved;
+		double weighted = filter[5] * shelved + filterState[stateOffset + 2];
+		filterState[stateOffset + 2] = filter[6] * shelved - filter[8] * weighted + filterState[stateOffset + 3];
+		filterState[stateOffset + 3] = filter[7] * shelved - filter[9] * weighted;
+		stepSum += weights[channel] * weighted * weighted;
+	}
+
+	/**
+	 * Finishes the current 100 ms step and, once four steps are available,
+	 * stores the power of the 400 ms block ending with it.
+	 */
+	private void finishStep() {
+		stepPowers[(int) (steps % 4)] = stepSum / stepFrameCount;
+		stepSum = 0;
+		stepFrameCount = 0;
+		if (++steps < 4) {
+			return;
+		}
+		if (blocks == blockPowers.length) {
+			blockPowers = Arrays.copyOf(blockPowers, blocks * 2);
+		}
+		blockPowers[blocks++] = (stepPowers[0] + stepPowers[1] + stepPowers[2] + stepPowers[3]) / 4;
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns the weights of the given number of channels.
+	 *
+	 * @param channels
+	 * 		The number of channels
+	 * @return The weight of every channel
+	 */
+	static double[] channelWeights(int channels) {
+		double[] weights = new double[channels];
+		Arrays.fill(weights, 1.0);
+		if (channels == 6) {
+			/* 5.1: the LFE channel is ignored, the surround channels are boosted. */
+			weights[3] = 0.0;
+			weights[4] = 1.41;
+			weights[5] = 1.41;
+		}
+		return weights;
+	}
+
+	/**
+	 * Calculates the coefficients of the K-weighting filter for the given
+	 * sampling frequency.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @return The coefficients (b0, b1, b2, a1, a2 of the high shelf, followed
+	 *         by b0, b1, b2, a1, a2 of the high pass)
+	 */
+	static double[] kWeighting(int frequency) {
+		double[] filter = new double[10];
+		/* high shelf, modelling the acoustic effect of the head. */
+		double k = Math.tan(Math.PI * 1681.974450955533 / frequency);
+		double q = 0.7071752369554196;
+		double vh = Math.pow(10, 3.999843853973347 / 20);
+		double vb = Math.pow(vh, 0.4996667741545416);
+		double a0 = 1 + k / q + k * k;
+		filter[0] = (vh + vb * k / q + k * k) / a0;
+		filter[1] = 2 * (k * k - vh) / a0;
+		filter[2] = (vh - vb * k / q + k * k) / a0;
+		filter[3] = 2 * (k * k - 1) / a0;
+		filter[4] = (1 - k / q + k * k) / a0;
+
+		/* high pass (RLB weighting). */
+		k = Math.tan(Math.PI * 38.13547087602444 / frequency);
+		q = 0.5003270373238773;
+		a0 = 1 + k / q + k * k;
+		filter[5] = 1;
+		filter[6] = -2;
+		filter[7] = 1;
+		filter[8] = 2 * (k * k - 1) / a0;
+		filter[9] = (1 - k / q + k * k) / a0;
+		return filter;
+	}
+
+	/**
+	 * Converts the given mean square to a loudness.
+	 *
+	 * @param power
+	 * 		The mean square
+	 * @return The loudness (in LUFS)
+	 */
+	static double loudness(double power) {
+		return -0.691 + 10 * Math.log10(power);
+	}
+
+	/**
+	 * Converts the given loudness to a mean square.
+	 *
+	 * @param loudness
+	 * 		The loudness (in LUFS)
+	 * @return The mean square
+	 */
+	static double power(double loudness) {
+		return Math.pow(10, (loudness + 0.691) / 10);
+	}
+
+}
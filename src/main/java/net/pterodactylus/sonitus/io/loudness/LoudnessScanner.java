@@ -0,0 +1,254 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.IdentifyingInputStream;
+import net.pterodactylus.sonitus.io.flac.ParallelDecoder;
+import net.pterodactylus.sonitus.io.mp3.DecodingOutputStream;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Analyzes the loudness of all audio files in a directory tree and stores the
+ * results in a {@link LoudnessIndex}. Files are analyzed in parallel on the
+ * given {@link ExecutorService}; files that have not changed since they were
+ * last analyzed are skipped, and files that no longer exist are removed from
+ * the index, so repeated scans only touch changed files.
+ * <p/>
+ * MP3 and FLAC files are decoded internally; other files are stored without a
+ * loudness so that they are not identified again by the next scan.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class LoudnessScanner {
+
+	/** The logger. */
+	private static final Logger logger = Logger.getLogger(LoudnessScanner.class.getName());
+
+	/** The index to store the results in. */
+	private final LoudnessIndex loudnessIndex;
+
+	/** The executor service to analyze files on. */
+	private final ExecutorService executorService;
+
+	/**
+	 * Creates a new loudness scanner.
+	 *
+	 * @param loudnessIndex
+	 * 		The index to store the results in
+	 * @param executorService
+	 * 		The executor service to analyze files on
+	 */
+	public LoudnessScanner(LoudnessIndex loudnessIndex, ExecutorService executorService) {
+		this.loudnessIndex = checkNotNull(loudnessIndex, "loudnessIndex must not be null");
+		this.executorService = checkNotNull(executorService, "executorService must not be null");
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Scans the given directory tree, analyzes all new and changed files, and
+	 * saves the index.
+	 *
+	 * @param directory
+	 * 		The directory to scan
+	 * @return The number of analyzed files, not counting files that can not be
+	 *         decoded
+	 * @throws IOException
+	 * 		if the index can not be saved, or the scan is interrupted
+	 */
+	public int scan(File directory) throws IOException {
+		/* forget files that no longer exist. */
+		String directoryPath = directory.getAbsolutePath() + File.separator;
+		for (String path : loudnessIndex.paths()) {
+			if (path.startsWith(directoryPath) && !new File(path).isFile()) {
+				loudnessIndex.remove(path);
+			}
+		}
+
+		List<File> files = Lists.newArrayList();
+		collectChangedFiles(directory, files);
+		logger.info(String.format("Analyzing %d files in %s...", files.size(), directory));
+		List<Future<Boolean>> analyses = Lists.newArrayList();
+		try {
+			for (File file : files) {
+				analyses.add(executorService.submit(new AnalysisTask(file)));
+			}
+			int analyzedFiles = 0;
+			for (Future<Boolean> analysis : analyses) {
+				if (analysis.get()) {
+					analyzedFiles++;
+				}
+			}
+			loudnessIndex.save();
+			return analyzedFiles;
+		} catch (InterruptedException ie1) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while analyzing files.");
+		} catch (ExecutionException ee1) {
+			/* analysis tasks do not throw. */
+			throw new IOException(ee1.getCause());
+		} finally {
+			for (Future<Boolean> analysis : analyses) {
+				analysis.cancel(true);
+			}
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Collects all files in the given directory tree that are not contained in
+	 * the index in their current version.
+	 *
+	 * @param directory
+	 * 		The directory to scan
+	 * @param files
+	 * 		The list to add the files to
+	 */
+	private void collectChangedFiles(File directory, List<File> files) {
+		File[] directoryFiles = directory.listFiles();
+		if (directoryFiles == null) {
+			return;
+		}
+		Arrays.sort(directoryFiles);
+		for (File file : directoryFiles) {
+			if (file.isDirectory()) {
+				collectChangedFiles(file, files);
+			} else if (file.isFile() && !loudnessIndex.contains(file)) {
+				files.add(file);
+			}
+		}
+	}
+
+	/**
+	 * Measures the loudness of the given file.
+	 *
+	 * @param file
+	 * 		The file to analyze
+	 * @return The loudness meter that has processed all samples of the file, or
+	 *         {@link Optional#absent()} if the file can not be decoded
+	 * @throws IOException
+	 * 		if the file can not be read
+	 */
+	private static Optional<LoudnessMeter> measure(File file) throws IOException {
+		FileInputStream fileInputStream = new FileInputStream(file);
+		try {
+			Optional<IdentifyingInputStream> identifyingInputStream = IdentifyingInputStream.create(fileInputStream);
+			if (!identifyingInputStream.isPresent()) {
+				return Optional.absent();
+			}
+			Metadata metadata = identifyingInputStream.get().metadata();
+			/* FLAC is decoded with its own sample width, MP3 to 16 bits. */
+			int sampleWidth = metadata.encoding().equalsIgnoreCase("FLAC") ? metadata.sampleWidth() : 16;
+			final LoudnessMeter loudnessMeter = new LoudnessMeter(metadata.frequency(), metadata.channels(), sampleWidth);
+			OutputStream meterOutputStream = new OutputStream() {
+
+				@Override
+				public void write(int data) {
+					write(new byte[] { (byte) data }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] buffer, int offset, int length) {
+					loudnessMeter.process(buffer, offset, length);
+				}
+			};
+			if (metadata.encoding().equalsIgnoreCase("FLAC")) {
+				new ParallelDecoder(MoreExecutors.sameThreadExecutor(), 1).decode(file, meterOutputStream);
+			} else if (metadata.encoding().equalsIgnoreCase("MP3")) {
+				DecodingOutputStream decodingOutputStream = new DecodingOutputStream(meterOutputStream, false);
+				ByteStreams.copy(identifyingInputStream.get(), decodingOutputStream);
+				decodingOutputStream.close();
+			} else {
+				return Optional.absent();
+			}
+			return Optional.of(loudnessMeter);
+		} finally {
+			Closeables.close(fileInputStream, true);
+		}
+	}
+
+	/**
+	 * Task that analyzes a single file and stores the result in the index.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private class AnalysisTask implements Callable<Boolean> {
+
+		/** The file to analyze. */
+		private final File file;
+
+		/**
+		 * Creates a new analysis task.
+		 *
+		 * @param file
+		 * 		The file to analyze
+		 */
+		private AnalysisTask(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public Boolean call() {
+			long size = file.length();
+			long lastModified = file.lastModified();
+			try {
+				Optional<LoudnessMeter> loudnessMeter = measure(file);
+				if (!loudnessMeter.isPresent()) {
+					logger.fine(String.format("Skipping %s, it can not be decoded.", file));
+					loudnessIndex.put(file, size, lastModified, Double.NaN, Double.NaN);
+					return false;
+				}
+				loudnessIndex.put(file, size, lastModified, loudnessMeter.get().integratedLoudness(), loudnessMeter.get().truePeak());
+				logger.fine(String.format("Analyzed %s: %.1f LUFS, %.1f dBTP.", file, loudnessMeter.get().integratedLoudness(), loudnessMeter.get().truePeak()));
+				return true;
+			} catch (IOException ioe1) {
+				logger.log(Level.WARNING, String.format("Could not analyze %s.", file), ioe1);
+				return false;
+			}
+		}
+
+	}
+
+}
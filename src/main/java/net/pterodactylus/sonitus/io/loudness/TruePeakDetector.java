@@ -0,0 +1,127 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Detects inter-sample peaks according to ITU-R BS.1770 by oversampling the
+ * samples of every channel four times with a Blackman-windowed sinc
+ * interpolator.
+ * <p/>
+ * The interpolated values returned for a sample lie between the samples
+ * {@link #DELAY} samples before it, so a caller that acts on the peaks has to
+ * delay the signal accordingly.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class TruePeakDetector {
+
+	/** The oversampling factor. */
+	private static final int OVERSAMPLING = 4;
+
+	/** The number of taps of every phase of the interpolator. */
+	private static final int TAPS = 12;
+
+	/** The delay of the interpolated values (in samples). */
+	public static final int DELAY = TAPS / 2;
+
+	/** The phases of the interpolator. */
+	private static final double[][] INTERPOLATOR = createInterpolator();
+
+	/** The recent samples of every channel. */
+	private final double[] history;
+
+	/** The position of the next sample in the history of every channel. */
+	private final int[] positions;
+
+	/**
+	 * Creates a new true-peak detector.
+	 *
+	 * @param channels
+	 * 		The number of channels
+	 */
+	public TruePeakDetector(int channels) {
+		checkArgument(channels > 0, "channels must be positive");
+		history = new double[channels * TAPS];
+		positions = new int[channels];
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Processes the next sample of the given channel and returns the highest
+	 * absolute value of the interpolated values preceding it.
+	 *
+	 * @param channel
+	 * 		The index of the channel
+	 * @param sample
+	 * 		The sample (relative to full scale)
+	 * @return The highest absolute value of the interpolated values (relative to
+	 *         full scale)
+	 */
+	public double process(int channel, double sample) {
+		int historyOffset = channel * TAPS;
+		int historyPosition = positions[channel];
+		history[historyOffset + historyPosition] = sample;
+		double peak = 0;
+		for (double[] phase : INTERPOLATOR) {
+			double interpolated = 0;
+			for (int tap = 0, position = historyPosition; tap < TAPS; ++tap) {
+				interpolated += phase[tap] * history[historyOffset + position];
+				position = (position == 0) ? (TAPS - 1) : (position - 1);
+			}
+			peak = Math.max(peak, Math.abs(interpolated));
+		}
+		positions[channel] = (historyPosition + 1) % TAPS;
+		return peak;
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Creates the phases of the interpolator, a Blackman-windowed sinc filter
+	 * with its cut-off at the original Nyquist frequency.
+	 *
+	 * @return The taps of every phase
+	 */
+	private static double[][] createInterpolator() {
+		double[][] phases = new double[OVERSAMPLING][TAPS];
+		int length = OVERSAMPLING * TAPS;
+		for (int phase = 0; phase < OVERSAMPLING; ++phase) {
+			double sum = 0;
+			for (int tap = 0; tap < TAPS; ++tap) {
+				int index = tap * OVERSAMPLING + phase;
+				double position = (index - (length - 1) / 2.0) / OVERSAMPLING;
+				double sinc = (position == 0) ? 1 : Math.sin(Math.PI * position) / (Math.PI * position);
+				double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * (index + 0.5) / length) + 0.08 * Math.cos(4 * Math.PI * (index + 0.5) / length);
+				phases[phase][tap] = sinc * window;
+				sum += phases[phase][tap];
+			}
+			for (int tap = 0; tap < TAPS; ++tap) {
+				phases[phase][tap] /= sum;
+			}
+		}
+		return phases;
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Sonitus - DecodingOutputStream.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link OutputStream} wrapper that decodes the MP3 stream written to it
+ * using a {@link Layer3Decoder} and forwards the decoded samples as
+ * interleaved 16-bit signed PCM to the wrapped output stream. ID3v2 tags are
+ * skipped, as is a frame carrying an {@link InfoHeader} at the start of the
+ * stream. The stream resynchronizes on garbage; a frame is only accepted
+ * without a preceding frame if the following frame header is consistent with
+ * it.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class DecodingOutputStream extends FilterOutputStream {
+
+	/** The decoder. */
+	private final Layer3Decoder decoder = new Layer3Decoder();
+
+	/** Whether to write big-endian samples. */
+	private final boolean bigEndian;
+
+	/** The buffer for the encoded data. */
+	private final byte[] buffer = new byte[16384];
+
+	/** The number of bytes in the buffer. */
+	private int length;
+
+	/** The view of the first frame. */
+	private final FrameView frameView = new FrameView();
+
+	/** The buffer for the decoded samples. */
+	private final byte[] pcmBuffer = new byte[1152 * 2 * 2];
+
+	/** The number of bytes that still have to be skipped. */
+	private int skip;
+
+	/** Whether the last frame was directly followed by the current position. */
+	private boolean synced;
+
+	/** Whether no frame has been found yet. */
+	private boolean firstFrame = true;
+
+	/**
+	 * Creates a new decoding output stream.
+	 *
+	 * @param outputStream
+	 * 		The output stream to write the decoded samples to
+	 * @param bigEndian
+	 * 		{@code true} to write big-endian samples, {@code false} to write
+	 * 		little-endian samples
+	 */
+	public DecodingOutputStream(OutputStream outputStream, boolean bigEndian) {
+		super(outputStream);
+		this.bigEndian = bigEndian;
+	}
+
+	//
+	// OUTPUTSTREAM METHODS
+	//
+
+	@Override
+	public void write(int data) throws IOException {
+		write(new byte[] { (byte) data }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer) throws IOException {
+		write(buffer, 0, buffer.length);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		int position = offset;
+		int end = offset + length;
+		while (position < end) {
+			int chunk = Math.min(end - position, this.buffer.length - this.length);
+			System.arraycopy(buffer, position, this.buffer, this.length, chunk);
+			this.length += chunk;
+			position += chunk;
+			decodeFrames(false);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		decodeFrames(true);
+		super.close();
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Decodes all complete frames in the buffer and removes the consumed data
+	 * from the buffer.
+	 *
+	 * @param endOfStream
+	 * 		{@code true} if no more data will be written, {@code false} otherwise
+	 * @throws IOException
+	 * 		if the decoded samples can not be written
+	 */
+	private void decodeFrames(boolean endOfStream) throws IOException {
+		int position = 0;
+		while (true) {
+			int skipped = Math.min(skip, length - position);
+			position += skipped;
+			skip -= skipped;
+			int remaining = length - position;
+			if ((skip > 0) || (remaining < 4) || ((remaining < 10) && !endOfStream)) {
+				break;
+			}
+			if ((buffer[position] == 'I') && (buffer[position + 1] == 'D') && (buffer[position + 2] == '3') && (remaining >= 10)) {
+				skip = 10 + ((buffer[position + 6] & 0x7f) << 21) + ((buffer[position + 7] & 0x7f) << 14) + ((buffer[position + 8] & 0x7f) << 7) + (buffer[position + 9] & 0x7f) + (((buffer[position + 5] & 0x10) != 0) ? 10 : 0);
+				synced = false;
+				continue;
+			}
+			int frameLength = isLayer3Frame(position) ? Frame.getFrameLength(buffer, position) : -1;
+			if (frameLength < 4) {
+				++position;
+				synced = false;
+				continue;
+			}
+			boolean verify = !synced && !endOfStream;
+			if (remaining < (frameLength + (verify ? 4 : 0))) {
+				break;
+			}
+			if (verify && !isConsistentFrame(position, position + frameLength)) {
+				++position;
+				continue;
+			}
+			Frame frame = Frame.create(buffer, position, frameLength).get();
+			position += frameLength;
+			if (!synced) {
+				decoder.reset();
+				synced = true;
+			}
+			if (firstFrame) {
+				firstFrame = false;
+				if (frameView.wrap(buffer, position - frameLength, frameLength) && InfoHeader.parse(frameView).isPresent()) {
+					continue;
+				}
+			}
+			decoder.decode(frame);
+			out.write(pcmBuffer, 0, decoder.writePcm16(pcmBuffer, 0, bigEndian));
+		}
+		System.arraycopy(buffer, position, buffer, 0, length - position);
+		length -= position;
+	}
+
+	/**
+	 * Returns whether the buffer contains a layer III frame header at the given
+	 * position.
+	 *
+	 * @param position
+	 * 		The position to check
+	 * @return {@code true} if there is a layer III frame header at the given
+	 *         position, {@code false} otherwise
+	 */
+	private boolean isLayer3Frame(int position) {
+		return Frame.isFrame(buffer, position, length - position) && ((buffer[position + 1] & 0x06) == 0x02);
+	}
+
+	/**
+	 * Returns whether the frame header at the second position is consistent
+	 * with the frame header at the first position, i.e. whether both headers
+	 * have the same version, layer, and sampling rate.
+	 *
+	 * @param position
+	 * 		The position of the first frame header
+	 * @param nextPosition
+	 * 		The position of the second frame header
+	 * @return {@code true} if the frame headers are consistent, {@code false}
+	 *         otherwise
+	 */
+	private boolean isConsistentFrame(int position, int nextPosition) {
+		return isLayer3Frame(nextPosition) && ((buffer[position + 1] & 0x1e) == (buffer[nextPosition + 1] & 0x1e)) && ((buffer[position + 2] & 0x0c) == (buffer[nextPosition + 2] & 0x0c));
+	}
+
+}
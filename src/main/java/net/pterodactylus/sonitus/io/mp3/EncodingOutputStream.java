@@ -0,0 +1,410 @@
+/*
+ * Sonitus - EncodingOutputStream.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * {@link OutputStream} that encodes the interleaved 16-bit signed PCM samples
+ * written to it into MP3 streams using {@link Layer3Encoder}s. The samples are
+ * encoded in chunks of frames; every chunk is analyzed once and then encoded
+ * at every requested bitrate, so a ladder of bitrates costs only one analysis.
+ * <p/>
+ * Because the frames do not depend on each other, chunks can be encoded in
+ * parallel on an {@link ExecutorService}; the encoded chunks are still written
+ * in order, and the output does not depend on the number of threads. When the
+ * stream is closed, the last frame is filled with silence, and enough silence
+ * is added to cover the {@link Layer3Encoder#DELAY delay} of the encoder.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class EncodingOutputStream extends OutputStream {
+
+	/** The sampling rate of the samples. */
+	private final int samplingRate;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** Whether the samples are big-endian. */
+	private final boolean bigEndian;
+
+	/** The bitrates to encode to (in kbps). */
+	private final int[] bitrates;
+
+	/** The output streams, in the order of {@link #bitrates}. */
+	private final OutputStream[] outputStreams;
+
+	/** The number of samples per channel of a frame. */
+	private final int frameSamples;
+
+	/** The executor service to encode on, or {@code null} to encode directly. */
+	private ExecutorService executorService;
+
+	/** The number of threads of the executor service. */
+	private int parallelism = 1;
+
+	/** The number of frames encoded by a single task. */
+	private int framesPerTask = 16;
+
+	/** Whether to spend more time on finding the best quantization. */
+	private boolean hq;
+
+	/** The buffer for the samples of the next chunk. */
+	private byte[] buffer;
+
+	/** The number of bytes in the buffer. */
+	private int length;
+
+	/** The last {@link Layer3Encoder#HISTORY} samples of every channel. */
+	private final float[][] history;
+
+	/** The number of the next frame. */
+	private long frameNumber;
+
+	/** The tasks that have not been written yet, in stream order. */
+	private final LinkedList<Future<byte[][]>> pendingTasks = Lists.newLinkedList();
+
+	/** Whether this stream has been closed. */
+	private boolean closed;
+
+	/**
+	 * Creates a new encoding output stream that encodes to a single bitrate.
+	 *
+	 * @param outputStream
+	 * 		The output stream to write the MP3 stream to
+	 * @param samplingRate
+	 * 		The sampling rate of the samples
+	 * @param channels
+	 * 		The number of channels (1 or 2)
+	 * @param bitrate
+	 * 		The bitrate to encode to (in kbps)
+	 * @param bigEndian
+	 * 		{@code true} if the samples are big-endian, {@code false} if they are
+	 * 		little-endian
+	 * @throws IllegalArgumentException
+	 * 		if the sampling rate, the number of channels, or the bitrate is not
+	 * 		supported
+	 */
+	public EncodingOutputStream(OutputStream outputStream, int samplingRate, int channels, int bitrate, boolean bigEndian) {
+		this(ImmutableMap.of(bitrate, outputStream), samplingRate, channels, bigEndian);
+	}
+
+	/**
+	 * Creates a new encoding output stream that encodes to several bitrates at
+	 * once.
+	 *
+	 * @param outputStreams
+	 * 		The output streams to write the MP3 streams to, by bitrate (in kbps)
+	 * @param samplingRate
+	 * 		The sampling rate of the samples
+	 * @param channels
+	 * 		The number of channels (1 or 2)
+	 * @param bigEndian
+	 * 		{@code true} if the samples are big-endian, {@code false} if they are
+	 * 		little-endian
+	 * @throws IllegalArgumentException
+	 * 		if the sampling rate, the number of channels, or a bitrate is not
+	 * 		supported
+	 */
+	public EncodingOutputStream(Map<Integer, OutputStream> outputStreams, int samplingRate, int channels, boolean bigEndian) {
+		checkArgument(!checkNotNull(outputStreams, "outputStreams must not be null").isEmpty(), "outputStreams must not be empty");
+		Layer3Encoder encoder = new Layer3Encoder(samplingRate, channels);
+		this.samplingRate = samplingRate;
+		this.channels = channels;
+		this.bigEndian = bigEndian;
+		this.frameSamples = encoder.samples();
+		this.bitrates = new int[outputStreams.size()];
+		this.outputStreams = new OutputStream[outputStreams.size()];
+		int index = 0;
+		for (Entry<Integer, OutputStream> outputStream : outputStreams.entrySet()) {
+			encoder.frameLength(outputStream.getKey(), 0);
+			bitrates[index] = outputStream.getKey();
+			this.outputStreams[index++] = checkNotNull(outputStream.getValue(), "outputStream must not be null");
+		}
+		history = new float[channels][Layer3Encoder.HISTORY];
+		buffer = new byte[framesPerTask * frameSamples * channels * 2];
+	}
+
+	/**
+	 * Sets the executor service to encode on. This has to be set before the
+	 * first sample is written.
+	 *
+	 * @param executorService
+	 * 		The executor service to encode on, or {@code null} to encode in the
+	 * 		writing thread
+	 * @param parallelism
+	 * 		The number of threads of the executor service
+	 * @return This encoding output stream
+	 */
+	public EncodingOutputStream executorService(ExecutorService executorService, int parallelism) {
+		checkArgument(parallelism > 0, "parallelism must be positive");
+		checkState((length == 0) && (frameNumber == 0), "samples have already been written");
+		this.executorService = executorService;
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Sets the number of frames that are encoded by a single task. Larger
+	 * tasks add latency, smaller tasks add overhead because the filter banks
+	 * of every task have to be filled from the samples preceding the task’s
+	 * frames. This has to be set before the first sample is written.
+	 *
+	 * @param framesPerTask
+	 * 		The number of frames per task
+	 * @return This encoding output stream
+	 */
+	public EncodingOutputStream framesPerTask(int framesPerTask) {
+		checkArgument(framesPerTask > 0, "framesPerTask must be positive");
+		checkState((length == 0) && (frameNumber == 0), "samples have already been written");
+		this.framesPerTask = framesPerTask;
+		buffer = new byte[framesPerTask * frameSamples * channels * 2];
+		return this;
+	}
+
+	/**
+	 * Sets whether to spend more time on finding the best quantization.
+	 *
+	 * @param hq
+	 * 		{@code true} to search more thoroughly, {@code false} to encode faster
+	 * @return This encoding output stream
+	 */
+	public EncodingOutputStream hq(boolean hq) {
+		this.hq = hq;
+		return this;
+	}
+
+	//
+	// OUTPUTSTREAM METHODS
+	//
+
+	@Override
+	public void write(int data) throws IOException {
+		write(new byte[] { (byte) data }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer) throws IOException {
+		write(buffer, 0, buffer.length);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		int position = offset;
+		int end = offset + length;
+		while (position < end) {
+			int chunk = Math.min(end - position, this.buffer.length - this.length);
+			System.arraycopy(buffer, position, this.buffer, this.length, chunk);
+			this.length += chunk;
+			position += chunk;
+			if (this.length == this.buffer.length) {
+				encodeChunk();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Only chunks that have already been encoded are written; the
+	 * samples of an incomplete chunk are kept until the chunk is complete or
+	 * the stream is closed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		while (!pendingTasks.isEmpty() && pendingTasks.getFirst().isDone()) {
+			write(pendingTasks.removeFirst());
+		}
+		for (OutputStream outputStream : outputStreams) {
+			outputStream.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if ((frameNumber > 0) || (length > 0)) {
+				int samples = length / (channels * 2);
+				int frames = (samples + Layer3Encoder.DELAY + frameSamples - 1) / frameSamples;
+				write(new byte[(frames * frameSamples - samples) * channels * 2]);
+				if (length > 0) {
+					encodeChunk();
+				}
+			}
+			while (!pendingTasks.isEmpty()) {
+				write(pendingTasks.removeFirst());
+			}
+		} finally {
+			for (Future<byte[][]> pendingTask : pendingTasks) {
+				pendingTask.cancel(true);
+			}
+			for (OutputStream outputStream : outputStreams) {
+				outputStream.close();
+			}
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Converts the complete frames in the buffer into samples and encodes them,
+	 * either directly or on the executor service.
+	 *
+	 * @throws IOException
+	 * 		if an encoded chunk can not be written
+	 */
+	private void encodeChunk() throws IOException {
+		int frameLength = frameSamples * channels * 2;
+		int frames = length / frameLength;
+		int sampleCount = frames * frameSamples;
+		float[][] samples = new float[channels][Layer3Encoder.HISTORY + sampleCount];
+		int highByte = bigEndian ? 0 : 1;
+		int lowByte = 1 - highByte;
+		for (int channel = 0; channel < channels; ++channel) {
+			float[] channelSamples = samples[channel];
+			System.arraycopy(history[channel], 0, channelSamples, 0, Layer3Encoder.HISTORY);
+			for (int sample = 0, position = channel * 2; sample < sampleCount; ++sample, position += channels * 2) {
+				channelSamples[Layer3Encoder.HISTORY + sample] = (short) ((buffer[position + highByte] << 8) | (buffer[position + lowByte] & 0xff)) / 32768.0f;
+			}
+			System.arraycopy(channelSamples, sampleCount, history[channel], 0, Layer3Encoder.HISTORY);
+		}
+		System.arraycopy(buffer, frames * frameLength, buffer, 0, length - frames * frameLength);
+		length -= frames * frameLength;
+
+		EncodeTask encodeTask = new EncodeTask(samples, frames, frameNumber);
+		frameNumber += frames;
+		if (executorService == null) {
+			write(encodeTask.call());
+			return;
+		}
+		pendingTasks.add(executorService.submit(encodeTask));
+		while (pendingTasks.size() > (parallelism * 2)) {
+			write(pendingTasks.removeFirst());
+		}
+	}
+
+	/**
+	 * Waits for the given task to finish and writes its result.
+	 *
+	 * @param task
+	 * 		The task to wait for
+	 * @throws IOException
+	 * 		if the task failed, or an output stream can not be written to
+	 */
+	private void write(Future<byte[][]> task) throws IOException {
+		try {
+			write(task.get());
+		} catch (InterruptedException ie1) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while encoding.");
+		} catch (ExecutionException ee1) {
+			throw new IOException(ee1.getCause());
+		}
+	}
+
+	/**
+	 * Writes the encoded frames to the output streams.
+	 *
+	 * @param encodedFrames
+	 * 		The encoded frames, in the order of {@link #outputStreams}
+	 * @throws IOException
+	 * 		if an output stream can not be written to
+	 */
+	private void write(byte[][] encodedFrames) throws IOException {
+		for (int index = 0; index < outputStreams.length; ++index) {
+			outputStreams[index].write(encodedFrames[index]);
+		}
+	}
+
+	/**
+	 * Task that encodes a range of consecutive frames at all bitrates.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private class EncodeTask implements Callable<byte[][]> {
+
+		/** The samples, preceded by the history. */
+		private final float[][] samples;
+
+		/** The number of frames to encode. */
+		private final int frames;
+
+		/** The number of the first frame. */
+		private final long firstFrameNumber;
+
+		/**
+		 * Creates a new encode task.
+		 *
+		 * @param samples
+		 * 		The samples, preceded by the history
+		 * @param frames
+		 * 		The number of frames to encode
+		 * @param firstFrameNumber
+		 * 		The number of the first frame
+		 */
+		private EncodeTask(float[][] samples, int frames, long firstFrameNumber) {
+			this.samples = samples;
+			this.frames = frames;
+			this.firstFrameNumber = firstFrameNumber;
+		}
+
+		@Override
+		public byte[][] call() {
+			Layer3Encoder encoder = new Layer3Encoder(samplingRate, channels).hq(hq);
+			byte[][] encodedFrames = new byte[bitrates.length][];
+			int[] lengths = new int[bitrates.length];
+			for (int index = 0; index < bitrates.length; ++index) {
+				encodedFrames[index] = new byte[frames * (encoder.frameLength(bitrates[index], 0) + 1)];
+			}
+			for (int frame = 0; frame < frames; ++frame) {
+				encoder.analyze(samples, Layer3Encoder.HISTORY + frame * frameSamples);
+				for (int index = 0; index < bitrates.length; ++index) {
+					lengths[index] += encoder.encode(bitrates[index], firstFrameNumber + frame, encodedFrames[index], lengths[index]);
+				}
+			}
+			for (int index = 0; index < bitrates.length; ++index) {
+				encodedFrames[index] = Arrays.copyOf(encodedFrames[index], lengths[index]);
+			}
+			return encodedFrames;
+		}
+
+	}
+
+}
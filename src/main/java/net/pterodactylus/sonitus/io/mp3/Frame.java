@@ -18,15 +18,12 @@
 package net.pterodactylus.sonitus.io.mp3;
 
 import java.util.Arrays;
-import java.util.Map;
 
 import com.google.common.base.Optional;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
-import com.google.common.collect.ImmutableMap;
 
 /**
- * A single MPEG audio frame.
+ * A single MPEG audio frame. A frame owns a copy of its content; use a
+ * {@link FrameView} to scan a stream without copying every frame.
  * <p/>
  * This uses information from <a href="http://mpgedit.org/mpgedit/mpeg_format/mpeghdr.htm">mpgedit.org/mpgedit/mpeg_format/mpeghdr.htm</a>.
  *
@@ -102,84 +99,6 @@ public class Frame {
 
 	}
 
-	/** Bitrate table. */
-	private static final Supplier<Map<MpegAudioVersion, Map<LayerDescription, Map<Integer, Integer>>>> bitrateSupplier = Suppliers.memoize(new Supplier<Map<MpegAudioVersion, Map<LayerDescription, Map<Integer, Integer>>>>() {
-
-		@Override
-		public Map<MpegAudioVersion, Map<LayerDescription, Map<Integer, Integer>>> get() {
-			ImmutableMap.Builder<MpegAudioVersion, Map<LayerDescription, Map<Integer, Integer>>> mpegAudioVersionMapBuilder = ImmutableMap.builder();
-
-			/* MPEG 1. */
-			ImmutableMap.Builder<LayerDescription, Map<Integer, Integer>> mpeg1Builder = ImmutableMap.builder();
-
-			/* Layer 1. */
-			ImmutableMap.Builder<Integer, Integer> bitrates = ImmutableMap.builder();
-			bitrates.put(0, 0).put(1, 32).put(2, 64).put(3, 96).put(4, 128).put(5, 160).put(6, 192).put(7, 224);
-			bitrates.put(8, 256).put(9, 288).put(10, 320).put(11, 352).put(12, 384).put(13, 416).put(14, 448).put(15, -1);
-			mpeg1Builder.put(LayerDescription.LAYER_1, bitrates.build());
-
-			/* MPEG 1, Layer 2 bitrates. */
-			bitrates = ImmutableMap.builder();
-			bitrates.put(0, 0).put(1, 32).put(2, 48).put(3, 56).put(4, 64).put(5, 80).put(6, 96).put(7, 112);
-			bitrates.put(8, 128).put(9, 160).put(10, 192).put(11, 224).put(12, 256).put(13, 320).put(14, 384).put(15, -1);
-			mpeg1Builder.put(LayerDescription.LAYER_2, bitrates.build());
-
-			/* MPEG 1, Layer 3 bitrates. */
-			bitrates = ImmutableMap.builder();
-			bitrates.put(0, 0).put(1, 32).put(2, 40).put(3, 48).put(4, 56).put(5, 64).put(6, 80).put(7, 96);
-			bitrates.put(8, 112).put(9, 128).put(10, 160).put(11, 192).put(12, 224).put(13, 256).put(14, 320).put(15, -1);
-			mpeg1Builder.put(LayerDescription.LAYER_3, bitrates.build());
-			mpegAudioVersionMapBuilder.put(MpegAudioVersion.VERSION_1, mpeg1Builder.build());
-
-			/* MPEG 2 & 2.5. */
-			ImmutableMap.Builder<LayerDescription, Map<Integer, Integer>> mpeg2Builder = ImmutableMap.builder();
-
-			/* Layer 1. */
-			bitrates = ImmutableMap.builder();
-			bitrates.put(0, 0).put(1, 32).put(2, 48).put(3, 56).put(4, 64).put(5, 80).put(6, 96).put(7, 112);
-			bitrates.put(8, 128).put(9, 144).put(10, 160).put(11, 176).put(12, 192).put(13, 224).put(14, 256).put(15, -1);
-			mpeg2Builder.put(LayerDescription.LAYER_1, bitrates.build());
-
-			/* Layer 2 & 3. */
-			bitrates = ImmutableMap.builder();
-			bitrates.put(0, 0).put(1, 8).put(2, 16).put(3, 24).put(4, 32).put(5, 40).put(6, 48).put(7, 56);
-			bitrates.put(8, 64).put(9, 80).put(10, 96).put(11, 112).put(12, 128).put(13, 144).put(14, 160).put(15, -1);
-			mpeg2Builder.put(LayerDescription.LAYER_2, bitrates.build());
-			mpeg2Builder.put(LayerDescription.LAYER_3, bitrates.build());
-
-			mpegAudioVersionMapBuilder.put(MpegAudioVersion.VERSION_2, mpeg2Builder.build());
-			mpegAudioVersionMapBuilder.put(MpegAudioVersion.VERSION_2_5, mpeg2Builder.build());
-
-			return mpegAudioVersionMapBuilder.build();
-		}
-	});
-
-	/** Sampling rate table. */
-	private static final Supplier<Map<MpegAudioVersion, Map<Integer, Integer>>> samplingRateSupplier = Suppliers.memoize(new Supplier<Map<MpegAudioVersion, Map<Integer, Integer>>>() {
-
-		@Override
-		public Map<MpegAudioVersion, Map<Integer, Integer>> get() {
-			ImmutableMap.Builder<MpegAudioVersion, Map<Integer, Integer>> mpegAudioVersions = ImmutableMap.builder();
-
-			/* MPEG 1. */
-			ImmutableMap.Builder<Integer, Integer> samplingRates = ImmutableMap.builder();
-			samplingRates.put(0, 44100).put(1, 48000).put(2, 32000).put(3, 0);
-			mpegAudioVersions.put(MpegAudioVersion.VERSION_1, samplingRates.build());
-
-			/* MPEG 2. */
-			samplingRates = ImmutableMap.builder();
-			samplingRates.put(0, 22050).put(1, 24000).put(2, 16000).put(3, 0);
-			mpegAudioVersions.put(MpegAudioVersion.VERSION_2, samplingRates.build());
-
-			/* MPEG 2.5. */
-			samplingRates = ImmutableMap.builder();
-			samplingRates.put(0, 11025).put(1, 12000).put(2, 8000).put(3, 0);
-			mpegAudioVersions.put(MpegAudioVersion.VERSION_2_5, samplingRates.build());
-
-			return mpegAudioVersions.build();
-		}
-	});
-
 	/** The decoded MPEG audio version ID. */
 	private final int mpegAudioVersionId;
 
@@ -300,7 +219,7 @@ public class Frame {
 	 * @return The bitrate of this frame (in kbps)
 	 */
 	public int bitrate() {
-		return bitrateSupplier.get().get(mpegAudioVersion()).get(layerDescription()).get(bitrateIndex);
+		return FrameView.BITRATES[(mpegAudioVersionId * 4 + layerDescription) * 16 + bitrateIndex];
 	}
 
 	/**
@@ -309,7 +228,16 @@ public class Frame {
 	 * @return The sample rate (in Hertz)
 	 */
 	public int samplingRate() {
-		return samplingRateSupplier.get().get(mpegAudioVersion()).get(samplingRateFrequencyIndex);
+		return FrameView.SAMPLING_RATES[mpegAudioVersionId * 4 + samplingRateFrequencyIndex];
+	}
+
+	/**
+	 * Returns the number of samples (per channel) in this frame.
+	 *
+	 * @return The number of samples in this frame
+	 */
+	public int samples() {
+		return FrameView.samples((mpegAudioVersionId << 3) | (layerDescription << 1));
 	}
 
 	/**
@@ -339,7 +267,15 @@ public class Frame {
 		return ChannelMode.values()[channelMode];
 	}
 
-	/* TODO - mode extension. */
+	/**
+	 * Returns the mode extension. For layer III joint stereo frames, bit 0
+	 * signals intensity stereo and bit 1 signals mid/side stereo.
+	 *
+	 * @return The mode extension
+	 */
+	public int modeExtension() {
+		return modeExtension;
+	}
 
 	/**
 	 * Returns the copyright bit.
@@ -369,7 +305,8 @@ public class Frame {
 	}
 
 	/**
-	 * Returns the content of this frame.
+	 * Returns the content of this frame, i.e. everything following the 4-byte
+	 * header.
 	 *
 	 * @return The content of this frame
 	 */
@@ -407,21 +344,11 @@ public class Frame {
 	 * 		The buffer storing the frame
 	 * @param offset
 	 * 		The offset of the frame
-	 * @return The length of the frame in bytes, or {@code -1} if the frame length
-	 *         can not be calculated
+	 * @return The length of the frame in bytes (including the header), or {@code
+	 *         -1} if the frame length can not be calculated
 	 */
 	public static int getFrameLength(byte[] buffer, int offset) {
-		MpegAudioVersion mpegAudioVersion = MpegAudioVersion.values()[(buffer[offset + 1] & 0x18) >>> 3];
-		LayerDescription layerDescription = LayerDescription.values()[(buffer[offset + 1] & 0x06) >>> 1];
-		int bitrate = bitrateSupplier.get().get(mpegAudioVersion).get(layerDescription).get((buffer[offset + 2] & 0xf0) >>> 4) * 1000;
-		int samplingRate = samplingRateSupplier.get().get(mpegAudioVersion).get((buffer[offset + 2] & 0x0c) >>> 2);
-		int paddingBit = (buffer[offset + 2] & 0x02) >>> 1;
-		if (layerDescription == LayerDescription.LAYER_1) {
-			return (12 * bitrate / samplingRate + paddingBit) * 4;
-		} else if ((layerDescription == LayerDescription.LAYER_2) || (layerDescription == LayerDescription.LAYER_3)) {
-			return 144 * bitrate / samplingRate + paddingBit;
-		}
-		return -1;
+		return FrameView.frameLength(buffer, offset, 4);
 	}
 
 	/**
@@ -446,12 +373,15 @@ public class Frame {
 			int paddingBit = (buffer[offset + 2] & 0x02) >>> 1;
 			int privateBit = buffer[offset + 2] & 0x01;
 			int channelMode = (buffer[offset + 3] & 0xc0) >> 6;
-			int modeExtension = (buffer[offset + 3] & 0x60) >> 4;
+			int modeExtension = (buffer[offset + 3] & 0x30) >> 4;
 			int copyright = (buffer[offset + 3] & 0x08) >> 3;
 			int original = (buffer[offset + 3] & 0x04) >> 2;
 			int emphasis = buffer[offset + 3] & 0x03;
 			int frameLength = getFrameLength(buffer, offset);
-			return Optional.of(new Frame(mpegAudioVersionId, layerDescription, protectionBit, bitrateIndex, samplingRateFrequencyIndex, paddingBit, privateBit, channelMode, modeExtension, copyright, original, emphasis, Arrays.copyOfRange(buffer, 4, frameLength)));
+			if ((frameLength == -1) || (frameLength > length)) {
+				return Optional.absent();
+			}
+			return Optional.of(new Frame(mpegAudioVersionId, layerDescription, protectionBit, bitrateIndex, samplingRateFrequencyIndex, paddingBit, privateBit, channelMode, modeExtension, copyright, original, emphasis, Arrays.copyOfRange(buffer, offset + 4, offset + frameLength)));
 		}
 		return Optional.absent();
 	}
@@ -0,0 +1,223 @@
+/*
+ * Sonitus - FrameAligner.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Splits an MPEG audio stream into complete frames. Data is written to the
+ * aligner in chunks of arbitrary size; every complete frame is collected and
+ * can be taken with {@link #takeFrames()}, together with the number of frames
+ * and their duration. ID3v2 tags are removed from the stream. Garbage between
+ * frames is skipped if resynchronization is enabled; a frame is then only
+ * accepted without a preceding frame if the following frame header is
+ * consistent with it.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FrameAligner {
+
+	/** Whether to resynchronize on corrupt data. */
+	private final boolean resync;
+
+	/** The buffer for the incomplete data. */
+	private final byte[] buffer = new byte[16384];
+
+	/** The number of bytes in the buffer. */
+	private int length;
+
+	/** The complete frames. */
+	private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+
+	/** The view of the current frame. */
+	private final FrameView frameView = new FrameView();
+
+	/** The number of complete frames. */
+	private int frameCount;
+
+	/** The duration of the complete frames (in nanoseconds). */
+	private long duration;
+
+	/** The number of bytes that still have to be skipped. */
+	private int skip;
+
+	/** Whether the last frame was directly followed by the current position. */
+	private boolean synced;
+
+	/** Whether a frame has already been found. */
+	private boolean started;
+
+	/**
+	 * Creates a new frame aligner.
+	 *
+	 * @param resync
+	 * 		{@code true} to skip corrupt data, {@code false} to throw an exception
+	 * 		once corrupt data is encountered after the first frame
+	 */
+	public FrameAligner(boolean resync) {
+		this.resync = resync;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of complete frames that have not yet been taken.
+	 *
+	 * @return The number of complete frames
+	 */
+	public int frames() {
+		return frameCount;
+	}
+
+	/**
+	 * Returns the duration of the complete frames that have not yet been
+	 * taken.
+	 *
+	 * @return The duration of the complete frames (in microseconds)
+	 */
+	public long duration() {
+		return duration / 1000;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Writes data to this aligner.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the data
+	 * @param offset
+	 * 		The offset of the data in the buffer
+	 * @param length
+	 * 		The length of the data
+	 * @throws IOException
+	 * 		if resynchronization is disabled and the data is corrupt
+	 */
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		int position = offset;
+		int end = offset + length;
+		while (position < end) {
+			int chunk = Math.min(end - position, this.buffer.length - this.length);
+			System.arraycopy(buffer, position, this.buffer, this.length, chunk);
+			this.length += chunk;
+			position += chunk;
+			alignFrames();
+		}
+	}
+
+	/**
+	 * Returns all complete frames and resets the number of frames and their
+	 * duration.
+	 *
+	 * @return The complete frames
+	 */
+	public byte[] takeFrames() {
+		byte[] completeFrames = frames.toByteArray();
+		frames.reset();
+		frameCount = 0;
+		duration = 0;
+		return completeFrames;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Collects all complete frames in the buffer and removes the consumed data
+	 * from the buffer.
+	 *
+	 * @throws IOException
+	 * 		if resynchronization is disabled and the data is corrupt
+	 */
+	private void alignFrames() throws IOException {
+		int position = 0;
+		while (true) {
+			int skipped = Math.min(skip, length - position);
+			position += skipped;
+			skip -= skipped;
+			int remaining = length - position;
+			if ((skip > 0) || (remaining < 10)) {
+				break;
+			}
+			if ((buffer[position] == 'I') && (buffer[position + 1] == 'D') && (buffer[position + 2] == '3')) {
+				skip = 10 + ((buffer[position + 6] & 0x7f) << 21) + ((buffer[position + 7] & 0x7f) << 14) + ((buffer[position + 8] & 0x7f) << 7) + (buffer[position + 9] & 0x7f) + (((buffer[position + 5] & 0x10) != 0) ? 10 : 0);
+				synced = false;
+				continue;
+			}
+			int frameLength = FrameView.frameLength(buffer, position, remaining);
+			if (frameLength < 4) {
+				lostSync();
+				++position;
+				continue;
+			}
+			if (remaining < (frameLength + (synced ? 0 : 4))) {
+				break;
+			}
+			if (!synced && !isConsistentFrame(position, position + frameLength)) {
+				lostSync();
+				++position;
+				continue;
+			}
+			frameView.wrap(buffer, position, frameLength);
+			frames.write(buffer, position, frameLength);
+			++frameCount;
+			duration += frameView.samples() * 1000000000L / frameView.samplingRate();
+			position += frameLength;
+			synced = true;
+			started = true;
+		}
+		System.arraycopy(buffer, position, buffer, 0, length - position);
+		length -= position;
+	}
+
+	/**
+	 * Marks the stream as not synchronized.
+	 *
+	 * @throws IOException
+	 * 		if resynchronization is disabled and a frame has already been found
+	 */
+	private void lostSync() throws IOException {
+		if (started && !resync) {
+			throw new IOException("Lost synchronization of MPEG audio stream.");
+		}
+		synced = false;
+	}
+
+	/**
+	 * Returns whether the frame header at the second position is consistent
+	 * with the frame header at the first position, i.e. whether both headers
+	 * have the same version, layer, and sampling rate.
+	 *
+	 * @param position
+	 * 		The position of the first frame header
+	 * @param nextPosition
+	 * 		The position of the second frame header
+	 * @return {@code true} if the frame headers are consistent, {@code false}
+	 *         otherwise
+	 */
+	private boolean isConsistentFrame(int position, int nextPosition) {
+		return frameView.wrap(buffer, position, nextPosition - position) && frameView.isConsistent(buffer, nextPosition, length - nextPosition);
+	}
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Sonitus - FrameIndex.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Index of the frame offsets of an MP3 file. The offset and the sample
+ * position of every {@link #interval()}th frame are stored, so that playback
+ * can start at any position by reading at most {@link #interval()} frames
+ * before it. A frame carrying an {@link InfoHeader} at the start of the file
+ * is not indexed; sample position 0 is the start of the first audio frame.
+ * <p/>
+ * The index can be stored as a compact binary file: a magic number and a
+ * version, the size and modification time of the indexed file, the sampling
+ * rate, the interval, and the number of entries, followed by the offset and
+ * sample position of every entry, each stored as the difference to the
+ * previous entry.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FrameIndex {
+
+	/** The magic number of an index file. */
+	private static final int MAGIC = 0x4d334658;
+
+	/** The version of the index file format. */
+	private static final int VERSION = 1;
+
+	/** The size of the indexed file. */
+	private final long size;
+
+	/** The modification time of the indexed file. */
+	private final long lastModified;
+
+	/** The sampling rate (in Hertz). */
+	private final int samplingRate;
+
+	/** The number of frames between two entries. */
+	private final int interval;
+
+	/** The offsets of the entries. */
+	private final long[] offsets;
+
+	/** The sample positions of the entries. */
+	private final long[] samples;
+
+	/**
+	 * Creates a new frame index.
+	 *
+	 * @param size
+	 * 		The size of the indexed file
+	 * @param lastModified
+	 * 		The modification time of the indexed file
+	 * @param samplingRate
+	 * 		The sampling rate (in Hertz)
+	 * @param interval
+	 * 		The number of frames between two entries
+	 * @param offsets
+	 * 		The offsets of the entries
+	 * @param samples
+	 * 		The sample positions of the entries
+	 */
+	private FrameIndex(long size, long lastModified, int samplingRate, int interval, long[] offsets, long[] samples) {
+		this.size = size;
+		this.lastModified = lastModified;
+		this.samplingRate = samplingRate;
+		this.interval = interval;
+		this.offsets = offsets;
+		this.samples = samples;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the sampling rate of the indexed file.
+	 *
+	 * @return The sampling rate (in Hertz)
+	 */
+	public int samplingRate() {
+		return samplingRate;
+	}
+
+	/**
+	 * Returns the number of frames between two entries.
+	 *
+	 * @return The number of frames between two entries
+	 */
+	public int interval() {
+		return interval;
+	}
+
+	/**
+	 * Returns the number of entries in this index.
+	 *
+	 * @return The number of entries
+	 */
+	public int size() {
+		return offsets.length;
+	}
+
+	/**
+	 * Returns whether this index was created from the current version of the
+	 * given file, i.e. whether the size and the modification time of the file
+	 * have not changed.
+	 *
+	 * @param file
+	 * 		The file to check
+	 * @return {@code true} if this index is current, {@code false} otherwise
+	 */
+	public boolean isCurrent(File file) {
+		return (file.length() == size) && (file.lastModified() == lastModified);
+	}
+
+	/**
+	 * Returns the offset of the last indexed frame that starts at or before the
+	 * given sample position.
+	 *
+	 * @param samplePosition
+	 * 		The sample position to seek to
+	 * @return The offset of the frame in the file (in bytes)
+	 */
+	public long offset(long samplePosition) {
+		return offsets[entry(samplePosition)];
+	}
+
+	/**
+	 * Returns the sample position of the last indexed frame that starts at or
+	 * before the given sample position.
+	 *
+	 * @param samplePosition
+	 * 		The sample position to seek to
+	 * @return The sample position of the frame
+	 */
+	public long samplePosition(long samplePosition) {
+		return samples[entry(samplePosition)];
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Stores this index in the given file. The index is written to a
+	 * temporary file first which then replaces the index file so that an
+	 * interrupted write does not destroy the index.
+	 *
+	 * @param indexFile
+	 * 		The file to store the index in
+	 * @throws IOException
+	 * 		if the index can not be written
+	 */
+	public void save(File indexFile) throws IOException {
+		File temporaryFile = new File(indexFile.getPath() + ".new");
+		FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile);
+		try {
+			DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+			dataOutputStream.writeInt(MAGIC);
+			dataOutputStream.writeInt(VERSION);
+			dataOutputStream.writeLong(size);
+			dataOutputStream.writeLong(lastModified);
+			dataOutputStream.writeInt(samplingRate);
+			dataOutputStream.writeInt(interval);
+			dataOutputStream.writeInt(offsets.length);
+			for (int entry = 0; entry < offsets.length; ++entry) {
+				dataOutputStream.writeInt((int) (offsets[entry] - ((entry == 0) ? 0 : offsets[entry - 1])));
+				dataOutputStream.writeInt((int) (samples[entry] - ((entry == 0) ? 0 : samples[entry - 1])));
+			}
+			dataOutputStream.flush();
+		} finally {
+			Closeables.close(fileOutputStream, false);
+		}
+		if (!temporaryFile.renameTo(indexFile) && !(indexFile.delete() && temporaryFile.renameTo(indexFile))) {
+			throw new IOException(String.format("Could not replace %s.", indexFile));
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Creates an index of the given MP3 file.
+	 *
+	 * @param file
+	 * 		The file to index
+	 * @param interval
+	 * 		The number of frames between two entries
+	 * @return The index of the file
+	 * @throws IOException
+	 * 		if the file can not be read, or does not contain any frames
+	 */
+	public static FrameIndex create(File file, int interval) throws IOException {
+		checkArgument(interval > 0, "interval must be greater than 0");
+		long size = file.length();
+		long lastModified = file.lastModified();
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			Parser parser = new Parser(inputStream);
+			FrameView frameView = parser.nextFrameView();
+			int samplingRate = frameView.samplingRate();
+			boolean infoFrame = InfoHeader.parse(frameView).isPresent();
+			long[] offsets = new long[64];
+			long[] samples = new long[64];
+			int entries = 0;
+			long samplePosition = 0;
+			int frame = 0;
+			try {
+				if (infoFrame) {
+					frameView = parser.nextFrameView();
+				}
+				while (true) {
+					if ((frame % interval) == 0) {
+						if (entries == offsets.length) {
+							offsets = Arrays.copyOf(offsets, entries * 2);
+							samples = Arrays.copyOf(samples, entries * 2);
+						}
+						offsets[entries] = parser.frameOffset();
+						samples[entries] = samplePosition;
+						++entries;
+					}
+					samplePosition += frameView.samples();
+					++frame;
+					frameView = parser.nextFrameView();
+				}
+			} catch (EOFException eofe1) {
+				/* all frames indexed. */
+			}
+			if (entries == 0) {
+				throw new EOFException();
+			}
+			return new FrameIndex(size, lastModified, samplingRate, interval, Arrays.copyOf(offsets, entries), Arrays.copyOf(samples, entries));
+		} finally {
+			Closeables.close(inputStream, true);
+		}
+	}
+
+	/**
+	 * Loads an index from the given file.
+	 *
+	 * @param indexFile
+	 * 		The file the index is stored in
+	 * @return The loaded index
+	 * @throws IOException
+	 * 		if the index file can not be read
+	 */
+	public static FrameIndex load(File indexFile) throws IOException {
+		FileInputStream fileInputStream = new FileInputStream(indexFile);
+		try {
+			DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(fileInputStream));
+			if ((dataInputStream.readInt() != MAGIC) || (dataInputStream.readInt() != VERSION)) {
+				throw new IOException(String.format("%s is not a frame index.", indexFile));
+			}
+			long size = dataInputStream.readLong();
+			long lastModified = dataInputStream.readLong();
+			int samplingRate = dataInputStream.readInt();
+			int interval = dataInputStream.readInt();
+			int count = dataInputStream.readInt();
+			long[] offsets = new long[count];
+			long[] samples = new long[count];
+			for (int entry = 0; entry < count; ++entry) {
+				offsets[entry] = ((entry == 0) ? 0 : offsets[entry - 1]) + (dataInputStream.readInt() & 0xffffffffL);
+				samples[entry] = ((entry == 0) ? 0 : samples[entry - 1]) + (dataInputStream.readInt() & 0xffffffffL);
+			}
+			return new FrameIndex(size, lastModified, samplingRate, interval, offsets, samples);
+		} finally {
+			Closeables.close(fileInputStream, true);
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the index of the last entry at or before the given sample
+	 * position.
+	 *
+	 * @param samplePosition
+	 * 		The sample position
+	 * @return The index of the entry
+	 */
+	private int entry(long samplePosition) {
+		int entry = Arrays.binarySearch(samples, samplePosition);
+		return (entry >= 0) ? entry : Math.max(0, -entry - 2);
+	}
+
+}
@@ -0,0 +1,370 @@
+/*
+ * Sonitus - FrameView.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import java.util.Arrays;
+
+import net.pterodactylus.sonitus.io.mp3.Frame.ChannelMode;
+import net.pterodactylus.sonitus.io.mp3.Frame.LayerDescription;
+import net.pterodactylus.sonitus.io.mp3.Frame.MpegAudioVersion;
+
+/**
+ * Flyweight view of an MPEG audio frame in a buffer. Unlike {@link Frame}, a
+ * view does not copy the frame and can be {@link #wrap(byte[], int, int)
+ * re-wrapped} around another frame, so scanning a stream does not allocate
+ * anything. All values are looked up in primitive tables that are indexed by
+ * the bits of the frame header. A view that outlives its buffer can be turned
+ * into a {@link Frame} using {@link #toFrame()}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FrameView {
+
+	/**
+	 * The bitrates (in kbps), indexed by version, layer, and bitrate index. The
+	 * bitrate is {@code 0} for the free format and for invalid combinations.
+	 */
+	static final int[] BITRATES = new int[4 * 4 * 16];
+
+	/** The sampling rates (in Hertz), indexed by version and sampling rate index. */
+	static final int[] SAMPLING_RATES = new int[4 * 4];
+
+	/**
+	 * The frame lengths without padding (in bytes), indexed by the bits 1 to 4
+	 * of the second header byte and the bits 2 to 7 of the third header byte,
+	 * i.e. by version, layer, bitrate index, and sampling rate index. The length
+	 * is {@code 0} if the frame length can not be calculated.
+	 */
+	private static final int[] FRAME_LENGTHS = new int[1024];
+
+	static {
+		int[] mpeg1Layer1 = { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448, 0 };
+		int[] mpeg1Layer2 = { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384, 0 };
+		int[] mpeg1Layer3 = { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 0 };
+		int[] mpeg2Layer1 = { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256, 0 };
+		int[] mpeg2Layer2And3 = { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0 };
+		for (MpegAudioVersion mpegAudioVersion : Arrays.asList(MpegAudioVersion.VERSION_1, MpegAudioVersion.VERSION_2, MpegAudioVersion.VERSION_2_5)) {
+			boolean mpeg1 = mpegAudioVersion == MpegAudioVersion.VERSION_1;
+			int version = mpegAudioVersion.ordinal();
+			System.arraycopy(mpeg1 ? mpeg1Layer1 : mpeg2Layer1, 0, BITRATES, (version * 4 + LayerDescription.LAYER_1.ordinal()) * 16, 16);
+			System.arraycopy(mpeg1 ? mpeg1Layer2 : mpeg2Layer2And3, 0, BITRATES, (version * 4 + LayerDescription.LAYER_2.ordinal()) * 16, 16);
+			System.arraycopy(mpeg1 ? mpeg1Layer3 : mpeg2Layer2And3, 0, BITRATES, (version * 4 + LayerDescription.LAYER_3.ordinal()) * 16, 16);
+			int divisor = mpeg1 ? 1 : ((mpegAudioVersion == MpegAudioVersion.VERSION_2) ? 2 : 4);
+			SAMPLING_RATES[version * 4] = 44100 / divisor;
+			SAMPLING_RATES[version * 4 + 1] = 48000 / divisor;
+			SAMPLING_RATES[version * 4 + 2] = 32000 / divisor;
+		}
+		for (int index = 0; index < FRAME_LENGTHS.length; ++index) {
+			int version = index >>> 8;
+			int layer = (index >>> 6) & 0x03;
+			int bitrate = BITRATES[(index >>> 2) & 0xff] * 1000;
+			int samplingRate = SAMPLING_RATES[version * 4 + (index & 0x03)];
+			if ((bitrate == 0) || (samplingRate == 0) || (layer == LayerDescription.RESERVED.ordinal())) {
+				continue;
+			}
+			if (layer == LayerDescription.LAYER_1.ordinal()) {
+				FRAME_LENGTHS[index] = (12 * bitrate / samplingRate) * 4;
+			} else if ((layer == LayerDescription.LAYER_3.ordinal()) && (version != MpegAudioVersion.VERSION_1.ordinal())) {
+				FRAME_LENGTHS[index] = 72 * bitrate / samplingRate;
+			} else {
+				FRAME_LENGTHS[index] = 144 * bitrate / samplingRate;
+			}
+		}
+	}
+
+	/** The buffer containing the frame. */
+	private byte[] buffer;
+
+	/** The offset of the frame in the buffer. */
+	private int offset;
+
+	/** The second byte of the frame header. */
+	private int header1;
+
+	/** The third byte of the frame header. */
+	private int header2;
+
+	/** The fourth byte of the frame header. */
+	private int header3;
+
+	/** The length of the frame (in bytes). */
+	private int frameLength;
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the buffer containing the frame.
+	 *
+	 * @return The buffer containing the frame
+	 */
+	public byte[] buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns the offset of the frame in the buffer.
+	 *
+	 * @return The offset of the frame (in bytes)
+	 */
+	public int offset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the length of the frame, including the header.
+	 *
+	 * @return The length of the frame (in bytes)
+	 */
+	public int frameLength() {
+		return frameLength;
+	}
+
+	/**
+	 * Returns the MPEG audio version.
+	 *
+	 * @return The MPEG audio version
+	 */
+	public MpegAudioVersion mpegAudioVersion() {
+		return MpegAudioVersion.values()[(header1 >>> 3) & 0x03];
+	}
+
+	/**
+	 * Returns the layer description.
+	 *
+	 * @return The layer description
+	 */
+	public LayerDescription layerDescription() {
+		return LayerDescription.values()[(header1 >>> 1) & 0x03];
+	}
+
+	/**
+	 * Returns the protection bit.
+	 *
+	 * @return {@code true} if the protection bit is set, {@code false} otherwise
+	 */
+	public boolean protectionBit() {
+		return (header1 & 0x01) != 0;
+	}
+
+	/**
+	 * Returns the bitrate of this frame.
+	 *
+	 * @return The bitrate of this frame (in kbps)
+	 */
+	public int bitrate() {
+		return BITRATES[((header1 & 0x1e) << 3) | (header2 >>> 4)];
+	}
+
+	/**
+	 * Returns the sampling rate of the audio data in this frame.
+	 *
+	 * @return The sample rate (in Hertz)
+	 */
+	public int samplingRate() {
+		return SAMPLING_RATES[((header1 & 0x18) >>> 1) | ((header2 >>> 2) & 0x03)];
+	}
+
+	/**
+	 * Returns the number of samples (per channel) in this frame.
+	 *
+	 * @return The number of samples in this frame
+	 */
+	public int samples() {
+		return samples(header1);
+	}
+
+	/**
+	 * Returns the channel mode.
+	 *
+	 * @return The channel mode
+	 */
+	public ChannelMode channelMode() {
+		return ChannelMode.values()[header3 >>> 6];
+	}
+
+	/**
+	 * Returns the number of channels.
+	 *
+	 * @return The number of channels
+	 */
+	public int channels() {
+		return ((header3 >>> 6) == ChannelMode.SINGLE_CHANNEL.ordinal()) ? 1 : 2;
+	}
+
+	/**
+	 * Returns whether the given frame header has the same version, layer, and
+	 * sampling rate as the frame of this view.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the frame header
+	 * @param offset
+	 * 		The offset of the frame header
+	 * @param length
+	 * 		The length of the data in the buffer, starting at the offset
+	 * @return {@code true} if the frame header is consistent with this frame,
+	 *         {@code false} otherwise
+	 */
+	public boolean isConsistent(byte[] buffer, int offset, int length) {
+		return Frame.isFrame(buffer, offset, length) && ((buffer[offset + 1] & 0x1e) == (header1 & 0x1e)) && ((buffer[offset + 2] & 0x0c) == (header2 & 0x0c));
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Wraps this view around the frame at the given offset. If the data at the
+	 * offset is not a frame header, or the complete frame is not contained in
+	 * the buffer, this view is not changed.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the frame
+	 * @param offset
+	 * 		The offset of the frame
+	 * @param length
+	 * 		The length of the data in the buffer, starting at the offset
+	 * @return {@code true} if this view now shows the frame at the given
+	 *         offset, {@code false} otherwise
+	 */
+	public boolean wrap(byte[] buffer, int offset, int length) {
+		int frameLength = frameLength(buffer, offset, length);
+		if ((frameLength == -1) || (frameLength > length)) {
+			return false;
+		}
+		this.buffer = buffer;
+		this.offset = offset;
+		this.header1 = buffer[offset + 1] & 0xff;
+		this.header2 = buffer[offset + 2] & 0xff;
+		this.header3 = buffer[offset + 3] & 0xff;
+		this.frameLength = frameLength;
+		return true;
+	}
+
+	/**
+	 * Creates a {@link Frame} from the frame shown by this view. The content of
+	 * the frame is copied.
+	 *
+	 * @return The frame shown by this view
+	 */
+	public Frame toFrame() {
+		return Frame.create(buffer, offset, frameLength).get();
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns the length of the frame at the given offset.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the frame
+	 * @param offset
+	 * 		The offset of the frame
+	 * @param length
+	 * 		The length of the data in the buffer, starting at the offset
+	 * @return The length of the frame (in bytes), or {@code -1} if there is no
+	 *         valid frame header at the given offset
+	 */
+	public static int frameLength(byte[] buffer, int offset, int length) {
+		if (!Frame.isFrame(buffer, offset, length)) {
+			return -1;
+		}
+		int header2 = buffer[offset + 2] & 0xff;
+		int frameLength = FRAME_LENGTHS[((buffer[offset + 1] & 0x1e) << 5) | (header2 >>> 2)];
+		if (frameLength == 0) {
+			return -1;
+		}
+		if ((header2 & 0x02) == 0) {
+			return frameLength;
+		}
+		return frameLength + ((((buffer[offset + 1] >>> 1) & 0x03) == LayerDescription.LAYER_1.ordinal()) ? 4 : 1);
+	}
+
+	/**
+	 * Returns the position of the next valid frame header. Bytes that can not
+	 * start a frame header are skipped without further examination.
+	 *
+	 * @param buffer
+	 * 		The buffer to search
+	 * @param offset
+	 * 		The offset at which to start searching
+	 * @param length
+	 * 		The length of the data to search
+	 * @return The offset of the next frame header, or {@code -1} if the data
+	 *         does not contain a complete frame header
+	 */
+	public static int find(byte[] buffer, int offset, int length) {
+		int end = offset + length - 3;
+		for (int position = offset; position < end; ++position) {
+			if ((buffer[position] == (byte) 0xff) && ((buffer[position + 1] & 0xe0) == 0xe0) && (frameLength(buffer, position, end + 3 - position) != -1)) {
+				return position;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the next valid frame header that is directly
+	 * followed by a consistent frame header. This is used to find the start of
+	 * a frame at an arbitrary position in a stream.
+	 *
+	 * @param buffer
+	 * 		The buffer to search
+	 * @param offset
+	 * 		The offset at which to start searching
+	 * @param length
+	 * 		The length of the data to search
+	 * @return The offset of the next frame header, or {@code -1} if the data
+	 *         does not contain two consecutive frame headers
+	 */
+	public static int findConsecutive(byte[] buffer, int offset, int length) {
+		FrameView frameView = new FrameView();
+		int end = offset + length;
+		int position = find(buffer, offset, length);
+		while (position != -1) {
+			int frameLength = frameLength(buffer, position, end - position);
+			if (frameView.wrap(buffer, position, frameLength) && frameView.isConsistent(buffer, position + frameLength, end - position - frameLength)) {
+				return position;
+			}
+			position = find(buffer, position + 1, end - position - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the number of samples (per channel) of a frame.
+	 *
+	 * @param header1
+	 * 		The second byte of the frame header
+	 * @return The number of samples in the frame
+	 */
+	static int samples(int header1) {
+		int layer = (header1 >>> 1) & 0x03;
+		if (layer == LayerDescription.LAYER_1.ordinal()) {
+			return 384;
+		}
+		if ((layer == LayerDescription.LAYER_3.ordinal()) && (((header1 >>> 3) & 0x03) != MpegAudioVersion.VERSION_1.ordinal())) {
+			return 576;
+		}
+		return 1152;
+	}
+
+}
@@ -0,0 +1,446 @@
+/*
+ * Sonitus - InfoHeader.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import net.pterodactylus.sonitus.io.mp3.Frame.ChannelMode;
+import net.pterodactylus.sonitus.io.mp3.Frame.MpegAudioVersion;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+
+/**
+ * The information header that encoders store in the first frame of an MP3
+ * stream. Xing headers (written for VBR streams), Info headers (the same
+ * layout, written for CBR streams), and Fraunhofer’s VBRI headers are
+ * recognized; a LAME extension following a Xing or Info header is parsed for
+ * the encoder delay and padding. The frame carrying the header contains
+ * silence and is not counted in {@link #frames()}.
+ * <p/>
+ * This uses information from <a href="http://gabriel.mp3-tech.org/mp3infotag.html">gabriel.mp3-tech.org/mp3infotag.html</a>.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class InfoHeader {
+
+	/** The type of the header. */
+	public enum Type {
+
+		/** Xing header. */
+		XING,
+
+		/** Info header. */
+		INFO,
+
+		/** VBRI header. */
+		VBRI
+
+	}
+
+	/** The type of the header. */
+	private final Type type;
+
+	/** The number of frames, or {@code -1} if unknown. */
+	private final int frames;
+
+	/** The number of bytes, or {@code -1} if unknown. */
+	private final long bytes;
+
+	/** The table of contents, or {@code null} if not present. */
+	private final int[] toc;
+
+	/** The encoder string, or {@code null} if not present. */
+	private final String encoder;
+
+	/** The encoder delay (in samples). */
+	private final int encoderDelay;
+
+	/** The encoder padding (in samples). */
+	private final int encoderPadding;
+
+	/** The number of samples per frame. */
+	private final int samplesPerFrame;
+
+	/** The sampling rate (in Hertz). */
+	private final int samplingRate;
+
+	/**
+	 * Creates a new info header.
+	 *
+	 * @param type
+	 * 		The type of the header
+	 * @param frames
+	 * 		The number of frames, or {@code -1} if unknown
+	 * @param bytes
+	 * 		The number of bytes, or {@code -1} if unknown
+	 * @param toc
+	 * 		The table of contents, or {@code null} if not present
+	 * @param encoder
+	 * 		The encoder string, or {@code null} if not present
+	 * @param encoderDelay
+	 * 		The encoder delay (in samples)
+	 * @param encoderPadding
+	 * 		The encoder padding (in samples)
+	 * @param samplesPerFrame
+	 * 		The number of samples per frame
+	 * @param samplingRate
+	 * 		The sampling rate (in Hertz)
+	 */
+	private InfoHeader(Type type, int frames, long bytes, int[] toc, String encoder, int encoderDelay, int encoderPadding, int samplesPerFrame, int samplingRate) {
+		this.type = type;
+		this.frames = frames;
+		this.bytes = bytes;
+		this.toc = toc;
+		this.encoder = encoder;
+		this.encoderDelay = encoderDelay;
+		this.encoderPadding = encoderPadding;
+		this.samplesPerFrame = samplesPerFrame;
+		this.samplingRate = samplingRate;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the type of this header.
+	 *
+	 * @return The type of this header
+	 */
+	public Type type() {
+		return type;
+	}
+
+	/**
+	 * Returns the number of audio frames in the stream, not including the frame
+	 * carrying this header.
+	 *
+	 * @return The number of frames, or {@link Optional#absent()} if the header
+	 *         does not contain it
+	 */
+	public Optional<Integer> frames() {
+		return (frames < 0) ? Optional.<Integer>absent() : Optional.of(frames);
+	}
+
+	/**
+	 * Returns the number of bytes in the stream, including the frame carrying
+	 * this header.
+	 *
+	 * @return The number of bytes, or {@link Optional#absent()} if the header
+	 *         does not contain it
+	 */
+	public Optional<Long> bytes() {
+		return (bytes < 0) ? Optional.<Long>absent() : Optional.of(bytes);
+	}
+
+	/**
+	 * Returns the table of contents. The table has 100 entries; entry {@code i}
+	 * is the position at {@code i} percent of the duration, as a fraction of
+	 * {@link #bytes()} scaled to the range 0 to 256. VBRI tables are
+	 * converted to this format.
+	 *
+	 * @return The table of contents, or {@link Optional#absent()} if the header
+	 *         does not contain it
+	 */
+	public Optional<int[]> toc() {
+		return Optional.fromNullable(toc);
+	}
+
+	/**
+	 * Returns the encoder string of the LAME extension.
+	 *
+	 * @return The encoder string, or {@link Optional#absent()} if there is no
+	 *         LAME extension
+	 */
+	public Optional<String> encoder() {
+		return Optional.fromNullable(encoder);
+	}
+
+	/**
+	 * Returns the number of samples the encoder inserted at the start of the
+	 * stream.
+	 *
+	 * @return The encoder delay (in samples), or {@code 0} if unknown
+	 */
+	public int encoderDelay() {
+		return encoderDelay;
+	}
+
+	/**
+	 * Returns the number of samples the encoder appended to the end of the
+	 * stream.
+	 *
+	 * @return The encoder padding (in samples), or {@code 0} if unknown
+	 */
+	public int encoderPadding() {
+		return encoderPadding;
+	}
+
+	/**
+	 * Returns the number of samples (per channel) in the stream, with the
+	 * encoder delay and padding removed.
+	 *
+	 * @return The number of samples, or {@link Optional#absent()} if the
+	 *         number of frames is unknown
+	 */
+	public Optional<Long> samples() {
+		if (frames < 0) {
+			return Optional.absent();
+		}
+		return Optional.of(Math.max(0, (long) frames * samplesPerFrame - encoderDelay - encoderPadding));
+	}
+
+	/**
+	 * Returns the duration of the stream, with the encoder delay and padding
+	 * removed.
+	 *
+	 * @return The duration (in microseconds), or {@link Optional#absent()} if
+	 *         the number of frames is unknown
+	 */
+	public Optional<Long> duration() {
+		if (frames < 0) {
+			return Optional.absent();
+		}
+		return Optional.of(samples().get() * 1000000 / samplingRate);
+	}
+
+	/**
+	 * Returns the offset of the frame at the given fraction of the duration,
+	 * interpolated from the table of contents.
+	 *
+	 * @param fraction
+	 * 		The fraction of the duration (from 0 to 1)
+	 * @return The offset of the frame, relative to the start of the frame
+	 *         carrying this header (in bytes), or {@link Optional#absent()} if
+	 *         this header does not contain a table of contents and the number
+	 *         of bytes
+	 */
+	public Optional<Long> offset(double fraction) {
+		if ((toc == null) || (bytes < 0)) {
+			return Optional.absent();
+		}
+		double percent = Math.max(0, Math.min(100, fraction * 100));
+		int index = Math.min(99, (int) percent);
+		double before = toc[index];
+		double after = (index < 99) ? toc[index + 1] : 256;
+		return Optional.of((long) ((before + (after - before) * (percent - index)) * bytes / 256));
+	}
+
+	/**
+	 * Returns the fraction of the duration at which the frame at the given
+	 * offset starts, interpolated from the table of contents. This is the
+	 * inverse of {@link #offset(double)}.
+	 *
+	 * @param offset
+	 * 		The offset of the frame, relative to the start of the frame carrying
+	 * 		this header (in bytes)
+	 * @return The fraction of the duration (from 0 to 1), or {@link
+	 *         Optional#absent()} if this header does not contain a table of
+	 *         contents and the number of bytes
+	 */
+	public Optional<Double> fraction(long offset) {
+		if ((toc == null) || (bytes <= 0)) {
+			return Optional.absent();
+		}
+		double value = Math.max(0, Math.min(256, offset * 256.0 / bytes));
+		int index = 0;
+		while ((index < 99) && (toc[index + 1] <= value)) {
+			++index;
+		}
+		double before = toc[index];
+		double after = (index < 99) ? toc[index + 1] : 256;
+		double part = (after > before) ? Math.max(0, Math.min(1, (value - before) / (after - before))) : 0;
+		return Optional.of((index + part) / 100);
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Parses the info header in the given frame.
+	 *
+	 * @param frameView
+	 * 		The view of the first frame of the stream
+	 * @return The parsed header, or {@link Optional#absent()} if the frame
+	 *         does not contain an info header
+	 */
+	public static Optional<InfoHeader> parse(FrameView frameView) {
+		byte[] buffer = frameView.buffer();
+		int start = frameView.offset();
+		int end = start + frameView.frameLength();
+		boolean mono = frameView.channelMode() == ChannelMode.SINGLE_CHANNEL;
+		int xingOffset = start + 4 + (frameView.protectionBit() ? 0 : 2) + ((frameView.mpegAudioVersion() == MpegAudioVersion.VERSION_1) ? (mono ? 17 : 32) : (mono ? 9 : 17));
+		if (matches(buffer, xingOffset, end, "Xing") || matches(buffer, xingOffset, end, "Info")) {
+			return parseXing(frameView, xingOffset, end);
+		}
+		if (matches(buffer, start + 36, end, "VBRI")) {
+			return parseVbri(frameView, start + 36, end);
+		}
+		return Optional.absent();
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Parses a Xing or Info header and its LAME extension.
+	 *
+	 * @param frameView
+	 * 		The view of the frame
+	 * @param offset
+	 * 		The offset of the header
+	 * @param end
+	 * 		The end of the frame
+	 * @return The parsed header, or {@link Optional#absent()} if the header is
+	 *         truncated
+	 */
+	private static Optional<InfoHeader> parseXing(FrameView frameView, int offset, int end) {
+		byte[] buffer = frameView.buffer();
+		Type type = (buffer[offset] == 'X') ? Type.XING : Type.INFO;
+		if ((offset + 8) > end) {
+			return Optional.absent();
+		}
+		int flags = readInt(buffer, offset + 4, 4);
+		int position = offset + 8;
+		int length = 8 + (((flags & 0x01) != 0) ? 4 : 0) + (((flags & 0x02) != 0) ? 4 : 0) + (((flags & 0x04) != 0) ? 100 : 0) + (((flags & 0x08) != 0) ? 4 : 0);
+		if ((offset + length) > end) {
+			return Optional.absent();
+		}
+		int frames = -1;
+		if ((flags & 0x01) != 0) {
+			frames = readInt(buffer, position, 4);
+			position += 4;
+		}
+		long bytes = -1;
+		if ((flags & 0x02) != 0) {
+			bytes = readInt(buffer, position, 4) & 0xffffffffL;
+			position += 4;
+		}
+		int[] toc = null;
+		if ((flags & 0x04) != 0) {
+			toc = new int[100];
+			for (int index = 0; index < 100; ++index) {
+				toc[index] = buffer[position + index] & 0xff;
+			}
+			position += 100;
+		}
+		if ((flags & 0x08) != 0) {
+			position += 4;
+		}
+		String encoder = null;
+		int encoderDelay = 0;
+		int encoderPadding = 0;
+		if (((position + 24) <= end) && (matches(buffer, position, end, "LAME") || matches(buffer, position, end, "Lavc") || matches(buffer, position, end, "Lavf"))) {
+			encoder = new String(buffer, position, 9, Charsets.US_ASCII).trim();
+			int delayAndPadding = readInt(buffer, position + 21, 3);
+			encoderDelay = delayAndPadding >>> 12;
+			encoderPadding = delayAndPadding & 0xfff;
+		}
+		return Optional.of(new InfoHeader(type, frames, bytes, toc, encoder, encoderDelay, encoderPadding, frameView.samples(), frameView.samplingRate()));
+	}
+
+	/**
+	 * Parses a VBRI header. Its table of contents is converted to the format
+	 * of a Xing header. The delay stored in a VBRI header is not in samples and
+	 * is ignored.
+	 *
+	 * @param frameView
+	 * 		The view of the frame
+	 * @param offset
+	 * 		The offset of the header
+	 * @param end
+	 * 		The end of the frame
+	 * @return The parsed header, or {@link Optional#absent()} if the header is
+	 *         truncated
+	 */
+	private static Optional<InfoHeader> parseVbri(FrameView frameView, int offset, int end) {
+		byte[] buffer = frameView.buffer();
+		if ((offset + 26) > end) {
+			return Optional.absent();
+		}
+		long bytes = readInt(buffer, offset + 10, 4) & 0xffffffffL;
+		int frames = readInt(buffer, offset + 14, 4);
+		int entries = readInt(buffer, offset + 18, 2);
+		int scale = readInt(buffer, offset + 20, 2);
+		int entrySize = readInt(buffer, offset + 22, 2);
+		int framesPerEntry = readInt(buffer, offset + 24, 2);
+		int[] toc = null;
+		if ((entries > 0) && (entrySize >= 1) && (entrySize <= 4) && (framesPerEntry > 0) && (frames > 0) && (bytes > 0) && ((offset + 26 + entries * entrySize) <= end)) {
+			long[] positions = new long[entries + 1];
+			positions[0] = frameView.frameLength();
+			for (int entry = 0; entry < entries; ++entry) {
+				positions[entry + 1] = positions[entry] + (long) readInt(buffer, offset + 26 + entry * entrySize, entrySize) * scale;
+			}
+			toc = new int[100];
+			for (int percent = 0; percent < 100; ++percent) {
+				double entry = Math.min(entries, percent * frames / 100.0 / framesPerEntry);
+				int index = Math.min(entries - 1, (int) entry);
+				double position = positions[index] + (positions[index + 1] - positions[index]) * (entry - index);
+				toc[percent] = (int) Math.min(255, position * 256 / bytes);
+			}
+		}
+		return Optional.of(new InfoHeader(Type.VBRI, frames, bytes, toc, null, 0, 0, frameView.samples(), frameView.samplingRate()));
+	}
+
+	/**
+	 * Returns whether the buffer contains the given tag at the given offset.
+	 *
+	 * @param buffer
+	 * 		The buffer
+	 * @param offset
+	 * 		The offset of the tag
+	 * @param end
+	 * 		The end of the valid data in the buffer
+	 * @param tag
+	 * 		The tag to look for
+	 * @return {@code true} if the buffer contains the tag, {@code false}
+	 *         otherwise
+	 */
+	private static boolean matches(byte[] buffer, int offset, int end, String tag) {
+		if ((offset + tag.length()) > end) {
+			return false;
+		}
+		for (int index = 0; index < tag.length(); ++index) {
+			if (buffer[offset + index] != tag.charAt(index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a big-endian unsigned integer from the given buffer.
+	 *
+	 * @param buffer
+	 * 		The buffer
+	 * @param offset
+	 * 		The offset of the integer
+	 * @param length
+	 * 		The length of the integer (in bytes)
+	 * @return The integer
+	 */
+	private static int readInt(byte[] buffer, int offset, int length) {
+		int value = 0;
+		for (int index = 0; index < length; ++index) {
+			value = (value << 8) | (buffer[offset + index] & 0xff);
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,1263 @@
+/*
+ * Sonitus - Layer3Decoder.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.pterodactylus.sonitus.io.BitReader;
+import net.pterodactylus.sonitus.io.mp3.Frame.ChannelMode;
+import net.pterodactylus.sonitus.io.mp3.Frame.LayerDescription;
+import net.pterodactylus.sonitus.io.mp3.Frame.MpegAudioVersion;
+
+/**
+ * Decoder for MPEG-1, MPEG-2, and MPEG-2.5 audio layer III frames, as
+ * specified in ISO/IEC 11172-3 and ISO/IEC 13818-3. Frames have to be decoded
+ * in stream order because the decoder keeps the bit reservoir and the
+ * overlapping state of the filter banks between frames. All buffers are
+ * allocated once and reused for every frame, so a decoder must not be shared
+ * between threads.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Layer3Decoder {
+
+	/** The boundaries of the long scalefactor bands, per sampling rate. */
+	static final int[][] longBands = {
+			/* 44.1 kHz, 48 kHz, 32 kHz. */
+			{ 0, 4, 8, 12, 16, 20, 24, 30, 36, 44, 52, 62, 74, 90, 110, 134, 162, 196, 238, 288, 342, 418, 576 },
+			{ 0, 4, 8, 12, 16, 20, 24, 30, 36, 42, 50, 60, 72, 88, 106, 128, 156, 190, 230, 276, 330, 384, 576 },
+			{ 0, 4, 8, 12, 16, 20, 24, 30, 36, 44, 54, 66, 82, 102, 126, 156, 194, 240, 296, 364, 448, 550, 576 },
+			/* 22.05 kHz, 24 kHz, 16 kHz. */
+			{ 0, 6, 12, 18, 24, 30, 36, 44, 54, 66, 80, 96, 116, 140, 168, 200, 238, 284, 336, 396, 464, 522, 576 },
+			{ 0, 6, 12, 18, 24, 30, 36, 44, 54, 66, 80, 96, 114, 136, 162, 194, 232, 278, 332, 394, 464, 540, 576 },
+			{ 0, 6, 12, 18, 24, 30, 36, 44, 54, 66, 80, 96, 116, 140, 168, 200, 238, 284, 336, 396, 464, 522, 576 },
+			/* 11.025 kHz, 12 kHz, 8 kHz. */
+			{ 0, 6, 12, 18, 24, 30, 36, 44, 54, 66, 80, 96, 116, 140, 168, 200, 238, 284, 336, 396, 464, 522, 576 },
+			{ 0, 6, 12, 18, 24, 30, 36, 44, 54, 66, 80, 96, 116, 140, 168, 200, 238, 284, 336, 396, 464, 522, 576 },
+			{ 0, 12, 24, 36, 48, 60, 72, 88, 108, 132, 160, 192, 232, 280, 336, 400, 476, 566, 568, 570, 572, 574, 576 }
+	};
+
+	/** The boundaries of the short scalefactor bands (per window), per sampling rate. */
+	private static final int[][] shortBands = {
+			/* 44.1 kHz, 48 kHz, 32 kHz. */
+			{ 0, 4, 8, 12, 16, 22, 30, 40, 52, 66, 84, 106, 136, 192 },
+			{ 0, 4, 8, 12, 16, 22, 28, 38, 50, 64, 80, 100, 126, 192 },
+			{ 0, 4, 8, 12, 16, 22, 30, 42, 58, 78, 104, 138, 180, 192 },
+			/* 22.05 kHz, 24 kHz, 16 kHz. */
+			{ 0, 4, 8, 12, 18, 24, 32, 42, 56, 74, 100, 132, 174, 192 },
+			{ 0, 4, 8, 12, 18, 26, 36, 48, 62, 80, 104, 136, 180, 192 },
+			{ 0, 4, 8, 12, 18, 26, 36, 48, 62, 80, 104, 134, 174, 192 },
+			/* 11.025 kHz, 12 kHz, 8 kHz. */
+			{ 0, 4, 8, 12, 18, 26, 36, 48, 62, 80, 104, 134, 174, 192 },
+			{ 0, 4, 8, 12, 18, 26, 36, 48, 62, 80, 104, 134, 174, 192 },
+			{ 0, 8, 16, 24, 36, 52, 72, 96, 124, 160, 162, 164, 166, 192 }
+	};
+
+	/** The sampling rates, in the order of the band tables. */
+	static final int[] samplingRates = { 44100, 48000, 32000, 22050, 24000, 16000, 11025, 12000, 8000 };
+
+	/** The pre-emphasis values of the long scalefactor bands. */
+	private static final int[] pretab = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 3, 3, 3, 2, 0 };
+
+	/** The lengths of the first scalefactors (MPEG-1), per scalefac_compress. */
+	static final int[] slen1 = { 0, 0, 0, 0, 3, 1, 1, 1, 2, 2, 2, 3, 3, 3, 4, 4 };
+
+	/** The lengths of the second scalefactors (MPEG-1), per scalefac_compress. */
+	static final int[] slen2 = { 0, 1, 2, 3, 0, 1, 2, 3, 1, 2, 3, 1, 2, 3, 2, 3 };
+
+	/** The first scalefactor band of each scalefactor group (MPEG-1). */
+	private static final int[] scalefactorGroups = { 0, 6, 11, 16, 21 };
+
+	/**
+	 * The number of scalefactors in each of the four scalefactor groups of
+	 * MPEG-2 frames, per partition table and block type (long, short, mixed).
+	 */
+	private static final int[][][] lsfScalefactorCounts = {
+			{ { 6, 5, 5, 5 }, { 9, 9, 9, 9 }, { 6, 9, 9, 9 } },
+			{ { 6, 5, 7, 3 }, { 9, 9, 12, 6 }, { 6, 9, 12, 6 } },
+			{ { 11, 10, 0, 0 }, { 18, 18, 0, 0 }, { 15, 18, 0, 0 } },
+			{ { 7, 7, 7, 0 }, { 12, 12, 12, 0 }, { 6, 15, 12, 0 } },
+			{ { 6, 6, 6, 3 }, { 12, 9, 9, 6 }, { 6, 12, 9, 6 } },
+			{ { 8, 8, 5, 0 }, { 15, 12, 9, 0 }, { 6, 18, 9, 0 } }
+	};
+
+	/** The first half of the synthesis window D[i] of ISO/IEC 11172-3, table B.3. */
+	private static final float[] synthesisWindowHalf = {
+		0.0f, -0.000015259f, -0.000015259f, -0.000015259f, -0.000015259f, -0.000015259f, -0.000015259f, -0.000030518f,
+		-0.000030518f, -0.000030518f, -0.000030518f, -0.000045776f, -0.000045776f, -0.000061035f, -0.000061035f, -0.000076294f,
+		-0.000076294f, -0.000091553f, -0.000106812f, -0.000106812f, -0.00012207f, -0.000137329f, -0.000152588f, -0.000167847f,
+		-0.000198364f, -0.000213623f, -0.000244141f, -0.000259399f, -0.000289917f, -0.000320435f, -0.000366211f, -0.000396729f,
+		-0.000442505f, -0.000473022f, -0.000534058f, -0.000579834f, -0.00062561f, -0.000686646f, -0.000747681f, -0.000808716f,
+		-0.00088501f, -0.000961304f, -0.001037598f, -0.001113892f, -0.001205444f, -0.001296997f, -0.00138855f, -0.001480103f,
+		-0.001586914f, -0.001693726f, -0.001785278f, -0.001907349f, -0.00201416f, -0.002120972f, -0.002243042f, -0.002349854f,
+		-0.002456665f, -0.002578735f, -0.002685547f, -0.002792358f, -0.00289917f, -0.002990723f, -0.003082275f, -0.003173828f,
+		-0.003250122f, -0.003326416f, -0.003387451f, -0.003433228f, -0.003463745f, -0.003479004f, -0.003479004f, -0.003463745f,
+		-0.003417969f, -0.003372192f, -0.00328064f, -0.003173828f, -0.003051758f, -0.002883911f, -0.002700806f, -0.002487183f,
+		-0.002227783f, -0.001937866f, -0.001617432f, -0.001266479f, -0.000869751f, -0.000442505f, 0.000030518f, 0.000549316f,
+		0.001098633f, 0.001693726f, 0.002334595f, 0.003005981f, 0.003723145f, 0.004486084f, 0.0052948f, 0.006118774f,
+		0.007003784f, 0.007919312f, 0.008865356f, 0.009841919f, 0.010848999f, 0.011886597f, 0.012939453f, 0.014022827f,
+		0.01512146f, 0.016235352f, 0.017349243f, 0.018463135f, 0.019577026f, 0.020690918f, 0.021789551f, 0.022857666f,
+		0.023910522f, 0.024932861f, 0.025909424f, 0.02684021f, 0.02772522f, 0.028533936f, 0.029281616f, 0.029937744f,
+		0.030532837f, 0.031005859f, 0.031387329f, 0.031661987f, 0.031814575f, 0.031845093f, 0.031738281f, 0.031478882f,
+		0.031082153f, 0.030517578f, 0.029785156f, 0.028884888f, 0.027801514f, 0.026535034f, 0.025085449f, 0.023422241f,
+		0.021575928f, 0.01953125f, 0.01725769f, 0.014801025f, 0.012115479f, 0.009231567f, 0.006134033f, 0.002822876f,
+		-0.000686646f, -0.004394531f, -0.00831604f, -0.012420654f, -0.016708374f, -0.021179199f, -0.025817871f, -0.030609131f,
+		-0.035552979f, -0.040634155f, -0.045837402f, -0.051132202f, -0.056533813f, -0.06199646f, -0.067520142f, -0.073059082f,
+		-0.07862854f, -0.084182739f, -0.089706421f, -0.095169067f, -0.100540161f, -0.105819702f, -0.110946655f, -0.115921021f,
+		-0.120697021f, -0.125259399f, -0.129562378f, -0.133590698f, -0.137298584f, -0.140670776f, -0.143676758f, -0.146255493f,
+		-0.148422241f, -0.150115967f, -0.151306152f, -0.15196228f, -0.152069092f, -0.151596069f, -0.150497437f, -0.148773193f,
+		-0.146362305f, -0.143264771f, -0.139450073f, -0.134887695f, -0.129577637f, -0.123474121f, -0.116577148f, -0.108856201f,
+		-0.100311279f, -0.090927124f, -0.080688477f, -0.069595337f, -0.057617187f, -0.044784546f, -0.031082153f, -0.01651001f,
+		-0.001068115f, 0.015228271f, 0.03237915f, 0.050354004f, 0.069168091f, 0.088775635f, 0.109161377f, 0.130310059f,
+		0.152206421f, 0.174789429f, 0.198059082f, 0.221984863f, 0.246505737f, 0.271591187f, 0.297210693f, 0.323318481f,
+		0.349868774f, 0.376800537f, 0.404083252f, 0.431655884f, 0.459472656f, 0.487472534f, 0.515609741f, 0.543823242f,
+		0.572036743f, 0.600219727f, 0.628295898f, 0.656219482f, 0.683914185f, 0.71131897f, 0.738372803f, 0.765029907f,
+		0.791213989f, 0.816864014f, 0.841949463f, 0.866363525f, 0.890090942f, 0.91305542f, 0.935195923f, 0.956481934f,
+		0.976852417f, 0.996246338f, 1.01461792f, 1.031936646f, 1.048156738f, 1.063217163f, 1.07711792f, 1.089782715f,
+		1.101211548f, 1.111373901f, 1.120223999f, 1.127746582f, 1.133926392f, 1.138763428f, 1.142211914f, 1.144287109f,
+		1.144989014f
+	};
+
+	/** The complete synthesis window. */
+	static final float[] synthesisWindow = new float[512];
+
+	/** x<sup>4/3</sup> for all possible quantized values. */
+	static final float[] powers = new float[8207];
+
+	/** The butterfly coefficients c<sub>s</sub> of the alias reduction. */
+	static final float[] antialiasCs = new float[8];
+
+	/** The butterfly coefficients c<sub>a</sub> of the alias reduction. */
+	static final float[] antialiasCa = new float[8];
+
+	/** The IMDCT windows for the block types 0, 1, and 3. */
+	private static final float[][] imdctWindows = new float[4][36];
+
+	/** The window of the short IMDCT. */
+	private static final float[] shortWindow = new float[12];
+
+	/** The cosine table of the long IMDCT. */
+	private static final float[] longCosines = new float[36 * 18];
+
+	/** The cosine table of the short IMDCT. */
+	private static final float[] shortCosines = new float[12 * 6];
+
+	/** The factors of the fast DCT, for the lengths 32, 16, 8, 4, and 2. */
+	private static final float[][] dctFactors = new float[5][];
+
+	/** The left channel factors of MPEG-1 intensity stereo, per position. */
+	private static final float[] intensityLeft = new float[7];
+
+	/** The right channel factors of MPEG-1 intensity stereo, per position. */
+	private static final float[] intensityRight = new float[7];
+
+	/** 1/sqrt(2). */
+	private static final float INVERSE_SQUARE_ROOT_2 = (float) (1 / Math.sqrt(2));
+
+	static {
+		for (int index = 0; index < 512; ++index) {
+			float value = synthesisWindowHalf[(index <= 256) ? index : (512 - index)];
+			synthesisWindow[index] = (((index / 64) % 2) == 0) ? value : -value;
+		}
+		for (int index = 0; index < powers.length; ++index) {
+			powers[index] = (float) Math.pow(index, 4.0 / 3.0);
+		}
+		double[] antialiasCoefficients = { -0.6, -0.535, -0.33, -0.185, -0.095, -0.041, -0.0142, -0.0037 };
+		for (int index = 0; index < 8; ++index) {
+			double root = Math.sqrt(1 + antialiasCoefficients[index] * antialiasCoefficients[index]);
+			antialiasCs[index] = (float) (1 / root);
+			antialiasCa[index] = (float) (antialiasCoefficients[index] / root);
+		}
+		for (int index = 0; index < 36; ++index) {
+			imdctWindows[0][index] = (float) Math.sin(Math.PI / 36 * (index + 0.5));
+		}
+		for (int index = 0; index < 18; ++index) {
+			imdctWindows[1][index] = imdctWindows[0][index];
+			imdctWindows[3][index + 18] = imdctWindows[0][index + 18];
+		}
+		for (int index = 0; index < 6; ++index) {
+			imdctWindows[1][index + 18] = 1;
+			imdctWindows[1][index + 24] = (float) Math.sin(Math.PI / 12 * (index + 6.5));
+			imdctWindows[1][index + 30] = 0;
+			imdctWindows[3][index] = 0;
+			imdctWindows[3][index + 6] = (float) Math.sin(Math.PI / 12 * (index + 0.5));
+			imdctWindows[3][index + 12] = 1;
+		}
+		for (int index = 0; index < 12; ++index) {
+			shortWindow[index] = (float) Math.sin(Math.PI / 12 * (index + 0.5));
+		}
+		for (int output = 0; output < 36; ++output) {
+			for (int input = 0; input < 18; ++input) {
+				longCosines[output * 18 + input] = (float) Math.cos(Math.PI / 72 * (2 * output + 1 + 18) * (2 * input + 1));
+			}
+		}
+		for (int output = 0; output < 12; ++output) {
+			for (int input = 0; input < 6; ++input) {
+				shortCosines[output * 6 + input] = (float) Math.cos(Math.PI / 24 * (2 * output + 1 + 6) * (2 * input + 1));
+			}
+		}
+		for (int length = 32, level = 0; length > 1; length /= 2, ++level) {
+			dctFactors[level] = new float[length / 2];
+			for (int index = 0; index < length / 2; ++index) {
+				dctFactors[level][index] = (float) (0.5 / Math.cos((index + 0.5) * Math.PI / length));
+			}
+		}
+		for (int position = 0; position < 7; ++position) {
+			double sine = Math.sin(position * Math.PI / 12);
+			double cosine = Math.cos(position * Math.PI / 12);
+			intensityLeft[position] = (float) (sine / (sine + cosine));
+			intensityRight[position] = (float) (cosine / (sine + cosine));
+		}
+	}
+
+	/** The bit reservoir. */
+	private final byte[] reservoir = new byte[4096];
+
+	/** The number of bytes in the bit reservoir. */
+	private int reservoirLength;
+
+	/** The side information of the granules, per granule and channel. */
+	private final Granule[][] granules = { { new Granule(), new Granule() }, { new Granule(), new Granule() } };
+
+	/** The scalefactor selection information, per channel and group. */
+	private final boolean[][] scfsi = new boolean[2][4];
+
+	/** The scalefactors of the long bands, per channel. */
+	private final int[][] longScalefactors = new int[2][22];
+
+	/** The scalefactors of the short bands, per channel (band * 3 + window). */
+	private final int[][] shortScalefactors = new int[2][39];
+
+	/** The illegal intensity positions of the long bands (MPEG-2). */
+	private final int[] longIntensityLimits = new int[22];
+
+	/** The illegal intensity positions of the short bands (MPEG-2). */
+	private final int[] shortIntensityLimits = new int[39];
+
+	/** The MPEG-2 scalefactors before they are distributed to the bands. */
+	private final int[] lsfScalefactors = new int[54];
+
+	/** The lengths of the MPEG-2 scalefactors before they are distributed. */
+	private final int[] lsfScalefactorLengths = new int[54];
+
+	/** The quantized values of the current granule, per channel. */
+	private final int[][] quantized = new int[2][576];
+
+	/** The frequency lines of the current granule, per channel. */
+	private final float[][] lines = new float[2][576];
+
+	/** The number of (possibly) non-zero frequency lines, per channel. */
+	private final int[] nonZero = new int[2];
+
+	/** Temporary buffer for reordering and the IMDCT. */
+	private final float[] temporary = new float[576];
+
+	/** The output of the hybrid filter bank, per channel. */
+	private final float[][] subbandSamples = new float[2][576];
+
+	/** The overlapping halves of the previous IMDCT outputs, per channel. */
+	private final float[][] overlap = new float[2][576];
+
+	/** The V vectors of the polyphase filter bank, per channel. */
+	private final float[][] synthesisBuffers = new float[2][1024];
+
+	/** The current offsets into the V vectors, per channel. */
+	private final int[] synthesisOffsets = new int[2];
+
+	/** Input and scratch buffer for the fast DCT. */
+	private final float[] dctBuffer = new float[32];
+
+	/** Scratch buffer for the fast DCT. */
+	private final float[] dctTemporary = new float[32];
+
+	/** The decoded samples, per channel. */
+	private final int[][] samples = new int[2][1152];
+
+	/** The number of channels of the last decoded frame. */
+	private int channels;
+
+	/** The number of samples (per channel) of the last decoded frame. */
+	private int sampleCount;
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of channels of the last decoded frame.
+	 *
+	 * @return The number of channels
+	 */
+	public int channels() {
+		return channels;
+	}
+
+	/**
+	 * Returns the number of samples per channel of the last decoded frame.
+	 *
+	 * @return The number of samples per channel
+	 */
+	public int sampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * Returns the decoded 16-bit samples of the given channel. Only the first
+	 * {@link #sampleCount()} samples are valid; the array is reused for the next
+	 * frame.
+	 *
+	 * @param channel
+	 * 		The index of the channel
+	 * @return The decoded samples of the channel
+	 */
+	public int[] samples(int channel) {
+		return samples[channel];
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Decodes the given frame. If the frame refers to data of previous frames
+	 * that have not been decoded by this decoder (e.g. when starting in the
+	 * middle of a stream), a frame of silence is returned.
+	 *
+	 * @param frame
+	 * 		The frame to decode
+	 * @return The number of decoded samples per channel
+	 * @throws IOException
+	 * 		if the frame is not a layer III frame, or is truncated
+	 */
+	public int decode(Frame frame) throws IOException {
+		if (frame.layerDescription() != LayerDescription.LAYER_3) {
+			throw new IOException(String.format("Unsupported layer: %s", frame.layerDescription()));
+		}
+		byte[] content = frame.content();
+		boolean mpeg1 = frame.mpegAudioVersion() == MpegAudioVersion.VERSION_1;
+		int samplingRateIndex = samplingRateIndex(frame.samplingRate());
+		channels = (frame.channelMode() == ChannelMode.SINGLE_CHANNEL) ? 1 : 2;
+		int granuleCount = mpeg1 ? 2 : 1;
+		sampleCount = granuleCount * 576;
+		int sideInfoOffset = frame.protectionBit() ? 0 : 2;
+		int sideInfoLength = mpeg1 ? ((channels == 1) ? 17 : 32) : ((channels == 1) ? 9 : 17);
+		if (content.length < (sideInfoOffset + sideInfoLength)) {
+			throw new IOException("Frame is truncated.");
+		}
+
+		int mainDataBegin = readSideInfo(new BitReader(content, sideInfoOffset, sideInfoLength), mpeg1, granuleCount);
+		int mainDataLength = content.length - sideInfoOffset - sideInfoLength;
+		boolean mainDataAvailable = mainDataBegin <= reservoirLength;
+		appendToReservoir(content, sideInfoOffset + sideInfoLength, mainDataLength);
+		if (!mainDataAvailable) {
+			for (int channel = 0; channel < channels; ++channel) {
+				Arrays.fill(samples[channel], 0, sampleCount, 0);
+			}
+			return sampleCount;
+		}
+		int mainDataStart = reservoirLength - mainDataLength - mainDataBegin;
+
+		boolean jointStereo = frame.channelMode() == ChannelMode.JOINT_STEREO;
+		boolean intensityStereo = jointStereo && ((frame.modeExtension() & 0x01) != 0);
+		boolean midSideStereo = jointStereo && ((frame.modeExtension() & 0x02) != 0);
+		BitReader mainData = new BitReader(reservoir, mainDataStart, reservoirLength - mainDataStart);
+		for (int granule = 0; granule < granuleCount; ++granule) {
+			for (int channel = 0; channel < channels; ++channel) {
+				Granule granuleInfo = granules[granule][channel];
+				long part2Start = mainData.position();
+				if (mpeg1) {
+					readScalefactors(mainData, granuleInfo, channel, granule);
+				} else {
+					readLsfScalefactors(mainData, granuleInfo, channel, intensityStereo && (channel == 1));
+				}
+				readHuffmanData(mainData, granuleInfo, channel, part2Start + granuleInfo.part23Length, samplingRateIndex);
+				mainData.skipBits(part2Start + granuleInfo.part23Length - mainData.position());
+				requantize(granuleInfo, channel, samplingRateIndex);
+			}
+			if (midSideStereo || intensityStereo) {
+				processStereo(granules[granule][1], mpeg1, midSideStereo, intensityStereo, samplingRateIndex);
+			}
+			for (int channel = 0; channel < channels; ++channel) {
+				Granule granuleInfo = granules[granule][channel];
+				reorder(granuleInfo, channel, samplingRateIndex);
+				reduceAliases(granuleInfo, channel);
+				hybridSynthesis(granuleInfo, channel);
+				polyphaseSynthesis(channel, granule * 576);
+			}
+		}
+		return sampleCount;
+	}
+
+	/**
+	 * Writes the samples of the last decoded frame as interleaved, 16-bit
+	 * signed PCM samples.
+	 *
+	 * @param buffer
+	 * 		The buffer to write to
+	 * @param offset
+	 * 		The offset at which to start writing
+	 * @param bigEndian
+	 * 		{@code true} to write big-endian samples, {@code false} to write
+	 * 		little-endian samples
+	 * @return The number of bytes written
+	 */
+	public int writePcm16(byte[] buffer, int offset, boolean bigEndian) {
+		int position = offset;
+		int highByte = bigEndian ? 0 : 1;
+		int lowByte = 1 - highByte;
+		for (int sample = 0; sample < sampleCount; ++sample) {
+			for (int channel = 0; channel < channels; ++channel) {
+				int value = samples[channel][sample];
+				buffer[position + lowByte] = (byte) value;
+				buffer[position + highByte] = (byte) (value >> 8);
+				position += 2;
+			}
+		}
+		return position - offset;
+	}
+
+	/**
+	 * Resets this decoder, discarding the bit reservoir and the state of the
+	 * filter banks. This has to be called before decoding frames that do not
+	 * directly follow the last decoded frame, e.g. after seeking.
+	 */
+	public void reset() {
+		reservoirLength = 0;
+		for (int channel = 0; channel < 2; ++channel) {
+			Arrays.fill(overlap[channel], 0);
+			Arrays.fill(synthesisBuffers[channel], 0);
+			synthesisOffsets[channel] = 0;
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Reads the side information of a frame.
+	 *
+	 * @param bitReader
+	 * 		The bit reader to read the side information from
+	 * @param mpeg1
+	 * 		{@code true} if the frame is an MPEG-1 frame, {@code false} otherwise
+	 * @param granuleCount
+	 * 		The number of granules in the frame
+	 * @return The start of the main data (in bytes before the frame’s own main
+	 *         data)
+	 */
+	private int readSideInfo(BitReader bitReader, boolean mpeg1, int granuleCount) {
+		int mainDataBegin = bitReader.readBits(mpeg1 ? 9 : 8);
+		bitReader.skipBits(mpeg1 ? ((channels == 1) ? 5 : 3) : channels);
+		if (mpeg1) {
+			for (int channel = 0; channel < channels; ++channel) {
+				for (int group = 0; group < 4; ++group) {
+					scfsi[channel][group] = bitReader.readBit() != 0;
+				}
+			}
+		}
+		for (int granule = 0; granule < granuleCount; ++granule) {
+			for (int channel = 0; channel < channels; ++channel) {
+				Granule granuleInfo = granules[granule][channel];
+				granuleInfo.part23Length = bitReader.readBits(12);
+				granuleInfo.bigValues = bitReader.readBits(9);
+				granuleInfo.globalGain = bitReader.readBits(8);
+				granuleInfo.scalefacCompress = bitReader.readBits(mpeg1 ? 4 : 9);
+				granuleInfo.windowSwitching = bitReader.readBit() != 0;
+				if (granuleInfo.windowSwitching) {
+					granuleInfo.blockType = bitReader.readBits(2);
+					granuleInfo.mixedBlock = bitReader.readBit() != 0;
+					granuleInfo.tableSelect[0] = bitReader.readBits(5);
+					granuleInfo.tableSelect[1] = bitReader.readBits(5);
+					granuleInfo.tableSelect[2] = 0;
+					for (int window = 0; window < 3; ++window) {
+						granuleInfo.subblockGain[window] = bitReader.readBits(3);
+					}
+					granuleInfo.region0Count = 0;
+					granuleInfo.region1Count = 0;
+				} else {
+					granuleInfo.blockType = 0;
+					granuleInfo.mixedBlock = false;
+					for (int region = 0; region < 3; ++region) {
+						granuleInfo.tableSelect[region] = bitReader.readBits(5);
+					}
+					Arrays.fill(granuleInfo.subblockGain, 0);
+					granuleInfo.region0Count = bitReader.readBits(4);
+					granuleInfo.region1Count = bitReader.readBits(3);
+				}
+				granuleInfo.preflag = mpeg1 && (bitReader.readBit() != 0);
+				granuleInfo.scalefacScale = bitReader.readBit() != 0;
+				granuleInfo.count1TableSelect = bitReader.readBit();
+			}
+		}
+		return mainDataBegin;
+	}
+
+	/**
+	 * Appends the given main data to the bit reservoir, discarding data that can
+	 * not be referenced by following frames anymore.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the main data
+	 * @param offset
+	 * 		The offset of the main data
+	 * @param length
+	 * 		The length of the main data
+	 */
+	private void appendToReservoir(byte[] buffer, int offset, int length) {
+		if ((reservoirLength + length) > reservoir.length) {
+			int keep = Math.min(reservoirLength, 511);
+			System.arraycopy(reservoir, reservoirLength - keep, reservoir, 0, keep);
+			reservoirLength = keep;
+		}
+		System.arraycopy(buffer, offset, reservoir, reservoirLength, length);
+		reservoirLength += length;
+	}
+
+	/**
+	 * Reads the scalefactors of an MPEG-1 granule.
+	 *
+	 * @param bitReader
+	 * 		The bit reader to read the scalefactors from
+	 * @param granuleInfo
+	 * 		The side information of the granule
+	 * @param channel
+	 * 		The index of the channel
+	 * @param granule
+	 * 		The index of the granule
+	 */
+	private void readScalefactors(BitReader bitReader, Granule granuleInfo, int channel, int granule) {
+		int firstLength = slen1[granuleInfo.scalefacCompress];
+		int secondLength = slen2[granuleInfo.scalefacCompress];
+		int[] longScalefactors = this.longScalefactors[channel];
+		int[] shortScalefactors = this.shortScalefactors[channel];
+		if (granuleInfo.blockType == 2) {
+			int firstShortBand = 0;
+			if (granuleInfo.mixedBlock) {
+				for (int band = 0; band < 8; ++band) {
+					longScalefactors[band] = bitReader.readBits(firstLength);
+				}
+				firstShortBand = 3;
+			}
+			for (int band = firstShortBand; band < 12; ++band) {
+				for (int window = 0; window < 3; ++window) {
+					shortScalefactors[band * 3 + window] = bitReader.readBits((band < 6) ? firstLength : secondLength);
+				}
+			}
+			Arrays.fill(shortScalefactors, 36, 39, 0);
+			return;
+		}
+		for (int group = 0; group < 4; ++group) {
+			if ((granule == 1) && scfsi[channel][group]) {
+				continue;
+			}
+			for (int band = scalefactorGroups[group]; band < scalefactorGroups[group + 1]; ++band) {
+				longScalefactors[band] = bitReader.readBits((group < 2) ? firstLength : secondLength);
+			}
+		}
+		longScalefactors[21] = 0;
+	}
+
+	/**
+	 * Reads the scalefactors of an MPEG-2 granule.
+	 *
+	 * @param bitReader
+	 * 		The bit reader to read the scalefactors from
+	 * @param granuleInfo
+	 * 		The side information of the granule
+	 * @param channel
+	 * 		The index of the channel
+	 * @param intensityChannel
+	 * 		{@code true} if this is the right channel of an intensity stereo frame,
+	 * 		{@code false} otherwise
+	 */
+	private void readLsfScalefactors(BitReader bitReader, Granule granuleInfo, int channel, boolean intensityChannel) {
+		int scalefacCompress = granuleInfo.scalefacCompress;
+		int partitionTable;
+		int lengths;
+		if (!intensityChannel) {
+			if (scalefacCompress < 400) {
+				partitionTable = 0;
+				lengths = (((scalefacCompress >> 4) / 5) << 12) | (((scalefacCompress >> 4) % 5) << 8) | (((scalefacCompress & 0x0f) >> 2) << 4) | (scalefacCompress & 0x03);
+			} else if (scalefacCompress < 500) {
+				partitionTable = 1;
+				scalefacCompress -= 400;
+				lengths = (((scalefacCompress >> 2) / 5) << 12) | (((scalefacCompress >> 2) % 5) << 8) | ((scalefacCompress & 0x03) << 4);
+			} else {
+				partitionTable = 2;
+				scalefacCompress -= 500;
+				lengths = ((scalefacCompress / 3) << 12) | ((scalefacCompress % 3) << 8);
+				granuleInfo.preflag = true;
+			}
+		} else {
+			scalefacCompress >>= 1;
+			if (scalefacCompress < 180) {
+				partitionTable = 3;
+				lengths = ((scalefacCompress / 36) << 12) | (((scalefacCompress % 36) / 6) << 8) | (((scalefacCompress % 36) % 6) << 4);
+			} else if (scalefacCompress < 244) {
+				partitionTable = 4;
+				scalefacCompress -= 180;
+				lengths = (((scalefacCompress & 0x3f) >> 4) << 12) | (((scalefacCompress & 0x0f) >> 2) << 8) | ((scalefacCompress & 0x03) << 4);
+			} else {
+				partitionTable = 5;
+				scalefacCompress -= 244;
+				lengths = ((scalefacCompress / 3) << 12) | ((scalefacCompress % 3) << 8);
+			}
+		}
+
+		int blockIndex = (granuleInfo.blockType == 2) ? (granuleInfo.mixedBlock ? 2 : 1) : 0;
+		int count = 0;
+		for (int group = 0; group < 4; ++group) {
+			int length = (lengths >> (12 - group * 4)) & 0x0f;
+			for (int index = 0; index < lsfScalefactorCounts[partitionTable][blockIndex][group]; ++index) {
+				lsfScalefactors[count] = bitReader.readBits(length);
+				lsfScalefactorLengths[count++] = length;
+			}
+		}
+
+		int[] longScalefactors = this.longScalefactors[channel];
+		int[] shortScalefactors = this.shortScalefactors[channel];
+		int index = 0;
+		if (granuleInfo.blockType == 2) {
+			int firstShortBand = 0;
+			if (granuleInfo.mixedBlock) {
+				for (int band = 0; band < 6; ++band) {
+					longIntensityLimits[band] = (1 << lsfScalefactorLengths[index]) - 1;
+					longScalefactors[band] = lsfScalefactors[index++];
+				}
+				firstShortBand = 3;
+			}
+			for (int band = firstShortBand * 3; band < 36; ++band) {
+				shortIntensityLimits[band] = (1 << lsfScalefactorLengths[index]) - 1;
+				shortScalefactors[band] = lsfScalefactors[index++];
+			}
+			for (int window = 0; window < 3; ++window) {
+				shortScalefactors[36 + window] = 0;
+				shortIntensityLimits[36 + window] = shortIntensityLimits[33 + window];
+			}
+			return;
+		}
+		for (int band = 0; band < 21; ++band) {
+			longIntensityLimits[band] = (1 << lsfScalefactorLengths[index]) - 1;
+			longScalefactors[band] = lsfScalefactors[index++];
+		}
+		longScalefactors[21] = 0;
+		longIntensityLimits[21] = longIntensityLimits[20];
+	}
+
+	/**
+	 * Decodes the Huffman-coded quantized values of a granule.
+	 *
+	 * @param bitReader
+	 * 		The bit reader to read the values from
+	 * @param granuleInfo
+	 * 		The side information of the granule
+	 * @param channel
+	 * 		The index of the channel
+	 * @param end
+	 * 		The position of the end of the granule’s data (in bits)
+	 * @param samplingRateIndex
+	 * 		The index of the sampling rate
+	 */
+	private void readHuffmanData(BitReader bitReader, Granule granuleInfo, int channel, long end, int samplingRateIndex) {
+		int[] quantized = this.quantized[channel];
+		int bigValuesEnd = Math.min(granuleInfo.bigValues * 2, 576);
+		int region1Start;
+		int region2Start;
+		if (granuleInfo.windowSwitching) {
+			region1Start = (granuleInfo.blockType == 2) ? (shortBands[samplingRateIndex][3] * 3) : longBands[samplingRateIndex][8];
+			region2Start = 576;
+		} else {
+			region1Start = longBands[samplingRateIndex][Math.min(granuleInfo.region0Count + 1, 22)];
+			region2Start = longBands[samplingRateIndex][Math.min(granuleInfo.region0Count + granuleInfo.region1Count + 2, 22)];
+		}
+
+		int index = 0;
+		for (int region = 0; region < 3; ++region) {
+			int regionEnd = Math.min((region == 0) ? region1Start : ((region == 1) ? region2Start : 576), bigValuesEnd);
+			HuffmanTable huffmanTable = HuffmanTable.bigValueTable(granuleInfo.tableSelect[region]);
+			if (huffmanTable == null) {
+				for (; index < regionEnd; ++index) {
+					quantized[index] = 0;
+				}
+				continue;
+			}
+			int linbits = huffmanTable.linbits();
+			for (; index < regionEnd; index += 2) {
+				int value = huffmanTable.decode(bitReader);
+				int x = value >>> 4;
+				int y = value & 0x0f;
+				if ((linbits > 0) && (x == 15)) {
+					x += bitReader.readBits(linbits);
+				}
+				if ((x != 0) && (bitReader.readBit() != 0)) {
+					x = -x;
+				}
+				if ((linbits > 0) && (y == 15)) {
+					y += bitReader.readBits(linbits);
+				}
+				if ((y != 0) && (bitReader.readBit() != 0)) {
+					y = -y;
+				}
+				quantized[index] = x;
+				quantized[index + 1] = y;
+			}
+		}
+
+		HuffmanTable count1Table = HuffmanTable.count1Table(granuleInfo.count1TableSelect);
+		while ((index <= 572) && (bitReader.position() < end)) {
+			int value = count1Table.decode(bitReader);
+			int v = readSign(bitReader, (value >>> 3) & 1);
+			int w = readSign(bitReader, (value >>> 2) & 1);
+			int x = readSign(bitReader, (value >>> 1) & 1);
+			int y = readSign(bitReader, value & 1);
+			if (bitReader.position() > end) {
+				break;
+			}
+			quantized[index++] = v;
+			quantized[index++] = w;
+			quantized[index++] = x;
+			quantized[index++] = y;
+		}
+		nonZero[channel] = index;
+		Arrays.fill(quantized, index, 576, 0);
+	}
+
+	/**
+	 * Requantizes the quantized values of a granule.
+	 *
+	 * @param granuleInfo
+	 * 		The side information of the granule
+	 * @param channel
+	 * 		The index of the channel
+	 * @param samplingRateIndex
+	 * 		The index of the sampling rate
+	 */
+	private void requantize(Granule granuleInfo, int channel, int samplingRateIndex) {
+		int[] longBands = Layer3Decoder.longBands[samplingRateIndex];
+		int[] shortBands = Layer3Decoder.shortBands[samplingRateIndex];
+		int globalExponent = granuleInfo.globalGain - 210;
+		int scalefactorMultiplier = granuleInfo.scalefacScale ? 4 : 2;
+		int count = nonZero[channel];
+		int longEnd = (granuleInfo.blockType != 2) ? 576 : (granuleInfo.mixedBlock ? 36 : 0);
+		for (int band = 0; (band < 22) && (longBands[band] < Math.min(count, longEnd)); ++band) {
+			int scalefactor = longScalefactors[channel][band] + (granuleInfo.preflag ? pretab[band] : 0);
+			requantize(channel, longBands[band], Math.min(longBands[band + 1], count), globalExponent - scalefactorMultiplier * scalefactor);
+		}
+		if (longEnd < 576) {
+			for (int band = granuleInfo.mixedBlock ? 3 : 0; band < 13; ++band) {
+				int width = shortBands[band + 1] - shortBands[band];
+				for (int window = 0; window < 3; ++window) {
+					int start = shortBands[band] * 3 + window * width;
+					if (start >= count) {
+						break;
+					}
+					int exponent = globalExponent - 8 * granuleInfo.subblockGain[window] - scalefactorMultiplier * shortScalefactors[channel][band * 3 + window];
+					requantize(channel, start, Math.min(start + width, count), exponent);
+				}
+			}
+		}
+		Arrays.fill(lines[channel], count, 576, 0);
+	}
+
+	/**
+	 * Requantizes a range of quantized values.
+	 *
+	 * @param channel
+	 * 		The index of the channel
+	 * @param start
+	 * 		The first line to requantize
+	 * @param end
+	 * 		The end of the range (exclusive)
+	 * @param exponent
+	 * 		The exponent of the gain (in quarters)
+	 */
+	private void requantize(int channel, int start, int end, int exponent) {
+		int[] quantized = this.quantized[channel];
+		float[] lines = this.lines[channel];
+		float gain = (float) Math.pow(2, exponent / 4.0);
+		for (int line = start; line < end; ++line) {
+			int value = quantized[line];
+			lines[line] = (value < 0) ? (-powers[-value] * gain) : (powers[value] * gain);
+		}
+	}
+
+	/**
+	 * Processes mid/side and intensity stereo of the current granule.
+	 *
+	 * @param rightGranule
+	 * 		The side information of the right channel
+	 * @param mpeg1
+	 * 		{@code true} if the frame is an MPEG-1 frame, {@code false} otherwise
+	 * @param midSideStereo
+	 * 		{@code true} if mid/side stereo is used
+	 * @param intensityStereo
+	 * 		{@code true} if intensity stereo is used
+	 * @param samplingRateIndex
+	 * 		The index of the sampling rate
+	 */
+	private void processStereo(Granule rightGranule, boolean mpeg1, boolean midSideStereo, boolean intensityStereo, int samplingRateIndex) {
+		int count = Math.max(nonZero[0], nonZero[1]);
+		if (!intensityStereo || rightGranule.mixedBlock) {
+			/* intensity stereo in mixed blocks is treated like normal stereo. */
+			if (midSideStereo) {
+				processMidSide(0, count);
+			}
+			nonZero[0] = nonZero[1] = count;
+			return;
+		}
+
+		float[] right = lines[1];
+		float intensityScale = (rightGranule.scalefacCompress & 1) != 0 ? INVERSE_SQUARE_ROOT_2 : (float) Math.pow(2, -0.25);
+		if (rightGranule.blockType == 2) {
+			int[] bands = shortBands[samplingRateIndex];
+			for (int window = 0; window < 3; ++window) {
+				int firstIntensityBand = 0;
+				for (int band = 12; band >= 0; --band) {
+					int width = bands[band + 1] - bands[band];
+					if (!isZero(right, bands[band] * 3 + window * width, bands[band] * 3 + (window + 1) * width)) {
+						firstIntensityBand = band + 1;
+						break;
+					}
+				}
+				for (int band = 0; band < 13; ++band) {
+					int width = bands[band + 1] - bands[band];
+					int start = bands[band] * 3 + window * width;
+					int scalefactorBand = Math.min(band, 11) * 3 + window;
+					int position = (band < firstIntensityBand) ? -1 : shortScalefactors[1][scalefactorBand];
+					processIntensity(start, start + width, position, mpeg1 ? 7 : shortIntensityLimits[scalefactorBand], mpeg1, midSideStereo, intensityScale);
+				}
+			}
+		} else {
+			int[] bands = longBands[samplingRateIndex];
+			int lastNonZero = nonZero[1] - 1;
+			while ((lastNonZero >= 0) && (right[lastNonZero] == 0)) {
+				--lastNonZero;
+			}
+			for (int band = 0; band < 22; ++band) {
+				int scalefactorBand = Math.min(band, 20);
+				int position = (bands[band] <= lastNonZero) ? -1 : longScalefactors[1][scalefactorBand];
+				processIntensity(bands[band], bands[band + 1], position, mpeg1 ? 7 : longIntensityLimits[scalefactorBand], mpeg1, midSideStereo, intensityScale);
+			}
+		}
+		nonZero[0] = nonZero[1] = 576;
+	}
+
+	/**
+	 * Processes a scalefactor band with intensity stereo. If the intensity
+	 * position is illegal, the band is processed as mid/side stereo (if enabled)
+	 * instead.
+	 *
+	 * @param start
+	 * 		The first line of the band
+	 * @param end
+	 * 		The end of the band (exclusive)
+	 * @param position
+	 * 		The intensity position, or {@code -1} if intensity stereo is not used
+	 * 		for this band
+	 * @param illegalPosition
+	 * 		The illegal intensity position
+	 * @param mpeg1
+	 * 		{@code true} if the frame is an MPEG-1 frame, {@code false} otherwise
+	 * @param midSideStereo
+	 * 		{@code true} if mid/side stereo is used
+	 * @param intensityScale
+	 * 		The intensity scale for MPEG-2 frames
+	 */
+	private void processIntensity(int start, int end, int position, int illegalPosition, boolean mpeg1, boolean midSideStereo, float intensityScale) {
+		if ((position == -1) || (position == illegalPosition)) {
+			if (midSideStereo) {
+				processMidSide(start, end);
+			}
+			return;
+		}
+		float leftFactor;
+		float rightFactor;
+		if (mpeg1) {
+			leftFactor = intensityLeft[position];
+			rightFactor = intensityRight[position];
+		} else if ((position & 1) != 0) {
+			leftFactor = (float) Math.pow(intensityScale, (position + 1) / 2);
+			rightFactor = 1;
+		} else {
+			leftFactor = 1;
+			rightFactor = (float) Math.pow(intensityScale, position / 2);
+		}
+		float[] left = lines[0];
+		float[] right = lines[1];
+		for (int line = start; line < end; ++line) {
+			float value = left[line];
+			left[line] = value * leftFactor;
+			right[line] = value * rightFactor;
+		}
+	}
+
+	/**
+	 * Converts a range of lines from mid/side to left/right.
+	 *
+	 * @param start
+	 * 		The first line to convert
+	 * @param end
+	 * 		The end of the range (exclusive)
+	 */
+	private void processMidSide(int start, int end) {
+		float[] left = lines[0];
+		float[] right = lines[1];
+		for (int line = start; line < end; ++line) {
+			float mid = left[line];
+			float side = right[line];
+			left[line] = (mid + side) * INVERSE_SQUARE_ROOT_2;
+			right[line] = (mid - side) * INVERSE_SQUARE_ROOT_2;
+		}
+	}
+
+	/**
+	 * Reorders the short blocks of a granule so that the lines of the three
+	 * windows are interleaved.
+	 *
+	 * @param granuleInfo
+	 * 		The side information of the granule
+	 * @param channel
+	 * 		The index of the channel
+	 * @param samplingRateIndex
+	 * 		The index of the sampling rate
+	 */
+	private void reorder(Granule granuleInfo, int channel, int samplingRateIndex) {
+		if (granuleInfo.blockType != 2) {
+			return;
+		}
+		float[] lines = this.lines[channel];
+		int[] bands = shortBands[samplingRateIndex];
+		for (int band = granuleInfo.mixedBlock ? 3 : 0; (band < 13) && ((bands[band] * 3) < nonZero[channel]); ++band) {
+			int start = bands[band] * 3;
+			int width = bands[band + 1] - bands[band];
+			for (int window = 0; window < 3; ++window) {
+				for (int line = 0; line < width; ++line) {
+					temporary[line * 3 + window] = lines[start + window * width + line];
+				}
+			}
+			System.arraycopy(temporary, 0, lines, start, width * 3);
+			nonZero[channel] = Math.max(nonZero[channel], start + width * 3);
+		}
+	}
+
+	/**
+	 * Performs the alias reduction butterflies between the long block
+	 * subbands of a granule.
+	 *
+	 * @param granuleInfo
+	 * 		The side information of the granule
+	 * @param channel
+	 * 		The index of the channel
+	 */
+	private void reduceAliases(Granule granuleInfo, int channel) {
+		if ((granuleInfo.blockType == 2) && !granuleInfo.mixedBlock) {
+			return;
+		}
+		float[] lines = this.lines[channel];
+		int subbands = (granuleInfo.blockType == 2) ? 2 : Math.min(32, ((nonZero[channel] + 17) / 18) + 1);
+		for (int subband = 1; subband < subbands; ++subband) {
+			for (int index = 0; index < 8; ++index) {
+				int lower = subband * 18 - 1 - index;
+				int upper = subband * 18 + index;
+				float lowerValue = lines[lower];
+				float upperValue = lines[upper];
+				lines[lower] = lowerValue * antialiasCs[index] - upperValue * antialiasCa[index];
+				lines[upper] = upperValue * antialiasCs[index] + lowerValue * antialiasCa[index];
+			}
+		}
+		nonZero[channel] = Math.max(nonZero[channel], Math.min(576, (subbands - 1) * 18 + 8));
+	}
+
+	/**
+	 * Transforms the lines of a granule into subband samples using the IMDCT and
+	 * overlap-add, and inverts the frequencies of the odd subbands.
+	 *
+	 * @param granuleInfo
+	 * 		The side information of the granule
+	 * @param channel
+	 * 		The index of the channel
+	 */
+	private void hybridSynthesis(Granule granuleInfo, int channel) {
+		float[] lines = this.lines[channel];
+		float[] output = subbandSamples[channel];
+		float[] overlap = this.overlap[channel];
+		int activeSubbands = Math.min(32, (nonZero[channel] + 17) / 18);
+		for (int subband = 0; subband < 32; ++subband) {
+			int base = subband * 18;
+			if (subband >= activeSubbands) {
+				System.arraycopy(overlap, base, output, base, 18);
+				Arrays.fill(overlap, base, base + 18, 0);
+				continue;
+			}
+			int blockType = (granuleInfo.mixedBlock && (subband < 2)) ? 0 : granuleInfo.blockType;
+			if (blockType == 2) {
+				shortImdct(lines, base);
+			} else {
+				longImdct(lines, base, imdctWindows[blockType]);
+			}
+			for (int index = 0; index < 18; ++index) {
+				output[base + index] = temporary[index] + overlap[base + index];
+				overlap[base + index] = temporary[index + 18];
+			}
+		}
+		for (int subband = 1; subband < 32; subband += 2) {
+			for (int index = 1; index < 18; index += 2) {
+				output[subband * 18 + index] = -output[subband * 18 + index];
+			}
+		}
+	}
+
+	/**
+	 * Performs the 36-point IMDCT of a long block subband and windows the
+	 * result, storing it in {@link #temporary}.
+	 *
+	 * @param lines
+	 * 		The lines of the granule
+	 * @param base
+	 * 		The first line of the subband
+	 * @param window
+	 * 		The window to apply
+	 */
+	private void longImdct(float[] lines, int base, float[] window) {
+		for (int output = 0; output < 36; ++output) {
+			float sum = 0;
+			int cosineIndex = output * 18;
+			for (int input = 0; input < 18; ++input) {
+				sum += lines[base + input] * longCosines[cosineIndex + input];
+			}
+			temporary[output] = sum * window[output];
+		}
+	}
+
+	/**
+	 * Performs the three 12-point IMDCTs of a short block subband, windows and
+	 * overlaps them, and stores the result in {@link #temporary}.
+	 *
+	 * @param lines
+	 * 		The (reordered) lines of the granule
+	 * @param base
+	 * 		The first line of the subband
+	 */
+	private void shortImdct(float[] lines, int base) {
+		Arrays.fill(temporary, 0, 36, 0);
+		for (int window = 0; window < 3; ++window) {
+			for (int output = 0; output < 12; ++output) {
+				float sum = 0;
+				int cosineIndex = output * 6;
+				for (int input = 0; input < 6; ++input) {
+					sum += lines[base + input * 3 + window] * shortCosines[cosineIndex + input];
+				}
+				temporary[6 + window * 6 + output] += sum * shortWindow[output];
+			}
+		}
+	}
+
+	/**
+	 * Runs the subband samples of a granule through the polyphase synthesis
+	 * filter bank and stores the resulting PCM samples.
+	 *
+	 * @param channel
+	 * 		The index of the channel
+	 * @param sampleOffset
+	 * 		The index of the first sample of the granule
+	 */
+	private void polyphaseSynthesis(int channel, int sampleOffset) {
+		float[] input = subbandSamples[channel];
+		float[] buffer = synthesisBuffers[channel];
+		int[] output = samples[channel];
+		for (int time = 0; time < 18; ++time) {
+			for (int subband = 0; subband < 32; ++subband) {
+				dctBuffer[subband] = input[subband * 18 + time];
+			}
+			dct(dctBuffer, 0, 32, dctTemporary, 0);
+
+			int offset = (synthesisOffsets[channel] - 64) & 1023;
+			synthesisOffsets[channel] = offset;
+			for (int index = 0; index < 16; ++index) {
+				buffer[offset + index] = dctBuffer[index + 16];
+			}
+			buffer[offset + 16] = 0;
+			for (int index = 17; index < 48; ++index) {
+				buffer[offset + index] = -dctBuffer[48 - index];
+			}
+			for (int index = 48; index < 64; ++index) {
+				buffer[offset + index] = -dctBuffer[index - 48];
+			}
+
+			int outputOffset = sampleOffset + time * 32;
+			for (int sample = 0; sample < 32; ++sample) {
+				float sum = 0;
+				for (int block = 0; block < 8; ++block) {
+					sum += synthesisWindow[sample + block * 64] * buffer[(offset + block * 128 + sample) & 1023];
+					sum += synthesisWindow[sample + block * 64 + 32] * buffer[(offset + block * 128 + 96 + sample) & 1023];
+				}
+				int value = Math.round(sum * 32768);
+				output[outputOffset + sample] = (value > 32767) ? 32767 : ((value < -32768) ? -32768 : value);
+			}
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns the index of the given sampling rate in the band tables.
+	 *
+	 * @param samplingRate
+	 * 		The sampling rate
+	 * @return The index of the sampling rate
+	 * @throws IOException
+	 * 		if the sampling rate is not valid
+	 */
+	private static int samplingRateIndex(int samplingRate) throws IOException {
+		for (int index = 0; index < samplingRates.length; ++index) {
+			if (samplingRates[index] == samplingRate) {
+				return index;
+			}
+		}
+		throw new IOException(String.format("Invalid sampling rate: %d", samplingRate));
+	}
+
+	/**
+	 * Reads the sign bit of a count1 value if the value is not zero.
+	 *
+	 * @param bitReader
+	 * 		The bit reader to read the sign from
+	 * @param value
+	 * 		The absolute value
+	 * @return The signed value
+	 */
+	private static int readSign(BitReader bitReader, int value) {
+		if ((value != 0) && (bitReader.readBit() != 0)) {
+			return -value;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns whether all lines in the given range are zero.
+	 *
+	 * @param lines
+	 * 		The lines to check
+	 * @param start
+	 * 		The first line to check
+	 * @param end
+	 * 		The end of the range (exclusive)
+	 * @return {@code true} if all lines are zero, {@code false} otherwise
+	 */
+	private static boolean isZero(float[] lines, int start, int end) {
+		for (int line = start; line < end; ++line) {
+			if (lines[line] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Calculates the DCT-II of the given vector in place, using the recursive
+	 * algorithm of Byeong Gi Lee.
+	 *
+	 * @param vector
+	 * 		The vector to transform
+	 * @param offset
+	 * 		The offset of the vector
+	 * @param length
+	 * 		The length of the vector (a power of 2)
+	 * @param temporary
+	 * 		A temporary buffer of the same size as the vector
+	 * @param level
+	 * 		The recursion level, used to select the factors
+	 */
+	private static void dct(float[] vector, int offset, int length, float[] temporary, int level) {
+		if (length == 1) {
+			return;
+		}
+		int half = length / 2;
+		float[] factors = dctFactors[level];
+		for (int index = 0; index < half; ++index) {
+			float first = vector[offset + index];
+			float second = vector[offset + length - 1 - index];
+			temporary[offset + index] = first + second;
+			temporary[offset + index + half] = (first - second) * factors[index];
+		}
+		dct(temporary, offset, half, vector, level + 1);
+		dct(temporary, offset + half, half, vector, level + 1);
+		for (int index = 0; index < half - 1; ++index) {
+			vector[offset + index * 2] = temporary[offset + index];
+			vector[offset + index * 2 + 1] = temporary[offset + index + half] + temporary[offset + index + half + 1];
+		}
+		vector[offset + length - 2] = temporary[offset + half - 1];
+		vector[offset + length - 1] = temporary[offset + length - 1];
+	}
+
+	/**
+	 * The side information of a single granule of a single channel.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class Granule {
+
+		/** The number of bits used for scalefactors and Huffman data. */
+		private int part23Length;
+
+		/** The number of pairs in the big values region. */
+		private int bigValues;
+
+		/** The global gain. */
+		private int globalGain;
+
+		/** The scalefactor lengths selector. */
+		private int scalefacCompress;
+
+		/** Whether a block type other than the normal one is used. */
+		private boolean windowSwitching;
+
+		/** The block type. */
+		private int blockType;
+
+		/** Whether the two lowest subbands use long blocks in a short block. */
+		private boolean mixedBlock;
+
+		/** The Huffman tables of the three big value regions. */
+		private final int[] tableSelect = new int[3];
+
+		/** The gains of the three short windows. */
+		private final int[] subblockGain = new int[3];
+
+		/** The number of scalefactor bands in the first region, minus one. */
+		private int region0Count;
+
+		/** The number of scalefactor bands in the second region, minus one. */
+		private int region1Count;
+
+		/** Whether the pre-emphasis values are added to the scalefactors. */
+		private boolean preflag;
+
+		/** Whether the scalefactors are quantized in steps of 2 instead of √2. */
+		private boolean scalefacScale;
+
+		/** The count1 Huffman table. */
+		private int count1TableSelect;
+
+	}
+
+}
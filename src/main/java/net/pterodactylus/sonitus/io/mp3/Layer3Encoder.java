@@ -0,0 +1,1202 @@
+/*
+ * Sonitus - Layer3Encoder.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import net.pterodactylus.sonitus.io.BitWriter;
+
+/**
+ * Encoder for MPEG audio layer III frames, as specified in ISO/IEC 11172-3
+ * and ISO/IEC 13818-3. Encoding a frame is split into two steps: {@link
+ * #analyze(float[][], int)} runs the samples of a frame through the hybrid
+ * filter bank and the psychoacoustic model, and {@link #encode(int, long,
+ * byte[], int)} quantizes the result for a bitrate and writes the frame. The
+ * analysis of a frame can be encoded at several bitrates.
+ * <p/>
+ * The encoder only uses long blocks and does not use the bit reservoir, so
+ * every frame only depends on the input samples, and the frames of a stream
+ * can be encoded by independent encoders as long as every encoder is given
+ * {@link #HISTORY} samples of history. Like the {@link Layer3Decoder}, an
+ * encoder must not be shared between threads.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Layer3Encoder {
+
+	/**
+	 * The number of samples that have to precede the first sample given to
+	 * {@link #analyze(float[][], int)} after the encoder has been created or
+	 * reset.
+	 */
+	public static final int HISTORY = 480 + 576;
+
+	/**
+	 * The number of samples by which the decoded output of the encoded stream
+	 * lags behind the input of the encoder.
+	 */
+	public static final int DELAY = 481 + 576;
+
+	/** The bitrates of MPEG-1 layer III (in kbps), per bitrate index. */
+	private static final int[] mpeg1Bitrates = { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 };
+
+	/** The bitrates of MPEG-2 and MPEG-2.5 layer III (in kbps), per bitrate index. */
+	private static final int[] lsfBitrates = { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 };
+
+	/**
+	 * The number of scalefactor bands of the first two regions of the big
+	 * values (region0_count and region1_count), per scalefactor band that
+	 * contains the end of the big values.
+	 */
+	private static final int[][] regionSubdivisions = {
+			{ 0, 0 }, { 0, 0 }, { 0, 0 }, { 0, 0 }, { 0, 0 }, { 0, 1 }, { 1, 1 }, { 1, 1 }, { 1, 2 }, { 2, 2 }, { 2, 3 },
+			{ 2, 3 }, { 3, 4 }, { 3, 4 }, { 3, 4 }, { 4, 5 }, { 4, 5 }, { 4, 6 }, { 5, 6 }, { 5, 6 }, { 5, 7 }, { 6, 7 }
+	};
+
+	/** The big value tables without linbits, grouped by their largest value. */
+	private static final int[][] tableGroups = { { 1 }, { 2, 3 }, { 5, 6 }, { 7, 8, 9 }, { 10, 11, 12 }, { 13, 15 } };
+
+	/** The first big value table of the two families of tables with linbits. */
+	private static final int[] linbitTables = { 16, 24 };
+
+	/** The largest scalefactor of each long scalefactor band. */
+	private static final int[] maximumScalefactors = { 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 0 };
+
+	/** The number of scalefactors in each scalefactor group of MPEG-2 frames. */
+	private static final int[] lsfScalefactorCounts = { 6, 5, 5, 5 };
+
+	/** The smallest quantizer step, as it results from the global gain and the scalefactors. */
+	private static final int MINIMUM_STEP = -210 - 30;
+
+	/** 2<sup>-3/16 · step</sup>, per quantizer step. */
+	private static final float[] quantizerFactors = new float[256 - MINIMUM_STEP - 210];
+
+	/** 2<sup>step/4</sup>, per quantizer step. */
+	private static final float[] dequantizerFactors = new float[quantizerFactors.length];
+
+	/** The largest value that can be quantized, before rounding. */
+	private static final float MAXIMUM_QUANTIZED = 8206.5f - 0.4054f;
+
+	/** The analysis window C[i] of ISO/IEC 11172-3, table C.1. */
+	private static final float[] analysisWindow = new float[512];
+
+	/** The matrix of the polyphase analysis filter bank. */
+	private static final float[] analysisMatrix = new float[32 * 64];
+
+	/** The window of the MDCT. */
+	private static final float[] mdctWindow = new float[36];
+
+	/** The cosine table of the MDCT. */
+	private static final float[] mdctCosines = new float[18 * 36];
+
+	/** The energy of the spectral lines of a granule of a full-scale sine. */
+	private static final double FULL_SCALE_ENERGY = 1.1;
+
+	/** The share of a band’s energy that may be replaced by noise. */
+	private static final float MASKING_RATIO = 0.02f;
+
+	/** 1/sqrt(2). */
+	private static final float INVERSE_SQUARE_ROOT_2 = (float) (1 / Math.sqrt(2));
+
+	static {
+		for (int step = 0; step < quantizerFactors.length; ++step) {
+			quantizerFactors[step] = (float) Math.pow(2, -0.1875 * (step + MINIMUM_STEP));
+			dequantizerFactors[step] = (float) Math.pow(2, 0.25 * (step + MINIMUM_STEP));
+		}
+		for (int index = 0; index < 512; ++index) {
+			analysisWindow[index] = Layer3Decoder.synthesisWindow[index] / 32;
+		}
+		for (int subband = 0; subband < 32; ++subband) {
+			for (int index = 0; index < 64; ++index) {
+				analysisMatrix[subband * 64 + index] = (float) Math.cos((2 * subband + 1) * (index - 16) * Math.PI / 64);
+			}
+		}
+		for (int index = 0; index < 36; ++index) {
+			mdctWindow[index] = (float) Math.sin(Math.PI / 36 * (index + 0.5));
+		}
+		for (int output = 0; output < 18; ++output) {
+			for (int input = 0; input < 36; ++input) {
+				mdctCosines[output * 36 + input] = (float) (Math.cos(Math.PI / 72 * (2 * input + 1 + 18) * (2 * output + 1)) / 9);
+			}
+		}
+	}
+
+	/** The sampling rate. */
+	private final int samplingRate;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** Whether MPEG-1 frames are encoded. */
+	private final boolean mpeg1;
+
+	/** The index of the sampling rate in the band tables. */
+	private final int samplingRateIndex;
+
+	/** The number of granules per frame. */
+	private final int granuleCount;
+
+	/** The boundaries of the long scalefactor bands. */
+	private final int[] bands;
+
+	/** The absolute threshold of hearing, per scalefactor band. */
+	private final float[] absoluteThresholds = new float[22];
+
+	/** Whether to spend more time on finding the best quantization. */
+	private boolean hq;
+
+	/** The subband samples of the previous and the current granule, per channel. */
+	private final float[][][] subbandSamples;
+
+	/** The index of the subband samples of the previous granule. */
+	private int previousSubbandSamples;
+
+	/** Whether the subband samples of the previous granule are valid. */
+	private boolean primed;
+
+	/** The intermediate values of the polyphase analysis. */
+	private final float[] polyphaseBuffer = new float[64];
+
+	/** The windowed input of the MDCT. */
+	private final float[] mdctBuffer = new float[36];
+
+	/** The spectral lines, per granule and channel. */
+	private final float[][][] spectra;
+
+	/** The absolute values of the spectral lines to the power of 3/4, per granule and channel. */
+	private final float[][][] magnitudes;
+
+	/** The largest values of {@link #magnitudes}, per granule, channel, and scalefactor band. */
+	private final float[][][] maximumMagnitudes;
+
+	/** The allowed distortion, per granule, channel, and scalefactor band. */
+	private final float[][][] thresholds;
+
+	/** The energies of the scalefactor bands. */
+	private final float[] energies = new float[22];
+
+	/** Whether the analyzed frame uses mid/side stereo. */
+	private boolean midSide;
+
+	/** The distortion of the quantized values, per scalefactor band. */
+	private final float[] distortions = new float[22];
+
+	/** The granule that is currently being quantized. */
+	private final Granule workingGranule = new Granule();
+
+	/** The quantized granules of the frame, per granule and channel. */
+	private final Granule[][] granules;
+
+	/**
+	 * Creates a new layer III encoder.
+	 *
+	 * @param samplingRate
+	 * 		The sampling rate of the samples
+	 * @param channels
+	 * 		The number of channels (1 or 2)
+	 * @throws IllegalArgumentException
+	 * 		if the sampling rate or the number of channels is not supported
+	 */
+	public Layer3Encoder(int samplingRate, int channels) {
+		checkArgument((channels == 1) || (channels == 2), "channels must be 1 or 2");
+		this.samplingRateIndex = indexOf(Layer3Decoder.samplingRates, samplingRate);
+		checkArgument(this.samplingRateIndex >= 0, "unsupported sampling rate: %s", samplingRate);
+		this.samplingRate = samplingRate;
+		this.channels = channels;
+		this.mpeg1 = this.samplingRateIndex < 3;
+		this.granuleCount = mpeg1 ? 2 : 1;
+		this.bands = Layer3Decoder.longBands[this.samplingRateIndex];
+		subbandSamples = new float[channels][2][576];
+		spectra = new float[granuleCount][channels][576];
+		magnitudes = new float[granuleCount][channels][576];
+		maximumMagnitudes = new float[granuleCount][channels][22];
+		thresholds = new float[granuleCount][channels][22];
+		granules = new Granule[granuleCount][channels];
+		for (int granule = 0; granule < granuleCount; ++granule) {
+			for (int channel = 0; channel < channels; ++channel) {
+				granules[granule][channel] = new Granule();
+			}
+		}
+		calculateAbsoluteThresholds();
+	}
+
+	/**
+	 * Sets whether to spend more time on finding the best quantization.
+	 *
+	 * @param hq
+	 * 		{@code true} to search more thoroughly, {@code false} to encode faster
+	 * @return This encoder
+	 */
+	public Layer3Encoder hq(boolean hq) {
+		this.hq = hq;
+		return this;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of samples per channel of a frame.
+	 *
+	 * @return The number of samples per frame
+	 */
+	public int samples() {
+		return granuleCount * 576;
+	}
+
+	/**
+	 * Returns the length of the given frame.
+	 *
+	 * @param bitrate
+	 * 		The bitrate (in kbps)
+	 * @param frameNumber
+	 * 		The number of the frame in the stream (starting at 0), which
+	 * 		determines whether the frame is padded
+	 * @return The length of the frame (in bytes)
+	 * @throws IllegalArgumentException
+	 * 		if the bitrate is not valid for the sampling rate
+	 */
+	public int frameLength(int bitrate, long frameNumber) {
+		bitrateIndex(bitrate);
+		long bytesPerSecond = (mpeg1 ? 144L : 72L) * bitrate * 1000;
+		return (int) (((frameNumber + 1) * bytesPerSecond / samplingRate) - (frameNumber * bytesPerSecond / samplingRate));
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Analyzes the samples of the next frame. The samples of every channel have
+	 * to be given as values from -1 to 1; the {@link #samples()} samples of the
+	 * frame start at the given offset. After the encoder has been created or
+	 * {@link #reset()}, the {@link #HISTORY} samples in front of the offset are
+	 * used to fill the filter banks, otherwise the frames have to be analyzed
+	 * in stream order.
+	 *
+	 * @param samples
+	 * 		The samples, per channel
+	 * @param offset
+	 * 		The offset of the first sample of the frame
+	 */
+	public void analyze(float[][] samples, int offset) {
+		if (!primed) {
+			checkArgument(offset >= HISTORY, "offset must be at least %s", HISTORY);
+			for (int channel = 0; channel < channels; ++channel) {
+				filterGranule(samples[channel], offset - 576, subbandSamples[channel][previousSubbandSamples]);
+			}
+			primed = true;
+		}
+		for (int granule = 0; granule < granuleCount; ++granule) {
+			int currentSubbandSamples = 1 - previousSubbandSamples;
+			for (int channel = 0; channel < channels; ++channel) {
+				filterGranule(samples[channel], offset + granule * 576, subbandSamples[channel][currentSubbandSamples]);
+				transform(subbandSamples[channel][previousSubbandSamples], subbandSamples[channel][currentSubbandSamples], spectra[granule][channel]);
+				calculateThresholds(spectra[granule][channel], thresholds[granule][channel]);
+			}
+			previousSubbandSamples = currentSubbandSamples;
+		}
+		midSide = (channels == 2) && useMidSide();
+		for (int granule = 0; granule < granuleCount; ++granule) {
+			if (midSide) {
+				convertToMidSide(granule);
+			}
+			for (int channel = 0; channel < channels; ++channel) {
+				float[] spectrum = spectra[granule][channel];
+				float[] magnitudes = this.magnitudes[granule][channel];
+				float[] maximumMagnitudes = this.maximumMagnitudes[granule][channel];
+				for (int band = 0; band < 22; ++band) {
+					float maximum = 0;
+					for (int index = bands[band]; index < bands[band + 1]; ++index) {
+						magnitudes[index] = (float) Math.pow(Math.abs(spectrum[index]), 0.75);
+						maximum = Math.max(maximum, magnitudes[index]);
+					}
+					maximumMagnitudes[band] = maximum;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Quantizes the last analyzed frame for the given bitrate and writes the
+	 * complete frame into the given buffer.
+	 *
+	 * @param bitrate
+	 * 		The bitrate (in kbps)
+	 * @param frameNumber
+	 * 		The number of the frame in the stream (starting at 0), which
+	 * 		determines whether the frame is padded
+	 * @param buffer
+	 * 		The buffer to write the frame to
+	 * @param offset
+	 * 		The offset at which to write the frame
+	 * @return The length of the frame (in bytes)
+	 * @throws IllegalArgumentException
+	 * 		if the bitrate is not valid for the sampling rate
+	 */
+	public int encode(int bitrate, long frameNumber, byte[] buffer, int offset) {
+		int bitrateIndex = bitrateIndex(bitrate);
+		int frameLength = frameLength(bitrate, frameNumber);
+		int padding = frameLength - frameLength(bitrate, 0);
+		int sideInfoLength = mpeg1 ? ((channels == 1) ? 17 : 32) : ((channels == 1) ? 9 : 17);
+
+		int availableBits = (frameLength - 4 - sideInfoLength) * 8;
+		int remainingGranules = granuleCount * channels;
+		for (int granule = 0; granule < granuleCount; ++granule) {
+			for (int channel = 0; channel < channels; ++channel) {
+				Granule granuleInfo = granules[granule][channel];
+				quantize(granule, channel, Math.min(4095, availableBits / remainingGranules--), granuleInfo);
+				availableBits -= granuleInfo.part23Length;
+			}
+		}
+
+		Arrays.fill(buffer, offset, offset + frameLength, (byte) 0);
+		BitWriter bitWriter = new BitWriter(buffer, offset);
+		writeHeader(bitWriter, bitrateIndex, padding);
+		writeSideInfo(bitWriter);
+		for (int granule = 0; granule < granuleCount; ++granule) {
+			for (int channel = 0; channel < channels; ++channel) {
+				Granule granuleInfo = granules[granule][channel];
+				writeScalefactors(bitWriter, granuleInfo);
+				writeHuffmanData(bitWriter, granuleInfo, spectra[granule][channel]);
+			}
+		}
+		return frameLength;
+	}
+
+	/**
+	 * Resets this encoder. The next call to {@link #analyze(float[][], int)}
+	 * refills the filter banks from the history in front of the frame.
+	 */
+	public void reset() {
+		primed = false;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Runs the samples of a granule through the polyphase analysis filter bank.
+	 *
+	 * @param input
+	 * 		The samples of the channel
+	 * @param offset
+	 * 		The offset of the first sample of the granule; at least 480 samples
+	 * 		have to precede it
+	 * @param output
+	 * 		The array to store the subband samples in (18 samples per subband)
+	 */
+	private void filterGranule(float[] input, int offset, float[] output) {
+		for (int time = 0; time < 18; ++time) {
+			int newest = offset + time * 32 + 31;
+			for (int index = 0; index < 64; ++index) {
+				float sum = 0;
+				for (int block = 0; block < 8; ++block) {
+					sum += analysisWindow[index + block * 64] * input[newest - index - block * 64];
+				}
+				polyphaseBuffer[index] = sum;
+			}
+			for (int subband = 0; subband < 32; ++subband) {
+				float sum = 0;
+				int matrixIndex = subband * 64;
+				for (int index = 0; index < 64; ++index) {
+					sum += analysisMatrix[matrixIndex + index] * polyphaseBuffer[index];
+				}
+				output[subband * 18 + time] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Transforms the subband samples of a granule into spectral lines using
+	 * the MDCT and performs the alias reduction butterflies.
+	 *
+	 * @param previous
+	 * 		The subband samples of the previous granule
+	 * @param current
+	 * 		The subband samples of the current granule
+	 * @param lines
+	 * 		The array to store the spectral lines in
+	 */
+	private void transform(float[] previous, float[] current, float[] lines) {
+		for (int subband = 0; subband < 32; ++subband) {
+			int base = subband * 18;
+			boolean inverted = (subband % 2) == 1;
+			for (int index = 0; index < 18; ++index) {
+				float sign = (inverted && ((index % 2) == 1)) ? -1 : 1;
+				mdctBuffer[index] = mdctWindow[index] * previous[base + index] * sign;
+				mdctBuffer[index + 18] = mdctWindow[index + 18] * current[base + index] * sign;
+			}
+			for (int output = 0; output < 18; ++output) {
+				float sum = 0;
+				int cosineIndex = output * 36;
+				for (int input = 0; input < 36; ++input) {
+					sum += mdctBuffer[input] * mdctCosines[cosineIndex + input];
+				}
+				lines[base + output] = sum;
+			}
+		}
+		for (int subband = 1; subband < 32; ++subband) {
+			for (int index = 0; index < 8; ++index) {
+				int lower = subband * 18 - 1 - index;
+				int upper = subband * 18 + index;
+				float lowerValue = lines[lower];
+				float upperValue = lines[upper];
+				lines[lower] = lowerValue * Layer3Decoder.antialiasCs[index] + upperValue * Layer3Decoder.antialiasCa[index];
+				lines[upper] = upperValue * Layer3Decoder.antialiasCs[index] - lowerValue * Layer3Decoder.antialiasCa[index];
+			}
+		}
+	}
+
+	/**
+	 * Calculates the allowed distortion of every scalefactor band of a granule.
+	 * The energy of every band is spread to its neighbours, and the result is
+	 * limited by the absolute threshold of hearing.
+	 *
+	 * @param lines
+	 * 		The spectral lines of the granule
+	 * @param thresholds
+	 * 		The array to store the allowed distortions in
+	 */
+	private void calculateThresholds(float[] lines, float[] thresholds) {
+		for (int band = 0; band < 22; ++band) {
+			float energy = 0;
+			for (int index = bands[band]; index < bands[band + 1]; ++index) {
+				energy += lines[index] * lines[index];
+			}
+			energies[band] = energy;
+		}
+		for (int band = 0; band < 22; ++band) {
+			float spreadEnergy = energies[band] + ((band > 0) ? (energies[band - 1] * 0.1f) : 0) + ((band < 21) ? (energies[band + 1] * 0.05f) : 0);
+			thresholds[band] = Math.max(spreadEnergy * MASKING_RATIO, absoluteThresholds[band]);
+		}
+	}
+
+	/**
+	 * Returns whether the analyzed frame should be encoded using mid/side
+	 * stereo, i.e. whether the channels are similar enough that the side
+	 * channel carries only a small part of the energy.
+	 *
+	 * @return {@code true} to use mid/side stereo, {@code false} to encode the
+	 *         channels separately
+	 */
+	private boolean useMidSide() {
+		float midEnergy = 0;
+		float sideEnergy = 0;
+		for (int granule = 0; granule < granuleCount; ++granule) {
+			float[] left = spectra[granule][0];
+			float[] right = spectra[granule][1];
+			for (int index = 0; index < 576; ++index) {
+				float mid = left[index] + right[index];
+				float side = left[index] - right[index];
+				midEnergy += mid * mid;
+				sideEnergy += side * side;
+			}
+		}
+		return sideEnergy < (midEnergy * 0.3f);
+	}
+
+	/**
+	 * Converts the spectral lines of a granule to mid/side stereo. The allowed
+	 * distortion of both channels is set to the lower distortion of the two
+	 * channels, so that the distortion of neither channel is increased by the
+	 * conversion back to left and right.
+	 *
+	 * @param granule
+	 * 		The index of the granule
+	 */
+	private void convertToMidSide(int granule) {
+		float[] left = spectra[granule][0];
+		float[] right = spectra[granule][1];
+		for (int index = 0; index < 576; ++index) {
+			float mid = (left[index] + right[index]) * INVERSE_SQUARE_ROOT_2;
+			float side = (left[index] - right[index]) * INVERSE_SQUARE_ROOT_2;
+			left[index] = mid;
+			right[index] = side;
+		}
+		for (int band = 0; band < 22; ++band) {
+			float threshold = Math.min(thresholds[granule][0][band], thresholds[granule][1][band]);
+			thresholds[granule][0][band] = threshold;
+			thresholds[granule][1][band] = threshold;
+		}
+	}
+
+	/**
+	 * Quantizes a granule of a channel. The outer loop amplifies the
+	 * scalefactor bands whose distortion exceeds the allowed distortion, the
+	 * inner loop finds the global gain that makes the granule fit into the
+	 * available bits; the quantization with the lowest distortion above the
+	 * allowed distortion is kept.
+	 *
+	 * @param granule
+	 * 		The index of the granule
+	 * @param channel
+	 * 		The index of the channel
+	 * @param availableBits
+	 * 		The number of bits available for scalefactors and Huffman data
+	 * @param granuleInfo
+	 * 		The granule to store the quantization in
+	 */
+	private void quantize(int granule, int channel, int availableBits, Granule granuleInfo) {
+		float[] spectrum = spectra[granule][channel];
+		float[] magnitudes = this.magnitudes[granule][channel];
+		float[] maximumMagnitudes = this.maximumMagnitudes[granule][channel];
+		float[] thresholds = this.thresholds[granule][channel];
+		granuleInfo.clear();
+		Granule working = workingGranule;
+		working.clear();
+
+		float bestDistortion = Float.MAX_VALUE;
+		int maximumIterations = hq ? 64 : 16;
+		for (int iteration = 0; iteration < maximumIterations; ++iteration) {
+			int part2Length = selectScalefactorLengths(working);
+			if (!findGlobalGain(working, magnitudes, maximumMagnitudes, availableBits - part2Length, working.globalGain)) {
+				break;
+			}
+			working.part23Length += part2Length;
+
+			float excessDistortion = 0;
+			boolean allAmplified = true;
+			boolean exceeded = false;
+			for (int band = 0; band < 22; ++band) {
+				float distortion = calculateDistortion(working, spectrum, band);
+				distortions[band] = distortion;
+				if (distortion > thresholds[band]) {
+					excessDistortion += (float) Math.log10(distortion / thresholds[band]);
+					exceeded = true;
+				} else if (band < 21) {
+					allAmplified = false;
+				}
+			}
+			if (excessDistortion < bestDistortion) {
+				bestDistortion = excessDistortion;
+				granuleInfo.copyFrom(working);
+			}
+			if (!exceeded || allAmplified) {
+				break;
+			}
+
+			boolean limitReached = false;
+			for (int band = 0; band < 21; ++band) {
+				if (distortions[band] > thresholds[band]) {
+					if (working.scalefactors[band] == maximumScalefactors[band]) {
+						limitReached = true;
+					} else {
+						working.scalefactors[band]++;
+					}
+				}
+			}
+			if (limitReached) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Selects the scalefactor lengths for the scalefactors of the given
+	 * granule.
+	 *
+	 * @param granuleInfo
+	 * 		The granule
+	 * @return The number of bits used by the scalefactors
+	 */
+	private int selectScalefactorLengths(Granule granuleInfo) {
+		int[] scalefactors = granuleInfo.scalefactors;
+		if (mpeg1) {
+			int firstMaximum = 0;
+			int secondMaximum = 0;
+			for (int band = 0; band < 21; ++band) {
+				if (band < 11) {
+					firstMaximum = Math.max(firstMaximum, scalefactors[band]);
+				} else {
+					secondMaximum = Math.max(secondMaximum, scalefactors[band]);
+				}
+			}
+			int bestLength = Integer.MAX_VALUE;
+			for (int scalefacCompress = 0; scalefacCompress < 16; ++scalefacCompress) {
+				int firstLength = Layer3Decoder.slen1[scalefacCompress];
+				int secondLength = Layer3Decoder.slen2[scalefacCompress];
+				int length = 11 * firstLength + 10 * secondLength;
+				if ((firstMaximum < (1 << firstLength)) && (secondMaximum < (1 << secondLength)) && (length < bestLength)) {
+					bestLength = length;
+					granuleInfo.scalefacCompress = scalefacCompress;
+					granuleInfo.scalefactorLengths[0] = firstLength;
+					granuleInfo.scalefactorLengths[1] = secondLength;
+				}
+			}
+			return bestLength;
+		}
+		int length = 0;
+		for (int group = 0, band = 0; group < 4; ++group) {
+			int maximum = 0;
+			for (int index = 0; index < lsfScalefactorCounts[group]; ++index, ++band) {
+				maximum = Math.max(maximum, scalefactors[band]);
+			}
+			granuleInfo.scalefactorLengths[group] = 32 - Integer.numberOfLeadingZeros(maximum);
+			length += lsfScalefactorCounts[group] * granuleInfo.scalefactorLengths[group];
+		}
+		int[] lengths = granuleInfo.scalefactorLengths;
+		granuleInfo.scalefacCompress = ((lengths[0] * 5 + lengths[1]) << 4) + (lengths[2] << 2) + lengths[3];
+		return length;
+	}
+
+	/**
+	 * Searches the smallest global gain with which the quantized values fit
+	 * into the given number of bits.
+	 *
+	 * @param granuleInfo
+	 * 		The granule to quantize
+	 * @param magnitudes
+	 * 		The absolute values of the spectral lines to the power of 3/4
+	 * @param maximumMagnitudes
+	 * 		The largest magnitudes, per scalefactor band
+	 * @param availableBits
+	 * 		The number of bits available for the Huffman data
+	 * @param minimumGain
+	 * 		The smallest global gain to try; as amplifying scalefactor bands only
+	 * 		increases the number of bits, the global gain of the previous
+	 * 		iteration of the outer loop can be used
+	 * @return {@code true} if a global gain was found, {@code false} if the
+	 *         granule can not be quantized into the available bits
+	 */
+	private boolean findGlobalGain(Granule granuleInfo, float[] magnitudes, float[] maximumMagnitudes, int availableBits, int minimumGain) {
+		if (availableBits < 0) {
+			return false;
+		}
+		int low = minimumGain;
+		int high = 255;
+		while (low < high) {
+			int globalGain = (low + high) / 2;
+			if (quantizeValues(granuleInfo, magnitudes, maximumMagnitudes, globalGain) && (countBits(granuleInfo) <= availableBits)) {
+				high = globalGain;
+			} else {
+				low = globalGain + 1;
+			}
+		}
+		return quantizeValues(granuleInfo, magnitudes, maximumMagnitudes, high) && (countBits(granuleInfo) <= availableBits);
+	}
+
+	/**
+	 * Quantizes the spectral lines of a granule with the given global gain and
+	 * the granule’s scalefactors.
+	 *
+	 * @param granuleInfo
+	 * 		The granule to quantize
+	 * @param magnitudes
+	 * 		The absolute values of the spectral lines to the power of 3/4
+	 * @param maximumMagnitudes
+	 * 		The largest magnitudes, per scalefactor band
+	 * @param globalGain
+	 * 		The global gain
+	 * @return {@code true} if all values could be quantized, {@code false} if a
+	 *         value is too large for the global gain
+	 */
+	private boolean quantizeValues(Granule granuleInfo, float[] magnitudes, float[] maximumMagnitudes, int globalGain) {
+		granuleInfo.globalGain = globalGain;
+		int[] quantized = granuleInfo.quantized;
+		for (int band = 0; band < 22; ++band) {
+			float factor = quantizerFactors[globalGain - 2 * granuleInfo.scalefactors[band] - 210 - MINIMUM_STEP];
+			float maximum = maximumMagnitudes[band] * factor;
+			if (maximum > MAXIMUM_QUANTIZED) {
+				return false;
+			}
+			if (maximum < (1 - 0.4054f)) {
+				Arrays.fill(quantized, bands[band], bands[band + 1], 0);
+				continue;
+			}
+			for (int index = bands[band]; index < bands[band + 1]; ++index) {
+				quantized[index] = (int) (magnitudes[index] * factor + 0.4054f);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the distortion caused by the quantization of a scalefactor band.
+	 *
+	 * @param granuleInfo
+	 * 		The quantized granule
+	 * @param spectrum
+	 * 		The spectral lines of the granule
+	 * @param band
+	 * 		The index of the scalefactor band
+	 * @return The energy of the distortion
+	 */
+	private float calculateDistortion(Granule granuleInfo, float[] spectrum, int band) {
+		float factor = dequantizerFactors[granuleInfo.globalGain - 2 * granuleInfo.scalefactors[band] - 210 - MINIMUM_STEP];
+		float distortion = 0;
+		for (int index = bands[band]; index < bands[band + 1]; ++index) {
+			float difference = Math.abs(spectrum[index]) - Layer3Decoder.powers[granuleInfo.quantized[index]] * factor;
+			distortion += difference * difference;
+		}
+		return distortion;
+	}
+
+	/**
+	 * Divides the quantized values of a granule into the big values, count1,
+	 * and zero regions, selects the Huffman tables, and returns the number of
+	 * bits the Huffman data will use.
+	 *
+	 * @param granuleInfo
+	 * 		The quantized granule
+	 * @return The number of bits of the Huffman data
+	 */
+	private int countBits(Granule granuleInfo) {
+		int[] quantized = granuleInfo.quantized;
+		int end = 576;
+		while ((end > 1) && (quantized[end - 1] == 0) && (quantized[end - 2] == 0)) {
+			end -= 2;
+		}
+		int count1Bits = 0;
+		int count1TableBBits = 0;
+		int count1End = end;
+		for (; end > 3; end -= 4) {
+			int v = quantized[end - 4];
+			int w = quantized[end - 3];
+			int x = quantized[end - 2];
+			int y = quantized[end - 1];
+			if ((v > 1) || (w > 1) || (x > 1) || (y > 1)) {
+				break;
+			}
+			int signs = v + w + x + y;
+			count1Bits += HuffmanTable.count1Table(0).codeLength((v << 3) | (w << 2) | (x << 1) | y) + signs;
+			count1TableBBits += 4 + signs;
+		}
+		granuleInfo.bigValues = end / 2;
+		granuleInfo.count1End = count1End;
+		granuleInfo.count1TableSelect = (count1TableBBits < count1Bits) ? 1 : 0;
+		int bits = Math.min(count1Bits, count1TableBBits);
+
+		if (end == 0) {
+			granuleInfo.region0Count = 0;
+			granuleInfo.region1Count = 0;
+			granuleInfo.region1Start = 0;
+			granuleInfo.region2Start = 0;
+			Arrays.fill(granuleInfo.tableSelect, 0);
+		} else {
+			int band = 0;
+			while (bands[band + 1] < end) {
+				++band;
+			}
+			granuleInfo.region0Count = regionSubdivisions[band][0];
+			granuleInfo.region1Count = regionSubdivisions[band][1];
+			granuleInfo.region1Start = Math.min(bands[granuleInfo.region0Count + 1], end);
+			granuleInfo.region2Start = Math.min(bands[granuleInfo.region0Count + granuleInfo.region1Count + 2], end);
+			bits += selectTable(granuleInfo, 0, 0, granuleInfo.region1Start);
+			bits += selectTable(granuleInfo, 1, granuleInfo.region1Start, granuleInfo.region2Start);
+			bits += selectTable(granuleInfo, 2, granuleInfo.region2Start, end);
+		}
+		granuleInfo.part23Length = bits;
+		return bits;
+	}
+
+	/**
+	 * Selects the Huffman table that encodes a region of the big values with
+	 * the least bits.
+	 *
+	 * @param granuleInfo
+	 * 		The quantized granule
+	 * @param region
+	 * 		The index of the region
+	 * @param start
+	 * 		The first value of the region
+	 * @param end
+	 * 		The end of the region (exclusive)
+	 * @return The number of bits of the region
+	 */
+	private int selectTable(Granule granuleInfo, int region, int start, int end) {
+		int[] quantized = granuleInfo.quantized;
+		int maximum = 0;
+		for (int index = start; index < end; ++index) {
+			maximum = Math.max(maximum, quantized[index]);
+		}
+		granuleInfo.tableSelect[region] = 0;
+		if (maximum == 0) {
+			return 0;
+		}
+		int bestBits = Integer.MAX_VALUE;
+		if (maximum <= 15) {
+			for (int[] tableGroup : tableGroups) {
+				if (HuffmanTable.bigValueTable(tableGroup[0]).maximumValue() < maximum) {
+					continue;
+				}
+				for (int tableNumber : tableGroup) {
+					int bits = countBits(HuffmanTable.bigValueTable(tableNumber), quantized, start, end);
+					if (bits < bestBits) {
+						bestBits = bits;
+						granuleInfo.tableSelect[region] = tableNumber;
+					}
+				}
+				if (!hq) {
+					break;
+				}
+			}
+			return bestBits;
+		}
+		for (int firstTable : linbitTables) {
+			for (int tableNumber = firstTable; tableNumber < firstTable + 8; ++tableNumber) {
+				HuffmanTable huffmanTable = HuffmanTable.bigValueTable(tableNumber);
+				if (huffmanTable.maximumValue() >= maximum) {
+					int bits = countBits(huffmanTable, quantized, start, end);
+					if (bits < bestBits) {
+						bestBits = bits;
+						granuleInfo.tableSelect[region] = tableNumber;
+					}
+					break;
+				}
+			}
+		}
+		return bestBits;
+	}
+
+	/**
+	 * Calculates the absolute threshold of hearing of every scalefactor band,
+	 * using the approximation by Terhardt and assuming that a full-scale sine
+	 * is played at 96 dB SPL.
+	 */
+	private void calculateAbsoluteThresholds() {
+		for (int band = 0; band < 22; ++band) {
+			double minimum = Double.MAX_VALUE;
+			for (int index = bands[band]; index < bands[band + 1]; ++index) {
+				double frequency = Math.max((index + 0.5) * samplingRate / 1152000.0, 0.02);
+				double threshold = 3.64 * Math.pow(frequency, -0.8) - 6.5 * Math.exp(-0.6 * (frequency - 3.3) * (frequency - 3.3)) + 0.001 * Math.pow(frequency, 4);
+				minimum = Math.min(minimum, threshold);
+			}
+			absoluteThresholds[band] = (float) (FULL_SCALE_ENERGY * Math.pow(10, (minimum - 96) / 10));
+		}
+	}
+
+	/**
+	 * Writes the frame header.
+	 *
+	 * @param bitWriter
+	 * 		The bit writer to write the header to
+	 * @param bitrateIndex
+	 * 		The index of the bitrate
+	 * @param padding
+	 * 		{@code 1} if the frame is padded, {@code 0} otherwise
+	 */
+	private void writeHeader(BitWriter bitWriter, int bitrateIndex, int padding) {
+		bitWriter.writeBits(0x7ff, 11);
+		bitWriter.writeBits(mpeg1 ? 3 : ((samplingRateIndex < 6) ? 2 : 0), 2);
+		bitWriter.writeBits(1, 2);
+		bitWriter.writeBits(1, 1);
+		bitWriter.writeBits(bitrateIndex, 4);
+		bitWriter.writeBits(samplingRateIndex % 3, 2);
+		bitWriter.writeBits(padding, 1);
+		bitWriter.writeBits(0, 1);
+		bitWriter.writeBits((channels == 1) ? 3 : 1, 2);
+		bitWriter.writeBits(midSide ? 2 : 0, 2);
+		bitWriter.writeBits(0, 1);
+		bitWriter.writeBits(1, 1);
+		bitWriter.writeBits(0, 2);
+	}
+
+	/**
+	 * Writes the side information of the frame.
+	 *
+	 * @param bitWriter
+	 * 		The bit writer to write the side information to
+	 */
+	private void writeSideInfo(BitWriter bitWriter) {
+		if (mpeg1) {
+			bitWriter.writeBits(0, 9);
+			bitWriter.writeBits(0, (channels == 1) ? 5 : 3);
+			bitWriter.writeBits(0, 4 * channels);
+		} else {
+			bitWriter.writeBits(0, 8);
+			bitWriter.writeBits(0, channels);
+		}
+		for (int granule = 0; granule < granuleCount; ++granule) {
+			for (int channel = 0; channel < channels; ++channel) {
+				Granule granuleInfo = granules[granule][channel];
+				bitWriter.writeBits(granuleInfo.part23Length, 12);
+				bitWriter.writeBits(granuleInfo.bigValues, 9);
+				bitWriter.writeBits(granuleInfo.globalGain, 8);
+				bitWriter.writeBits(granuleInfo.scalefacCompress, mpeg1 ? 4 : 9);
+				bitWriter.writeBits(0, 1);
+				for (int region = 0; region < 3; ++region) {
+					bitWriter.writeBits(granuleInfo.tableSelect[region], 5);
+				}
+				bitWriter.writeBits(granuleInfo.region0Count, 4);
+				bitWriter.writeBits(granuleInfo.region1Count, 3);
+				if (mpeg1) {
+					bitWriter.writeBits(0, 1);
+				}
+				bitWriter.writeBits(0, 1);
+				bitWriter.writeBits(granuleInfo.count1TableSelect, 1);
+			}
+		}
+	}
+
+	/**
+	 * Writes the scalefactors of a granule.
+	 *
+	 * @param bitWriter
+	 * 		The bit writer to write the scalefactors to
+	 * @param granuleInfo
+	 * 		The granule
+	 */
+	private void writeScalefactors(BitWriter bitWriter, Granule granuleInfo) {
+		int[] lengths = granuleInfo.scalefactorLengths;
+		if (mpeg1) {
+			for (int band = 0; band < 21; ++band) {
+				bitWriter.writeBits(granuleInfo.scalefactors[band], lengths[(band < 11) ? 0 : 1]);
+			}
+			return;
+		}
+		for (int group = 0, band = 0; group < 4; ++group) {
+			for (int index = 0; index < lsfScalefactorCounts[group]; ++index, ++band) {
+				bitWriter.writeBits(granuleInfo.scalefactors[band], lengths[group]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the Huffman data of a granule.
+	 *
+	 * @param bitWriter
+	 * 		The bit writer to write the Huffman data to
+	 * @param granuleInfo
+	 * 		The granule
+	 * @param spectrum
+	 * 		The spectral lines of the granule, for the signs of the values
+	 */
+	private void writeHuffmanData(BitWriter bitWriter, Granule granuleInfo, float[] spectrum) {
+		int[] quantized = granuleInfo.quantized;
+		int bigValuesEnd = granuleInfo.bigValues * 2;
+		for (int region = 0; region < 3; ++region) {
+			int start = (region == 0) ? 0 : ((region == 1) ? granuleInfo.region1Start : granuleInfo.region2Start);
+			int end = (region == 0) ? granuleInfo.region1Start : ((region == 1) ? granuleInfo.region2Start : bigValuesEnd);
+			HuffmanTable huffmanTable = HuffmanTable.bigValueTable(granuleInfo.tableSelect[region]);
+			if (huffmanTable == null) {
+				continue;
+			}
+			int dimension = huffmanTable.dimension();
+			int linbits = huffmanTable.linbits();
+			for (int index = start; index < end; index += 2) {
+				int x = quantized[index];
+				int y = quantized[index + 1];
+				int code = Math.min(x, 15) * dimension + Math.min(y, 15);
+				bitWriter.writeBits(huffmanTable.code(code), huffmanTable.codeLength(code));
+				writeValue(bitWriter, x, linbits, spectrum[index]);
+				writeValue(bitWriter, y, linbits, spectrum[index + 1]);
+			}
+		}
+		HuffmanTable count1Table = HuffmanTable.count1Table(granuleInfo.count1TableSelect);
+		for (int index = bigValuesEnd; index < granuleInfo.count1End; index += 4) {
+			int code = (quantized[index] << 3) | (quantized[index + 1] << 2) | (quantized[index + 2] << 1) | quantized[index + 3];
+			bitWriter.writeBits(count1Table.code(code), count1Table.codeLength(code));
+			for (int value = 0; value < 4; ++value) {
+				writeValue(bitWriter, quantized[index + value], 0, spectrum[index + value]);
+			}
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns the number of bits needed to encode the given values with the
+	 * given Huffman table.
+	 *
+	 * @param huffmanTable
+	 * 		The Huffman table
+	 * @param quantized
+	 * 		The quantized values
+	 * @param start
+	 * 		The index of the first value
+	 * @param end
+	 * 		The end of the values (exclusive)
+	 * @return The number of bits
+	 */
+	private static int countBits(HuffmanTable huffmanTable, int[] quantized, int start, int end) {
+		int dimension = huffmanTable.dimension();
+		int linbits = huffmanTable.linbits();
+		int bits = 0;
+		for (int index = start; index < end; index += 2) {
+			int x = quantized[index];
+			int y = quantized[index + 1];
+			if (x >= 15) {
+				bits += linbits;
+				x = 15;
+			}
+			if (y >= 15) {
+				bits += linbits;
+				y = 15;
+			}
+			bits += huffmanTable.codeLength(x * dimension + y) + ((x != 0) ? 1 : 0) + ((y != 0) ? 1 : 0);
+		}
+		return bits;
+	}
+
+	/**
+	 * Writes the linbits and the sign of a big value or a count1 value.
+	 *
+	 * @param bitWriter
+	 * 		The bit writer to write to
+	 * @param value
+	 * 		The absolute quantized value
+	 * @param linbits
+	 * 		The number of linbits of the Huffman table
+	 * @param line
+	 * 		The spectral line the value was quantized from
+	 */
+	private static void writeValue(BitWriter bitWriter, int value, int linbits, float line) {
+		if ((linbits > 0) && (value >= 15)) {
+			bitWriter.writeBits(value - 15, linbits);
+		}
+		if (value != 0) {
+			bitWriter.writeBits((line < 0) ? 1 : 0, 1);
+		}
+	}
+
+	/**
+	 * Returns the bitrate index of the given bitrate.
+	 *
+	 * @param bitrate
+	 * 		The bitrate (in kbps)
+	 * @return The bitrate index
+	 * @throws IllegalArgumentException
+	 * 		if the bitrate is not valid for the sampling rate
+	 */
+	private int bitrateIndex(int bitrate) {
+		int bitrateIndex = indexOf(mpeg1 ? mpeg1Bitrates : lsfBitrates, bitrate);
+		checkArgument(bitrateIndex > 0, "unsupported bitrate: %s", bitrate);
+		return bitrateIndex;
+	}
+
+	/**
+	 * Returns the index of the given value in the given array.
+	 *
+	 * @param values
+	 * 		The array to search
+	 * @param value
+	 * 		The value to search for
+	 * @return The index of the value, or {@code -1} if the array does not
+	 *         contain the value
+	 */
+	private static int indexOf(int[] values, int value) {
+		for (int index = 0; index < values.length; ++index) {
+			if (values[index] == value) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The quantization and side information of a single granule of a single
+	 * channel.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class Granule {
+
+		/** The absolute quantized values. */
+		private final int[] quantized = new int[576];
+
+		/** The scalefactors of the long scalefactor bands. */
+		private final int[] scalefactors = new int[22];
+
+		/** The lengths of the scalefactors, per scalefactor group. */
+		private final int[] scalefactorLengths = new int[4];
+
+		/** The number of bits used for scalefactors and Huffman data. */
+		private int part23Length;
+
+		/** The number of pairs in the big values region. */
+		private int bigValues;
+
+		/** The end of the count1 region. */
+		private int count1End;
+
+		/** The global gain. */
+		private int globalGain;
+
+		/** The scalefactor lengths selector. */
+		private int scalefacCompress;
+
+		/** The Huffman tables of the three big value regions. */
+		private final int[] tableSelect = new int[3];
+
+		/** The number of scalefactor bands in the first region, minus one. */
+		private int region0Count;
+
+		/** The number of scalefactor bands in the second region, minus one. */
+		private int region1Count;
+
+		/** The first value of the second region. */
+		private int region1Start;
+
+		/** The first value of the third region. */
+		private int region2Start;
+
+		/** The count1 Huffman table. */
+		private int count1TableSelect;
+
+		/** Resets this granule to an empty granule without scalefactors. */
+		private void clear() {
+			Arrays.fill(quantized, 0);
+			Arrays.fill(scalefactors, 0);
+			Arrays.fill(scalefactorLengths, 0);
+			Arrays.fill(tableSelect, 0);
+			part23Length = 0;
+			bigValues = 0;
+			count1End = 0;
+			globalGain = 0;
+			scalefacCompress = 0;
+			region0Count = 0;
+			region1Count = 0;
+			region1Start = 0;
+			region2Start = 0;
+			count1TableSelect = 0;
+		}
+
+		/**
+		 * Copies the quantization and side information of the given granule
+		 * into this granule.
+		 *
+		 * @param granule
+		 * 		The granule to copy
+		 */
+		private void copyFrom(Granule granule) {
+			System.arraycopy(granule.quantized, 0, quantized, 0, 576);
+			System.arraycopy(granule.scalefactors, 0, scalefactors, 0, 22);
+			System.arraycopy(granule.scalefactorLengths, 0, scalefactorLengths, 0, 4);
+			System.arraycopy(granule.tableSelect, 0, tableSelect, 0, 3);
+			part23Length = granule.part23Length;
+			bigValues = granule.bigValues;
+			count1End = granule.count1End;
+			globalGain = granule.globalGain;
+			scalefacCompress = granule.scalefacCompress;
+			region0Count = granule.region0Count;
+			region1Count = granule.region1Count;
+			region1Start = granule.region1Start;
+			region2Start = granule.region2Start;
+			count1TableSelect = granule.count1TableSelect;
+		}
+
+	}
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Sonitus - Mp3Info.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.base.Optional;
+
+/**
+ * Duration and bitrate of an MP3 stream, determined from only the first few
+ * frames. If the first frame carries an {@link InfoHeader} with a frame count,
+ * the duration is exact; otherwise it is estimated from the average bitrate of
+ * the first {@value #SAMPLED_FRAMES} frames and the length of the stream,
+ * which is exact for CBR streams.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Mp3Info {
+
+	/** The number of frames to sample if there is no usable info header. */
+	private static final int SAMPLED_FRAMES = 32;
+
+	/** The sampling rate (in Hertz). */
+	private final int samplingRate;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** The duration (in microseconds). */
+	private final long duration;
+
+	/** The offset of the first frame in the stream. */
+	private final long audioOffset;
+
+	/** The offset of the first audio frame in the stream. */
+	private final long audioDataOffset;
+
+	/** The length of the stream. */
+	private final long length;
+
+	/** Whether the duration was read from an info header. */
+	private final boolean exact;
+
+	/** The info header. */
+	private final Optional<InfoHeader> infoHeader;
+
+	/**
+	 * Creates new MP3 stream information.
+	 *
+	 * @param samplingRate
+	 * 		The sampling rate (in Hertz)
+	 * @param channels
+	 * 		The number of channels
+	 * @param duration
+	 * 		The duration (in microseconds)
+	 * @param audioOffset
+	 * 		The offset of the first frame in the stream
+	 * @param audioDataOffset
+	 * 		The offset of the first audio frame in the stream
+	 * @param length
+	 * 		The length of the stream
+	 * @param exact
+	 * 		{@code true} if the duration was read from an info header, {@code
+	 * 		false} if it was estimated
+	 * @param infoHeader
+	 * 		The info header
+	 */
+	private Mp3Info(int samplingRate, int channels, long duration, long audioOffset, long audioDataOffset, long length, boolean exact, Optional<InfoHeader> infoHeader) {
+		this.samplingRate = samplingRate;
+		this.channels = channels;
+		this.duration = duration;
+		this.audioOffset = audioOffset;
+		this.audioDataOffset = audioDataOffset;
+		this.length = length;
+		this.exact = exact;
+		this.infoHeader = infoHeader;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the sampling rate of the stream.
+	 *
+	 * @return The sampling rate (in Hertz)
+	 */
+	public int samplingRate() {
+		return samplingRate;
+	}
+
+	/**
+	 * Returns the number of channels of the stream.
+	 *
+	 * @return The number of channels
+	 */
+	public int channels() {
+		return channels;
+	}
+
+	/**
+	 * Returns the duration of the stream.
+	 *
+	 * @return The duration (in microseconds)
+	 */
+	public long duration() {
+		return duration;
+	}
+
+	/**
+	 * Returns the offset of the first frame, i.e. the length of a leading
+	 * ID3v2 tag and any garbage.
+	 *
+	 * @return The offset of the first frame in the stream (in bytes)
+	 */
+	public long audioOffset() {
+		return audioOffset;
+	}
+
+	/**
+	 * Returns whether the duration was read from an info header or estimated
+	 * from the bitrate of the first frames.
+	 *
+	 * @return {@code true} if the duration is exact, {@code false} if it was
+	 *         estimated
+	 */
+	public boolean exact() {
+		return exact;
+	}
+
+	/**
+	 * Returns the info header of the stream.
+	 *
+	 * @return The info header, or {@link Optional#absent()} if the first frame
+	 *         does not carry an info header
+	 */
+	public Optional<InfoHeader> infoHeader() {
+		return infoHeader;
+	}
+
+	/**
+	 * Returns the estimated offset of the frame at the given position. The
+	 * offset is interpolated from the table of contents of the info header if
+	 * there is one, and from the average bitrate otherwise; it is not
+	 * necessarily the offset of a frame header.
+	 *
+	 * @param position
+	 * 		The position in the stream (in microseconds)
+	 * @return The estimated offset in the stream (in bytes)
+	 */
+	public long offset(long position) {
+		double fraction = (duration == 0) ? 0 : Math.max(0, Math.min(1, (double) position / duration));
+		if (infoHeader.isPresent() && infoHeader.get().offset(fraction).isPresent()) {
+			return Math.max(audioDataOffset, Math.min(length, audioOffset + infoHeader.get().offset(fraction).get()));
+		}
+		return audioDataOffset + (long) ((length - audioDataOffset) * fraction);
+	}
+
+	/**
+	 * Returns the estimated position of the frame at the given offset. The
+	 * position is interpolated in the same way as by {@link #offset(long)}; the
+	 * first audio frame is at position 0.
+	 *
+	 * @param offset
+	 * 		The offset of the frame in the stream (in bytes)
+	 * @return The estimated position in the stream (in microseconds)
+	 */
+	public long position(long offset) {
+		if (offset <= audioDataOffset) {
+			return 0;
+		}
+		if (infoHeader.isPresent() && infoHeader.get().fraction(offset - audioOffset).isPresent()) {
+			return (long) (duration * infoHeader.get().fraction(offset - audioOffset).get());
+		}
+		return (long) (duration * Math.max(0, Math.min(1, (double) (offset - audioDataOffset) / (length - audioDataOffset))));
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Reads the information from the given MP3 stream. Only the beginning of
+	 * the stream is read.
+	 *
+	 * @param inputStream
+	 * 		The input stream to read
+	 * @param length
+	 * 		The total length of the stream (in bytes)
+	 * @return The information about the stream
+	 * @throws IOException
+	 * 		if an I/O error occurs, or the stream does not contain any frames
+	 */
+	public static Mp3Info read(InputStream inputStream, long length) throws IOException {
+		Parser parser = new Parser(inputStream);
+		FrameView frameView = parser.nextFrameView();
+		int samplingRate = frameView.samplingRate();
+		int channels = frameView.channels();
+		long audioOffset = parser.frameOffset();
+		Optional<InfoHeader> infoHeader = InfoHeader.parse(frameView);
+		if (infoHeader.isPresent() && infoHeader.get().duration().isPresent()) {
+			return new Mp3Info(samplingRate, channels, infoHeader.get().duration().get(), audioOffset, audioOffset + frameView.frameLength(), length, true, infoHeader);
+		}
+		long sampledOffset = audioOffset;
+		long sampledBytes = 0;
+		long sampledDuration = 0;
+		if (infoHeader.isPresent()) {
+			sampledOffset += frameView.frameLength();
+		} else {
+			sampledBytes += frameView.frameLength();
+			sampledDuration += frameView.samples() * 1000000000L / frameView.samplingRate();
+		}
+		try {
+			for (int frame = 1; frame < SAMPLED_FRAMES; ++frame) {
+				frameView = parser.nextFrameView();
+				sampledBytes += frameView.frameLength();
+				sampledDuration += frameView.samples() * 1000000000L / frameView.samplingRate();
+			}
+		} catch (EOFException eofe1) {
+			/* short stream, use what we have. */
+		}
+		if (sampledBytes == 0) {
+			return new Mp3Info(samplingRate, channels, 0, audioOffset, sampledOffset, length, false, infoHeader);
+		}
+		long duration = (long) ((double) (length - sampledOffset) * sampledDuration / sampledBytes / 1000);
+		return new Mp3Info(samplingRate, channels, duration, audioOffset, sampledOffset, length, false, infoHeader);
+	}
+
+}
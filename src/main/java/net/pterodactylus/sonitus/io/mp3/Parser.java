@@ -26,7 +26,8 @@ import com.google.common.io.ByteStreams;
 
 /**
  * A parser for MP3 files. It can recognize (and skip) ID3v2 header tags and
- * MPEG audio frames.
+ * MPEG audio frames. The stream is read in large blocks and scanned using a
+ * {@link FrameView}, so {@link #nextFrameView()} does not allocate anything.
  * <p/>
  * This uses information from <a href="http://mpgedit.org/mpgedit/mpeg_format/mpeghdr.htm">mpgedit.org/mpgedit/mpeg_format/mpeghdr.htm</a>.
  *
@@ -40,8 +41,23 @@ public class Parser {
 	/** The complete ID3v2 tag. */
 	private final byte[] id3Tag;
 
-	/** The current read buffer. */
-	private final byte[] buffer = new byte[4];
+	/** The read buffer. */
+	private final byte[] buffer = new byte[65536];
+
+	/** The position of the next unparsed byte in the buffer. */
+	private int position;
+
+	/** The number of bytes in the buffer. */
+	private int limit;
+
+	/** The offset of the start of the buffer in the stream. */
+	private long bufferOffset;
+
+	/** The offset of the current frame in the stream. */
+	private long frameOffset;
+
+	/** The view of the current frame. */
+	private final FrameView frameView = new FrameView();
 
 	/**
 	 * Creates a new parser.
@@ -53,16 +69,14 @@ public class Parser {
 	 */
 	public Parser(InputStream inputStream) throws IOException {
 		this.inputStream = inputStream;
-		readFully(inputStream, buffer, 1, 3);
-		if ((buffer[1] == 'I') && (buffer[2] == 'D') && (buffer[3] == '3')) {
-			readFully(inputStream, buffer, 1, 3);
-			byte[] lengthBuffer = new byte[4];
-			readFully(inputStream, lengthBuffer, 0, 4);
-			int headerLength = (lengthBuffer[0] << 21) | (lengthBuffer[1] << 14) | (lengthBuffer[2] << 7) | lengthBuffer[3];
+		if (fill(10) && (buffer[0] == 'I') && (buffer[1] == 'D') && (buffer[2] == '3')) {
+			int headerLength = ((buffer[6] & 0x7f) << 21) | ((buffer[7] & 0x7f) << 14) | ((buffer[8] & 0x7f) << 7) | (buffer[9] & 0x7f);
 			id3Tag = new byte[headerLength + 10];
-			System.arraycopy(new byte[] { 'I', 'D', '3', buffer[1], buffer[2], buffer[3], lengthBuffer[0], lengthBuffer[1], lengthBuffer[2], lengthBuffer[3] }, 0, id3Tag, 0, 10);
-			readFully(inputStream, id3Tag, 10, headerLength);
-			readFully(inputStream, buffer, 1, 3);
+			int buffered = Math.min(id3Tag.length, limit);
+			System.arraycopy(buffer, 0, id3Tag, 0, buffered);
+			position = buffered;
+			readFully(inputStream, id3Tag, buffered, id3Tag.length - buffered);
+			bufferOffset = id3Tag.length - buffered;
 		} else {
 			id3Tag = null;
 		}
@@ -78,6 +92,15 @@ public class Parser {
 		return Optional.fromNullable(id3Tag);
 	}
 
+	/**
+	 * Returns the offset of the frame that was returned last.
+	 *
+	 * @return The offset of the last frame in the stream (in bytes)
+	 */
+	public long frameOffset() {
+		return frameOffset;
+	}
+
 	/**
 	 * Returns the next frame.
 	 *
@@ -86,26 +109,71 @@ public class Parser {
 	 * 		if an I/O error occurs, or EOF is reached
 	 */
 	public Frame nextFrame() throws IOException {
+		return nextFrameView().toFrame();
+	}
+
+	/**
+	 * Returns a view of the next frame. The view and the buffer it shows are
+	 * reused by the next call to this method.
+	 *
+	 * @return A view of the next frame
+	 * @throws IOException
+	 * 		if an I/O error occurs, or EOF is reached
+	 */
+	public FrameView nextFrameView() throws IOException {
 		while (true) {
-			int r = inputStream.read();
-			if (r == -1) {
+			int frame = FrameView.find(buffer, position, limit - position);
+			if (frame == -1) {
+				position = Math.max(position, limit - 3);
+				if (!fill(limit - position + 1)) {
+					throw new EOFException();
+				}
+				continue;
+			}
+			position = frame;
+			int frameLength = FrameView.frameLength(buffer, position, limit - position);
+			if (!fill(frameLength)) {
 				throw new EOFException();
 			}
-			System.arraycopy(buffer, 1, buffer, 0, 3);
-			buffer[3] = (byte) r;
-			if (Frame.isFrame(buffer, 0, 4)) {
-				int frameLength = Frame.getFrameLength(buffer, 0);
-				if (frameLength != -1) {
-					byte[] content = new byte[frameLength + 4];
-					readFully(inputStream, content, 4, frameLength);
-					System.arraycopy(buffer, 0, content, 0, 4);
-					Optional<Frame> frame = Frame.create(content, 0, frameLength + 4);
-					if (frame.isPresent()) {
-						return frame.get();
-					}
-				}
+			frameView.wrap(buffer, position, frameLength);
+			frameOffset = bufferOffset + position;
+			position += frameLength;
+			return frameView;
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Makes sure that at least the given number of unparsed bytes is in the
+	 * buffer, moving the unparsed bytes to the start of the buffer if
+	 * necessary.
+	 *
+	 * @param length
+	 * 		The number of bytes required
+	 * @return {@code true} if the bytes are available, {@code false} if EOF was
+	 *         reached before
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private boolean fill(int length) throws IOException {
+		if ((limit - position) >= length) {
+			return true;
+		}
+		System.arraycopy(buffer, position, buffer, 0, limit - position);
+		bufferOffset += position;
+		limit -= position;
+		position = 0;
+		while (limit < length) {
+			int read = inputStream.read(buffer, limit, buffer.length - limit);
+			if (read == -1) {
+				return false;
 			}
+			limit += read;
 		}
+		return true;
 	}
 
 	//
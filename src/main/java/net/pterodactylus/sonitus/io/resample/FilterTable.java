@@ -0,0 +1,297 @@
+/*
+ * Sonitus - FilterTable.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.resample;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import net.pterodactylus.sonitus.io.resample.Resampler.Quality;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * The coefficients of a polyphase windowed-sinc filter for resampling from
+ * one sampling rate to another. The ratio of the sampling rates is reduced to
+ * an upsampling factor L and a downsampling factor M; every one of the L
+ * phases of the filter has its own set of coefficients. If L is too large,
+ * the table contains a limited number of phases, and the coefficients of the
+ * phases in between are interpolated linearly.
+ * <p/>
+ * Filter tables are immutable and are cached per input rate, output rate, and
+ * quality, so all resamplers with the same parameters share the same table.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FilterTable {
+
+	/** The largest number of phases that are stored in a table. */
+	private static final int MAXIMUM_PHASES = 1024;
+
+	/** The cached filter tables. */
+	private static final LoadingCache<Key, FilterTable> filterTables = CacheBuilder.newBuilder().softValues().build(new CacheLoader<Key, FilterTable>() {
+
+		@Override
+		public FilterTable load(Key key) {
+			return new FilterTable(key.inputRate, key.outputRate, key.quality);
+		}
+	});
+
+	/** The upsampling factor L. */
+	private final int upsampling;
+
+	/** The downsampling factor M. */
+	private final int downsampling;
+
+	/** The number of stored phases. */
+	private final int phases;
+
+	/** Whether the coefficients of the phases have to be interpolated. */
+	private final boolean interpolated;
+
+	/** The number of coefficients per phase. */
+	private final int taps;
+
+	/** The coefficients, phase after phase. */
+	private final float[] coefficients;
+
+	/**
+	 * Creates a new filter table.
+	 *
+	 * @param inputRate
+	 * 		The input sampling rate
+	 * @param outputRate
+	 * 		The output sampling rate
+	 * @param quality
+	 * 		The quality of the filter
+	 */
+	private FilterTable(int inputRate, int outputRate, Quality quality) {
+		int divisor = greatestCommonDivisor(inputRate, outputRate);
+		upsampling = outputRate / divisor;
+		downsampling = inputRate / divisor;
+		interpolated = upsampling > MAXIMUM_PHASES;
+		phases = interpolated ? MAXIMUM_PHASES : upsampling;
+		double ratio = Math.max(1.0, (double) inputRate / outputRate);
+		taps = 2 * (int) Math.ceil(quality.taps() * ratio / 2);
+		double cutoff = 0.5 * quality.bandwidth() / ratio;
+		coefficients = new float[(phases + 1) * taps];
+		double windowNormalization = bessel(quality.beta());
+		for (int phase = 0; phase <= phases; ++phase) {
+			double fraction = (double) phase / phases;
+			double sum = 0;
+			for (int tap = 0; tap < taps; ++tap) {
+				double time = tap - (taps / 2 - 1) - fraction;
+				double position = time / (taps / 2);
+				double window = (Math.abs(position) >= 1) ? 0 : (bessel(quality.beta() * Math.sqrt(1 - position * position)) / windowNormalization);
+				double argument = 2 * cutoff * time;
+				double sinc = (argument == 0) ? 1 : (Math.sin(Math.PI * argument) / (Math.PI * argument));
+				double coefficient = 2 * cutoff * sinc * window;
+				coefficients[phase * taps + tap] = (float) coefficient;
+				sum += coefficient;
+			}
+			for (int tap = 0; tap < taps; ++tap) {
+				coefficients[phase * taps + tap] /= sum;
+			}
+		}
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the upsampling factor L.
+	 *
+	 * @return The upsampling factor
+	 */
+	public int upsampling() {
+		return upsampling;
+	}
+
+	/**
+	 * Returns the downsampling factor M.
+	 *
+	 * @return The downsampling factor
+	 */
+	public int downsampling() {
+		return downsampling;
+	}
+
+	/**
+	 * Returns the number of coefficients per phase, i.e. the number of input
+	 * samples that contribute to an output sample.
+	 *
+	 * @return The number of coefficients per phase
+	 */
+	public int taps() {
+		return taps;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Calculates a single output sample.
+	 *
+	 * @param samples
+	 * 		The input samples
+	 * @param offset
+	 * 		The offset of the first of the {@link #taps()} input samples
+	 * @param phase
+	 * 		The phase of the output sample (from 0 to L - 1)
+	 * @return The output sample
+	 */
+	public float filter(float[] samples, int offset, int phase) {
+		if (!interpolated) {
+			return convolve(samples, offset, phase * taps);
+		}
+		long scaledPhase = (long) phase * phases;
+		int lowerPhase = (int) (scaledPhase / upsampling);
+		float weight = (float) (scaledPhase - (long) lowerPhase * upsampling) / upsampling;
+		float lower = convolve(samples, offset, lowerPhase * taps);
+		float upper = convolve(samples, offset, (lowerPhase + 1) * taps);
+		return lower + (upper - lower) * weight;
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns the filter table for the given parameters.
+	 *
+	 * @param inputRate
+	 * 		The input sampling rate
+	 * @param outputRate
+	 * 		The output sampling rate
+	 * @param quality
+	 * 		The quality of the filter
+	 * @return The filter table
+	 */
+	public static FilterTable get(int inputRate, int outputRate, Quality quality) {
+		checkArgument(inputRate > 0, "inputRate must be positive");
+		checkArgument(outputRate > 0, "outputRate must be positive");
+		return filterTables.getUnchecked(new Key(inputRate, outputRate, checkNotNull(quality, "quality must not be null")));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Applies the coefficients starting at the given index to the given
+	 * samples.
+	 *
+	 * @param samples
+	 * 		The input samples
+	 * @param offset
+	 * 		The offset of the first input sample
+	 * @param coefficientIndex
+	 * 		The index of the first coefficient
+	 * @return The filtered sample
+	 */
+	private float convolve(float[] samples, int offset, int coefficientIndex) {
+		float sum = 0;
+		for (int tap = 0; tap < taps; ++tap) {
+			sum += samples[offset + tap] * coefficients[coefficientIndex + tap];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the greatest common divisor of the given numbers.
+	 *
+	 * @param first
+	 * 		The first number
+	 * @param second
+	 * 		The second number
+	 * @return The greatest common divisor
+	 */
+	private static int greatestCommonDivisor(int first, int second) {
+		return (second == 0) ? first : greatestCommonDivisor(second, first % second);
+	}
+
+	/**
+	 * Returns the value of the zeroth order modified Bessel function of the
+	 * first kind, as used by the Kaiser window.
+	 *
+	 * @param value
+	 * 		The argument
+	 * @return The value of the Bessel function
+	 */
+	private static double bessel(double value) {
+		double sum = 1;
+		double term = 1;
+		for (int index = 1; index < 50; ++index) {
+			term *= (value / (2 * index)) * (value / (2 * index));
+			sum += term;
+		}
+		return sum;
+	}
+
+	/**
+	 * The key of the filter table cache.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class Key {
+
+		/** The input sampling rate. */
+		private final int inputRate;
+
+		/** The output sampling rate. */
+		private final int outputRate;
+
+		/** The quality of the filter. */
+		private final Quality quality;
+
+		/**
+		 * Creates a new key.
+		 *
+		 * @param inputRate
+		 * 		The input sampling rate
+		 * @param outputRate
+		 * 		The output sampling rate
+		 * @param quality
+		 * 		The quality of the filter
+		 */
+		private Key(int inputRate, int outputRate, Quality quality) {
+			this.inputRate = inputRate;
+			this.outputRate = outputRate;
+			this.quality = quality;
+		}
+
+		@Override
+		public int hashCode() {
+			return (inputRate << 16) ^ outputRate ^ quality.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) object;
+			return (inputRate == key.inputRate) && (outputRate == key.outputRate) && (quality == key.quality);
+		}
+
+	}
+
+}
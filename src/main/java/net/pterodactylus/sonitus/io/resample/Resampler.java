@@ -0,0 +1,389 @@
+/*
+ * Sonitus - Resampler.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.resample;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Resamples blocks of samples from one sampling rate to another using a
+ * polyphase windowed-sinc {@link FilterTable}. The resampler keeps the last
+ * input samples of every channel between blocks, so a stream can be resampled
+ * in blocks of arbitrary size; the first output sample is aligned with the
+ * first input sample. If an {@link ExecutorService} is set, the channels of a
+ * block are filtered in parallel.
+ * <p/>
+ * A resampler must not be shared between threads.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Resampler {
+
+	/** The quality of a resampler. */
+	public enum Quality {
+
+		/** Short filter with a wide transition band. */
+		LOW(16, 0.80, 5),
+
+		/** Medium filter. */
+		MEDIUM(32, 0.90, 7),
+
+		/** Long filter, comparable to the “high” quality of sox. */
+		HIGH(64, 0.95, 9.5),
+
+		/** Very long filter with a narrow transition band. */
+		VERY_HIGH(128, 0.97, 12);
+
+		/** The number of taps per phase when upsampling. */
+		private final int taps;
+
+		/** The passband, as fraction of the lower Nyquist frequency. */
+		private final double bandwidth;
+
+		/** The β parameter of the Kaiser window. */
+		private final double beta;
+
+		/**
+		 * Creates a new quality.
+		 *
+		 * @param taps
+		 * 		The number of taps per phase when upsampling
+		 * @param bandwidth
+		 * 		The passband, as fraction of the lower Nyquist frequency
+		 * @param beta
+		 * 		The β parameter of the Kaiser window
+		 */
+		private Quality(int taps, double bandwidth, double beta) {
+			this.taps = taps;
+			this.bandwidth = bandwidth;
+			this.beta = beta;
+		}
+
+		/**
+		 * Returns the number of taps per phase when upsampling. When
+		 * downsampling, the number of taps is increased by the downsampling
+		 * ratio.
+		 *
+		 * @return The number of taps per phase
+		 */
+		public int taps() {
+			return taps;
+		}
+
+		/**
+		 * Returns the passband, as fraction of the lower of the two Nyquist
+		 * frequencies.
+		 *
+		 * @return The passband
+		 */
+		public double bandwidth() {
+			return bandwidth;
+		}
+
+		/**
+		 * Returns the β parameter of the Kaiser window.
+		 *
+		 * @return The β parameter
+		 */
+		public double beta() {
+			return beta;
+		}
+
+	}
+
+	/** The filter table. */
+	private final FilterTable filterTable;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** The buffered input samples, per channel. */
+	private final float[][] buffers;
+
+	/** The number of samples in the buffers. */
+	private int length;
+
+	/** The offset of the first input sample of the next output sample. */
+	private int position;
+
+	/** The phase of the next output sample. */
+	private int phase;
+
+	/** The number of input samples processed so far. */
+	private long inputSamples;
+
+	/** The number of output samples created so far. */
+	private long outputSamples;
+
+	/** The input offsets of the output samples of the current block. */
+	private int[] offsets = new int[0];
+
+	/** The phases of the output samples of the current block. */
+	private int[] phases = new int[0];
+
+	/** The executor service to filter the channels on. */
+	private ExecutorService executorService;
+
+	/**
+	 * Creates a new resampler.
+	 *
+	 * @param inputRate
+	 * 		The input sampling rate
+	 * @param outputRate
+	 * 		The output sampling rate
+	 * @param channels
+	 * 		The number of channels
+	 * @param quality
+	 * 		The quality of the resampler
+	 */
+	public Resampler(int inputRate, int outputRate, int channels, Quality quality) {
+		checkArgument(channels > 0, "channels must be positive");
+		this.filterTable = FilterTable.get(inputRate, outputRate, quality);
+		this.channels = channels;
+		this.buffers = new float[channels][filterTable.taps() * 2];
+		this.length = filterTable.taps() / 2 - 1;
+	}
+
+	/**
+	 * Sets the executor service to filter the channels on. Channels are only
+	 * filtered in parallel if there is more than one channel.
+	 *
+	 * @param executorService
+	 * 		The executor service, or {@code null} to filter all channels in the
+	 * 		calling thread
+	 * @return This resampler
+	 */
+	public Resampler executorService(ExecutorService executorService) {
+		this.executorService = executorService;
+		return this;
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of channels.
+	 *
+	 * @return The number of channels
+	 */
+	public int channels() {
+		return channels;
+	}
+
+	/**
+	 * Returns the largest number of output samples that can be created from the
+	 * given number of input samples, including the samples created by {@link
+	 * #flush(float[][])}.
+	 *
+	 * @param inputSamples
+	 * 		The number of input samples
+	 * @return The largest number of output samples
+	 */
+	public int maximumOutputSamples(int inputSamples) {
+		return (int) (((long) inputSamples + filterTable.taps()) * filterTable.upsampling() / filterTable.downsampling()) + 1;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Resamples a block of samples.
+	 *
+	 * @param input
+	 * 		The input samples, per channel
+	 * @param offset
+	 * 		The offset of the first input sample
+	 * @param count
+	 * 		The number of input samples per channel
+	 * @param output
+	 * 		The arrays to store the output samples in, per channel; they have to
+	 * 		be large enough for {@link #maximumOutputSamples(int)} samples
+	 * @return The number of output samples per channel
+	 * @throws IOException
+	 * 		if the channels can not be filtered in parallel
+	 */
+	public int process(float[][] input, int offset, int count, float[][] output) throws IOException {
+		append(input, offset, count);
+		inputSamples += count;
+		return filter(output, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates the output samples for the input samples that are still buffered
+	 * because the filter needs samples that follow them. The resampler can not
+	 * be used after it has been flushed.
+	 *
+	 * @param output
+	 * 		The arrays to store the output samples in, per channel; they have to
+	 * 		be large enough for {@link #maximumOutputSamples(int)
+	 * 		maximumOutputSamples(0)} samples
+	 * @return The number of output samples per channel
+	 * @throws IOException
+	 * 		if the channels can not be filtered in parallel
+	 */
+	public int flush(float[][] output) throws IOException {
+		float[][] silence = new float[channels][filterTable.taps()];
+		append(silence, 0, filterTable.taps());
+		long totalOutputSamples = (inputSamples * filterTable.upsampling() + filterTable.downsampling() - 1) / filterTable.downsampling();
+		return filter(output, totalOutputSamples - outputSamples);
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Appends input samples to the buffers.
+	 *
+	 * @param input
+	 * 		The input samples, per channel
+	 * @param offset
+	 * 		The offset of the first input sample
+	 * @param count
+	 * 		The number of input samples per channel
+	 */
+	private void append(float[][] input, int offset, int count) {
+		if ((length + count) > buffers[0].length) {
+			for (int channel = 0; channel < channels; ++channel) {
+				buffers[channel] = Arrays.copyOf(buffers[channel], Math.max(length + count, buffers[channel].length * 2));
+			}
+		}
+		for (int channel = 0; channel < channels; ++channel) {
+			System.arraycopy(input[channel], offset, buffers[channel], length, count);
+		}
+		length += count;
+	}
+
+	/**
+	 * Creates all output samples for which enough input samples are buffered,
+	 * and removes the input samples that are no longer needed.
+	 *
+	 * @param output
+	 * 		The arrays to store the output samples in, per channel
+	 * @param maximumSamples
+	 * 		The largest number of output samples to create
+	 * @return The number of output samples per channel
+	 * @throws IOException
+	 * 		if the channels can not be filtered in parallel
+	 */
+	private int filter(final float[][] output, long maximumSamples) throws IOException {
+		int taps = filterTable.taps();
+		int upsampling = filterTable.upsampling();
+		int downsampling = filterTable.downsampling();
+		final int samples = (int) Math.min(maximumSamples, (long) maximumOutputSamples(length));
+		if (offsets.length < samples) {
+			offsets = new int[samples];
+			phases = new int[samples];
+		}
+		int count = 0;
+		while ((count < samples) && ((position + taps) <= length)) {
+			offsets[count] = position;
+			phases[count++] = phase;
+			phase += downsampling;
+			position += phase / upsampling;
+			phase %= upsampling;
+		}
+		final int outputCount = count;
+		if ((executorService == null) || (channels == 1)) {
+			for (int channel = 0; channel < channels; ++channel) {
+				filterChannel(channel, output[channel], outputCount);
+			}
+		} else {
+			List<Future<Void>> tasks = Lists.newArrayListWithCapacity(channels);
+			for (int channel = 0; channel < channels; ++channel) {
+				final int currentChannel = channel;
+				tasks.add(executorService.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() {
+						filterChannel(currentChannel, output[currentChannel], outputCount);
+						return null;
+					}
+				}));
+			}
+			waitFor(tasks);
+		}
+		outputSamples += outputCount;
+
+		int consumed = Math.min(position, length);
+		for (int channel = 0; channel < channels; ++channel) {
+			System.arraycopy(buffers[channel], consumed, buffers[channel], 0, length - consumed);
+		}
+		length -= consumed;
+		position -= consumed;
+		return outputCount;
+	}
+
+	/**
+	 * Creates the output samples of a single channel.
+	 *
+	 * @param channel
+	 * 		The index of the channel
+	 * @param output
+	 * 		The array to store the output samples in
+	 * @param count
+	 * 		The number of output samples to create
+	 */
+	private void filterChannel(int channel, float[] output, int count) {
+		float[] buffer = buffers[channel];
+		for (int sample = 0; sample < count; ++sample) {
+			output[sample] = filterTable.filter(buffer, offsets[sample], phases[sample]);
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Waits for all the given tasks to finish.
+	 *
+	 * @param tasks
+	 * 		The tasks to wait for
+	 * @throws IOException
+	 * 		if a task failed, or the current thread was interrupted
+	 */
+	private static void waitFor(List<Future<Void>> tasks) throws IOException {
+		try {
+			for (Future<Void> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException ie1) {
+			for (Future<Void> task : tasks) {
+				task.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while resampling.");
+		} catch (ExecutionException ee1) {
+			throw new IOException(ee1.getCause());
+		}
+	}
+
+}
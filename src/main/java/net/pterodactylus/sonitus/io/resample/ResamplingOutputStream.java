@@ -0,0 +1,186 @@
+/*
+ * Sonitus - ResamplingOutputStream.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.resample;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link OutputStream} that resamples the interleaved 16-bit signed
+ * little-endian PCM samples written to it using a {@link Resampler} and writes
+ * the resampled samples in the same format to the wrapped output stream. All
+ * complete sample frames are resampled as soon as they are written, in blocks
+ * of at most {@link #BLOCK_SIZE} samples per channel; the buffers are allocated
+ * once and reused for every block. When the stream is closed, the samples that
+ * are still held back by the filter are written.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ResamplingOutputStream extends FilterOutputStream {
+
+	/** The number of samples per channel resampled in one block. */
+	public static final int BLOCK_SIZE = 4096;
+
+	/** The resampler. */
+	private final Resampler resampler;
+
+	/** The number of channels. */
+	private final int channels;
+
+	/** Buffer for an incomplete sample frame. */
+	private final byte[] remainder;
+
+	/** The number of bytes in {@link #remainder}. */
+	private int remainderLength;
+
+	/** The input samples of a block, per channel. */
+	private final float[][] input;
+
+	/** The output samples of a block, per channel. */
+	private final float[][] output;
+
+	/** The output samples of a block, as interleaved bytes. */
+	private final byte[] outputBytes;
+
+	/** Whether this stream has been closed. */
+	private boolean closed;
+
+	/**
+	 * Creates a new resampling output stream.
+	 *
+	 * @param outputStream
+	 * 		The output stream to write the resampled samples to
+	 * @param resampler
+	 * 		The resampler to use
+	 */
+	public ResamplingOutputStream(OutputStream outputStream, Resampler resampler) {
+		super(checkNotNull(outputStream, "outputStream must not be null"));
+		this.resampler = checkNotNull(resampler, "resampler must not be null");
+		this.channels = resampler.channels();
+		this.remainder = new byte[channels * 2];
+		this.input = new float[channels][BLOCK_SIZE];
+		int maximumOutputSamples = resampler.maximumOutputSamples(BLOCK_SIZE);
+		this.output = new float[channels][maximumOutputSamples];
+		this.outputBytes = new byte[maximumOutputSamples * channels * 2];
+	}
+
+	//
+	// OUTPUTSTREAM METHODS
+	//
+
+	@Override
+	public void write(int data) throws IOException {
+		write(new byte[] { (byte) data }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer) throws IOException {
+		write(buffer, 0, buffer.length);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		int position = offset;
+		int end = offset + length;
+		if (remainderLength > 0) {
+			int chunk = Math.min(end - position, remainder.length - remainderLength);
+			System.arraycopy(buffer, position, remainder, remainderLength, chunk);
+			remainderLength += chunk;
+			position += chunk;
+			if (remainderLength < remainder.length) {
+				return;
+			}
+			resample(remainder, 0, 1);
+			remainderLength = 0;
+		}
+		int frameSize = channels * 2;
+		while ((end - position) >= frameSize) {
+			int samples = Math.min((end - position) / frameSize, BLOCK_SIZE);
+			resample(buffer, position, samples);
+			position += samples * frameSize;
+		}
+		System.arraycopy(buffer, position, remainder, 0, end - position);
+		remainderLength = end - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			writeSamples(resampler.flush(output));
+		} finally {
+			super.close();
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Resamples a block of interleaved samples and writes the resampled
+	 * samples.
+	 *
+	 * @param buffer
+	 * 		The buffer containing the samples
+	 * @param offset
+	 * 		The offset of the first sample
+	 * @param samples
+	 * 		The number of samples per channel
+	 * @throws IOException
+	 * 		if the samples can not be resampled or written
+	 */
+	private void resample(byte[] buffer, int offset, int samples) throws IOException {
+		int index = offset;
+		for (int sample = 0; sample < samples; ++sample) {
+			for (int channel = 0; channel < channels; ++channel) {
+				input[channel][sample] = (short) ((buffer[index] & 0xff) | (buffer[index + 1] << 8));
+				index += 2;
+			}
+		}
+		writeSamples(resampler.process(input, 0, samples, output));
+	}
+
+	/**
+	 * Rounds and clips the given number of output samples and writes them to
+	 * the wrapped output stream.
+	 *
+	 * @param samples
+	 * 		The number of samples per channel
+	 * @throws IOException
+	 * 		if the samples can not be written
+	 */
+	private void writeSamples(int samples) throws IOException {
+		int index = 0;
+		for (int sample = 0; sample < samples; ++sample) {
+			for (int channel = 0; channel < channels; ++channel) {
+				int value = Math.max(-32768, Math.min(32767, Math.round(output[channel][sample])));
+				outputBytes[index++] = (byte) value;
+				outputBytes[index++] = (byte) (value >> 8);
+			}
+		}
+		out.write(outputBytes, 0, index);
+	}
+
+}
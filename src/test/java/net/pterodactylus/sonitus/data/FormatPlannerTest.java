@@ -0,0 +1,223 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import net.pterodactylus.sonitus.data.filter.ChannelMatrixFilter;
+import net.pterodactylus.sonitus.data.filter.InternalMp3Decoder;
+import net.pterodactylus.sonitus.data.filter.LameMp3Decoder;
+import net.pterodactylus.sonitus.data.filter.PcmFormatFilter;
+import net.pterodactylus.sonitus.data.filter.PcmToFloatFilter;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link FormatPlanner}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FormatPlannerTest {
+
+	/** The format of 16-bit little-endian stereo PCM. */
+	private static final FormatMetadata DEFAULT_PCM = new FormatMetadata(2, 44100, "PCM");
+
+	/** The planner being tested. */
+	private FormatPlanner formatPlanner;
+
+	/** Creates a new planner for every test. */
+	@BeforeMethod
+	public void setupFormatPlanner() {
+		formatPlanner = new FormatPlanner();
+	}
+
+	/** Tests that a format that is already accepted is not converted. */
+	@Test
+	public void testAcceptedFormatIsNotConverted() {
+		Optional<List<Filter>> filters = formatPlanner.plan(DEFAULT_PCM, defaultPcm());
+		assertThat(filters.isPresent(), is(true));
+		assertThat(filters.get().isEmpty(), is(true));
+	}
+
+	/** Tests that MP3 is decoded without planning a separate gain filter. */
+	@Test
+	public void testMp3IsDecodedToDefaultPcm() {
+		Optional<List<Filter>> filters = formatPlanner.plan(DEFAULT_PCM.encoding("MP3"), defaultPcm());
+		assertThat(filters.isPresent(), is(true));
+		assertThat(filters.get().size(), is(1));
+		assertThat(filters.get().get(0) instanceof InternalMp3Decoder, is(true));
+	}
+
+	/**
+	 * Tests that 24-bit big-endian PCM is converted to 16-bit little-endian PCM
+	 * in a single step.
+	 *
+	 * @throws IOException
+	 * 		if a filter can not be opened
+	 */
+	@Test
+	public void test24BitBigEndianIsConvertedToDefaultPcm() throws IOException {
+		FormatMetadata formatMetadata = DEFAULT_PCM.sampleWidth(24).byteOrder(ByteOrder.BIG_ENDIAN);
+		Optional<List<Filter>> filters = formatPlanner.plan(formatMetadata, defaultPcm());
+		assertThat(filters.isPresent(), is(true));
+		assertThat(filters.get().size(), is(1));
+		assertThat(filters.get().get(0) instanceof PcmFormatFilter, is(true));
+		assertThat(convertedFormat(formatMetadata, filters.get()), is(DEFAULT_PCM));
+	}
+
+	/**
+	 * Tests that 5.1 surround is downmixed to stereo.
+	 *
+	 * @throws IOException
+	 * 		if a filter can not be opened
+	 */
+	@Test
+	public void testSurroundIsDownmixedToStereo() throws IOException {
+		FormatMetadata formatMetadata = DEFAULT_PCM.channels(6);
+		Optional<List<Filter>> filters = formatPlanner.plan(formatMetadata, defaultPcm());
+		assertThat(filters.isPresent(), is(true));
+		assertThat(filters.get().size(), is(1));
+		assertThat(filters.get().get(0) instanceof ChannelMatrixFilter, is(true));
+		assertThat(convertedFormat(formatMetadata, filters.get()), is(DEFAULT_PCM));
+	}
+
+	/** Tests that no plan is returned if no accepted format can be reached. */
+	@Test
+	public void testUnreachableFormatIsNotPlanned() {
+		assertThat(formatPlanner.plan(DEFAULT_PCM.encoding("Vorbis"), defaultPcm()).isPresent(), is(false));
+	}
+
+	/**
+	 * Tests that a chain of four conversions is planned while a format that
+	 * needs five conversions is not reached.
+	 *
+	 * @throws IOException
+	 * 		if a filter can not be opened
+	 */
+	@Test
+	public void testChainsAreLimitedToFourConversions() throws IOException {
+		FormatMetadata formatMetadata = new FormatMetadata(6, 8000, "PCM", 24, ByteOrder.BIG_ENDIAN);
+		FormatMetadata fourSteps = new FormatMetadata(2, 48000, "PCM", 16, ByteOrder.BIG_ENDIAN);
+		Optional<List<Filter>> filters = formatPlanner.plan(formatMetadata, equalTo(fourSteps));
+		assertThat(filters.isPresent(), is(true));
+		assertThat(filters.get().size(), is(4));
+		assertThat(convertedFormat(formatMetadata, filters.get()), is(fourSteps));
+		assertThat(formatPlanner.plan(formatMetadata, equalTo(fourSteps.channels(1))).isPresent(), is(false));
+	}
+
+	/**
+	 * Tests that a conversion that loses information is not used if a more
+	 * expensive lossless conversion is accepted as well.
+	 *
+	 * @throws IOException
+	 * 		if a filter can not be opened
+	 */
+	@Test
+	public void testLosslessConversionIsPreferred() throws IOException {
+		FormatMetadata formatMetadata = DEFAULT_PCM.sampleWidth(24);
+		Optional<List<Filter>> filters = formatPlanner.plan(formatMetadata, new Predicate<FormatMetadata>() {
+
+			@Override
+			public boolean apply(FormatMetadata formatMetadata) {
+				return formatMetadata.equals(DEFAULT_PCM) || formatMetadata.equals(DEFAULT_PCM.encoding(FormatMetadata.PCM_FLOAT));
+			}
+		});
+		assertThat(filters.isPresent(), is(true));
+		assertThat(filters.get().size(), is(1));
+		assertThat(filters.get().get(0) instanceof PcmToFloatFilter, is(true));
+		assertThat(convertedFormat(formatMetadata, filters.get()), is(DEFAULT_PCM.encoding(FormatMetadata.PCM_FLOAT)));
+	}
+
+	/**
+	 * Tests that a slower in-process conversion is preferred over an external
+	 * conversion because of the external penalty, and that the external
+	 * conversion is used once there is no penalty.
+	 */
+	@Test
+	public void testExternalConversionIsPenalized() {
+		formatPlanner.lameDecoder("lame").cost("MP3 Decoder", 350);
+		Optional<List<Filter>> filters = formatPlanner.plan(DEFAULT_PCM.encoding("MP3"), defaultPcm());
+		assertThat(filters.isPresent(), is(true));
+		assertThat(filters.get().get(0) instanceof InternalMp3Decoder, is(true));
+		formatPlanner.externalPenalty(0);
+		filters = formatPlanner.plan(DEFAULT_PCM.encoding("MP3"), defaultPcm());
+		assertThat(filters.isPresent(), is(true));
+		assertThat(filters.get().get(0) instanceof LameMp3Decoder, is(true));
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Returns a predicate that accepts 16-bit little-endian stereo PCM at 44.1
+	 * kHz.
+	 *
+	 * @return A predicate for the default PCM format
+	 */
+	private static Predicate<FormatMetadata> defaultPcm() {
+		return equalTo(DEFAULT_PCM);
+	}
+
+	/**
+	 * Returns a predicate that only accepts the given format.
+	 *
+	 * @param acceptedFormat
+	 * 		The accepted format
+	 * @return A predicate that only accepts the given format
+	 */
+	private static Predicate<FormatMetadata> equalTo(final FormatMetadata acceptedFormat) {
+		return new Predicate<FormatMetadata>() {
+
+			@Override
+			public boolean apply(FormatMetadata formatMetadata) {
+				return formatMetadata.equals(acceptedFormat);
+			}
+		};
+	}
+
+	/**
+	 * Opens the given filters one after the other, starting with the given
+	 * format, and returns the format of the last filter.
+	 *
+	 * @param formatMetadata
+	 * 		The format to convert
+	 * @param filters
+	 * 		The filters performing the conversions
+	 * @return The format of the converted stream
+	 * @throws IOException
+	 * 		if a filter can not be opened
+	 */
+	private static FormatMetadata convertedFormat(FormatMetadata formatMetadata, List<Filter> filters) throws IOException {
+		Metadata metadata = new Metadata(formatMetadata, new ContentMetadata());
+		for (Filter filter : filters) {
+			filter.open(metadata);
+			metadata = filter.metadata();
+		}
+		return metadata.format();
+	}
+
+}
@@ -0,0 +1,324 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.pterodactylus.sonitus.data.filter.MixerFilter;
+import net.pterodactylus.sonitus.data.filter.PcmFormatFilter;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Pipeline}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class PipelineTest {
+
+	/** The metadata of the test filters. */
+	private static final Metadata METADATA = new Metadata(new FormatMetadata(2, 44100, "PCM"), new ContentMetadata("Test"));
+
+	/** Tests that a filter that can not mix streams can not have two inputs. */
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testFilterWithTwoInputsIsRejected() {
+		Filter sink = new RecordingFilter("Sink", null);
+		Pipeline.builder(new RecordingFilter("First", null)).to(sink).from(new RecordingFilter("Second", null)).to(sink).build();
+	}
+
+	/** Tests that filters that form a cycle are rejected. */
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testCycleIsRejected() {
+		MixerFilter mixer = new MixerFilter();
+		Pipeline.builder(new RecordingFilter("Source", null)).to(mixer).to(new RecordingFilter("Filter", null)).to(mixer).build();
+	}
+
+	/**
+	 * Tests that the filters of a pipeline with two sources are opened after
+	 * all of their inputs, and that the stream of every source is routed into
+	 * its own input of a filter with several inputs.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	@Test
+	public void testFiltersOfTwoSourcesAreOpenedInOrderAndRouted() throws IOException, InterruptedException {
+		List<String> openedFilters = Collections.synchronizedList(Lists.<String>newArrayList());
+		RecordingFilter firstSource = new RecordingFilter("First", openedFilters, new byte[] { 1, 1, 1, 1 });
+		RecordingFilter secondSource = new RecordingFilter("Second", openedFilters, new byte[] { 2, 2, 2, 2 });
+		RecordingFilter filter = new RecordingFilter("Filter", openedFilters);
+		RecordingMixer mixer = new RecordingMixer("Mixer", openedFilters);
+		RecordingFilter sink = new RecordingFilter("Sink", openedFilters);
+		Pipeline pipeline = Pipeline.builder(firstSource).to(filter).to(mixer).to(sink).from(secondSource).to(mixer).build();
+		assertThat(pipeline.filters(), is((List<Filter>) Lists.<Filter>newArrayList(firstSource, secondSource, filter, mixer, sink)));
+
+		pipeline.start();
+		assertThat(openedFilters.subList(0, 4), is((List<String>) Lists.newArrayList("First", "Second", "Filter", "Mixer")));
+		assertThat(Sets.newHashSet(openedFilters.subList(4, 6)), is((Set<String>) Sets.newHashSet("Mixer/Filter", "Mixer/Second")));
+		assertThat(openedFilters.subList(6, openedFilters.size()), is((List<String>) Lists.newArrayList("Sink")));
+		RecordingFilter firstInput = (RecordingFilter) mixer.input(filter);
+		RecordingFilter secondInput = (RecordingFilter) mixer.input(secondSource);
+		for (int wait = 0; (wait < 100) && ((firstInput.receivedPackets.size() < 1) || (secondInput.receivedPackets.size() < 1)); ++wait) {
+			Thread.sleep(10);
+		}
+		assertThat(filter.receivedPackets.size(), is(1));
+		assertThat(firstInput.receivedPackets.size(), is(1));
+		assertThat(firstInput.receivedPackets.get(0), is(new byte[] { 1, 1, 1, 1 }));
+		assertThat(secondInput.receivedPackets.size(), is(1));
+		assertThat(secondInput.receivedPackets.get(0), is(new byte[] { 2, 2, 2, 2 }));
+	}
+
+	/**
+	 * Tests that a conversion is inserted in front of a filter that does not
+	 * accept the format of its input.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	@Test
+	public void testConversionIsInsertedForUnacceptedFormat() throws IOException, InterruptedException {
+		Metadata metadata = new Metadata(new FormatMetadata(2, 44100, "PCM", 24, ByteOrder.BIG_ENDIAN), new ContentMetadata("Test"));
+		RecordingFilter source = new RecordingFilter("Source", null, metadata, new byte[12]);
+		RecordingFilter sink = new DefaultPcmFilter("Sink");
+		Pipeline pipeline = Pipeline.builder(source).to(sink).build();
+		pipeline.start();
+		List<Filter> sinkInputs = pipeline.inputs(sink);
+		assertThat(sinkInputs.size(), is(1));
+		assertThat(sinkInputs.get(0) instanceof PcmFormatFilter, is(true));
+		assertThat(pipeline.inputs(sinkInputs.get(0)), is((List<Filter>) Lists.<Filter>newArrayList(source)));
+		assertThat(sinkInputs.get(0).metadata(), is(METADATA));
+		for (int wait = 0; (wait < 100) && sink.receivedPackets.isEmpty(); ++wait) {
+			Thread.sleep(10);
+		}
+		assertThat(sink.receivedPackets.size(), is(1));
+		assertThat(sink.receivedPackets.get(0).length, is(8));
+	}
+
+	/**
+	 * Tests that no conversion is inserted in front of a filter that accepts the
+	 * format of its input.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testNoConversionIsInsertedForAcceptedFormat() throws IOException {
+		RecordingFilter source = new RecordingFilter("Source", null, METADATA, new byte[8]);
+		DefaultPcmFilter sink = new DefaultPcmFilter("Sink");
+		Pipeline pipeline = Pipeline.builder(source).to(sink).build();
+		pipeline.start();
+		assertThat(pipeline.inputs(sink), is((List<Filter>) Lists.<Filter>newArrayList(source)));
+		assertThat(pipeline.filters(), is((List<Filter>) Lists.<Filter>newArrayList(source, sink)));
+	}
+
+	/**
+	 * Tests that a connection applies the gain of the packets of its source,
+	 * joining a sample that is split between two packets, and removes the gain
+	 * from the metadata.
+	 */
+	@Test
+	public void testConnectionAppliesGain() {
+		RecordingFilter source = new RecordingFilter("Source", null, METADATA.gain(20 * Math.log10(2)), new byte[] { 0x00, 0x10, 0x00 }, new byte[] { 0x10 });
+		RecordingFilter sink = new RecordingFilter("Sink", null);
+		new Pipeline.Connection(source, Collections.<Filter>singletonList(sink), true).run();
+		assertThat(sink.receivedPackets.size(), is(2));
+		assertThat(sink.receivedPackets.get(0), is(new byte[] { 0x00, 0x20 }));
+		assertThat(sink.receivedPackets.get(1), is(new byte[] { 0x00, 0x20 }));
+		assertThat(sink.receivedMetadata.get(1).gain().isPresent(), is(false));
+	}
+
+	/**
+	 * Tests that a connection that applies gains sends packets without a gain
+	 * unchanged.
+	 */
+	@Test
+	public void testConnectionSendsPacketsWithoutGainUnchanged() {
+		byte[] buffer = new byte[] { 0x00, 0x10, 0x00 };
+		RecordingFilter source = new RecordingFilter("Source", null, buffer);
+		RecordingFilter sink = new RecordingFilter("Sink", null);
+		new Pipeline.Connection(source, Collections.<Filter>singletonList(sink), true).run();
+		assertThat(sink.receivedPackets.size(), is(1));
+		assertThat(sink.receivedPackets.get(0) == buffer, is(true));
+	}
+
+	/**
+	 * A filter that records when it is opened and the packets it receives, and
+	 * forwards the received packets. If it has been created with buffers, it
+	 * returns them first. It signals its end when it has not received a packet
+	 * for a second.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class RecordingFilter extends AbstractFilter {
+
+		/** The names of the opened filters. */
+		private final List<String> openedFilters;
+
+		/** The buffers that have not been returned yet. */
+		private final BlockingQueue<byte[]> buffers = new LinkedBlockingQueue<byte[]>();
+
+		/** The buffers of the received packets. */
+		private final List<byte[]> receivedPackets = Collections.synchronizedList(Lists.<byte[]>newArrayList());
+
+		/** The metadata of the received packets. */
+		private final List<Metadata> receivedMetadata = Collections.synchronizedList(Lists.<Metadata>newArrayList());
+
+		/**
+		 * Creates a new recording filter.
+		 *
+		 * @param name
+		 * 		The name of the filter
+		 * @param openedFilters
+		 * 		The list to add the name of the filter to when it is opened, or
+		 * 		{@code null}
+		 * @param buffers
+		 * 		The buffers to return
+		 */
+		private RecordingFilter(String name, List<String> openedFilters, byte[]... buffers) {
+			this(name, openedFilters, METADATA, buffers);
+		}
+
+		/**
+		 * Creates a new recording filter.
+		 *
+		 * @param name
+		 * 		The name of the filter
+		 * @param openedFilters
+		 * 		The list to add the name of the filter to when it is opened, or
+		 * 		{@code null}
+		 * @param metadata
+		 * 		The metadata of the filter
+		 * @param buffers
+		 * 		The buffers to return
+		 */
+		private RecordingFilter(String name, List<String> openedFilters, Metadata metadata, byte[]... buffers) {
+			super(name);
+			this.openedFilters = openedFilters;
+			this.buffers.addAll(Lists.newArrayList(buffers));
+			metadataUpdated(metadata);
+		}
+
+		@Override
+		public void open(Metadata metadata) {
+			if (openedFilters != null) {
+				openedFilters.add(name());
+			}
+		}
+
+		@Override
+		public void process(DataPacket dataPacket) {
+			receivedPackets.add(dataPacket.buffer());
+			receivedMetadata.add(dataPacket.metadata().or(metadata()));
+			buffers.add(dataPacket.buffer());
+		}
+
+		@Override
+		public DataPacket get(int bufferSize) throws IOException {
+			try {
+				byte[] buffer = buffers.poll(1, TimeUnit.SECONDS);
+				if (buffer == null) {
+					throw new EOFException();
+				}
+				return new DataPacket(metadata(), buffer);
+			} catch (InterruptedException ie1) {
+				throw new IOException(ie1);
+			}
+		}
+
+	}
+
+	/**
+	 * A recording filter that only accepts 16-bit little-endian PCM.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class DefaultPcmFilter extends RecordingFilter implements FormatAwareFilter {
+
+		/**
+		 * Creates a new recording filter that only accepts 16-bit little-endian
+		 * PCM.
+		 *
+		 * @param name
+		 * 		The name of the filter
+		 */
+		private DefaultPcmFilter(String name) {
+			super(name, null);
+		}
+
+		@Override
+		public boolean accepts(FormatMetadata formatMetadata) {
+			return formatMetadata.isDefaultPcm();
+		}
+
+	}
+
+	/**
+	 * A filter with several inputs that records the packets of every input.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class RecordingMixer extends RecordingFilter implements MultiInputFilter {
+
+		/** The inputs, by source. */
+		private final Map<Filter, RecordingFilter> inputs = Maps.newHashMap();
+
+		/**
+		 * Creates a new recording mixer.
+		 *
+		 * @param name
+		 * 		The name of the mixer
+		 * @param openedFilters
+		 * 		The list to add the names of the mixer and its inputs to when they
+		 * 		are opened
+		 */
+		private RecordingMixer(String name, List<String> openedFilters) {
+			super(name, openedFilters);
+		}
+
+		@Override
+		public synchronized Filter input(Filter source) {
+			RecordingFilter input = inputs.get(source);
+			if (input == null) {
+				input = new RecordingFilter(name() + "/" + source.name(), super.openedFilters);
+				inputs.put(source, input);
+			}
+			return input;
+		}
+
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.pterodactylus.sonitus.data.filter;
+
+import static net.pterodactylus.sonitus.data.FormatMetadata.PCM_FLOAT;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+
+import net.pterodactylus.sonitus.data.ContentMetadata;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.FloatSamples;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link BlockProcessingFilter}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class BlockProcessingFilterTest {
+
+	/** The metadata of a floating-point stereo stream. */
+	private static final Metadata FLOAT_STEREO = new Metadata(new FormatMetadata(2, 44100, PCM_FLOAT, 32, FormatMetadata.DEFAULT_BYTE_ORDER), new ContentMetadata("Test"));
+
+	/**
+	 * Tests that a filter that only processes integer samples processes
+	 * floating-point samples at 16-bit precision without clipping them.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testFloatSamplesAreProcessedAsIntegerSamples() throws IOException {
+		DoublingFilter doublingFilter = new DoublingFilter();
+		doublingFilter.open(FLOAT_STEREO);
+		float[] samples = new float[] { 0.25f, -0.5f, 0.75f, 1 / 32768f };
+		byte[] buffer = new byte[samples.length * 4];
+		FloatSamples.encode(samples, samples.length, buffer, 0);
+		doublingFilter.process(new DataPacket(FLOAT_STEREO, buffer));
+		byte[] processedBuffer = doublingFilter.get(buffer.length).buffer();
+		assertThat(processedBuffer.length, is(buffer.length));
+		float[] processedSamples = new float[samples.length];
+		FloatSamples.decode(processedBuffer, 0, processedSamples, samples.length);
+		assertThat(processedSamples, is(new float[] { 0.5f, -1, 1.5f, 2 / 32768f }));
+	}
+
+	/**
+	 * Block processing filter that doubles integer samples and accepts
+	 * floating-point samples without processing them itself.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class DoublingFilter extends BlockProcessingFilter {
+
+		/** Creates a new doubling filter. */
+		private DoublingFilter() {
+			super("Doubling");
+		}
+
+		@Override
+		protected boolean supportsFloat() {
+			return true;
+		}
+
+		@Override
+		protected void formatChanged(int frequency, int channels) {
+			/* nothing to prepare. */
+		}
+
+		@Override
+		protected int[] processBlock(int[] samples, int frames) {
+			for (int sample = 0; sample < (frames * 2); ++sample) {
+				samples[sample] *= 2;
+			}
+			return samples;
+		}
+
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+
+import net.pterodactylus.sonitus.data.ContentMetadata;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link ChannelMatrixFilter}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ChannelMatrixFilterTest {
+
+	/** The metadata of a mono stream. */
+	private static final Metadata MONO = new Metadata(new FormatMetadata(1, 44100, "PCM"), new ContentMetadata("Test"));
+
+	/** The metadata of a stereo stream. */
+	private static final Metadata STEREO = MONO.channels(2);
+
+	/**
+	 * Tests that a mono stream is copied into both channels of a stereo stream.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testMonoToStereo() throws IOException {
+		ChannelMatrixFilter channelMatrixFilter = ChannelMatrixFilter.monoToStereo();
+		channelMatrixFilter.open(MONO);
+		assertThat(process(channelMatrixFilter, MONO, 100, -200, 32767), is(new short[] { 100, 100, -200, -200, 32767, 32767 }));
+	}
+
+	/**
+	 * Tests that both channels of a stereo stream are mixed into a mono stream.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testStereoToMono() throws IOException {
+		ChannelMatrixFilter channelMatrixFilter = ChannelMatrixFilter.stereoToMono();
+		channelMatrixFilter.open(STEREO);
+		assertThat(process(channelMatrixFilter, STEREO, 100, 300, -1000, 0, 32767, 32767), is(new short[] { 200, -500, 32767 }));
+	}
+
+	/**
+	 * Tests that converting a stereo stream to mid/side and back restores the
+	 * stream, except for rounding.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testMidSideRoundTrip() throws IOException {
+		ChannelMatrixFilter toMidSide = ChannelMatrixFilter.toMidSide();
+		ChannelMatrixFilter fromMidSide = ChannelMatrixFilter.fromMidSide();
+		toMidSide.open(STEREO);
+		fromMidSide.open(STEREO);
+		int[] samples = { 1000, 1000, 1000, -1000, 12345, -6789, -32768, 32767, 1, 0 };
+		short[] midSide = process(toMidSide, STEREO, samples);
+		assertThat(midSide[0], is((short) 1000));
+		assertThat(midSide[1], is((short) 0));
+		assertThat(midSide[2], is((short) 0));
+		assertThat(midSide[3], is((short) 1000));
+		int[] midSideSamples = new int[midSide.length];
+		for (int sample = 0; sample < midSide.length; ++sample) {
+			midSideSamples[sample] = midSide[sample];
+		}
+		short[] leftRight = process(fromMidSide, STEREO, midSideSamples);
+		for (int sample = 0; sample < samples.length; ++sample) {
+			assertThat(Math.abs(leftRight[sample] - samples[sample]) <= 1, is(true));
+		}
+	}
+
+	/**
+	 * Tests that the changed number of channels is reported in the metadata of
+	 * the filter and of its packets.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testChangedChannelsAreReported() throws IOException {
+		ChannelMatrixFilter channelMatrixFilter = ChannelMatrixFilter.surroundToStereo();
+		Metadata surround = MONO.channels(6);
+		assertThat(channelMatrixFilter.processedMetadata(surround), is(STEREO));
+		channelMatrixFilter.open(surround);
+		assertThat(channelMatrixFilter.metadata(), is(STEREO));
+		channelMatrixFilter.process(new DataPacket(surround, new byte[12]));
+		assertThat(channelMatrixFilter.get(4).metadata().get(), is(STEREO));
+	}
+
+	/**
+	 * Tests that a stream whose number of channels does not match the matrix is
+	 * rejected.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testStreamWithWrongChannelsIsRejected() throws IOException {
+		ChannelMatrixFilter.stereoToMono().open(MONO);
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Processes the given 16-bit samples with the given filter and returns the
+	 * processed samples.
+	 *
+	 * @param channelMatrixFilter
+	 * 		The filter to process the samples with
+	 * @param metadata
+	 * 		The metadata of the samples
+	 * @param samples
+	 * 		The samples to process
+	 * @return The processed samples
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static short[] process(ChannelMatrixFilter channelMatrixFilter, Metadata metadata, int... samples) throws IOException {
+		byte[] buffer = new byte[samples.length * 2];
+		for (int sample = 0; sample < samples.length; ++sample) {
+			buffer[sample * 2] = (byte) samples[sample];
+			buffer[sample * 2 + 1] = (byte) (samples[sample] >> 8);
+		}
+		channelMatrixFilter.process(new DataPacket(metadata, buffer));
+		int processedSampleCount = samples.length / metadata.channels() * channelMatrixFilter.metadata().channels();
+		byte[] processedBuffer = channelMatrixFilter.get(processedSampleCount * 2).buffer();
+		assertThat(processedBuffer.length, is(processedSampleCount * 2));
+		short[] processedSamples = new short[processedSampleCount];
+		for (int sample = 0; sample < processedSampleCount; ++sample) {
+			processedSamples[sample] = (short) ((processedBuffer[sample * 2] & 0xff) | (processedBuffer[sample * 2 + 1] << 8));
+		}
+		return processedSamples;
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+
+import net.pterodactylus.sonitus.data.ContentMetadata;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.data.controller.Fader;
+import net.pterodactylus.sonitus.data.controller.Switch;
+import net.pterodactylus.sonitus.data.source.SilenceSource;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link MixerFilter}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class MixerFilterTest {
+
+	/** The metadata of the mixer and its inputs. */
+	private static final Metadata METADATA = new Metadata(new FormatMetadata(2, 44100, "PCM"), new ContentMetadata("Test"));
+
+	/** The number of frames of a block. */
+	private static final int FRAMES = 100;
+
+	/** The mixer being tested. */
+	private MixerFilter mixer;
+
+	/** The first source. */
+	private Filter firstSource;
+
+	/** The second source. */
+	private Filter secondSource;
+
+	/**
+	 * Creates and opens the mixer.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@BeforeMethod
+	public void setupMixer() throws IOException {
+		mixer = new MixerFilter();
+		mixer.open(METADATA);
+		firstSource = new SilenceSource(METADATA);
+		secondSource = new SilenceSource(METADATA);
+		mixer.input(firstSource).open(METADATA);
+		mixer.input(secondSource).open(METADATA);
+	}
+
+	/**
+	 * Tests that every source gets its own input.
+	 */
+	@Test
+	public void testEverySourceHasOneInput() {
+		assertThat(mixer.input(firstSource) == mixer.input(firstSource), is(true));
+		assertThat(mixer.input(firstSource) == mixer.input(secondSource), is(false));
+		assertThat(mixer.controllers().size(), is(4));
+	}
+
+	/**
+	 * Tests that the samples of all inputs are summed.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testInputsAreSummed() throws IOException {
+		mixer.input(firstSource).process(new DataPacket(METADATA, samples(1000)));
+		mixer.input(secondSource).process(new DataPacket(METADATA, samples(-3000)));
+		short[] mix = mix();
+		for (short sample : mix) {
+			assertThat(sample, is((short) -2000));
+		}
+		assertThat(mixer.underruns(firstSource), is(0L));
+	}
+
+	/**
+	 * Tests that a changed gain is ramped over the next block and applied
+	 * completely to the block after that.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testGainIsRamped() throws IOException {
+		((Fader) mixer.input(firstSource).controllers().get(0)).value(0.5);
+		mixer.input(firstSource).process(new DataPacket(METADATA, samples(10000)));
+		mixer.input(secondSource).process(new DataPacket(METADATA, samples(0)));
+		short[] mix = mix();
+		for (int frame = 0; frame < FRAMES; ++frame) {
+			short expectedSample = (short) (10000 * (1.0 - 0.5 * frame / FRAMES));
+			assertThat(Math.abs(mix[frame * 2] - expectedSample) <= 1, is(true));
+			assertThat(mix[frame * 2 + 1], is(mix[frame * 2]));
+		}
+		mixer.input(firstSource).process(new DataPacket(METADATA, samples(10000)));
+		mixer.input(secondSource).process(new DataPacket(METADATA, samples(0)));
+		for (short sample : mix()) {
+			assertThat(sample, is((short) 5000));
+		}
+	}
+
+	/**
+	 * Tests that a muted input is faded out over the next block and silent
+	 * afterwards.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testMutedInputIsSilent() throws IOException {
+		((Switch) mixer.input(secondSource).controllers().get(1)).value(true);
+		mixer.input(firstSource).process(new DataPacket(METADATA, samples(1000)));
+		mixer.input(secondSource).process(new DataPacket(METADATA, samples(8000)));
+		short[] mix = mix();
+		assertThat(mix[0], is((short) 9000));
+		assertThat(mix[mix.length - 1] < 1100, is(true));
+		mixer.input(firstSource).process(new DataPacket(METADATA, samples(1000)));
+		mixer.input(secondSource).process(new DataPacket(METADATA, samples(8000)));
+		for (short sample : mix()) {
+			assertThat(sample, is((short) 1000));
+		}
+	}
+
+	/**
+	 * Tests that the mix is clipped to the range of 16-bit samples.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testMixIsClipped() throws IOException {
+		mixer.input(firstSource).process(new DataPacket(METADATA, samples(30000)));
+		mixer.input(secondSource).process(new DataPacket(METADATA, samples(30000)));
+		for (short sample : mix()) {
+			assertThat(sample, is(Short.MAX_VALUE));
+		}
+		mixer.input(firstSource).process(new DataPacket(METADATA, samples(-30000)));
+		mixer.input(secondSource).process(new DataPacket(METADATA, samples(-30000)));
+		for (short sample : mix()) {
+			assertThat(sample, is(Short.MIN_VALUE));
+		}
+	}
+
+	/**
+	 * Tests that an input with a different format is rejected.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testInputWithDifferentFormatIsRejected() throws IOException {
+		mixer.input(new SilenceSource(METADATA)).open(METADATA.channels(1));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the next block of the mixer.
+	 *
+	 * @return The samples of the next block
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private short[] mix() throws IOException {
+		byte[] buffer = mixer.get(FRAMES * 4).buffer();
+		assertThat(buffer.length, is(FRAMES * 4));
+		short[] samples = new short[buffer.length / 2];
+		for (int sample = 0; sample < samples.length; ++sample) {
+			samples[sample] = (short) ((buffer[sample * 2] & 0xff) | (buffer[sample * 2 + 1] << 8));
+		}
+		return samples;
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Creates a block of 16-bit little-endian stereo samples with the given
+	 * value.
+	 *
+	 * @param value
+	 * 		The value of all samples
+	 * @return The block of samples
+	 */
+	private static byte[] samples(int value) {
+		byte[] buffer = new byte[FRAMES * 4];
+		for (int sample = 0; sample < FRAMES * 2; ++sample) {
+			buffer[sample * 2] = (byte) value;
+			buffer[sample * 2 + 1] = (byte) (value >> 8);
+		}
+		return buffer;
+	}
+
+}
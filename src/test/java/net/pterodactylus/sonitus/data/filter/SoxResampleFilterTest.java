@@ -0,0 +1,51 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.filter;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteOrder;
+import java.util.List;
+
+import net.pterodactylus.sonitus.data.ContentMetadata;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link SoxResampleFilter}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoxResampleFilterTest {
+
+	/** Tests that the sample format of the stream is passed to sox. */
+	@Test
+	public void testSampleFormatIsPassedToSox() {
+		Metadata metadata = new Metadata(new FormatMetadata(2, 96000, "PCM", 24, ByteOrder.BIG_ENDIAN), new ContentMetadata("Test"));
+		List<String> parameters = Lists.newArrayList(new SoxResampleFilter("sox", 48000).parameters(metadata));
+		assertThat(parameters, is((List<String>) Lists.newArrayList(
+				"--bits", "24", "--channels", "2", "--encoding", "signed-integer", "--rate", "96000", "--type", "raw", "--endian", "big", "-",
+				"--bits", "24", "--channels", "2", "--encoding", "signed-integer", "--type", "raw", "--endian", "big", "-",
+				"rate", "-h", "48000")));
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.source;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteOrder;
+
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.Metadata;
+import net.pterodactylus.sonitus.io.loudness.LoudnessIndex;
+
+import com.google.common.base.Optional;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link DecodingSource}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class DecodingSourceTest {
+
+	/**
+	 * Tests that an MP3 source is decoded to 16-bit little-endian PCM, and that
+	 * its gain is applied to the decoded samples and removed from the metadata.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test
+	public void testGainIsAppliedToDecodedSamples() throws IOException, URISyntaxException {
+		File file = new File(getClass().getResource("/net/pterodactylus/sonitus/io/mp3/mpeg1.mp3").toURI());
+		File indexFile = File.createTempFile("loudness-index-", ".idx");
+		indexFile.delete();
+		LoudnessIndex loudnessIndex = new LoudnessIndex(indexFile);
+		loudnessIndex.put(file, file.length(), file.lastModified(), -17, -20);
+
+		DecodingSource decodingSource = new DecodingSource(new FileSource(file.getPath(), loudnessIndex));
+		Metadata metadata = decodingSource.metadata();
+		assertThat(metadata.encoding(), is("PCM"));
+		assertThat(metadata.sampleWidth(), is(16));
+		assertThat(metadata.byteOrder(), is(ByteOrder.LITTLE_ENDIAN));
+		assertThat(metadata.gain(), is(Optional.<Double>absent()));
+		byte[] quieter = decode(decodingSource);
+		byte[] original = decode(new DecodingSource(new FileSource(file.getPath())));
+		assertThat(quieter.length, is(original.length));
+		assertThat(Math.abs(rms(quieter) / rms(original) - Math.pow(10, -6 / 20.0)) < 0.001, is(true));
+	}
+
+	/**
+	 * Tests that a source that can not be decoded is rejected.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testPcmSourceIsRejected() throws IOException {
+		new DecodingSource(new SilenceSource(new Metadata().encoding("PCM")));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Reads all samples from the given source until it signals its end.
+	 *
+	 * @param source
+	 * 		The source to read
+	 * @return The samples
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static byte[] decode(Filter source) throws IOException {
+		ByteArrayOutputStream samples = new ByteArrayOutputStream();
+		try {
+			while (true) {
+				byte[] buffer = source.get(4096).buffer();
+				samples.write(buffer, 0, buffer.length);
+			}
+		} catch (EOFException eofe1) {
+			/* end of source. */
+		}
+		return samples.toByteArray();
+	}
+
+	/**
+	 * Returns the RMS of the given 16-bit little-endian samples.
+	 *
+	 * @param samples
+	 * 		The samples
+	 * @return The RMS of the samples
+	 */
+	private static double rms(byte[] samples) {
+		double sum = 0;
+		for (int index = 0; index < samples.length; index += 2) {
+			int sample = (samples[index] & 0xff) | (samples[index + 1] << 8);
+			sum += sample * (double) sample;
+		}
+		return Math.sqrt(sum / (samples.length / 2));
+	}
+
+}
@@ -0,0 +1,394 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.data.source;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.Pipeline;
+import net.pterodactylus.sonitus.data.filter.GainFilter;
+import net.pterodactylus.sonitus.data.filter.InternalMp3Decoder;
+import net.pterodactylus.sonitus.io.loudness.LoudnessIndex;
+import net.pterodactylus.sonitus.io.mp3.FrameIndex;
+import net.pterodactylus.sonitus.io.mp3.FrameView;
+import net.pterodactylus.sonitus.io.mp3.InfoHeader;
+import net.pterodactylus.sonitus.io.mp3.Parser;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link FileSource}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FileSourceTest {
+
+	/** The number of decoded bytes to compare. */
+	private static final int DECODED_LENGTH = 88200;
+
+	/**
+	 * Tests that the samples of a file source that was created with a loudness
+	 * index are amplified by the gain from the index once they are decoded.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	@Test
+	public void testNormalizedFileIsAmplified() throws IOException, URISyntaxException, InterruptedException {
+		File file = new File(getClass().getResource("/net/pterodactylus/sonitus/io/mp3/mpeg1.mp3").toURI());
+		File indexFile = File.createTempFile("loudness-index-", ".idx");
+		indexFile.delete();
+		LoudnessIndex loudnessIndex = new LoudnessIndex(indexFile);
+
+		byte[] original = decode(new FileSource(file.getPath()));
+
+		/* -17 LUFS is 6 dB louder than the target of -23 LUFS. */
+		loudnessIndex.put(file, file.length(), file.lastModified(), -17, -20);
+		byte[] quieter = decode(new FileSource(file.getPath(), loudnessIndex));
+		assertThat(Math.abs(rms(quieter) / rms(original) - Math.pow(10, -6 / 20.0)) < 0.001, is(true));
+
+		/* -26 LUFS is 3 dB quieter than the target; the file peaks at about -3.4 dBFS. */
+		loudnessIndex.put(file, file.length(), file.lastModified(), -26, -20);
+		byte[] louder = decode(new FileSource(file.getPath(), loudnessIndex));
+		assertThat(Math.abs(rms(louder) / rms(original) - Math.pow(10, 3 / 20.0)) < 0.001, is(true));
+	}
+
+	/**
+	 * Returns the MP3 files to seek in.
+	 *
+	 * @return The names of the MP3 files
+	 */
+	@DataProvider(name = "mp3Files")
+	public Object[][] mp3Files() {
+		return new Object[][] {
+				{ "mpeg1.mp3" },
+				{ "mpeg2.mp3" }
+		};
+	}
+
+	/**
+	 * Tests that seeking in an MP3 file without a frame index continues at a
+	 * frame, and returns the position estimated for that frame instead of the
+	 * requested position.
+	 *
+	 * @param name
+	 * 		The name of the MP3 file
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test(dataProvider = "mp3Files")
+	public void testMp3SeekReturnsPositionOfFrame(String name) throws IOException, URISyntaxException {
+		File file = new File(getClass().getResource("/net/pterodactylus/sonitus/io/mp3/" + name).toURI());
+		Map<Long, Long> frames = frames(file);
+		Map<Long, Long> seekedPositions = Maps.newHashMap();
+		int samplingRate = new FileSource(file.getPath()).metadata().frequency();
+		long frameDuration = Iterables.get(frames.values(), 1) * 1000 / samplingRate;
+		for (long millis = 0; millis < 500; millis += 5) {
+			FileSource fileSource = new FileSource(file.getPath());
+			long seekedMillis = fileSource.seek(millis);
+			Long samplePosition = frames.get(fileSource.position());
+			assertThat(samplePosition != null, is(true));
+			assertThat(Math.abs(seekedMillis - samplePosition * 1000 / samplingRate) <= (frameDuration * 2), is(true));
+			if (seekedPositions.containsKey(fileSource.position())) {
+				assertThat(seekedMillis, is(seekedPositions.get(fileSource.position())));
+			}
+			seekedPositions.put(fileSource.position(), seekedMillis);
+			byte[] buffer = fileSource.get(4096).buffer();
+			assertThat(FrameView.frameLength(buffer, 0, buffer.length) > 0, is(true));
+		}
+		assertThat(seekedPositions.size() > 1, is(true));
+	}
+
+	/**
+	 * Tests that seeking in an MP3 file with a frame index continues at the
+	 * frame containing the requested position, and returns its exact position.
+	 *
+	 * @param name
+	 * 		The name of the MP3 file
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test(dataProvider = "mp3Files")
+	public void testMp3SeekWithFrameIndexReturnsExactPosition(String name) throws IOException, URISyntaxException {
+		File file = new File(getClass().getResource("/net/pterodactylus/sonitus/io/mp3/" + name).toURI());
+		Map<Long, Long> frames = frames(file);
+		FrameIndex frameIndex = FrameIndex.create(file, 1);
+		int samplingRate = frameIndex.samplingRate();
+		for (long millis = 0; millis < 500; millis += 5) {
+			FileSource fileSource = new FileSource(file.getPath()).frameIndex(frameIndex);
+			long seekedMillis = fileSource.seek(millis);
+			Long samplePosition = frames.get(fileSource.position());
+			assertThat(samplePosition != null, is(true));
+			assertThat(seekedMillis, is(samplePosition * 1000 / samplingRate));
+			assertThat(seekedMillis <= millis, is(true));
+		}
+	}
+
+	/**
+	 * Returns the samples to seek to in the FLAC file.
+	 *
+	 * @return The samples to seek to
+	 */
+	@DataProvider(name = "flacSamples")
+	public Object[][] flacSamples() {
+		return new Object[][] {
+				{ 0L },
+				{ 5000L },
+				{ 11025L },
+				{ 20000L },
+		};
+	}
+
+	/**
+	 * Tests that a FLAC file can still be decoded after a seek, and that the
+	 * decoded samples start at the sample the seek returned.
+	 *
+	 * @param sample
+	 * 		The sample to seek to
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test(dataProvider = "flacSamples")
+	public void testFlacIsDecodedAfterSeek(long sample) throws IOException, URISyntaxException {
+		File file = new File(getClass().getResource("/net/pterodactylus/sonitus/io/flac/sine.flac").toURI());
+		byte[] original = decodeAll(new DecodingSource(new FileSource(file.getPath())));
+		assertThat(original.length, is(22050 * 4));
+
+		FileSource fileSource = new FileSource(file.getPath());
+		long frameSample = fileSource.seekSample(sample);
+		assertThat(frameSample <= sample, is(true));
+		byte[] decoded = decodeAll(new DecodingSource(fileSource));
+		assertThat(decoded, is(Arrays.copyOfRange(original, (int) frameSample * 4, original.length)));
+	}
+
+	/**
+	 * Tests that seeking to the start of a FLAC file that has already been read
+	 * decodes the complete file again.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test
+	public void testFlacIsDecodedAgainAfterSeekToStart() throws IOException, URISyntaxException {
+		File file = new File(getClass().getResource("/net/pterodactylus/sonitus/io/flac/sine.flac").toURI());
+		FileSource fileSource = new FileSource(file.getPath());
+		DecodingSource decodingSource = new DecodingSource(fileSource);
+		byte[] original = decodeAll(decodingSource);
+
+		assertThat(fileSource.seek(0), is(0L));
+		assertThat(decodeAll(new DecodingSource(fileSource)), is(original));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the offsets of all audio frames of the given MP3 file, skipping
+	 * a leading Xing or Info frame.
+	 *
+	 * @param file
+	 * 		The MP3 file
+	 * @return The number of the first sample of every frame, by the offset of
+	 *         the frame
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static Map<Long, Long> frames(File file) throws IOException {
+		Map<Long, Long> frames = Maps.newLinkedHashMap();
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			Parser parser = new Parser(inputStream);
+			long samplePosition = 0;
+			boolean firstFrame = true;
+			while (true) {
+				FrameView frameView = parser.nextFrameView();
+				if (firstFrame) {
+					firstFrame = false;
+					if (InfoHeader.parse(frameView).isPresent()) {
+						continue;
+					}
+				}
+				frames.put(parser.frameOffset(), samplePosition);
+				samplePosition += frameView.samples();
+			}
+		} catch (EOFException eofe1) {
+			/* all frames read. */
+		} finally {
+			Closeables.close(inputStream, true);
+		}
+		return frames;
+	}
+
+	/**
+	 * Reads all samples from the given source until it signals its end.
+	 *
+	 * @param source
+	 * 		The source to read
+	 * @return The samples
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static byte[] decodeAll(Filter source) throws IOException {
+		ByteArrayOutputStream samples = new ByteArrayOutputStream();
+		try {
+			while (true) {
+				byte[] buffer = source.get(4096).buffer();
+				samples.write(buffer, 0, buffer.length);
+			}
+		} catch (EOFException eofe1) {
+			/* end of source. */
+		}
+		return samples.toByteArray();
+	}
+
+	/**
+	 * Decodes the given file source in a pipeline. The file source is played by
+	 * a {@link MultiSource}, as in the player, so the gain can change with every
+	 * source; the pipeline has to apply it behind the decoder without inserting
+	 * a gain filter.
+	 *
+	 * @param fileSource
+	 * 		The file source to decode
+	 * @return The first {@link #DECODED_LENGTH} decoded bytes
+	 * @throws IOException
+	 * 		if the pipeline can not be started
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	private static byte[] decode(final FileSource fileSource) throws IOException, InterruptedException {
+		MultiSource multiSource = new MultiSource().handoffTimeout(100);
+		multiSource.addSourceFinishedListener(new SourceFinishedListener() {
+
+			@Override
+			public void sourceFinished(MultiSource multiSource) {
+				multiSource.setSource(fileSource);
+			}
+		});
+		CapturingSink capturingSink = new CapturingSink();
+		Pipeline pipeline = Pipeline.builder(multiSource).to(new InternalMp3Decoder()).to(capturingSink).build();
+		pipeline.start();
+		for (int wait = 0; (wait < 100) && (capturingSink.size() < DECODED_LENGTH); ++wait) {
+			Thread.sleep(100);
+		}
+		assertThat(Iterables.any(pipeline.filters(), new Predicate<Filter>() {
+
+			@Override
+			public boolean apply(Filter filter) {
+				return filter instanceof GainFilter;
+			}
+		}), is(false));
+		byte[] decoded = capturingSink.captured();
+		assertThat(decoded.length >= DECODED_LENGTH, is(true));
+		return decoded;
+	}
+
+	/**
+	 * Returns the RMS of the first {@link #DECODED_LENGTH} bytes of the given
+	 * 16-bit little-endian samples.
+	 *
+	 * @param samples
+	 * 		The samples
+	 * @return The RMS of the samples
+	 */
+	private static double rms(byte[] samples) {
+		double sum = 0;
+		for (int index = 0; index < DECODED_LENGTH; index += 2) {
+			int sample = (samples[index] & 0xff) | (samples[index + 1] << 8);
+			sum += sample * (double) sample;
+		}
+		return Math.sqrt(sum / (DECODED_LENGTH / 2));
+	}
+
+	/**
+	 * Sink that collects all received bytes.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class CapturingSink extends AbstractFilter {
+
+		/** The received bytes. */
+		private final ByteArrayOutputStream capturedBytes = new ByteArrayOutputStream();
+
+		/** Creates a new capturing sink. */
+		public CapturingSink() {
+			super("Capture");
+		}
+
+		/**
+		 * Returns the number of received bytes.
+		 *
+		 * @return The number of received bytes
+		 */
+		public synchronized int size() {
+			return capturedBytes.size();
+		}
+
+		/**
+		 * Returns all received bytes.
+		 *
+		 * @return The received bytes
+		 */
+		public synchronized byte[] captured() {
+			return capturedBytes.toByteArray();
+		}
+
+		@Override
+		public synchronized void process(DataPacket dataPacket) {
+			capturedBytes.write(dataPacket.buffer(), 0, dataPacket.buffer().length);
+		}
+
+		@Override
+		public DataPacket get(int bufferSize) throws IOException {
+			throw new EOFException();
+		}
+
+	}
+
+}
@@ -0,0 +1,403 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.pterodactylus.sonitus.data.source;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.pterodactylus.sonitus.data.AbstractFilter;
+import net.pterodactylus.sonitus.data.ContentMetadata;
+import net.pterodactylus.sonitus.data.DataPacket;
+import net.pterodactylus.sonitus.data.Filter;
+import net.pterodactylus.sonitus.data.FormatMetadata;
+import net.pterodactylus.sonitus.data.Metadata;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Queues;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link MultiSource}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class MultiSourceTest {
+
+	/** The metadata of the test sources. */
+	private static final Metadata METADATA = new Metadata(new FormatMetadata(2, 44100, "PCM"), new ContentMetadata("Test"));
+
+	/**
+	 * Tests that a queued source is created and pre-read on the prefetch
+	 * thread, and that it follows the current source without a gap.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testQueuedSourceIsPrefetchedAndHandedOver() throws IOException {
+		MultiSource multiSource = new MultiSource();
+		final TestSource secondSource = new TestSource("Second", METADATA, new byte[] { 3, 3, 3, 3 }, new byte[] { 4, 4, 4, 4 });
+		final List<String> factoryThreads = Collections.synchronizedList(Lists.<String>newArrayList());
+		multiSource.setSource(new TestSource("First", METADATA, new byte[] { 1, 1, 1, 1 }, new byte[] { 2, 2, 2, 2 }));
+		multiSource.queueSource(new Callable<Filter>() {
+
+			@Override
+			public Filter call() {
+				factoryThreads.add(Thread.currentThread().getName());
+				return secondSource;
+			}
+		});
+		assertThat(multiSource.get(4).buffer(), is(new byte[] { 1, 1, 1, 1 }));
+		assertThat(multiSource.get(4).buffer(), is(new byte[] { 2, 2, 2, 2 }));
+		assertThat(multiSource.get(4).buffer(), is(new byte[] { 3, 3, 3, 3 }));
+		assertThat(multiSource.get(4).buffer(), is(new byte[] { 4, 4, 4, 4 }));
+		assertThat(factoryThreads.size(), is(1));
+		assertThat(factoryThreads.get(0).startsWith("MultiSource Prefetch"), is(true));
+		assertThat(secondSource.readingThreads.size(), is(3));
+		for (String readingThread : secondSource.readingThreads) {
+			assertThat(readingThread.startsWith("MultiSource Prefetch"), is(true));
+		}
+	}
+
+	/**
+	 * Tests that the metadata of a multi source without a source are unknown,
+	 * and that asking for them requests a source without waiting for it.
+	 */
+	@Test
+	public void testMetadataWithoutSourceAreUnknown() {
+		MultiSource multiSource = new MultiSource();
+		final AtomicInteger sourceRequests = new AtomicInteger();
+		multiSource.addSourceFinishedListener(new SourceFinishedListener() {
+
+			@Override
+			public void sourceFinished(MultiSource multiSource) {
+				sourceRequests.incrementAndGet();
+			}
+		});
+		assertThat(multiSource.metadata(), is(Metadata.UNKNOWN));
+		assertThat(multiSource.metadata(), is(Metadata.UNKNOWN));
+		assertThat(sourceRequests.get(), is(1));
+		assertThat(multiSource.pending(), is(true));
+		Metadata silenceMetadata = METADATA.title("Silence");
+		multiSource.fallback(new SilenceSource(silenceMetadata));
+		assertThat(multiSource.metadata(), is(silenceMetadata));
+	}
+
+	/**
+	 * Tests that a multi source without a fallback signals the end of its
+	 * stream when no new source is set within the handoff timeout.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testStreamEndsAfterHandoffTimeout() throws IOException {
+		MultiSource multiSource = new MultiSource().handoffTimeout(100);
+		multiSource.setSource(new TestSource("First", METADATA, new byte[] { 1, 1, 1, 1 }));
+		assertThat(multiSource.get(4).buffer(), is(new byte[] { 1, 1, 1, 1 }));
+		long startTime = System.currentTimeMillis();
+		boolean ended = false;
+		try {
+			multiSource.get(4);
+		} catch (EOFException eofe1) {
+			ended = true;
+		}
+		assertThat(ended, is(true));
+		assertThat(System.currentTimeMillis() - startTime >= 100, is(true));
+		assertThat(multiSource.pending(), is(true));
+	}
+
+	/**
+	 * Tests that the fallback is played when a source ends and no new source
+	 * is available, and that a new source replaces the fallback.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testFallbackCoversGapBetweenSources() throws IOException {
+		Metadata silenceMetadata = METADATA.title("Silence");
+		MultiSource multiSource = new MultiSource().fallback(new SilenceSource(silenceMetadata)).handoffTimeout(100);
+		multiSource.setSource(new TestSource("First", METADATA, new byte[] { 1, 1, 1, 1 }));
+		assertThat(multiSource.get(4).buffer(), is(new byte[] { 1, 1, 1, 1 }));
+		DataPacket silence = multiSource.get(4);
+		assertThat(silence.buffer(), is(new byte[] { 0, 0, 0, 0 }));
+		assertThat(silence.metadata().get(), is(silenceMetadata));
+		assertThat(multiSource.pending(), is(true));
+		assertThat(multiSource.get(4).buffer(), is(new byte[] { 0, 0, 0, 0 }));
+		multiSource.setSource(new TestSource("Second", METADATA, new byte[] { 2, 2, 2, 2 }));
+		assertThat(multiSource.pending(), is(false));
+		DataPacket dataPacket = multiSource.get(4);
+		assertThat(dataPacket.buffer(), is(new byte[] { 2, 2, 2, 2 }));
+		assertThat(dataPacket.metadata().get(), is(METADATA));
+	}
+
+	/**
+	 * Tests that the end of a PCM source is crossfaded with the start of the
+	 * queued source: the fade replaces the last samples of the first source and
+	 * the first samples of the second source, and moves from the level of the
+	 * first source to the level of the second source.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	@Test
+	public void testQueuedSourceIsCrossfaded() throws IOException, InterruptedException {
+		MultiSource multiSource = new MultiSource().crossfade(10).handoffTimeout(100);
+		byte[] loud = samples(1000, 10000);
+		byte[] inverted = samples(1000, -10000);
+		multiSource.setSource(new TestSource("First", METADATA, loud, loud, loud));
+		TestSource secondSource = new TestSource("Second", METADATA, inverted, inverted, inverted);
+		multiSource.queueSource(secondSource);
+		waitForPrefetch(secondSource, 4);
+
+		short[] samples = readSamples(multiSource);
+		int fadeFrames = 441;
+		assertThat(samples.length, is((6000 - fadeFrames) * 2));
+		for (int sample = 0; sample < ((3000 - fadeFrames) * 2); ++sample) {
+			assertThat(samples[sample], is((short) 10000));
+		}
+		for (int sample = (3000 - fadeFrames) * 2; sample < (3000 * 2); ++sample) {
+			assertThat((samples[sample] < 10000) && (samples[sample] > -10000), is(true));
+			assertThat(samples[sample] <= samples[sample - 2], is(true));
+		}
+		for (int sample = 3000 * 2; sample < samples.length; ++sample) {
+			assertThat(samples[sample], is((short) -10000));
+		}
+	}
+
+	/**
+	 * Tests that decoded FLAC sources are crossfaded, and that the multi source
+	 * delivers 16-bit PCM for them.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	@Test
+	public void testDecodedSourcesAreCrossfaded() throws IOException, URISyntaxException, InterruptedException {
+		String path = new File(getClass().getResource("/net/pterodactylus/sonitus/io/flac/sine.flac").toURI()).getPath();
+		int decodedLength = readSamples(new DecodingSource(new FileSource(path))).length * 2;
+
+		MultiSource multiSource = new MultiSource().decode(true).crossfade(100).prefetchSize(Integer.MAX_VALUE).handoffTimeout(100);
+		FileSource firstSource = new FileSource(path);
+		multiSource.setSource(firstSource);
+		assertThat(multiSource.metadata().encoding(), is("PCM"));
+		assertThat(multiSource.metadata().sampleWidth(), is(16));
+		FileSource secondSource = new FileSource(path);
+		multiSource.queueSource(secondSource);
+		for (int wait = 0; (wait < 100) && (secondSource.position() < secondSource.length()); ++wait) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+
+		Metadata metadata = multiSource.metadata();
+		int fadeBytes = metadata.frequency() / 10 * metadata.channels() * 2;
+		assertThat(readSamples(multiSource).length * 2, is(decodedLength * 2 - fadeBytes));
+	}
+
+	/**
+	 * Tests that the lookahead of a source that was set directly is built up
+	 * gradually instead of reading the whole crossfade duration with the first
+	 * request.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testLookaheadIsBuiltUpGradually() throws IOException {
+		MultiSource multiSource = new MultiSource().crossfade(10000);
+		TestSource source = new TestSource("Source", METADATA, packets(1000, 4096));
+		multiSource.setSource(source);
+		for (int request = 1; request <= 10; ++request) {
+			assertThat(multiSource.get(4096).buffer().length, is(4096));
+			assertThat(source.readingThreads.size() <= (request * 2), is(true));
+		}
+	}
+
+	/**
+	 * Tests that the lookahead of a queued source is pre-read by the prefetch
+	 * thread, so that it is not read when the queued source is faded in and
+	 * takes over.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	@Test
+	public void testLookaheadOfQueuedSourceIsPrefetched() throws IOException, InterruptedException {
+		MultiSource multiSource = new MultiSource().crossfade(100).prefetchSize(0);
+		multiSource.setSource(new TestSource("First", METADATA, samples(1000, 10000)));
+		TestSource secondSource = new TestSource("Second", METADATA, packets(100, 4096));
+		multiSource.queueSource(secondSource);
+		int fadeBytes = 4410 * 4;
+		waitForPrefetch(secondSource, (fadeBytes * 2) / 4096 + 1);
+		int prefetchReads = secondSource.readingThreads.size();
+
+		int readBytes = 0;
+		while (readBytes < (4000 + 4096 * 2)) {
+			readBytes += multiSource.get(4096).buffer().length;
+		}
+		assertThat(secondSource.readingThreads.size(), is(prefetchReads));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Creates the given number of packets of silence.
+	 *
+	 * @param count
+	 * 		The number of packets
+	 * @param length
+	 * 		The length of each packet
+	 * @return The packets
+	 */
+	private static byte[][] packets(int count, int length) {
+		byte[][] packets = new byte[count][];
+		for (int packet = 0; packet < count; ++packet) {
+			packets[packet] = new byte[length];
+		}
+		return packets;
+	}
+
+	/**
+	 * Creates stereo 16-bit little-endian samples with a constant value.
+	 *
+	 * @param frames
+	 * 		The number of sample frames
+	 * @param value
+	 * 		The value of all samples
+	 * @return The samples
+	 */
+	private static byte[] samples(int frames, int value) {
+		byte[] buffer = new byte[frames * 4];
+		for (int index = 0; index < buffer.length; index += 2) {
+			buffer[index] = (byte) value;
+			buffer[index + 1] = (byte) (value >> 8);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Reads all 16-bit little-endian samples from the given source until it
+	 * signals its end.
+	 *
+	 * @param source
+	 * 		The source to read
+	 * @return The samples
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static short[] readSamples(Filter source) throws IOException {
+		ByteArrayOutputStream samples = new ByteArrayOutputStream();
+		try {
+			while (true) {
+				byte[] buffer = source.get(4096).buffer();
+				samples.write(buffer, 0, buffer.length);
+			}
+		} catch (EOFException eofe1) {
+			/* end of source. */
+		}
+		ByteBuffer byteBuffer = ByteBuffer.wrap(samples.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		short[] shortSamples = new short[samples.size() / 2];
+		byteBuffer.asShortBuffer().get(shortSamples);
+		return shortSamples;
+	}
+
+	/**
+	 * Waits until the given queued source has been read the given number of
+	 * times by the prefetch thread, and a little longer for the prefetch to
+	 * finish.
+	 *
+	 * @param source
+	 * 		The queued source
+	 * @param reads
+	 * 		The number of reads to wait for
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	private static void waitForPrefetch(TestSource source, int reads) throws InterruptedException {
+		for (int wait = 0; (wait < 100) && (source.readingThreads.size() < reads); ++wait) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+	}
+
+	/**
+	 * A source that returns the given buffers and then signals its end.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class TestSource extends AbstractFilter {
+
+		/** The buffers that have not been returned yet. */
+		private final Queue<byte[]> buffers;
+
+		/** The names of the threads that read from this source. */
+		private final List<String> readingThreads = Collections.synchronizedList(Lists.<String>newArrayList());
+
+		/**
+		 * Creates a new test source.
+		 *
+		 * @param name
+		 * 		The name of the source
+		 * @param metadata
+		 * 		The metadata of the source
+		 * @param buffers
+		 * 		The buffers to return
+		 */
+		private TestSource(String name, Metadata metadata, byte[]... buffers) {
+			super(name);
+			this.buffers = Queues.newConcurrentLinkedQueue(Arrays.asList(buffers));
+			metadataUpdated(metadata);
+		}
+
+		@Override
+		public DataPacket get(int bufferSize) throws IOException {
+			readingThreads.add(Thread.currentThread().getName());
+			byte[] buffer = buffers.poll();
+			if (buffer == null) {
+				throw new EOFException();
+			}
+			return new DataPacket(metadata(), buffer);
+		}
+
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteOrder;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Amplifier}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class AmplifierTest {
+
+	/** The gain that halves the amplitude (in dB). */
+	private static final double HALF = 20 * Math.log10(0.5);
+
+	/** Tests that 16-bit little-endian samples are amplified. */
+	@Test
+	public void testLittleEndian16BitSamplesAreAmplified() {
+		byte[] buffer = new byte[4];
+		PcmSamples.encode(new int[] { 1000, -1001 }, 2, 2, ByteOrder.LITTLE_ENDIAN, buffer, 0);
+		new Amplifier().amplify(buffer, 0, buffer, 0, 2, 16, ByteOrder.LITTLE_ENDIAN, HALF);
+		int[] samples = new int[2];
+		PcmSamples.decode(buffer, 0, 2, ByteOrder.LITTLE_ENDIAN, samples, 2);
+		assertThat(samples[0], is(500));
+		assertThat(samples[1], is(-500));
+	}
+
+	/**
+	 * Tests that 24-bit big-endian samples are amplified into a different
+	 * buffer, and that they are clipped to the range of 24-bit samples.
+	 */
+	@Test
+	public void testBigEndian24BitSamplesAreAmplifiedAndClipped() {
+		byte[] input = new byte[9];
+		PcmSamples.encode(new int[] { 0x100000, 0x500000, -0x500000 }, 3, 3, ByteOrder.BIG_ENDIAN, input, 0);
+		byte[] output = new byte[12];
+		new Amplifier().amplify(input, 0, output, 3, 3, 24, ByteOrder.BIG_ENDIAN, -HALF);
+		int[] samples = new int[3];
+		PcmSamples.decode(output, 3, 3, ByteOrder.BIG_ENDIAN, samples, 3);
+		assertThat(samples[0], is(0x200000));
+		assertThat(samples[1], is(0x7fffff));
+		assertThat(samples[2], is(-0x800000));
+	}
+
+	/** Tests that 32-bit samples are clipped without overflowing. */
+	@Test
+	public void test32BitSamplesAreClipped() {
+		byte[] buffer = new byte[8];
+		PcmSamples.encode(new int[] { Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1 }, 2, 4, ByteOrder.LITTLE_ENDIAN, buffer, 0);
+		new Amplifier().amplify(buffer, 0, buffer, 0, 2, 32, ByteOrder.LITTLE_ENDIAN, 6);
+		int[] samples = new int[2];
+		PcmSamples.decode(buffer, 0, 4, ByteOrder.LITTLE_ENDIAN, samples, 2);
+		assertThat(samples[0], is(Integer.MAX_VALUE));
+		assertThat(samples[1], is(Integer.MIN_VALUE));
+	}
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Compressor}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class CompressorTest {
+
+	/**
+	 * Tests that a square wave 12 dB above the threshold is reduced by 9 dB at
+	 * a ratio of 4:1, and that the makeup gain is applied.
+	 */
+	@Test
+	public void testGainReduction() {
+		Compressor compressor = new Compressor(48000, 2).threshold(-18).ratio(4).makeupGain(3);
+		int[] samples = new int[48000 * 2];
+		int amplitude = (int) Math.round(Math.pow(10, -6 / 20.0) * 32768);
+		for (int sample = 0; sample < samples.length; ++sample) {
+			samples[sample] = ((sample / 96) % 2 == 0) ? amplitude : -amplitude;
+		}
+		compressor.process(samples, 48000);
+		assertThat(Math.abs(compressor.gainReduction() - 9) < 0.01, is(true));
+		assertThat(Math.abs(Math.abs(samples[samples.length - 1]) - amplitude * Math.pow(10, -6 / 20.0)) < 2, is(true));
+	}
+
+}
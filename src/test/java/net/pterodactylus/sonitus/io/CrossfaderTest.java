@@ -0,0 +1,120 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Crossfader}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class CrossfaderTest {
+
+	/** The number of frames of the fades. */
+	private static final int FRAMES = 44100;
+
+	/**
+	 * Tests that the gains of the outgoing and the incoming samples follow
+	 * equal-power curves, also if the fade is mixed in blocks of different
+	 * sizes.
+	 */
+	@Test
+	public void testEqualPowerCurves() {
+		byte[] fullScale = constant(16384, FRAMES * 2);
+		byte[] silence = new byte[FRAMES * 2 * 2];
+		byte[] fadeOut = fade(fullScale, silence);
+		byte[] fadeIn = fade(silence, fullScale);
+		for (int frame = 0; frame < FRAMES; frame += 100) {
+			double outgoingGain = sample(fadeOut, frame * 2) / 16384.0;
+			double incomingGain = sample(fadeIn, frame * 2) / 16384.0;
+			assertThat(Math.abs(outgoingGain - Math.cos(Math.PI / 2 * (frame + 0.5) / FRAMES)) < 0.001, is(true));
+			assertThat(Math.abs(outgoingGain * outgoingGain + incomingGain * incomingGain - 1) < 0.001, is(true));
+			assertThat(sample(fadeOut, frame * 2 + 1), is(sample(fadeOut, frame * 2)));
+		}
+	}
+
+	/** Tests that mixed samples are clipped to 16 bit. */
+	@Test
+	public void testMixedSamplesAreClipped() {
+		byte[] mixed = fade(constant(-32768, FRAMES * 2), constant(-32768, FRAMES * 2));
+		assertThat(sample(mixed, FRAMES), is(-32768));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Crossfades two stereo blocks of {@link #FRAMES} frames, in blocks of
+	 * varying size.
+	 *
+	 * @param outgoing
+	 * 		The outgoing samples
+	 * @param incoming
+	 * 		The incoming samples
+	 * @return The mixed samples
+	 */
+	private static byte[] fade(byte[] outgoing, byte[] incoming) {
+		Crossfader crossfader = new Crossfader(2);
+		crossfader.start(FRAMES);
+		byte[] output = new byte[FRAMES * 2 * 2];
+		int frame = 0;
+		for (int block = 1; crossfader.active(); ++block) {
+			int frames = Math.min(block * 7, crossfader.remaining());
+			crossfader.mix(outgoing, frame * 4, incoming, frame * 4, output, frame * 4, frames);
+			frame += frames;
+		}
+		return output;
+	}
+
+	/**
+	 * Creates a block of samples with a constant value.
+	 *
+	 * @param value
+	 * 		The value of the samples
+	 * @param samples
+	 * 		The number of samples
+	 * @return The samples
+	 */
+	private static byte[] constant(int value, int samples) {
+		byte[] buffer = new byte[samples * 2];
+		for (int sample = 0; sample < samples; ++sample) {
+			buffer[sample * 2] = (byte) value;
+			buffer[sample * 2 + 1] = (byte) (value >> 8);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns a sample from a buffer.
+	 *
+	 * @param buffer
+	 * 		The buffer
+	 * @param index
+	 * 		The index of the sample
+	 * @return The sample
+	 */
+	private static int sample(byte[] buffer, int index) {
+		return (buffer[index * 2] & 0xff) | (buffer[index * 2 + 1] << 8);
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Ditherer} and {@link FloatSamples}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class DithererTest {
+
+	/**
+	 * Tests that a signal of a quarter LSB does not vanish but is preserved on
+	 * average, and that no sample is off by more than the dither.
+	 */
+	@Test
+	public void testDitherPreservesSmallSignals() {
+		float[] samples = new float[100000];
+		Arrays.fill(samples, 0.25f / 32768);
+		byte[] buffer = new byte[samples.length * 2];
+		new Ditherer(1).toInt16(samples, samples.length, buffer, 0);
+		long sum = 0;
+		for (int sample = 0; sample < samples.length; ++sample) {
+			int value = (buffer[sample * 2 + 1] << 8) | (buffer[sample * 2] & 0xff);
+			assertThat((value >= -1) && (value <= 1), is(true));
+			sum += value;
+		}
+		assertThat(Math.abs(sum / (double) samples.length - 0.25) < 0.01, is(true));
+	}
+
+	/** Tests that floating-point samples survive encoding and decoding. */
+	@Test
+	public void testFloatSamplesRoundTrip() {
+		byte[] int16 = { 0, (byte) 0x80, (byte) 0xff, 0x7f, 1, 0 };
+		float[] samples = new float[3];
+		FloatSamples.fromInt16(int16, 0, samples, 3);
+		assertThat(samples[0], is(-1.0f));
+		assertThat(samples[1], is(32767 / 32768f));
+		byte[] encoded = new byte[12];
+		FloatSamples.encode(samples, 3, encoded, 0);
+		float[] decoded = new float[3];
+		FloatSamples.decode(encoded, 0, decoded, 3);
+		assertThat(decoded, is(samples));
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Ducker}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class DuckerTest {
+
+	/** The sampling frequency. */
+	private static final int FREQUENCY = 44100;
+
+	/**
+	 * Tests that a side chain above the threshold ducks the signal with the
+	 * attack time, and that the gain returns to unity with the release time.
+	 */
+	@Test
+	public void testAttackAndRelease() {
+		Ducker ducker = new Ducker(FREQUENCY, 2).threshold(0.1).level(0.25).attack(10).release(100);
+		float[] gains = new float[FREQUENCY];
+		int[] sideChain = new int[FREQUENCY * 2];
+		Arrays.fill(sideChain, 16384);
+		ducker.process(sideChain, sideChain.length, gains, FREQUENCY / 100);
+		assertThat(Math.abs(gains[FREQUENCY / 100 - 1] - (0.25 + 0.75 * Math.exp(-1))) < 0.01, is(true));
+		ducker.process(sideChain, sideChain.length, gains, FREQUENCY);
+		assertThat(Math.abs(ducker.gain() - 0.25) < 0.001, is(true));
+		ducker.process(new int[0], 0, gains, FREQUENCY);
+		assertThat(Math.abs(gains[FREQUENCY / 10 + FREQUENCY / 50] - (1 - 0.75 * Math.exp(-1))) < 0.05, is(true));
+		assertThat(Math.abs(ducker.gain() - 1) < 0.001, is(true));
+	}
+
+	/** Tests that a side chain below the threshold does not duck the signal. */
+	@Test
+	public void testSideChainBelowThreshold() {
+		Ducker ducker = new Ducker(FREQUENCY, 1).threshold(0.5);
+		float[] gains = new float[FREQUENCY];
+		int[] sideChain = new int[FREQUENCY];
+		for (int sample = 0; sample < sideChain.length; ++sample) {
+			sideChain[sample] = (int) (Math.sin(sample * 0.1) * 16000);
+		}
+		ducker.process(sideChain, sideChain.length, gains, FREQUENCY);
+		assertThat(ducker.gain(), is(1.0));
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import net.pterodactylus.sonitus.io.Equalizer.Type;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Equalizer}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class EqualizerTest {
+
+	/** The sampling frequency. */
+	private static final int FREQUENCY = 44100;
+
+	/**
+	 * Tests that a peaking band boosts a sine at its center frequency by its
+	 * gain but leaves a sine far away from it alone.
+	 */
+	@Test
+	public void testPeakingBand() {
+		assertThat(Math.abs(gain(Type.PEAKING, 1000, 6, 1000) - 6) < 0.05, is(true));
+		assertThat(Math.abs(gain(Type.PEAKING, 1000, 6, 50)) < 0.1, is(true));
+	}
+
+	/** Tests that a high-pass band removes frequencies below its corner. */
+	@Test
+	public void testHighPassBand() {
+		assertThat(gain(Type.HIGH_PASS, 1000, 0, 100) < -35, is(true));
+		assertThat(Math.abs(gain(Type.HIGH_PASS, 1000, 0, 10000)) < 0.1, is(true));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the gain of a single band for a stereo sine.
+	 *
+	 * @param type
+	 * 		The type of the band
+	 * @param centerFrequency
+	 * 		The center frequency of the band
+	 * @param bandGain
+	 * 		The gain of the band (in dB)
+	 * @param sineFrequency
+	 * 		The frequency of the sine
+	 * @return The gain of the sine (in dB)
+	 */
+	private static double gain(Type type, double centerFrequency, double bandGain, double sineFrequency) {
+		Equalizer equalizer = new Equalizer(FREQUENCY, 2, 2).band(1, type, centerFrequency, bandGain, Math.sqrt(0.5));
+		int[] samples = new int[FREQUENCY * 2];
+		for (int frame = 0; frame < FREQUENCY; ++frame) {
+			samples[frame * 2] = samples[frame * 2 + 1] = (int) Math.round(Math.sin(2 * Math.PI * sineFrequency * frame / FREQUENCY) * 8000);
+		}
+		equalizer.process(samples, FREQUENCY);
+		int peak = 0;
+		for (int sample = samples.length / 2; sample < samples.length; ++sample) {
+			peak = Math.max(peak, Math.abs(samples[sample]));
+		}
+		return 20 * Math.log10(peak / 8000.0);
+	}
+
+}
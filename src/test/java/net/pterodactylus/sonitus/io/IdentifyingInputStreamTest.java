@@ -0,0 +1,195 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link IdentifyingInputStream}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class IdentifyingInputStreamTest {
+
+	/** The length of the padding block of the test file. */
+	private static final int PADDING_LENGTH = 1048576;
+
+	/**
+	 * Tests that the metadata blocks of a FLAC file are skipped instead of read,
+	 * and that the identified stream still starts at the beginning of the file.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test
+	public void testFlacFileIsIdentifiedWithoutReadingSkippedBlocks() throws IOException, URISyntaxException {
+		byte[] flac = paddedFlac();
+		File flacFile = File.createTempFile("identifying-", ".flac");
+		try {
+			Files.write(flac, flacFile);
+			CountingFileInputStream fileInputStream = new CountingFileInputStream(flacFile);
+			try {
+				Optional<IdentifyingInputStream> identifyingInputStream = IdentifyingInputStream.create(fileInputStream);
+				assertThat(identifyingInputStream.isPresent(), is(true));
+				assertThat(identifyingInputStream.get().metadata().encoding(), is("FLAC"));
+				assertThat(identifyingInputStream.get().metadata().channels(), is(2));
+				assertThat(identifyingInputStream.get().metadata().frequency(), is(44100));
+				assertThat(fileInputStream.read < 65536, is(true));
+				assertThat(fileInputStream.getChannel().position(), is(0L));
+				assertThat(Arrays.equals(ByteStreams.toByteArray(identifyingInputStream.get()), flac), is(true));
+			} finally {
+				Closeables.close(fileInputStream, true);
+			}
+		} finally {
+			flacFile.delete();
+		}
+	}
+
+	/**
+	 * Tests that a FLAC stream that can not be repositioned is identified, and
+	 * that the identified stream repeats the stream from its beginning.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test
+	public void testFlacStreamIsIdentified() throws IOException, URISyntaxException {
+		byte[] flac = paddedFlac();
+		Optional<IdentifyingInputStream> identifyingInputStream = IdentifyingInputStream.create(new ByteArrayInputStream(flac));
+		assertThat(identifyingInputStream.isPresent(), is(true));
+		assertThat(identifyingInputStream.get().metadata().encoding(), is("FLAC"));
+		assertThat(Arrays.equals(ByteStreams.toByteArray(identifyingInputStream.get()), flac), is(true));
+	}
+
+	/**
+	 * Tests that a file that is not a FLAC file is repositioned before the other
+	 * formats are tried.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test
+	public void testMp3FileIsIdentified() throws IOException, URISyntaxException {
+		File mp3File = new File(getClass().getResource("/net/pterodactylus/sonitus/io/mp3/mpeg1.mp3").toURI());
+		InputStream fileInputStream = new FileInputStream(mp3File);
+		try {
+			Optional<IdentifyingInputStream> identifyingInputStream = IdentifyingInputStream.create(fileInputStream);
+			assertThat(identifyingInputStream.isPresent(), is(true));
+			assertThat(identifyingInputStream.get().metadata().encoding(), is("MP3"));
+			assertThat(Arrays.equals(ByteStreams.toByteArray(identifyingInputStream.get()), Files.toByteArray(mp3File)), is(true));
+		} finally {
+			Closeables.close(fileInputStream, true);
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the test FLAC file with its padding block enlarged to {@link
+	 * #PADDING_LENGTH} bytes.
+	 *
+	 * @return The padded FLAC file
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	private byte[] paddedFlac() throws IOException, URISyntaxException {
+		byte[] flac = Files.toByteArray(new File(getClass().getResource("/net/pterodactylus/sonitus/io/flac/sine.flac").toURI()));
+		/* “fLaC”, the STREAMINFO block (4 + 34 bytes), and the padding block (4 + 40 bytes). */
+		byte[] paddedFlac = new byte[flac.length - 44 + 4 + PADDING_LENGTH];
+		System.arraycopy(flac, 0, paddedFlac, 0, 42);
+		paddedFlac[42] = (byte) 0x81;
+		paddedFlac[43] = (byte) (PADDING_LENGTH >> 16);
+		paddedFlac[44] = (byte) (PADDING_LENGTH >> 8);
+		paddedFlac[45] = (byte) PADDING_LENGTH;
+		System.arraycopy(flac, 86, paddedFlac, 46 + PADDING_LENGTH, flac.length - 86);
+		return paddedFlac;
+	}
+
+	/**
+	 * {@link FileInputStream} that counts the bytes that are read from it.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class CountingFileInputStream extends FileInputStream {
+
+		/** The number of read bytes. */
+		private long read;
+
+		/**
+		 * Creates a new counting file input stream.
+		 *
+		 * @param file
+		 * 		The file to read
+		 * @throws IOException
+		 * 		if the file can not be opened
+		 */
+		private CountingFileInputStream(File file) throws IOException {
+			super(file);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int data = super.read();
+			if (data != -1) {
+				read++;
+			}
+			return data;
+		}
+
+		@Override
+		public int read(byte[] buffer) throws IOException {
+			return read(buffer, 0, buffer.length);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int count = super.read(buffer, offset, length);
+			if (count > 0) {
+				read += count;
+			}
+			return count;
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import net.pterodactylus.sonitus.io.loudness.TruePeakDetector;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Limiter}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class LimiterTest {
+
+	/** The sampling frequency. */
+	private static final int FREQUENCY = 48000;
+
+	/**
+	 * Tests that neither the samples nor the inter-sample peaks of a sine at a
+	 * quarter of the sampling rate whose samples miss its peaks exceed the
+	 * ceiling.
+	 */
+	@Test
+	public void testTruePeaksStayBelowCeiling() {
+		Limiter limiter = new Limiter(FREQUENCY, 2, 5).ceiling(-6);
+		int[] samples = sine(12000, 1.0, Math.PI / 4);
+		for (int frame = 0; frame < FREQUENCY; frame += 1000) {
+			int[] block = Arrays.copyOfRange(samples, frame * 2, (frame + 1000) * 2);
+			limiter.process(block, 1000);
+			System.arraycopy(block, 0, samples, frame * 2, block.length);
+		}
+		TruePeakDetector truePeakDetector = new TruePeakDetector(2);
+		double truePeak = 0;
+		for (int sample = 0; sample < samples.length; ++sample) {
+			truePeak = Math.max(truePeak, Math.max(Math.abs(samples[sample] / 32768.0), truePeakDetector.process(sample % 2, samples[sample] / 32768.0)));
+		}
+		assertThat(20 * Math.log10(truePeak) < -5.95, is(true));
+		assertThat(20 * Math.log10(truePeak) > -6.5, is(true));
+	}
+
+	/** Tests that a signal below the ceiling is only delayed. */
+	@Test
+	public void testQuietSignalIsOnlyDelayed() {
+		Limiter limiter = new Limiter(FREQUENCY, 2, 5);
+		int[] samples = sine(1000, 0.5, 0);
+		int[] limitedSamples = samples.clone();
+		limiter.process(limitedSamples, FREQUENCY);
+		int latency = limiter.latency() * 2;
+		assertThat(Arrays.copyOfRange(limitedSamples, latency, limitedSamples.length), is(Arrays.copyOf(samples, samples.length - latency)));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Creates one second of stereo samples of a sine.
+	 *
+	 * @param sineFrequency
+	 * 		The frequency of the sine
+	 * @param amplitude
+	 * 		The amplitude of the sine (relative to full scale)
+	 * @param phase
+	 * 		The phase of the first sample
+	 * @return The interleaved samples
+	 */
+	private static int[] sine(int sineFrequency, double amplitude, double phase) {
+		int[] samples = new int[FREQUENCY * 2];
+		for (int frame = 0; frame < FREQUENCY; ++frame) {
+			samples[frame * 2] = samples[frame * 2 + 1] = (int) Math.round(Math.sin(2 * Math.PI * sineFrequency * frame / FREQUENCY + phase) * amplitude * 32767);
+		}
+		return samples;
+	}
+
+}
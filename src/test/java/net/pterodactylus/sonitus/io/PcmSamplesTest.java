@@ -0,0 +1,81 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteOrder;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link PcmSamples}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class PcmSamplesTest {
+
+	/** Tests that the bytes of 16-bit and 24-bit samples are swapped. */
+	@Test
+	public void testSwapBytes() {
+		byte[] int16 = { 1, 2, 3, 4 };
+		PcmSamples.swapBytes(int16, 0, int16, 0, 2, 2);
+		assertThat(int16, is(new byte[] { 2, 1, 4, 3 }));
+		byte[] int24 = { 1, 2, 3, 4, 5, 6 };
+		byte[] swapped = new byte[6];
+		PcmSamples.swapBytes(int24, 0, swapped, 0, 2, 3);
+		assertThat(swapped, is(new byte[] { 3, 2, 1, 6, 5, 4 }));
+	}
+
+	/**
+	 * Tests that negative 24-bit samples are sign-extended and survive encoding
+	 * in the other byte order.
+	 */
+	@Test
+	public void testDecodeAndEncode() {
+		byte[] littleEndian = { 0, 0, (byte) 0x80, (byte) 0xff, (byte) 0xff, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+		int[] samples = new int[3];
+		PcmSamples.decode(littleEndian, 0, 3, ByteOrder.LITTLE_ENDIAN, samples, 3);
+		assertThat(samples, is(new int[] { -8388608, 8388607, -1 }));
+		byte[] bigEndian = new byte[9];
+		PcmSamples.encode(samples, 3, 3, ByteOrder.BIG_ENDIAN, bigEndian, 0);
+		byte[] swapped = new byte[9];
+		PcmSamples.swapBytes(littleEndian, 0, swapped, 0, 3, 3);
+		assertThat(bigEndian, is(swapped));
+	}
+
+	/**
+	 * Tests that reducing 24-bit samples to 16 bits rounds them with at most one
+	 * LSB of dither and clips them to the 16-bit range.
+	 */
+	@Test
+	public void testQuantizeTo16Bits() {
+		int[] samples = new int[1000];
+		for (int sample = 0; sample < samples.length; ++sample) {
+			samples[sample] = (sample % 2 == 0) ? (sample * 1000) : 8388607;
+		}
+		new Ditherer(1).quantize(samples, samples.length, 8, 16);
+		for (int sample = 0; sample < samples.length; ++sample) {
+			int expected = (sample % 2 == 0) ? Math.round(sample * 1000 / 256f) : 32767;
+			assertThat(Math.abs(samples[sample] - expected) <= 1, is(true));
+			assertThat(samples[sample] <= 32767, is(true));
+		}
+	}
+
+}
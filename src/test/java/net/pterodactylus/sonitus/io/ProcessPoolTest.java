@@ -0,0 +1,138 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.io.ByteStreams;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link ProcessPool}. The test uses {@code cat} as external
+ * process.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ProcessPoolTest {
+
+	/** The command line of the pooled processes. */
+	private static final List<String> COMMAND = Arrays.asList("cat");
+
+	/**
+	 * Tests that the first request starts a process, and that the following
+	 * request is served by an idle process that works as expected.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	@Test
+	public void testIdleProcessIsHandedOut() throws IOException, InterruptedException {
+		ProcessPool processPool = new ProcessPool(1);
+		try {
+			processPool.get(COMMAND).destroy();
+			assertThat(processPool.misses(), is(1L));
+			waitForIdleProcess(processPool);
+			Process process = processPool.get(COMMAND);
+			assertThat(processPool.hits(), is(1L));
+			process.getOutputStream().write(new byte[] { 1, 2, 3 });
+			process.getOutputStream().close();
+			assertThat(ByteStreams.toByteArray(process.getInputStream()), is(new byte[] { 1, 2, 3 }));
+		} finally {
+			processPool.close();
+		}
+	}
+
+	/**
+	 * Tests that idle processes that are too old are retired instead of being
+	 * handed out.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	@Test
+	public void testOldProcessesAreRetired() throws IOException, InterruptedException {
+		ProcessPool processPool = new ProcessPool(1).maximumAge(1);
+		try {
+			processPool.warmUp(COMMAND);
+			waitForIdleProcess(processPool);
+			Thread.sleep(10);
+			processPool.get(COMMAND).destroy();
+			assertThat(processPool.misses(), is(1L));
+			assertThat(processPool.retirements() > 0, is(true));
+		} finally {
+			processPool.close();
+		}
+	}
+
+	/**
+	 * Tests that a command line that is no longer requested is dropped, and
+	 * that its idle processes are retired.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws InterruptedException
+	 * 		if the test is interrupted
+	 */
+	@Test
+	public void testUnusedCommandsAreDropped() throws IOException, InterruptedException {
+		ProcessPool processPool = new ProcessPool(1).idleTimeout(100);
+		try {
+			processPool.get(COMMAND).destroy();
+			waitForIdleProcess(processPool);
+			for (int attempt = 0; (attempt < 500) && !processPool.commands().isEmpty(); ++attempt) {
+				Thread.sleep(10);
+			}
+			assertThat(processPool.commands().isEmpty(), is(true));
+			assertThat(processPool.idleProcesses(COMMAND), is(0));
+			assertThat(processPool.retirements(), is(1L));
+			Thread.sleep(1500);
+			assertThat(processPool.spawns(), is(2L));
+		} finally {
+			processPool.close();
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Waits until the given process pool has an idle process.
+	 *
+	 * @param processPool
+	 * 		The process pool
+	 * @throws InterruptedException
+	 * 		if the thread is interrupted while waiting
+	 */
+	private static void waitForIdleProcess(ProcessPool processPool) throws InterruptedException {
+		for (int attempt = 0; (attempt < 500) && (processPool.idleProcesses(COMMAND) == 0); ++attempt) {
+			Thread.sleep(10);
+		}
+		assertThat(processPool.idleProcesses(COMMAND), is(1));
+	}
+
+}
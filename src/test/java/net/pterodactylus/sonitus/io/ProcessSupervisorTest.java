@@ -0,0 +1,143 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import net.pterodactylus.sonitus.io.ProcessSupervisor.SupervisedProcess;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link ProcessSupervisor}. The test uses {@code sh} to create
+ * misbehaving processes.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ProcessSupervisorTest {
+
+	/**
+	 * Tests that a process that exits while its input is still open is
+	 * restarted until it is given up, that its output is continued from the
+	 * restarted process, and that its stderr is logged.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testCrashedProcessIsRestarted() throws IOException {
+		ProcessSupervisor processSupervisor = new ProcessSupervisor().backoff(1, 10).maximumRestarts(2);
+		try {
+			SupervisedProcess supervisedProcess = processSupervisor.supervise(Arrays.asList("sh", "-c", "echo x; echo crash >&2; exit 1"));
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			boolean givenUp = false;
+			try {
+				readFully(supervisedProcess.inputStream(), output);
+			} catch (IOException ioe1) {
+				givenUp = true;
+			}
+			assertThat(givenUp, is(true));
+			assertThat(output.toString("UTF-8"), is("x\nx\nx\n"));
+			assertThat(supervisedProcess.restarts(), is(2));
+			assertThat(processSupervisor.crashes(), is(3L));
+			assertThat(supervisedProcess.log().contains("crash"), is(true));
+		} finally {
+			processSupervisor.close();
+		}
+	}
+
+	/**
+	 * Tests that a process that exits after its input has been closed is not
+	 * restarted.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testFinishedProcessIsNotRestarted() throws IOException {
+		ProcessSupervisor processSupervisor = new ProcessSupervisor();
+		try {
+			SupervisedProcess supervisedProcess = processSupervisor.supervise(Arrays.asList("cat"));
+			supervisedProcess.outputStream().write(new byte[] { 1, 2, 3 });
+			supervisedProcess.outputStream().close();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			readFully(supervisedProcess.inputStream(), output);
+			assertThat(output.toByteArray(), is(new byte[] { 1, 2, 3 }));
+			assertThat(supervisedProcess.restarts(), is(0));
+		} finally {
+			processSupervisor.close();
+		}
+	}
+
+	/**
+	 * Tests that a process that does not create output while input is waiting
+	 * for it is detected as stalled.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testStalledProcessIsDetected() throws IOException {
+		ProcessSupervisor processSupervisor = new ProcessSupervisor().stallTimeout(100).maximumRestarts(0);
+		try {
+			SupervisedProcess supervisedProcess = processSupervisor.supervise(Arrays.asList("sleep", "10"));
+			supervisedProcess.outputStream().write(new byte[] { 1, 2, 3 });
+			boolean givenUp = false;
+			try {
+				readFully(supervisedProcess.inputStream(), new ByteArrayOutputStream());
+			} catch (IOException ioe1) {
+				givenUp = true;
+			}
+			assertThat(givenUp, is(true));
+			assertThat(processSupervisor.stalls() > 0, is(true));
+			assertThat(supervisedProcess.restarts(), is(0));
+		} finally {
+			processSupervisor.close();
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Copies the given input stream to the given output stream until the input
+	 * stream reaches EOF.
+	 *
+	 * @param inputStream
+	 * 		The input stream to read
+	 * @param outputStream
+	 * 		The output stream to write to
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static void readFully(InputStream inputStream, ByteArrayOutputStream outputStream) throws IOException {
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			outputStream.write(buffer, 0, read);
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Sonitus - DecodingOutputStreamTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.Files;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link DecodingOutputStream}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class DecodingOutputStreamTest {
+
+	/**
+	 * Returns test data for {@link #testDecoding(int)}.
+	 *
+	 * @return Test data for {@link #testDecoding(int)}
+	 */
+	@DataProvider(name = "testData")
+	public Object[][] getDecodingTestParameters() {
+		return new Object[][] {
+				{ 1 },
+				{ 1000 },
+				{ Integer.MAX_VALUE }
+		};
+	}
+
+	/**
+	 * Tests that the decoded samples match the MD5 signature of the file,
+	 * regardless of how the file is split into writes.
+	 *
+	 * @param chunkSize
+	 * 		The number of bytes to write at once
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws NoSuchAlgorithmException
+	 * 		if MD5 is not available
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test(dataProvider = "testData")
+	public void testDecoding(int chunkSize) throws IOException, NoSuchAlgorithmException, URISyntaxException {
+		byte[] encoded = Files.toByteArray(new File(getClass().getResource("sine.flac").toURI()));
+		ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+		DecodingOutputStream decodingOutputStream = new DecodingOutputStream(pcm);
+		for (int offset = 0; offset < encoded.length; offset += chunkSize) {
+			decodingOutputStream.write(encoded, offset, Math.min(chunkSize, encoded.length - offset));
+		}
+		decodingOutputStream.close();
+		StreamInfo streamInfo = decodingOutputStream.streamInfo();
+		assertThat(pcm.size(), is((int) streamInfo.totalSamples() * streamInfo.numberOfChannels() * 2));
+		assertThat(MessageDigest.getInstance("MD5").digest(pcm.toByteArray()), is(streamInfo.md5Signature()));
+	}
+
+	/**
+	 * Tests that decoding resumes at the next frame if the metadata blocks are
+	 * followed by the middle of a frame, e.g. after a seek.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test
+	public void testDecodingResumesAtNextFrame() throws IOException, URISyntaxException {
+		byte[] encoded = Files.toByteArray(new File(getClass().getResource("sine.flac").toURI()));
+		CountingInputStream countingInputStream = new CountingInputStream(new ByteArrayInputStream(encoded));
+		Stream.parse(countingInputStream);
+		int audioOffset = (int) countingInputStream.getCount();
+		ByteArrayOutputStream completePcm = new ByteArrayOutputStream();
+		DecodingOutputStream decodingOutputStream = new DecodingOutputStream(completePcm);
+		decodingOutputStream.write(encoded);
+		decodingOutputStream.close();
+
+		int seekOffset = audioOffset + (encoded.length - audioOffset) / 2;
+		ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+		decodingOutputStream = new DecodingOutputStream(pcm);
+		decodingOutputStream.write(encoded, 0, audioOffset);
+		decodingOutputStream.write(encoded, seekOffset, encoded.length - seekOffset);
+		decodingOutputStream.close();
+		byte[] complete = completePcm.toByteArray();
+		assertThat(pcm.size() > 0, is(true));
+		assertThat(pcm.size() < (complete.length / 2), is(true));
+		assertThat(pcm.toByteArray(), is(Arrays.copyOfRange(complete, complete.length - pcm.size(), complete.length)));
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Sonitus - ParallelDecoderTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link ParallelDecoder}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ParallelDecoderTest {
+
+	/**
+	 * Returns test data for {@link #testDecoding(int, int, int)}.
+	 *
+	 * @return Test data for {@link #testDecoding(int, int, int)}
+	 */
+	@DataProvider(name = "testData")
+	public Object[][] getDecodingTestParameters() {
+		return new Object[][] {
+									  { 1, 1, Integer.MAX_VALUE },
+									  { 1, 100, Integer.MAX_VALUE },
+									  { 4, 1, Integer.MAX_VALUE },
+									  { 4, 3, Integer.MAX_VALUE },
+									  { 1, 1, 8192 },
+									  { 4, 3, 10000 }
+		};
+	}
+
+	/**
+	 * Tests that the decoded samples match the MD5 signature of the file.
+	 *
+	 * @param threads
+	 * 		The number of threads to decode with
+	 * @param framesPerTask
+	 * 		The number of frames to decode per task
+	 * @param windowSize
+	 * 		The size of the windows to map the file in
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws NoSuchAlgorithmException
+	 * 		if MD5 is not available
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test(dataProvider = "testData")
+	public void testDecoding(int threads, int framesPerTask, int windowSize) throws IOException, NoSuchAlgorithmException, URISyntaxException {
+		File file = new File(getClass().getResource("sine.flac").toURI());
+		StreamInfo streamInfo = readStreamInfo(file);
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+		try {
+			ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+			long samples = new ParallelDecoder(executorService, threads).framesPerTask(framesPerTask).windowSize(windowSize).decode(file, pcm);
+			assertThat(samples, is(streamInfo.totalSamples()));
+			assertThat(MessageDigest.getInstance("MD5").digest(pcm.toByteArray()), is(streamInfo.md5Signature()));
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a window that can not hold two frames is rejected.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testTooSmallWindowIsRejected() throws IOException, URISyntaxException {
+		File file = new File(getClass().getResource("sine.flac").toURI());
+		new ParallelDecoder(MoreExecutors.sameThreadExecutor(), 1).windowSize(1024).decode(file, new ByteArrayOutputStream());
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Reads the stream info from the given FLAC file.
+	 *
+	 * @param file
+	 * 		The FLAC file
+	 * @return The stream info of the file
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static StreamInfo readStreamInfo(File file) throws IOException {
+		InputStream inputStream = new FileInputStream(file);
+		try {
+			return (StreamInfo) Stream.parse(inputStream).get().metadataBlocks(BlockType.STREAMINFO).get(0).data();
+		} finally {
+			Closeables.close(inputStream, true);
+		}
+	}
+
+}
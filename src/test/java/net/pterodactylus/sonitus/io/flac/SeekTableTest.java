@@ -0,0 +1,87 @@
+/*
+ * Sonitus - SeekTableTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.flac;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.io.Closeables;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link SeekTable} and for seeking with a {@link FrameScanner}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SeekTableTest {
+
+	/**
+	 * Tests that seek points are parsed, placeholders are dropped, and the
+	 * last seek point before a sample is found.
+	 */
+	@Test
+	public void testSeekPointsAreFound() {
+		ByteBuffer content = ByteBuffer.allocate(4 * 18);
+		content.putLong(0).putLong(0).putShort((short) 1152);
+		content.putLong(11520).putLong(31301 - 86).putShort((short) 1152);
+		content.putLong(20736).putLong(53520 - 86).putShort((short) 1152);
+		content.putLong(-1).putLong(0).putShort((short) 0);
+		SeekTable seekTable = new SeekTable(content.array());
+		assertThat(seekTable.size(), is(3));
+		assertThat(seekTable.offset(1), is(31301L - 86));
+		assertThat(seekTable.frameSamples(2), is(1152));
+		assertThat(seekTable.find(0), is(0));
+		assertThat(seekTable.find(11519), is(0));
+		assertThat(seekTable.find(11520), is(1));
+		assertThat(seekTable.find(100000), is(2));
+	}
+
+	/**
+	 * Tests that the frame containing a sample is found when scanning forward
+	 * from a seek point.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test
+	public void testFrameContainingSampleIsFound() throws IOException, URISyntaxException {
+		File flacFile = new File(getClass().getResource("sine.flac").toURI());
+		FileInputStream fileInputStream = new FileInputStream(flacFile);
+		try {
+			StreamInfo streamInfo = (StreamInfo) Stream.parse(fileInputStream).get().metadataBlocks(BlockType.STREAMINFO).get(0).data();
+			FileChannel fileChannel = fileInputStream.getChannel();
+			FrameScanner frameScanner = new FrameScanner(streamInfo);
+			assertThat(frameScanner.findFrame(fileChannel, 86, 10000), is(25288L));
+			assertThat(frameScanner.lastFrameHeader().sampleNumber(1152), is(9216L));
+			assertThat(frameScanner.findFrame(fileChannel, 31301, 22049), is(56701L));
+			assertThat(frameScanner.findFrame(fileChannel, 31301, 22050), is(-1L));
+		} finally {
+			Closeables.close(fileInputStream, true);
+		}
+	}
+
+}
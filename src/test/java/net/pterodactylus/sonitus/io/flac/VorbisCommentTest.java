@@ -0,0 +1,117 @@
+/*
+ * Sonitus - VorbisCommentTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.pterodactylus.sonitus.io.flac;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.EnumSet;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link VorbisComment} and for skipping metadata blocks in {@link
+ * Stream}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class VorbisCommentTest {
+
+	/** Tests that vendor and comments are parsed. */
+	@Test
+	public void testCommentsAreParsed() {
+		VorbisComment vorbisComment = new VorbisComment(createVorbisComment("reference libFLAC 1.2.1", "artist=Some Artist", "TITLE=Some Title", "Genre=Rock", "genre=Pop"));
+		assertThat(vorbisComment.vendor(), is("reference libFLAC 1.2.1"));
+		assertThat(vorbisComment.artist(), is(Optional.of("Some Artist")));
+		assertThat(vorbisComment.title(), is(Optional.of("Some Title")));
+		assertThat(vorbisComment.values("genre").size(), is(2));
+		assertThat(vorbisComment.value("ALBUM").isPresent(), is(false));
+	}
+
+	/**
+	 * Tests that metadata blocks that were not requested are skipped and the
+	 * stream is positioned at the first frame afterwards.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testUnrequestedBlocksAreSkipped() throws IOException {
+		ByteArrayOutputStream flacStream = new ByteArrayOutputStream();
+		flacStream.write(new byte[] { 'f', 'L', 'a', 'C' });
+		writeBlock(flacStream, 0x00, new byte[34]);
+		writeBlock(flacStream, 0x01, new byte[100000]);
+		writeBlock(flacStream, 0x84, createVorbisComment("vendor", "TITLE=Title"));
+		flacStream.write(0xff);
+		ByteArrayInputStream inputStream = new ByteArrayInputStream(flacStream.toByteArray());
+		Stream stream = Stream.parse(inputStream, EnumSet.of(BlockType.VORBIS_COMMENT)).get();
+		assertThat(stream.metadataBlocks(BlockType.STREAMINFO).isEmpty(), is(true));
+		assertThat(stream.metadataBlocks(BlockType.PADDING).isEmpty(), is(true));
+		assertThat(((VorbisComment) stream.metadataBlocks(BlockType.VORBIS_COMMENT).get(0).data()).title(), is(Optional.of("Title")));
+		assertThat(inputStream.read(), is(0xff));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Creates the contents of a VORBIS_COMMENT block.
+	 *
+	 * @param vendor
+	 * 		The vendor string
+	 * @param comments
+	 * 		The comments
+	 * @return The contents of the block
+	 */
+	private static byte[] createVorbisComment(String vendor, String... comments) {
+		ByteBuffer content = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		content.putInt(vendor.length()).put(vendor.getBytes(Charsets.UTF_8));
+		content.putInt(comments.length);
+		for (String comment : comments) {
+			content.putInt(comment.length()).put(comment.getBytes(Charsets.UTF_8));
+		}
+		byte[] block = new byte[content.position()];
+		System.arraycopy(content.array(), 0, block, 0, block.length);
+		return block;
+	}
+
+	/**
+	 * Writes a metadata block.
+	 *
+	 * @param outputStream
+	 * 		The output stream to write to
+	 * @param typeAndFlag
+	 * 		The block type, with the last-block flag
+	 * @param content
+	 * 		The content of the block
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static void writeBlock(ByteArrayOutputStream outputStream, int typeAndFlag, byte[] content) throws IOException {
+		outputStream.write(new byte[] { (byte) typeAndFlag, (byte) (content.length >>> 16), (byte) (content.length >>> 8), (byte) content.length });
+		outputStream.write(content);
+	}
+
+}
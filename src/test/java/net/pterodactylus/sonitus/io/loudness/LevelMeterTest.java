@@ -0,0 +1,61 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link LevelMeter}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class LevelMeterTest {
+
+	/**
+	 * Tests the levels of a stereo 1 kHz sine with a peak of -23 dBFS on the
+	 * left channel and silence on the right channel, split into odd-sized
+	 * chunks.
+	 */
+	@Test
+	public void testSineLevels() {
+		double amplitude = Math.pow(10, -23 / 20.0);
+		byte[] samples = new byte[48000 * 4 * 4];
+		for (int frame = 0; frame < (samples.length / 4); ++frame) {
+			int sample = (int) Math.round(Math.sin(2 * Math.PI * 1000 * frame / 48000) * amplitude * 32767);
+			samples[frame * 4] = (byte) sample;
+			samples[frame * 4 + 1] = (byte) (sample >> 8);
+		}
+		LevelMeter levelMeter = new LevelMeter(48000, 2);
+		assertThat(levelMeter.levels().momentaryLoudness(), is(Double.NEGATIVE_INFINITY));
+		for (int offset = 0; offset < samples.length; offset += 1001) {
+			levelMeter.process(samples, offset, Math.min(1001, samples.length - offset));
+		}
+		Levels levels = levelMeter.levels();
+		assertThat(levels.channels(), is(2));
+		assertThat(Math.abs(levels.peak(0) + 23) < 0.1, is(true));
+		assertThat(Math.abs(levels.rms(0) + 26.01) < 0.1, is(true));
+		assertThat(levels.peak(1), is(Double.NEGATIVE_INFINITY));
+		assertThat(levels.rms(1), is(Double.NEGATIVE_INFINITY));
+		assertThat(Math.abs(levels.momentaryLoudness() + 26.01) < 0.1, is(true));
+		assertThat(Math.abs(levels.shortTermLoudness() + 26.01) < 0.1, is(true));
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link LoudnessIndex}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class LoudnessIndexTest {
+
+	/**
+	 * Tests that a saved index is loaded with all analyses, and that the gain
+	 * is limited by the true peak.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testSavedIndexIsLoaded() throws IOException {
+		File directory = Files.createTempDir();
+		try {
+			File quietFile = createFile(directory, "quiet", 100);
+			File peakingFile = createFile(directory, "peaking", 200);
+			File indexFile = new File(directory, "index");
+			LoudnessIndex loudnessIndex = new LoudnessIndex(indexFile);
+			loudnessIndex.put(quietFile, quietFile.length(), quietFile.lastModified(), -29, -10);
+			loudnessIndex.put(peakingFile, peakingFile.length(), peakingFile.lastModified(), -29, -3);
+			loudnessIndex.save();
+
+			LoudnessIndex loadedIndex = new LoudnessIndex(indexFile);
+			assertThat(loadedIndex.size(), is(2));
+			assertThat(loadedIndex.contains(quietFile), is(true));
+			assertThat(loadedIndex.gain(quietFile), is(Optional.of(6.0)));
+			assertThat(loadedIndex.gain(peakingFile), is(Optional.of(2.0)));
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Tests that the analysis of a file whose size or modification time has
+	 * changed is not used.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testChangedFilesAreNotContained() throws IOException {
+		File directory = Files.createTempDir();
+		try {
+			File file = createFile(directory, "file", 100);
+			LoudnessIndex loudnessIndex = new LoudnessIndex(new File(directory, "index"));
+			loudnessIndex.put(file, file.length(), file.lastModified(), -20, -10);
+			assertThat(loudnessIndex.gain(file), is(Optional.of(-3.0)));
+
+			loudnessIndex.put(file, file.length() + 1, file.lastModified(), -20, -10);
+			assertThat(loudnessIndex.contains(file), is(false));
+			assertThat(loudnessIndex.gain(file), is(Optional.<Double>absent()));
+
+			loudnessIndex.put(file, file.length(), file.lastModified() - 2000, -20, -10);
+			assertThat(loudnessIndex.contains(file), is(false));
+			assertThat(loudnessIndex.gain(file), is(Optional.<Double>absent()));
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Tests that silent files and files that can not be decoded have no gain.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testUnmeasurableFilesHaveNoGain() throws IOException {
+		File directory = Files.createTempDir();
+		try {
+			File file = createFile(directory, "file", 100);
+			LoudnessIndex loudnessIndex = new LoudnessIndex(new File(directory, "index"));
+			loudnessIndex.put(file, file.length(), file.lastModified(), Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+			assertThat(loudnessIndex.contains(file), is(true));
+			assertThat(loudnessIndex.gain(file), is(Optional.<Double>absent()));
+			loudnessIndex.put(file, file.length(), file.lastModified(), Double.NaN, Double.NaN);
+			assertThat(loudnessIndex.contains(file), is(true));
+			assertThat(loudnessIndex.gain(file), is(Optional.<Double>absent()));
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	//
+	// STATIC METHODS
+	//
+
+	/**
+	 * Creates a file with the given size.
+	 *
+	 * @param directory
+	 * 		The directory to create the file in
+	 * @param name
+	 * 		The name of the file
+	 * @param size
+	 * 		The size of the file
+	 * @return The created file
+	 * @throws IOException
+	 * 		if the file can not be written
+	 */
+	private static File createFile(File directory, String name, int size) throws IOException {
+		File file = new File(directory, name);
+		Files.write(new byte[size], file);
+		return file;
+	}
+
+	/**
+	 * Deletes the given directory and the files in it.
+	 *
+	 * @param directory
+	 * 		The directory to delete
+	 */
+	static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+}
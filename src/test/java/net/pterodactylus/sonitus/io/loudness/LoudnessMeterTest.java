@@ -0,0 +1,139 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link LoudnessMeter}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class LoudnessMeterTest {
+
+	/**
+	 * Tests that a stereo 1 kHz sine with a peak of -23 dBFS has a loudness of
+	 * -23 LUFS, as required by EBU Tech 3341, and that the result does not
+	 * depend on how the samples are split.
+	 */
+	@Test
+	public void testSineLoudness() {
+		byte[] samples = sine(48000, 1000, Math.pow(10, -23 / 20.0), 0, 20);
+		LoudnessMeter loudnessMeter = new LoudnessMeter(48000, 2);
+		for (int offset = 0; offset < samples.length; offset += 1001) {
+			loudnessMeter.process(samples, offset, Math.min(1001, samples.length - offset));
+		}
+		assertThat(Math.abs(loudnessMeter.integratedLoudness() + 23) < 0.1, is(true));
+	}
+
+	/**
+	 * Tests that 24-bit samples are measured like 16-bit samples, even if the
+	 * samples are split.
+	 */
+	@Test
+	public void test24BitSineLoudness() {
+		byte[] samples = sine(48000, 1000, Math.pow(10, -23 / 20.0), 0, 20, 24);
+		LoudnessMeter loudnessMeter = new LoudnessMeter(48000, 2, 24);
+		for (int offset = 0; offset < samples.length; offset += 1001) {
+			loudnessMeter.process(samples, offset, Math.min(1001, samples.length - offset));
+		}
+		assertThat(Math.abs(loudnessMeter.integratedLoudness() + 23) < 0.1, is(true));
+		assertThat(Math.abs(loudnessMeter.truePeak() + 23) < 0.2, is(true));
+	}
+
+	/** Tests that silence preceding a signal is gated. */
+	@Test
+	public void testSilenceIsGated() {
+		byte[] samples = sine(44100, 1000, Math.pow(10, -20 / 20.0), 0, 10);
+		LoudnessMeter loudnessMeter = new LoudnessMeter(44100, 2);
+		loudnessMeter.process(new byte[44100 * 4 * 10], 0, 44100 * 4 * 10);
+		assertThat(loudnessMeter.integratedLoudness(), is(Double.NEGATIVE_INFINITY));
+		loudnessMeter.process(samples, 0, samples.length);
+		assertThat(Math.abs(loudnessMeter.integratedLoudness() + 20) < 0.1, is(true));
+	}
+
+	/**
+	 * Tests that the true peak of a sine at a quarter of the sampling rate
+	 * whose samples miss its peaks is found.
+	 */
+	@Test
+	public void testTruePeak() {
+		byte[] samples = sine(48000, 12000, 0.5, Math.PI / 4, 1);
+		LoudnessMeter loudnessMeter = new LoudnessMeter(48000, 2);
+		loudnessMeter.process(samples, 0, samples.length);
+		assertThat(Math.abs(loudnessMeter.truePeak() - 20 * Math.log10(0.5)) < 0.2, is(true));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Creates stereo samples of a sine.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param sineFrequency
+	 * 		The frequency of the sine
+	 * @param amplitude
+	 * 		The amplitude of the sine (relative to full scale)
+	 * @param phase
+	 * 		The phase of the first sample
+	 * @param seconds
+	 * 		The duration of the samples
+	 * @return The samples
+	 */
+	private static byte[] sine(int frequency, int sineFrequency, double amplitude, double phase, int seconds) {
+		return sine(frequency, sineFrequency, amplitude, phase, seconds, 16);
+	}
+
+	/**
+	 * Creates stereo samples of a sine.
+	 *
+	 * @param frequency
+	 * 		The sampling frequency
+	 * @param sineFrequency
+	 * 		The frequency of the sine
+	 * @param amplitude
+	 * 		The amplitude of the sine (relative to full scale)
+	 * @param phase
+	 * 		The phase of the first sample
+	 * @param seconds
+	 * 		The duration of the samples
+	 * @param sampleWidth
+	 * 		The width of a sample (16 or 24 bits)
+	 * @return The samples
+	 */
+	private static byte[] sine(int frequency, int sineFrequency, double amplitude, double phase, int seconds, int sampleWidth) {
+		int sampleSize = sampleWidth / 8;
+		byte[] samples = new byte[frequency * seconds * 2 * sampleSize];
+		for (int frame = 0; frame < (frequency * seconds); ++frame) {
+			int sample = (int) Math.round(Math.sin(2 * Math.PI * sineFrequency * frame / frequency + phase) * amplitude * ((1 << (sampleWidth - 1)) - 1));
+			for (int channel = 0; channel < 2; ++channel) {
+				for (int index = 0; index < sampleSize; ++index) {
+					samples[(frame * 2 + channel) * sampleSize + index] = (byte) (sample >> (index * 8));
+				}
+			}
+		}
+		return samples;
+	}
+
+}
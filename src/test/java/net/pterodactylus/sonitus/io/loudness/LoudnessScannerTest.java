@@ -0,0 +1,113 @@
+/*
+ * Sonitus - Drainer.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.loudness;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.io.Files;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link LoudnessScanner}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class LoudnessScannerTest {
+
+	/**
+	 * Tests that a rescan only analyzes files that have changed since the last
+	 * scan, and that files that have been removed are removed from the index.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test files can not be located
+	 */
+	@Test
+	public void testRescanOnlyAnalyzesChangedFiles() throws IOException, URISyntaxException {
+		File directory = Files.createTempDir();
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			File mp3File = copyResource("/net/pterodactylus/sonitus/io/mp3/mpeg1.mp3", directory);
+			File flacFile = copyResource("/net/pterodactylus/sonitus/io/flac/sine.flac", directory);
+			File textFile = new File(directory, "notes.txt");
+			Files.write(new byte[100], textFile);
+			File indexFile = File.createTempFile("loudness-index-", ".idx");
+			indexFile.delete();
+			try {
+				LoudnessIndex loudnessIndex = new LoudnessIndex(indexFile);
+				LoudnessScanner loudnessScanner = new LoudnessScanner(loudnessIndex, executorService);
+				assertThat(loudnessScanner.scan(directory), is(2));
+				assertThat(loudnessIndex.size(), is(3));
+				assertThat(loudnessIndex.gain(mp3File).isPresent(), is(true));
+				assertThat(loudnessIndex.gain(flacFile).isPresent(), is(true));
+				assertThat(loudnessIndex.gain(textFile).isPresent(), is(false));
+
+				/* nothing has changed. */
+				assertThat(loudnessScanner.scan(directory), is(0));
+
+				/* a new scanner with the saved index does not analyze anything, either. */
+				LoudnessIndex loadedIndex = new LoudnessIndex(indexFile);
+				assertThat(new LoudnessScanner(loadedIndex, executorService).scan(directory), is(0));
+
+				mp3File.setLastModified(mp3File.lastModified() - 10000);
+				flacFile.delete();
+				assertThat(loudnessScanner.scan(directory), is(1));
+				assertThat(loudnessIndex.size(), is(2));
+				assertThat(loudnessIndex.contains(mp3File), is(true));
+			} finally {
+				indexFile.delete();
+			}
+		} finally {
+			executorService.shutdown();
+			LoudnessIndexTest.deleteDirectory(directory);
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Copies the resource with the given name into the given directory.
+	 *
+	 * @param name
+	 * 		The name of the resource
+	 * @param directory
+	 * 		The directory to copy the resource to
+	 * @return The copied file
+	 * @throws IOException
+	 * 		if the resource can not be copied
+	 * @throws URISyntaxException
+	 * 		if the resource can not be located
+	 */
+	private File copyResource(String name, File directory) throws IOException, URISyntaxException {
+		File resource = new File(getClass().getResource(name).toURI());
+		File file = new File(directory, resource.getName());
+		Files.copy(resource, file);
+		return file;
+	}
+
+}
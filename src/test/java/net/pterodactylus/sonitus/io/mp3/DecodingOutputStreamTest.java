@@ -0,0 +1,190 @@
+/*
+ * Sonitus - DecodingOutputStreamTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link DecodingOutputStream} and {@link Layer3Decoder}. The
+ * reference PCM files were created by the LAME decoder, which removes the
+ * encoder delay (576 samples) and the decoder delay (529 samples) from its
+ * output; the decoded samples have to match the reference samples within the
+ * ±1 LSB allowed for fully accurate decoders by ISO/IEC 11172-4.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class DecodingOutputStreamTest {
+
+	/** The delay of the decoded samples compared to the reference samples. */
+	private static final int DELAY = 576 + 529;
+
+	/**
+	 * Returns test data for {@link #testDecoding(String, int)}.
+	 *
+	 * @return Test data for {@link #testDecoding(String, int)}
+	 */
+	@DataProvider(name = "testData")
+	public Object[][] getDecodingTestParameters() {
+		return new Object[][] {
+				{ "mpeg1", 2 },
+				{ "mpeg2", 2 },
+				{ "mpeg25", 1 }
+		};
+	}
+
+	/**
+	 * Tests that the decoded samples match the reference samples.
+	 *
+	 * @param name
+	 * 		The name of the test files
+	 * @param channels
+	 * 		The number of channels
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test(dataProvider = "testData")
+	public void testDecoding(String name, int channels) throws IOException {
+		byte[] encoded = readResource(name + ".mp3");
+		byte[] reference = readResource(name + ".pcm");
+		byte[] decoded = decode(encoded, encoded.length, false);
+		assertThat(maximumDifference(decoded, DELAY * channels * 2, reference, false, channels) <= 1, is(true));
+	}
+
+	/**
+	 * Tests that big-endian samples are written if requested.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testBigEndianDecoding() throws IOException {
+		byte[] encoded = readResource("mpeg1.mp3");
+		byte[] reference = readResource("mpeg1.pcm");
+		byte[] decoded = decode(encoded, encoded.length, true);
+		assertThat(maximumDifference(decoded, DELAY * 2 * 2, reference, true, 2) <= 1, is(true));
+	}
+
+	/**
+	 * Tests that an ID3v2 tag and garbage in front of the first frame are
+	 * skipped, and that the output does not depend on how the stream is split
+	 * into writes.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testTagAndGarbageAreSkipped() throws IOException {
+		byte[] encoded = readResource("mpeg2.mp3");
+		byte[] tag = { 'I', 'D', '3', 3, 0, 0, 0, 0, 0, 5, (byte) 0xff, (byte) 0xfb, 0, 0, 0 };
+		byte[] garbage = { 1, (byte) 0xff, (byte) 0xf3, 2, 3, (byte) 0xff };
+		byte[] stream = new byte[tag.length + garbage.length + encoded.length];
+		System.arraycopy(tag, 0, stream, 0, tag.length);
+		System.arraycopy(garbage, 0, stream, tag.length, garbage.length);
+		System.arraycopy(encoded, 0, stream, tag.length + garbage.length, encoded.length);
+		assertThat(decode(stream, 7, false), is(decode(encoded, encoded.length, false)));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Decodes the given MP3 stream.
+	 *
+	 * @param encoded
+	 * 		The MP3 stream
+	 * @param chunkSize
+	 * 		The number of bytes to write at once
+	 * @param bigEndian
+	 * 		{@code true} to decode to big-endian samples, {@code false} to decode
+	 * 		to little-endian samples
+	 * @return The decoded samples
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static byte[] decode(byte[] encoded, int chunkSize, boolean bigEndian) throws IOException {
+		ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+		DecodingOutputStream decodingOutputStream = new DecodingOutputStream(pcm, bigEndian);
+		for (int offset = 0; offset < encoded.length; offset += chunkSize) {
+			decodingOutputStream.write(encoded, offset, Math.min(chunkSize, encoded.length - offset));
+		}
+		decodingOutputStream.close();
+		return pcm.toByteArray();
+	}
+
+	/**
+	 * Returns the maximum difference between the decoded samples and the
+	 * little-endian reference samples. Only the samples that are present in
+	 * both buffers are compared; that has to be all but the last frame of the
+	 * reference samples.
+	 *
+	 * @param decoded
+	 * 		The decoded samples
+	 * @param offset
+	 * 		The offset of the decoded sample that corresponds to the first
+	 * 		reference sample (in bytes)
+	 * @param reference
+	 * 		The reference samples
+	 * @param bigEndian
+	 * 		{@code true} if the decoded samples are big-endian
+	 * @param channels
+	 * 		The number of channels
+	 * @return The maximum difference between two samples
+	 */
+	private static int maximumDifference(byte[] decoded, int offset, byte[] reference, boolean bigEndian, int channels) {
+		int samples = Math.min(decoded.length - offset, reference.length) / 2;
+		assertThat(samples > ((reference.length / 2) - (1152 * channels)), is(true));
+		int maximumDifference = 0;
+		for (int sample = 0; sample < samples; ++sample) {
+			int decodedIndex = offset + sample * 2;
+			int decodedSample = bigEndian ? ((decoded[decodedIndex] << 8) | (decoded[decodedIndex + 1] & 0xff)) : ((decoded[decodedIndex + 1] << 8) | (decoded[decodedIndex] & 0xff));
+			int referenceSample = (reference[sample * 2 + 1] << 8) | (reference[sample * 2] & 0xff);
+			maximumDifference = Math.max(maximumDifference, Math.abs(decodedSample - referenceSample));
+		}
+		return maximumDifference;
+	}
+
+	/**
+	 * Reads the resource with the given name.
+	 *
+	 * @param name
+	 * 		The name of the resource
+	 * @return The content of the resource
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private byte[] readResource(String name) throws IOException {
+		InputStream inputStream = getClass().getResourceAsStream(name);
+		try {
+			return ByteStreams.toByteArray(inputStream);
+		} finally {
+			Closeables.close(inputStream, true);
+		}
+	}
+
+}
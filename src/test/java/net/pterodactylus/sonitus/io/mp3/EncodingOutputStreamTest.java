@@ -0,0 +1,184 @@
+/*
+ * Sonitus - EncodingOutputStreamTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link EncodingOutputStream} and {@link Layer3Encoder}. The encoded
+ * streams are decoded using {@link DecodingOutputStream} and compared to the
+ * original samples.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class EncodingOutputStreamTest {
+
+	/**
+	 * Returns test data for {@link #testEncoding(int, int, int)}.
+	 *
+	 * @return Test data for {@link #testEncoding(int, int, int)}
+	 */
+	@DataProvider(name = "testData")
+	public Object[][] getEncodingTestParameters() {
+		return new Object[][] {
+				{ 44100, 2, 128 },
+				{ 22050, 1, 32 },
+				{ 8000, 2, 24 }
+		};
+	}
+
+	/**
+	 * Tests that the decoded samples match the original samples with a
+	 * signal-to-noise ratio of at least 20 dB.
+	 *
+	 * @param samplingRate
+	 * 		The sampling rate
+	 * @param channels
+	 * 		The number of channels
+	 * @param bitrate
+	 * 		The bitrate (in kbps)
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test(dataProvider = "testData")
+	public void testEncoding(int samplingRate, int channels, int bitrate) throws IOException {
+		byte[] pcm = createSamples(samplingRate, channels, samplingRate);
+		ByteArrayOutputStream mp3 = new ByteArrayOutputStream();
+		EncodingOutputStream encodingOutputStream = new EncodingOutputStream(mp3, samplingRate, channels, bitrate, false);
+		encodingOutputStream.write(pcm);
+		encodingOutputStream.close();
+
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+		DecodingOutputStream decodingOutputStream = new DecodingOutputStream(decoded, false);
+		decodingOutputStream.write(mp3.toByteArray());
+		decodingOutputStream.close();
+		byte[] decodedPcm = decoded.toByteArray();
+		assertThat(decodedPcm.length >= (pcm.length + Layer3Encoder.DELAY * channels * 2), is(true));
+
+		double signal = 0;
+		double noise = 0;
+		for (int sample = 0; sample < pcm.length / 2; ++sample) {
+			int original = readSample(pcm, sample * 2);
+			int difference = readSample(decodedPcm, (sample + Layer3Encoder.DELAY * channels) * 2) - original;
+			signal += (double) original * original;
+			noise += (double) difference * difference;
+		}
+		assertThat(10 * Math.log10(signal / noise) > 20, is(true));
+	}
+
+	/**
+	 * Tests that encoding a ladder of bitrates on multiple threads creates the
+	 * same streams as encoding every bitrate on its own in a single thread.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testParallelLadderEncoding() throws IOException {
+		byte[] pcm = createSamples(44100, 2, 20000);
+		ExecutorService executorService = Executors.newFixedThreadPool(3);
+		try {
+			ByteArrayOutputStream lowBitrate = new ByteArrayOutputStream();
+			ByteArrayOutputStream highBitrate = new ByteArrayOutputStream();
+			EncodingOutputStream encodingOutputStream = new EncodingOutputStream(ImmutableMap.<Integer, OutputStream>of(64, lowBitrate, 192, highBitrate), 44100, 2, false).executorService(executorService, 3).framesPerTask(2);
+			for (int offset = 0; offset < pcm.length; offset += 1001) {
+				encodingOutputStream.write(pcm, offset, Math.min(1001, pcm.length - offset));
+			}
+			encodingOutputStream.close();
+			assertThat(lowBitrate.toByteArray(), is(encode(pcm, 64)));
+			assertThat(highBitrate.toByteArray(), is(encode(pcm, 192)));
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Encodes the given samples in a single thread.
+	 *
+	 * @param pcm
+	 * 		The stereo samples at 44.1 kHz
+	 * @param bitrate
+	 * 		The bitrate (in kbps)
+	 * @return The encoded stream
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static byte[] encode(byte[] pcm, int bitrate) throws IOException {
+		ByteArrayOutputStream mp3 = new ByteArrayOutputStream();
+		EncodingOutputStream encodingOutputStream = new EncodingOutputStream(mp3, 44100, 2, bitrate, false);
+		encodingOutputStream.write(pcm);
+		encodingOutputStream.close();
+		return mp3.toByteArray();
+	}
+
+	/**
+	 * Creates little-endian 16-bit samples of two sines and a little noise.
+	 *
+	 * @param samplingRate
+	 * 		The sampling rate
+	 * @param channels
+	 * 		The number of channels
+	 * @param samples
+	 * 		The number of samples per channel
+	 * @return The samples
+	 */
+	private static byte[] createSamples(int samplingRate, int channels, int samples) {
+		byte[] pcm = new byte[samples * channels * 2];
+		int noise = 1;
+		for (int sample = 0; sample < samples; ++sample) {
+			for (int channel = 0; channel < channels; ++channel) {
+				noise = noise * 1103515245 + 12345;
+				double value = 0.4 * Math.sin(2 * Math.PI * 330 * sample / samplingRate) + 0.2 * Math.sin(2 * Math.PI * (1200 + channel * 100) * sample / samplingRate) + 0.001 * (noise >> 16) / 32768.0;
+				int position = (sample * channels + channel) * 2;
+				int intValue = (int) Math.round(value * 32767);
+				pcm[position] = (byte) intValue;
+				pcm[position + 1] = (byte) (intValue >> 8);
+			}
+		}
+		return pcm;
+	}
+
+	/**
+	 * Reads a little-endian 16-bit sample.
+	 *
+	 * @param pcm
+	 * 		The samples
+	 * @param position
+	 * 		The position of the sample (in bytes)
+	 * @return The sample
+	 */
+	private static int readSample(byte[] pcm, int position) {
+		return (pcm[position + 1] << 8) | (pcm[position] & 0xff);
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Sonitus - FrameAlignerTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link FrameAligner}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FrameAlignerTest {
+
+	/**
+	 * Tests that an ID3v2 tag and garbage between frames are removed and that
+	 * only complete frames are returned, regardless of how the stream is split.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testFramesAreAligned() throws IOException {
+		byte[] encoded = readResource("mpeg1.mp3");
+		byte[] corrupted = corrupt(encoded);
+		FrameAligner frameAligner = new FrameAligner(true);
+		ByteArrayOutputStream aligned = new ByteArrayOutputStream();
+		int frames = 0;
+		long duration = 0;
+		for (int position = 0; position < corrupted.length; position += 100) {
+			frameAligner.write(corrupted, position, Math.min(100, corrupted.length - position));
+			frames += frameAligner.frames();
+			duration += frameAligner.duration();
+			byte[] completeFrames = frameAligner.takeFrames();
+			assertThat(completeFrames.length == 0 || Frame.isFrame(completeFrames, 0, completeFrames.length), is(true));
+			aligned.write(completeFrames);
+		}
+		assertThat(Arrays.equals(aligned.toByteArray(), encoded), is(true));
+		assertThat(frames, is(25));
+		assertThat(Math.abs(duration - 25 * 1152 * 1000000L / 44100) <= 25, is(true));
+	}
+
+	/**
+	 * Tests that garbage between frames causes an exception if
+	 * resynchronization is disabled.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test(expectedExceptions = IOException.class)
+	public void testGarbageFailsWithoutResync() throws IOException {
+		byte[] corrupted = corrupt(readResource("mpeg1.mp3"));
+		new FrameAligner(false).write(corrupted, 0, corrupted.length);
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Prepends an empty ID3v2 tag to the given stream and inserts garbage after
+	 * its third frame.
+	 *
+	 * @param encoded
+	 * 		The MP3 stream
+	 * @return The corrupted stream
+	 */
+	private byte[] corrupt(byte[] encoded) {
+		int thirdFrame = 0;
+		for (int frame = 0; frame < 3; ++frame) {
+			thirdFrame += Frame.getFrameLength(encoded, thirdFrame);
+		}
+		ByteArrayOutputStream corrupted = new ByteArrayOutputStream();
+		corrupted.write(new byte[] { 'I', 'D', '3', 4, 0, 0, 0, 0, 0, 20 }, 0, 10);
+		corrupted.write(new byte[20], 0, 20);
+		corrupted.write(encoded, 0, thirdFrame);
+		corrupted.write(new byte[123], 0, 123);
+		corrupted.write(encoded, thirdFrame, encoded.length - thirdFrame);
+		return corrupted.toByteArray();
+	}
+
+	/**
+	 * Reads the resource with the given name.
+	 *
+	 * @param name
+	 * 		The name of the resource
+	 * @return The content of the resource
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private byte[] readResource(String name) throws IOException {
+		InputStream inputStream = getClass().getResourceAsStream(name);
+		try {
+			return ByteStreams.toByteArray(inputStream);
+		} finally {
+			Closeables.close(inputStream, true);
+		}
+	}
+
+}
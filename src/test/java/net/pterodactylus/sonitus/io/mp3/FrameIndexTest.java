@@ -0,0 +1,68 @@
+/*
+ * Sonitus - FrameIndexTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import com.google.common.io.Files;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link FrameIndex}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class FrameIndexTest {
+
+	/**
+	 * Tests that the index points to frame headers, skips the Info frame, and
+	 * survives being stored and loaded.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 * @throws URISyntaxException
+	 * 		if the test file can not be located
+	 */
+	@Test
+	public void testIndexPointsToFrames() throws IOException, URISyntaxException {
+		File mp3File = new File(getClass().getResource("mpeg1.mp3").toURI());
+		byte[] encoded = Files.toByteArray(mp3File);
+		File indexFile = File.createTempFile("frame-index-", ".idx");
+		try {
+			FrameIndex.create(mp3File, 4).save(indexFile);
+			FrameIndex frameIndex = FrameIndex.load(indexFile);
+			assertThat(frameIndex.isCurrent(mp3File), is(true));
+			assertThat(frameIndex.size(), is(6));
+			assertThat(frameIndex.offset(0), is(417L));
+			assertThat(frameIndex.samplePosition(5 * 1152), is(4 * 1152L));
+			for (long samplePosition = 0; samplePosition < 24 * 1152; samplePosition += 1000) {
+				long offset = frameIndex.offset(samplePosition);
+				assertThat(FrameView.frameLength(encoded, (int) offset, encoded.length - (int) offset) > 0, is(true));
+				assertThat(frameIndex.samplePosition(samplePosition) <= samplePosition, is(true));
+			}
+		} finally {
+			indexFile.delete();
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Sonitus - Mp3InfoTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.pterodactylus.sonitus.io.mp3.InfoHeader.Type;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Mp3Info} and {@link InfoHeader}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Mp3InfoTest {
+
+	/**
+	 * Tests that the duration is read from the Info header and its LAME
+	 * extension, and matches the number of samples decoded by LAME.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testDurationIsReadFromInfoHeader() throws IOException {
+		byte[] encoded = readResource("mpeg1.mp3");
+		Mp3Info mp3Info = Mp3Info.read(new ByteArrayInputStream(encoded), encoded.length);
+		assertThat(mp3Info.exact(), is(true));
+		InfoHeader infoHeader = mp3Info.infoHeader().get();
+		assertThat(infoHeader.type(), is(Type.INFO));
+		assertThat(infoHeader.frames().get(), is(24));
+		assertThat(infoHeader.bytes().get(), is((long) encoded.length));
+		assertThat(infoHeader.encoderDelay(), is(576));
+		assertThat(infoHeader.samples().get(), is(readResource("mpeg1.pcm").length / 4L));
+		assertThat(mp3Info.duration(), is(600000L));
+	}
+
+	/**
+	 * Tests that the duration of a stream without info header is estimated
+	 * from the bitrate of its frames.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testDurationIsEstimatedWithoutInfoHeader() throws IOException {
+		byte[] encoded = readResource("mpeg25.mp3");
+		Mp3Info mp3Info = Mp3Info.read(new ByteArrayInputStream(encoded), encoded.length);
+		assertThat(mp3Info.exact(), is(false));
+		assertThat(mp3Info.infoHeader().isPresent(), is(false));
+		assertThat(mp3Info.duration(), is(11 * 72000L));
+	}
+
+	/**
+	 * Tests that the position estimated for an offset is the inverse of the
+	 * offset estimated for a position, both with a table of contents and from
+	 * the bitrate, and that the first audio frame is at position 0.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testPositionIsInverseOfOffset() throws IOException {
+		for (String name : new String[] { "mpeg1.mp3", "mpeg25.mp3" }) {
+			byte[] encoded = readResource(name);
+			Mp3Info mp3Info = Mp3Info.read(new ByteArrayInputStream(encoded), encoded.length);
+			assertThat(mp3Info.position(mp3Info.offset(0)), is(0L));
+			for (long offset = encoded.length / 10; offset < encoded.length; offset += encoded.length / 10) {
+				assertThat(Math.abs(mp3Info.offset(mp3Info.position(offset)) - offset) < 4, is(true));
+			}
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Reads the resource with the given name.
+	 *
+	 * @param name
+	 * 		The name of the resource
+	 * @return The content of the resource
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private byte[] readResource(String name) throws IOException {
+		InputStream inputStream = getClass().getResourceAsStream(name);
+		try {
+			return ByteStreams.toByteArray(inputStream);
+		} finally {
+			Closeables.close(inputStream, true);
+		}
+	}
+
+}
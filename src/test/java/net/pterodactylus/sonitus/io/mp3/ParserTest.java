@@ -0,0 +1,94 @@
+/*
+ * Sonitus - ParserTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.mp3;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Parser} and {@link FrameView}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ParserTest {
+
+	/**
+	 * Tests that the ID3v2 tag is returned and that all frames are found.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testAllFramesAreFound() throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		stream.write(new byte[] { 'I', 'D', '3', 4, 0, 0, 0, 0, 0, 20 }, 0, 10);
+		stream.write(new byte[20], 0, 20);
+		stream.write(readResource("mpeg1.mp3"));
+		Parser parser = new Parser(new ByteArrayInputStream(stream.toByteArray()));
+		assertThat(parser.getId3Tag().get().length, is(30));
+		int frames = 0;
+		int length = 0;
+		try {
+			while (true) {
+				FrameView frameView = parser.nextFrameView();
+				assertThat(frameView.samplingRate(), is(44100));
+				assertThat(frameView.bitrate(), is(frameView.toFrame().bitrate()));
+				assertThat(frameView.frameLength(), is(frameView.toFrame().content().length + 4));
+				++frames;
+				length += frameView.frameLength();
+			}
+		} catch (EOFException eofe1) {
+			/* all frames read. */
+		}
+		assertThat(frames, is(25));
+		assertThat(length, is(stream.size() - 30));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Reads the resource with the given name.
+	 *
+	 * @param name
+	 * 		The name of the resource
+	 * @return The content of the resource
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private byte[] readResource(String name) throws IOException {
+		InputStream inputStream = getClass().getResourceAsStream(name);
+		try {
+			return ByteStreams.toByteArray(inputStream);
+		} finally {
+			Closeables.close(inputStream, true);
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Sonitus - ResamplerTest.java - Copyright © 2013 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sonitus.io.resample;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.pterodactylus.sonitus.io.resample.Resampler.Quality;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Test for {@link Resampler} and {@link FilterTable}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ResamplerTest {
+
+	/**
+	 * Returns test data for {@link #testSineWave(int, int)}.
+	 *
+	 * @return Test data for {@link #testSineWave(int, int)}
+	 */
+	@DataProvider(name = "testData")
+	public Object[][] getSineWaveTestParameters() {
+		return new Object[][] {
+				{ 44100, 48000 },
+				{ 48000, 44100 },
+				{ 44100, 22050 },
+				{ 8000, 44100 }
+		};
+	}
+
+	/**
+	 * Tests that a resampled 1 kHz sine wave matches the ideal sine wave at the
+	 * output sampling rate, and that the number of output samples matches the
+	 * number of input samples.
+	 *
+	 * @param inputRate
+	 * 		The input sampling rate
+	 * @param outputRate
+	 * 		The output sampling rate
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test(dataProvider = "testData")
+	public void testSineWave(int inputRate, int outputRate) throws IOException {
+		float[] resampled = resample(sine(1000, inputRate, inputRate / 2), inputRate, outputRate);
+		assertThat(resampled.length, is(outputRate / 2));
+		assertThat(signalToNoiseRatio(resampled, 1000, outputRate) > 90, is(true));
+	}
+
+	/**
+	 * Tests that frequencies above the output Nyquist frequency are removed.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testAliasingIsSuppressed() throws IOException {
+		float[] resampled = resample(sine(15000, 44100, 22050), 44100, 22050);
+		double energy = 0;
+		for (int sample = 200; sample < resampled.length - 200; ++sample) {
+			energy += resampled[sample] * resampled[sample];
+		}
+		assertThat(energy / (resampled.length - 400) < 1e-6 * 0.5, is(true));
+	}
+
+	/**
+	 * Tests that resampling the channels in parallel creates the same samples
+	 * as resampling them sequentially.
+	 *
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	@Test
+	public void testParallelResampling() throws IOException {
+		float[][] input = { sine(1000, 44100, 10000), sine(3000, 44100, 10000) };
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		try {
+			Resampler sequential = new Resampler(44100, 48000, 2, Quality.HIGH);
+			Resampler parallel = new Resampler(44100, 48000, 2, Quality.HIGH).executorService(executorService);
+			float[][] sequentialOutput = new float[2][sequential.maximumOutputSamples(10000)];
+			float[][] parallelOutput = new float[2][parallel.maximumOutputSamples(10000)];
+			assertThat(parallel.process(input, 0, 10000, parallelOutput), is(sequential.process(input, 0, 10000, sequentialOutput)));
+			assertThat(Arrays.equals(parallelOutput[0], sequentialOutput[0]), is(true));
+			assertThat(Arrays.equals(parallelOutput[1], sequentialOutput[1]), is(true));
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	/** Tests that filter tables are shared between resamplers. */
+	@Test
+	public void testFilterTablesAreCached() {
+		assertThat(FilterTable.get(44100, 48000, Quality.HIGH), sameInstance(FilterTable.get(44100, 48000, Quality.HIGH)));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Creates a sine wave with an amplitude of 1.
+	 *
+	 * @param frequency
+	 * 		The frequency of the sine wave
+	 * @param rate
+	 * 		The sampling rate
+	 * @param samples
+	 * 		The number of samples to create
+	 * @return The sine wave
+	 */
+	private static float[] sine(double frequency, int rate, int samples) {
+		float[] sine = new float[samples];
+		for (int sample = 0; sample < samples; ++sample) {
+			sine[sample] = (float) Math.sin(2 * Math.PI * frequency * sample / rate);
+		}
+		return sine;
+	}
+
+	/**
+	 * Resamples a single channel in blocks of 1000 samples.
+	 *
+	 * @param samples
+	 * 		The samples to resample
+	 * @param inputRate
+	 * 		The input sampling rate
+	 * @param outputRate
+	 * 		The output sampling rate
+	 * @return The resampled samples
+	 * @throws IOException
+	 * 		if an I/O error occurs
+	 */
+	private static float[] resample(float[] samples, int inputRate, int outputRate) throws IOException {
+		Resampler resampler = new Resampler(inputRate, outputRate, 1, Quality.HIGH);
+		float[][] output = new float[1][resampler.maximumOutputSamples(1000)];
+		float[] resampled = new float[0];
+		for (int offset = 0; offset < samples.length; offset += 1000) {
+			resampled = append(resampled, output[0], resampler.process(new float[][] { samples }, offset, Math.min(1000, samples.length - offset), output));
+		}
+		return append(resampled, output[0], resampler.flush(output));
+	}
+
+	/**
+	 * Appends samples to an array.
+	 *
+	 * @param array
+	 * 		The array to append to
+	 * @param samples
+	 * 		The samples to append
+	 * @param count
+	 * 		The number of samples to append
+	 * @return The new array
+	 */
+	private static float[] append(float[] array, float[] samples, int count) {
+		float[] newArray = Arrays.copyOf(array, array.length + count);
+		System.arraycopy(samples, 0, newArray, array.length, count);
+		return newArray;
+	}
+
+	/**
+	 * Returns the signal-to-noise ratio of a resampled sine wave, ignoring the
+	 * samples at the beginning and the end.
+	 *
+	 * @param samples
+	 * 		The resampled samples
+	 * @param frequency
+	 * 		The frequency of the sine wave
+	 * @param rate
+	 * 		The sampling rate of the resampled samples
+	 * @return The signal-to-noise ratio (in dB)
+	 */
+	private static double signalToNoiseRatio(float[] samples, double frequency, int rate) {
+		double signal = 0;
+		double noise = 0;
+		for (int sample = 200; sample < samples.length - 200; ++sample) {
+			double ideal = Math.sin(2 * Math.PI * frequency * sample / rate);
+			signal += ideal * ideal;
+			noise += (samples[sample] - ideal) * (samples[sample] - ideal);
+		}
+		return 10 * Math.log10(signal / noise);
+	}
+
+}